@@ -11,6 +11,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.Collection;
 import java.util.Set;
 
@@ -31,6 +32,18 @@ public class CachedContentIndexTest extends InstrumentationTestCase {
       0, 0, 0, 0, 0, 0, 10, 0, // original_content_length
       (byte) 0xF6, (byte) 0xFB, 0x50, 0x41 // hashcode_of_CachedContent_array
   };
+  private final byte[] testIndexV2File = {
+      0, 0, 0, 2, // version
+      0, 0, 0, 0, // flags
+      0, 0, 0, 2, // number_of_CachedContent
+      0, 0, 0, 5, // cache_id
+      0, 5, 65, 66, 67, 68, 69, // cache_key
+      0, 0, 0, 0, 0, 0, 0, 10, // original_content_length
+      0, 0, 0, 2, // cache_id
+      0, 5, 75, 76, 77, 78, 79, // cache_key
+      0, 0, 0, 0, 0, 0, 10, 0, // original_content_length
+      (byte) 0xF6, (byte) 0xFB, 0x50, 0x41 // hashcode_of_CachedContent_array
+  };
   private CachedContentIndex index;
   private File cacheDir;
 
@@ -114,21 +127,115 @@ public class CachedContentIndexTest extends InstrumentationTestCase {
     assertThat(index.getContentLength("KLMNO")).isEqualTo(2560);
   }
 
-  public void testStoreV1() throws Exception {
+  public void testLoadV1AndStoreRewritesV2() throws Exception {
+    FileOutputStream fos = new FileOutputStream(new File(cacheDir, CachedContentIndex.FILE_NAME));
+    fos.write(testIndexV1File);
+    fos.close();
+
+    index.load();
+    index.setContentLength("ABCDE", 20);
+    index.store();
+
+    CachedContentIndex index2 = new CachedContentIndex(cacheDir);
+    index2.load();
+    assertThat(index2.getContentLength("ABCDE")).isEqualTo(20);
+    assertThat(index2.getContentLength("KLMNO")).isEqualTo(2560);
+    byte[] header = new byte[4];
+    FileInputStream fis = new FileInputStream(new File(cacheDir, CachedContentIndex.FILE_NAME));
+    assertThat(fis.read(header)).isEqualTo(4);
+    fis.close();
+    assertThat(header).isEqualTo(new byte[] {0, 0, 0, 2});
+  }
+
+  public void testStoreV2() throws Exception {
     index.addNew(new CachedContent(2, "KLMNO", 2560));
     index.addNew(new CachedContent(5, "ABCDE", 10));
 
     index.store();
 
-    byte[] buffer = new byte[testIndexV1File.length];
+    byte[] buffer = new byte[testIndexV2File.length];
     FileInputStream fos = new FileInputStream(new File(cacheDir, CachedContentIndex.FILE_NAME));
-    assertThat(fos.read(buffer)).isEqualTo(testIndexV1File.length);
+    assertThat(fos.read(buffer)).isEqualTo(testIndexV2File.length);
     assertThat(fos.read()).isEqualTo(-1);
     fos.close();
 
     // TODO: The order of the CachedContent stored in index file isn't defined so this test may fail
     // on a different implementation of the underlying set
-    assertThat(buffer).isEqualTo(testIndexV1File);
+    assertThat(buffer).isEqualTo(testIndexV2File);
+  }
+
+  public void testStoreAppendsChangesToJournal() throws Exception {
+    index.load();
+    for (int i = 0; i < 100; i++) {
+      index.getOrAdd("key" + i);
+    }
+    index.store();
+    File indexFile = new File(cacheDir, CachedContentIndex.FILE_NAME);
+    long snapshotLength = indexFile.length();
+
+    index.setContentLength("key5", 50);
+    index.maybeRemove("key6");
+    index.store();
+
+    // The changes are appended, rather than the whole index being rewritten.
+    assertThat(indexFile.length()).isGreaterThan(snapshotLength);
+    assertThat(indexFile.length()).isLessThan(snapshotLength + 64);
+
+    CachedContentIndex index2 = new CachedContentIndex(cacheDir);
+    index2.load();
+    assertThat(index2.getKeys()).isEqualTo(index.getKeys());
+    assertThat(index2.get("key6")).isNull();
+    assertThat(index2.getContentLength("key5")).isEqualTo(50);
+    assertThat(index2.assignIdForKey("key7")).isEqualTo(index.assignIdForKey("key7"));
+  }
+
+  public void testStoreCompactsJournal() throws Exception {
+    index.load();
+    index.getOrAdd("key");
+    index.store();
+    File indexFile = new File(cacheDir, CachedContentIndex.FILE_NAME);
+    long snapshotLength = indexFile.length();
+
+    long maxLength = 0;
+    for (int i = 0; i < 1000; i++) {
+      index.setContentLength("key", i);
+      index.store();
+      maxLength = Math.max(maxLength, indexFile.length());
+    }
+
+    // The journal is compacted periodically, so the file doesn't grow without bound.
+    assertThat(maxLength).isGreaterThan(snapshotLength);
+    assertThat(maxLength).isLessThan(snapshotLength + 300 * 64);
+    CachedContentIndex index2 = new CachedContentIndex(cacheDir);
+    index2.load();
+    assertThat(index2.getContentLength("key")).isEqualTo(999);
+  }
+
+  public void testLoadIgnoresIncompleteJournalRecord() throws Exception {
+    index.load();
+    index.getOrAdd("key1");
+    index.store();
+    index.getOrAdd("key2");
+    index.store();
+    File indexFile = new File(cacheDir, CachedContentIndex.FILE_NAME);
+    index.getOrAdd("key3");
+    index.store();
+
+    // Truncate the last journal record, as if the process died whilst it was being appended.
+    RandomAccessFile file = new RandomAccessFile(indexFile, "rw");
+    file.setLength(indexFile.length() - 3);
+    file.close();
+
+    CachedContentIndex index2 = new CachedContentIndex(cacheDir);
+    index2.load();
+    assertThat(index2.getKeys()).containsExactly("key1", "key2");
+
+    // The index file is compacted by the next store, dropping the incomplete record.
+    index2.getOrAdd("key4");
+    index2.store();
+    CachedContentIndex index3 = new CachedContentIndex(cacheDir);
+    index3.load();
+    assertThat(index3.getKeys()).containsExactly("key1", "key2", "key4");
   }
 
   public void testAssignIdForKeyAndGetKeyForId() throws Exception {
@@ -215,6 +322,17 @@ public class CachedContentIndexTest extends InstrumentationTestCase {
     index.addNew(new CachedContent(15, "key3", 110));
     index.store();
     assertStoredAndLoadedEqual(index, new CachedContentIndex(cacheDir, key));
+
+    // Test changes appended to an encrypted journal.
+    index = new CachedContentIndex(cacheDir, key);
+    index.load();
+    index.setContentLength("key3", 120);
+    index.getOrAdd("key4");
+    index.store();
+    CachedContentIndex index2 = new CachedContentIndex(cacheDir, key);
+    index2.load();
+    assertThat(index2.getKeys()).isEqualTo(index.getKeys());
+    assertThat(index2.getContentLength("key3")).isEqualTo(120);
   }
 
   public void testRemoveEmptyNotLockedCachedContent() throws Exception {
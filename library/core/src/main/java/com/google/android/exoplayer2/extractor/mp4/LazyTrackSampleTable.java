@@ -0,0 +1,685 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.extractor.mp4;
+
+import android.util.Log;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.extractor.GaplessInfoHolder;
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.MimeTypes;
+import com.google.android.exoplayer2.util.ParsableByteArray;
+import com.google.android.exoplayer2.util.Util;
+
+/**
+ * A {@link SampleTable} that keeps the sample table atoms of a track in the compact form in which
+ * they're stored, and expands the properties of a window of consecutive samples at a time.
+ *
+ * <p>The atoms are decoded once when the table is created, to find the maximum sample size and the
+ * duration of the track. The state of the decoder at the start of each window is recorded, so that
+ * any window can be expanded without decoding the samples before it. Reading samples in order
+ * expands each window once, and finding a synchronization sample expands the windows visited by a
+ * binary search. The samples are the same as the ones in the {@link TrackSampleTable} returned by
+ * {@link AtomParsers#parseStbl(Track, Atom.ContainerAtom, GaplessInfoHolder)}.
+ *
+ * <p>Methods are synchronized, because the table is queried for seek points on a different thread
+ * to the one that reads samples.
+ */
+/* package */ final class LazyTrackSampleTable implements SampleTable {
+
+  private static final String TAG = "LazyTrackSampleTable";
+
+  /**
+   * The number of consecutive samples whose properties are expanded at a time.
+   */
+  private static final int WINDOW_SIZE = 1024;
+
+  // Positions of the first entry in a box's table, after its header and entry count.
+  private static final int ENTRIES_POSITION = Atom.FULL_HEADER_SIZE + 4;
+  private static final int SAMPLE_SIZES_POSITION = Atom.FULL_HEADER_SIZE + 8;
+
+  private final long timescale;
+  private final int atomSampleCount;
+
+  // Entries are sample sizes, unless all samples have the same size.
+  private final ParsableByteArray sampleSizes;
+  private final int fixedSampleSize;
+  private final int sampleSizeFieldSize;
+  // Entries are byte offsets of chunks.
+  private final ParsableByteArray chunkOffsets;
+  private final boolean chunkOffsetsAreLongs;
+  private final int chunkCount;
+  // Entries are (chunk number, number of samples per chunk, sample description index).
+  private final ParsableByteArray stsc;
+  private final int stscEntryCount;
+  // Entries are (number of samples, timestamp delta between those samples).
+  private final ParsableByteArray stts;
+  private final int sttsEntryCount;
+  // Entries are (number of samples, timestamp offset), or null if there's no ctts atom.
+  private final ParsableByteArray ctts;
+  private final int cttsEntryCount;
+  // Entries are the indices of synchronization samples, or null if all samples are.
+  private final ParsableByteArray stss;
+  private final int stssEntryCount;
+
+  private final Cursor[] windowStartCursors;
+
+  // The expanded window.
+  private final Cursor cursor;
+  private final long[] offsets;
+  private final int[] sizes;
+  private final long[] timestamps;
+  private final int[] flags;
+  private int windowIndex;
+
+  // The range of samples described by the atoms that's included by the edit list, and the mapping
+  // of their timestamps to the presentation timeline.
+  private int firstSampleIndex;
+  private int sampleCount;
+  private long editMediaTime;
+  private long editPresentationTimeUs;
+  private int maximumSize;
+  private long totalSize;
+  private long durationUs;
+
+  /**
+   * Returns whether a {@link LazyTrackSampleTable} can be created for a track. Tracks whose samples
+   * are rechunked, and tracks with edit lists that include media from more than one edit, are only
+   * supported by {@link AtomParsers#parseStbl(Track, Atom.ContainerAtom, GaplessInfoHolder)}.
+   *
+   * @param track The track to which the sample table corresponds.
+   * @param stblAtom The stbl (sample table) atom of the track.
+   * @return Whether a {@link LazyTrackSampleTable} can be created for the track.
+   */
+  public static boolean canParse(Track track, Atom.ContainerAtom stblAtom) {
+    int sampleCount;
+    boolean isFixedSampleSize;
+    Atom.LeafAtom stszAtom = stblAtom.getLeafAtomOfType(Atom.TYPE_stsz);
+    if (stszAtom != null) {
+      stszAtom.data.setPosition(Atom.FULL_HEADER_SIZE);
+      isFixedSampleSize = stszAtom.data.readUnsignedIntToInt() != 0;
+      sampleCount = stszAtom.data.readUnsignedIntToInt();
+    } else {
+      Atom.LeafAtom stz2Atom = stblAtom.getLeafAtomOfType(Atom.TYPE_stz2);
+      if (stz2Atom == null) {
+        return false;
+      }
+      isFixedSampleSize = false;
+      sampleCount = readEntryCount(stz2Atom.data);
+    }
+    if (sampleCount == 0) {
+      return false;
+    }
+
+    // Fixed size raw audio samples are rechunked, unless timing or synchronization samples vary.
+    Atom.LeafAtom cttsAtom = stblAtom.getLeafAtomOfType(Atom.TYPE_ctts);
+    Atom.LeafAtom stssAtom = stblAtom.getLeafAtomOfType(Atom.TYPE_stss);
+    if (isFixedSampleSize
+        && MimeTypes.AUDIO_RAW.equals(track.format.sampleMimeType)
+        && readEntryCount(stblAtom.getLeafAtomOfType(Atom.TYPE_stts).data) == 1
+        && (cttsAtom == null || readEntryCount(cttsAtom.data) == 0)
+        && (stssAtom == null || readEntryCount(stssAtom.data) == 0)) {
+      return false;
+    }
+
+    if (track.editListMediaTimes != null) {
+      int mediaEditCount = 0;
+      for (long editMediaTime : track.editListMediaTimes) {
+        if (editMediaTime != -1) {
+          mediaEditCount++;
+        }
+      }
+      return mediaEditCount <= 1;
+    }
+    return true;
+  }
+
+  /**
+   * Creates a sample table for a track, for which {@link #canParse(Track, Atom.ContainerAtom)}
+   * returns true.
+   *
+   * @param track The track to which the sample table corresponds.
+   * @param stblAtom The stbl (sample table) atom of the track.
+   * @param gaplessInfoHolder Holder to populate with gapless playback information.
+   */
+  public LazyTrackSampleTable(Track track, Atom.ContainerAtom stblAtom,
+      GaplessInfoHolder gaplessInfoHolder) {
+    timescale = track.timescale;
+
+    Atom.LeafAtom stszAtom = stblAtom.getLeafAtomOfType(Atom.TYPE_stsz);
+    if (stszAtom != null) {
+      sampleSizes = stszAtom.data;
+      sampleSizes.setPosition(Atom.FULL_HEADER_SIZE);
+      fixedSampleSize = sampleSizes.readUnsignedIntToInt();
+      sampleSizeFieldSize = 32;
+    } else {
+      sampleSizes = stblAtom.getLeafAtomOfType(Atom.TYPE_stz2).data;
+      sampleSizes.setPosition(Atom.FULL_HEADER_SIZE);
+      fixedSampleSize = 0;
+      sampleSizeFieldSize = sampleSizes.readUnsignedIntToInt() & 0x000000FF;
+    }
+    atomSampleCount = sampleSizes.readUnsignedIntToInt();
+
+    Atom.LeafAtom chunkOffsetsAtom = stblAtom.getLeafAtomOfType(Atom.TYPE_stco);
+    chunkOffsetsAreLongs = chunkOffsetsAtom == null;
+    if (chunkOffsetsAreLongs) {
+      chunkOffsetsAtom = stblAtom.getLeafAtomOfType(Atom.TYPE_co64);
+    }
+    chunkOffsets = chunkOffsetsAtom.data;
+    chunkCount = readEntryCount(chunkOffsets);
+    stsc = stblAtom.getLeafAtomOfType(Atom.TYPE_stsc).data;
+    stscEntryCount = readEntryCount(stsc);
+    Assertions.checkState(stsc.readInt() == 1, "first_chunk must be 1");
+    stts = stblAtom.getLeafAtomOfType(Atom.TYPE_stts).data;
+    sttsEntryCount = readEntryCount(stts);
+    Atom.LeafAtom cttsAtom = stblAtom.getLeafAtomOfType(Atom.TYPE_ctts);
+    ctts = cttsAtom != null ? cttsAtom.data : null;
+    cttsEntryCount = ctts != null ? readEntryCount(ctts) : 0;
+    Atom.LeafAtom stssAtom = stblAtom.getLeafAtomOfType(Atom.TYPE_stss);
+    int stssEntryCount = stssAtom != null ? readEntryCount(stssAtom.data) : 0;
+    // Ignore empty stss boxes, which causes all samples to be treated as sync samples.
+    stss = stssEntryCount > 0 ? stssAtom.data : null;
+    this.stssEntryCount = stssEntryCount;
+
+    // Decode all samples, recording the state of the decoder at the start of each window.
+    windowStartCursors = new Cursor[(atomSampleCount + WINDOW_SIZE - 1) / WINDOW_SIZE];
+    cursor = new Cursor();
+    cursor.reset();
+    for (int i = 0; i < atomSampleCount; i++) {
+      if (i % WINDOW_SIZE == 0) {
+        windowStartCursors[i / WINDOW_SIZE] = cursor.copy();
+      }
+      cursor.readSample();
+      maximumSize = Math.max(maximumSize, cursor.size);
+      totalSize += cursor.size;
+    }
+    long duration = cursor.timestamp + cursor.timestampOffset;
+    checkConsistency(track);
+
+    int windowLength = Math.min(WINDOW_SIZE, atomSampleCount);
+    offsets = new long[windowLength];
+    sizes = new int[windowLength];
+    timestamps = new long[windowLength];
+    flags = new int[windowLength];
+    windowIndex = C.INDEX_UNSET;
+
+    sampleCount = atomSampleCount;
+    durationUs = Util.scaleLargeTimestamp(duration, C.MICROS_PER_SECOND, timescale);
+    applyEditList(track, gaplessInfoHolder, duration);
+  }
+
+  @Override
+  public synchronized int getSampleCount() {
+    return sampleCount;
+  }
+
+  @Override
+  public synchronized int getMaximumSize() {
+    return maximumSize;
+  }
+
+  @Override
+  public synchronized long getTotalSize() {
+    return totalSize;
+  }
+
+  @Override
+  public synchronized long getDurationUs() {
+    return durationUs;
+  }
+
+  @Override
+  public synchronized long getOffset(int sampleIndex) {
+    return offsets[expandWindow(firstSampleIndex + sampleIndex)];
+  }
+
+  @Override
+  public synchronized int getSize(int sampleIndex) {
+    return sizes[expandWindow(firstSampleIndex + sampleIndex)];
+  }
+
+  @Override
+  public synchronized long getTimestampUs(int sampleIndex) {
+    long timestamp = timestamps[expandWindow(firstSampleIndex + sampleIndex)];
+    return editPresentationTimeUs
+        + Util.scaleLargeTimestamp(timestamp - editMediaTime, C.MICROS_PER_SECOND, timescale);
+  }
+
+  @Override
+  public synchronized int getFlags(int sampleIndex) {
+    return flags[expandWindow(firstSampleIndex + sampleIndex)];
+  }
+
+  @Override
+  public synchronized int getIndexOfEarlierOrEqualSynchronizationSample(long timeUs) {
+    // Video frame timestamps may not be sorted, so the behavior of this call can be undefined.
+    // Frames are not reordered past synchronization samples so this works in practice.
+    int startIndex = binarySearch(timeUs, /* atomSamples= */ false);
+    if (startIndex < 0) {
+      startIndex = -(startIndex + 2);
+    } else {
+      while ((--startIndex) >= 0 && getTimestampUs(startIndex) == timeUs) {}
+      startIndex++;
+    }
+    for (int i = startIndex; i >= 0; i--) {
+      if ((getFlags(i) & C.BUFFER_FLAG_KEY_FRAME) != 0) {
+        return i;
+      }
+    }
+    return C.INDEX_UNSET;
+  }
+
+  @Override
+  public synchronized int getIndexOfLaterOrEqualSynchronizationSample(long timeUs) {
+    int startIndex = binarySearchCeil(timeUs, /* inclusive= */ true, /* stayInBounds= */ false,
+        /* atomSamples= */ false);
+    for (int i = startIndex; i < sampleCount; i++) {
+      if ((getFlags(i) & C.BUFFER_FLAG_KEY_FRAME) != 0) {
+        return i;
+      }
+    }
+    return C.INDEX_UNSET;
+  }
+
+  /**
+   * Restricts the table to the samples included by the track's edit list, in the same way as
+   * {@link AtomParsers#parseStbl(Track, Atom.ContainerAtom, GaplessInfoHolder)}.
+   */
+  private void applyEditList(Track track, GaplessInfoHolder gaplessInfoHolder, long duration) {
+    if (track.editListDurations == null || gaplessInfoHolder.hasGaplessInfo()) {
+      // There is no edit list, or we are ignoring it as we already have gapless metadata to apply.
+      return;
+    }
+
+    if (track.editListDurations.length == 1 && track.type == C.TRACK_TYPE_AUDIO
+        && atomSampleCount >= 2) {
+      // Handle the edit by setting gapless playback metadata, if possible.
+      long editStartTime = track.editListMediaTimes[0];
+      long editEndTime = editStartTime + Util.scaleLargeTimestamp(track.editListDurations[0],
+          track.timescale, track.movieTimescale);
+      long firstTimestamp = getAtomTimestamp(0);
+      if (firstTimestamp <= editStartTime
+          && editStartTime < getAtomTimestamp(1)
+          && getAtomTimestamp(atomSampleCount - 1) < editEndTime
+          && editEndTime <= duration) {
+        long paddingTimeUnits = duration - editEndTime;
+        long encoderDelay = Util.scaleLargeTimestamp(editStartTime - firstTimestamp,
+            track.format.sampleRate, track.timescale);
+        long encoderPadding = Util.scaleLargeTimestamp(paddingTimeUnits,
+            track.format.sampleRate, track.timescale);
+        if ((encoderDelay != 0 || encoderPadding != 0) && encoderDelay <= Integer.MAX_VALUE
+            && encoderPadding <= Integer.MAX_VALUE) {
+          gaplessInfoHolder.encoderDelay = (int) encoderDelay;
+          gaplessInfoHolder.encoderPadding = (int) encoderPadding;
+          return;
+        }
+      }
+    }
+
+    if (track.editListDurations.length == 1 && track.editListDurations[0] == 0) {
+      // Include all samples in an edit with zero segment_duration.
+      editMediaTime = track.editListMediaTimes[0];
+      durationUs = Util.scaleLargeTimestamp(duration - editMediaTime, C.MICROS_PER_SECOND,
+          timescale);
+      return;
+    }
+
+    // At most one edit includes media, and any edits before it delay its presentation.
+    boolean omitClippedSample = track.type == C.TRACK_TYPE_AUDIO;
+    int startIndex = 0;
+    int endIndex = 0;
+    long mediaTime = 0;
+    long presentationTimeUs = 0;
+    long pts = 0;
+    for (int i = 0; i < track.editListDurations.length; i++) {
+      long editMediaTime = track.editListMediaTimes[i];
+      long editDuration = track.editListDurations[i];
+      if (editMediaTime != -1) {
+        long endMediaTime = editMediaTime
+            + Util.scaleLargeTimestamp(editDuration, track.timescale, track.movieTimescale);
+        startIndex = binarySearchCeil(editMediaTime, /* inclusive= */ true,
+            /* stayInBounds= */ true, /* atomSamples= */ true);
+        endIndex = binarySearchCeil(endMediaTime, omitClippedSample, /* stayInBounds= */ false,
+            /* atomSamples= */ true);
+        mediaTime = editMediaTime;
+        presentationTimeUs = Util.scaleLargeTimestamp(pts, C.MICROS_PER_SECOND,
+            track.movieTimescale);
+      }
+      pts += editDuration;
+    }
+
+    if (!hasSynchronizationSample(startIndex, endIndex)) {
+      // Edit lists where the edited sample sequence doesn't contain a sync sample are ignored.
+      Log.w(TAG, "Ignoring edit list: Edited sample sequence does not contain a sync sample.");
+      return;
+    }
+
+    firstSampleIndex = startIndex;
+    sampleCount = endIndex - startIndex;
+    editMediaTime = mediaTime;
+    editPresentationTimeUs = presentationTimeUs;
+    durationUs = Util.scaleLargeTimestamp(pts, C.MICROS_PER_SECOND, track.timescale);
+    if (sampleCount != atomSampleCount) {
+      maximumSize = 0;
+      totalSize = 0;
+      for (int i = startIndex; i < endIndex; i++) {
+        int size = readSampleSize(i);
+        maximumSize = Math.max(maximumSize, size);
+        totalSize += size;
+      }
+    }
+  }
+
+  private boolean hasSynchronizationSample(int startIndex, int endIndex) {
+    if (stss == null) {
+      return startIndex < endIndex;
+    }
+    stss.setPosition(ENTRIES_POSITION);
+    for (int i = 0; i < stssEntryCount; i++) {
+      int synchronizationSampleIndex = stss.readUnsignedIntToInt() - 1;
+      if (startIndex <= synchronizationSampleIndex && synchronizationSampleIndex < endIndex) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void checkConsistency(Track track) {
+    Assertions.checkArgument(cursor.remainingSamplesAtTimestampOffset == 0);
+    // Trailing ctts entries must have 0-valued sample counts.
+    for (int i = cursor.nextCttsEntryIndex; i < cttsEntryCount; i++) {
+      ctts.setPosition(ENTRIES_POSITION + i * 8);
+      Assertions.checkArgument(ctts.readUnsignedIntToInt() == 0);
+    }
+
+    // If the stbl's child boxes are not consistent the container is malformed, but the stream may
+    // still be playable.
+    int remainingSynchronizationSamples = stssEntryCount - cursor.nextStssEntryIndex;
+    int remainingTimestampDeltaChanges = sttsEntryCount - cursor.nextSttsEntryIndex;
+    if (remainingSynchronizationSamples != 0 || cursor.remainingSamplesAtTimestampDelta != 0
+        || cursor.remainingSamplesInChunk != 0 || remainingTimestampDeltaChanges != 0) {
+      Log.w(TAG, "Inconsistent stbl box for track " + track.id
+          + ": remainingSynchronizationSamples " + remainingSynchronizationSamples
+          + ", remainingSamplesAtTimestampDelta " + cursor.remainingSamplesAtTimestampDelta
+          + ", remainingSamplesInChunk " + cursor.remainingSamplesInChunk
+          + ", remainingTimestampDeltaChanges " + remainingTimestampDeltaChanges);
+    }
+  }
+
+  /**
+   * Performs a binary search over the timestamps of the samples in the table, in the same way as
+   * {@link java.util.Arrays#binarySearch(long[], long)}, so that searches return the same indices
+   * as the ones performed on the arrays of a {@link TrackSampleTable}.
+   *
+   * @param timestamp The timestamp to search for, in microseconds, or in the track's timescale if
+   *     {@code atomSamples} is true.
+   * @param atomSamples Whether to search all samples described by the atoms, ignoring the edit list.
+   * @return The index of the timestamp, or {@code (-(insertion point) - 1)} if not found.
+   */
+  private int binarySearch(long timestamp, boolean atomSamples) {
+    int low = 0;
+    int high = (atomSamples ? atomSampleCount : sampleCount) - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long midTimestamp = atomSamples ? getAtomTimestamp(mid) : getTimestampUs(mid);
+      if (midTimestamp < timestamp) {
+        low = mid + 1;
+      } else if (midTimestamp > timestamp) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /**
+   * Equivalent to {@link Util#binarySearchCeil(long[], long, boolean, boolean)} over the timestamps
+   * searched by {@link #binarySearch(long, boolean)}.
+   */
+  private int binarySearchCeil(long timestamp, boolean inclusive, boolean stayInBounds,
+      boolean atomSamples) {
+    int count = atomSamples ? atomSampleCount : sampleCount;
+    int index = binarySearch(timestamp, atomSamples);
+    if (index < 0) {
+      index = ~index;
+    } else {
+      while ((++index) < count
+          && (atomSamples ? getAtomTimestamp(index) : getTimestampUs(index)) == timestamp) {}
+      if (inclusive) {
+        index--;
+      }
+    }
+    return stayInBounds ? Math.min(count - 1, index) : index;
+  }
+
+  private long getAtomTimestamp(int atomSampleIndex) {
+    return timestamps[expandWindow(atomSampleIndex)];
+  }
+
+  /**
+   * Expands the window that contains a sample, if it isn't expanded already.
+   *
+   * @param atomSampleIndex The index of the sample in the samples described by the atoms.
+   * @return The index of the sample in the expanded window.
+   */
+  private int expandWindow(int atomSampleIndex) {
+    int sampleWindowIndex = atomSampleIndex / WINDOW_SIZE;
+    if (sampleWindowIndex != windowIndex) {
+      cursor.copyFrom(windowStartCursors[sampleWindowIndex]);
+      int windowLength = Math.min(WINDOW_SIZE, atomSampleCount - sampleWindowIndex * WINDOW_SIZE);
+      for (int i = 0; i < windowLength; i++) {
+        cursor.readSample();
+        offsets[i] = cursor.offset;
+        sizes[i] = cursor.size;
+        timestamps[i] = cursor.sampleTimestamp;
+        flags[i] = cursor.isSynchronizationSample ? C.BUFFER_FLAG_KEY_FRAME : 0;
+      }
+      windowIndex = sampleWindowIndex;
+    }
+    return atomSampleIndex % WINDOW_SIZE;
+  }
+
+  private int readSampleSize(int atomSampleIndex) {
+    if (fixedSampleSize != 0) {
+      return fixedSampleSize;
+    }
+    switch (sampleSizeFieldSize) {
+      case 32:
+        sampleSizes.setPosition(SAMPLE_SIZES_POSITION + atomSampleIndex * 4);
+        return sampleSizes.readUnsignedIntToInt();
+      case 16:
+        sampleSizes.setPosition(SAMPLE_SIZES_POSITION + atomSampleIndex * 2);
+        return sampleSizes.readUnsignedShort();
+      case 8:
+        sampleSizes.setPosition(SAMPLE_SIZES_POSITION + atomSampleIndex);
+        return sampleSizes.readUnsignedByte();
+      default:
+        // The field size is 4. The upper bits of each byte hold the size of the earlier sample.
+        sampleSizes.setPosition(SAMPLE_SIZES_POSITION + atomSampleIndex / 2);
+        int sizesByte = sampleSizes.readUnsignedByte();
+        return atomSampleIndex % 2 == 0 ? (sizesByte & 0xF0) >> 4 : sizesByte & 0x0F;
+    }
+  }
+
+  private static int readEntryCount(ParsableByteArray atomData) {
+    atomData.setPosition(Atom.FULL_HEADER_SIZE);
+    return atomData.readUnsignedIntToInt();
+  }
+
+  /**
+   * The state of a decoder that reads the properties of samples in order, in the same way as
+   * {@link AtomParsers#parseStbl(Track, Atom.ContainerAtom, GaplessInfoHolder)}.
+   */
+  private final class Cursor {
+
+    // Properties of the last sample read.
+    public long offset;
+    public int size;
+    public long sampleTimestamp;
+    public boolean isSynchronizationSample;
+
+    private int sampleIndex;
+    // Chunks.
+    private int chunkIndex;
+    private long nextSampleOffset;
+    private int remainingSamplesInChunk;
+    private int samplesPerChunk;
+    private int nextStscEntryIndex;
+    private int nextSamplesPerChunkChangeIndex;
+    // Timestamps.
+    private long timestamp;
+    private int timestampDelta;
+    private int remainingSamplesAtTimestampDelta;
+    private int nextSttsEntryIndex;
+    private int timestampOffset;
+    private int remainingSamplesAtTimestampOffset;
+    private int nextCttsEntryIndex;
+    // Synchronization samples.
+    private int nextSynchronizationSampleIndex;
+    private int nextStssEntryIndex;
+
+    /**
+     * Resets the cursor to read from the first sample.
+     */
+    public void reset() {
+      sampleIndex = 0;
+      chunkIndex = C.INDEX_UNSET;
+      nextSampleOffset = 0;
+      remainingSamplesInChunk = 0;
+      samplesPerChunk = 0;
+      nextStscEntryIndex = 0;
+      nextSamplesPerChunkChangeIndex = 0;
+      stts.setPosition(ENTRIES_POSITION);
+      remainingSamplesAtTimestampDelta = stts.readUnsignedIntToInt();
+      timestampDelta = stts.readUnsignedIntToInt();
+      nextSttsEntryIndex = 1;
+      timestamp = 0;
+      timestampOffset = 0;
+      remainingSamplesAtTimestampOffset = 0;
+      nextCttsEntryIndex = 0;
+      nextStssEntryIndex = 0;
+      if (stss != null) {
+        stss.setPosition(ENTRIES_POSITION);
+        nextSynchronizationSampleIndex = stss.readUnsignedIntToInt() - 1;
+      } else {
+        nextSynchronizationSampleIndex = C.INDEX_UNSET;
+      }
+    }
+
+    /**
+     * Reads the properties of the next sample.
+     */
+    public void readSample() {
+      // Advance to the next chunk if necessary.
+      while (remainingSamplesInChunk == 0) {
+        Assertions.checkState(++chunkIndex < chunkCount);
+        if (chunkOffsetsAreLongs) {
+          chunkOffsets.setPosition(ENTRIES_POSITION + chunkIndex * 8);
+          nextSampleOffset = chunkOffsets.readUnsignedLongToLong();
+        } else {
+          chunkOffsets.setPosition(ENTRIES_POSITION + chunkIndex * 4);
+          nextSampleOffset = chunkOffsets.readUnsignedInt();
+        }
+        if (chunkIndex == nextSamplesPerChunkChangeIndex) {
+          stsc.setPosition(ENTRIES_POSITION + nextStscEntryIndex * 12 + 4);
+          samplesPerChunk = stsc.readUnsignedIntToInt();
+          stsc.skipBytes(4); // Skip sample_description_index
+          nextSamplesPerChunkChangeIndex = ++nextStscEntryIndex < stscEntryCount
+              ? (stsc.readUnsignedIntToInt() - 1) : C.INDEX_UNSET;
+        }
+        remainingSamplesInChunk = samplesPerChunk;
+      }
+
+      // Add on the timestamp offset if ctts is present.
+      if (ctts != null) {
+        while (remainingSamplesAtTimestampOffset == 0 && nextCttsEntryIndex < cttsEntryCount) {
+          ctts.setPosition(ENTRIES_POSITION + nextCttsEntryIndex * 8);
+          remainingSamplesAtTimestampOffset = ctts.readUnsignedIntToInt();
+          // Sample offsets are decoded as signed integers, as in AtomParsers.parseStbl.
+          timestampOffset = ctts.readInt();
+          nextCttsEntryIndex++;
+        }
+        remainingSamplesAtTimestampOffset--;
+      }
+
+      offset = nextSampleOffset;
+      size = readSampleSize(sampleIndex);
+      sampleTimestamp = timestamp + timestampOffset;
+
+      // All samples are synchronization samples if the stss is not present.
+      isSynchronizationSample = stss == null;
+      if (sampleIndex == nextSynchronizationSampleIndex) {
+        isSynchronizationSample = true;
+        if (++nextStssEntryIndex < stssEntryCount) {
+          stss.setPosition(ENTRIES_POSITION + nextStssEntryIndex * 4);
+          nextSynchronizationSampleIndex = stss.readUnsignedIntToInt() - 1;
+        }
+      }
+
+      // Add on the duration of this sample.
+      timestamp += timestampDelta;
+      remainingSamplesAtTimestampDelta--;
+      if (remainingSamplesAtTimestampDelta == 0 && nextSttsEntryIndex < sttsEntryCount) {
+        stts.setPosition(ENTRIES_POSITION + nextSttsEntryIndex * 8);
+        remainingSamplesAtTimestampDelta = stts.readUnsignedIntToInt();
+        // Sample deltas are decoded as signed integers, as in AtomParsers.parseStbl.
+        timestampDelta = stts.readInt();
+        nextSttsEntryIndex++;
+      }
+
+      nextSampleOffset += size;
+      remainingSamplesInChunk--;
+      sampleIndex++;
+    }
+
+    /**
+     * Returns a copy of the cursor.
+     */
+    public Cursor copy() {
+      Cursor copy = new Cursor();
+      copy.copyFrom(this);
+      return copy;
+    }
+
+    /**
+     * Sets the state of the cursor to the state of {@code other}.
+     */
+    public void copyFrom(Cursor other) {
+      offset = other.offset;
+      size = other.size;
+      sampleTimestamp = other.sampleTimestamp;
+      isSynchronizationSample = other.isSynchronizationSample;
+      sampleIndex = other.sampleIndex;
+      chunkIndex = other.chunkIndex;
+      nextSampleOffset = other.nextSampleOffset;
+      remainingSamplesInChunk = other.remainingSamplesInChunk;
+      samplesPerChunk = other.samplesPerChunk;
+      nextStscEntryIndex = other.nextStscEntryIndex;
+      nextSamplesPerChunkChangeIndex = other.nextSamplesPerChunkChangeIndex;
+      timestamp = other.timestamp;
+      timestampDelta = other.timestampDelta;
+      remainingSamplesAtTimestampDelta = other.remainingSamplesAtTimestampDelta;
+      nextSttsEntryIndex = other.nextSttsEntryIndex;
+      timestampOffset = other.timestampOffset;
+      remainingSamplesAtTimestampOffset = other.remainingSamplesAtTimestampOffset;
+      nextCttsEntryIndex = other.nextCttsEntryIndex;
+      nextSynchronizationSampleIndex = other.nextSynchronizationSampleIndex;
+      nextStssEntryIndex = other.nextStssEntryIndex;
+    }
+
+  }
+
+}
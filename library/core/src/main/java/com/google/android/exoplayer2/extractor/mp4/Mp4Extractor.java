@@ -62,12 +62,20 @@ public final class Mp4Extractor implements Extractor, SeekMap {
    * Flags controlling the behavior of the extractor.
    */
   @Retention(RetentionPolicy.SOURCE)
-  @IntDef(flag = true, value = {FLAG_WORKAROUND_IGNORE_EDIT_LISTS})
+  @IntDef(flag = true, value = {FLAG_WORKAROUND_IGNORE_EDIT_LISTS, FLAG_ENABLE_LAZY_SAMPLE_TABLES})
   public @interface Flags {}
   /**
    * Flag to ignore any edit lists in the stream.
    */
   public static final int FLAG_WORKAROUND_IGNORE_EDIT_LISTS = 1;
+  /**
+   * Flag to keep the sample tables of tracks in the compact form in which they're stored, and only
+   * expand the properties of the samples around the position being read. This reduces the memory
+   * used by long streams, which may have millions of samples. Reading samples requires a little
+   * more work, and the extractor estimates how far tracks are interleaved from their average
+   * bitrates rather than from the size of each sample.
+   */
+  public static final int FLAG_ENABLE_LAZY_SAMPLE_TABLES = 2;
 
   /**
    * Parser states.
@@ -117,6 +125,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
   private ExtractorOutput extractorOutput;
   private Mp4Track[] tracks;
   private long[][] accumulatedSampleSizes;
+  private long averageByteRate;
   private int firstVideoTrackIndex;
   private long durationUs;
   private boolean isQuickTime;
@@ -220,19 +229,19 @@ public final class Mp4Extractor implements Extractor, SeekMap {
 
     // If we have a video track, use it to establish one or two seek points.
     if (firstVideoTrackIndex != C.INDEX_UNSET) {
-      TrackSampleTable sampleTable = tracks[firstVideoTrackIndex].sampleTable;
+      SampleTable sampleTable = tracks[firstVideoTrackIndex].sampleTable;
       int sampleIndex = getSynchronizationSampleIndex(sampleTable, timeUs);
       if (sampleIndex == C.INDEX_UNSET) {
         return new SeekPoints(SeekPoint.START);
       }
-      long sampleTimeUs = sampleTable.timestampsUs[sampleIndex];
+      long sampleTimeUs = sampleTable.getTimestampUs(sampleIndex);
       firstTimeUs = sampleTimeUs;
-      firstOffset = sampleTable.offsets[sampleIndex];
-      if (sampleTimeUs < timeUs && sampleIndex < sampleTable.sampleCount - 1) {
+      firstOffset = sampleTable.getOffset(sampleIndex);
+      if (sampleTimeUs < timeUs && sampleIndex < sampleTable.getSampleCount() - 1) {
         int secondSampleIndex = sampleTable.getIndexOfLaterOrEqualSynchronizationSample(timeUs);
         if (secondSampleIndex != C.INDEX_UNSET && secondSampleIndex != sampleIndex) {
-          secondTimeUs = sampleTable.timestampsUs[secondSampleIndex];
-          secondOffset = sampleTable.offsets[secondSampleIndex];
+          secondTimeUs = sampleTable.getTimestampUs(secondSampleIndex);
+          secondOffset = sampleTable.getOffset(secondSampleIndex);
         }
       }
     } else {
@@ -243,7 +252,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     // Take into account other tracks.
     for (int i = 0; i < tracks.length; i++) {
       if (i != firstVideoTrackIndex) {
-        TrackSampleTable sampleTable = tracks[i].sampleTable;
+        SampleTable sampleTable = tracks[i].sampleTable;
         firstOffset = maybeAdjustSeekOffset(sampleTable, firstTimeUs, firstOffset);
         if (secondTimeUs != C.TIME_UNSET) {
           secondOffset = maybeAdjustSeekOffset(sampleTable, secondTimeUs, secondOffset);
@@ -405,16 +414,21 @@ public final class Mp4Extractor implements Extractor, SeekMap {
 
       Atom.ContainerAtom stblAtom = atom.getContainerAtomOfType(Atom.TYPE_mdia)
           .getContainerAtomOfType(Atom.TYPE_minf).getContainerAtomOfType(Atom.TYPE_stbl);
-      TrackSampleTable trackSampleTable = AtomParsers.parseStbl(track, stblAtom, gaplessInfoHolder);
-      if (trackSampleTable.sampleCount == 0) {
+      SampleTable sampleTable;
+      if ((flags & FLAG_ENABLE_LAZY_SAMPLE_TABLES) != 0
+          && LazyTrackSampleTable.canParse(track, stblAtom)) {
+        sampleTable = new LazyTrackSampleTable(track, stblAtom, gaplessInfoHolder);
+      } else {
+        sampleTable = AtomParsers.parseStbl(track, stblAtom, gaplessInfoHolder);
+      }
+      if (sampleTable.getSampleCount() == 0) {
         continue;
       }
 
-      Mp4Track mp4Track = new Mp4Track(track, trackSampleTable,
-          extractorOutput.track(i, track.type));
+      Mp4Track mp4Track = new Mp4Track(track, sampleTable, extractorOutput.track(i, track.type));
       // Each sample has up to three bytes of overhead for the start code that replaces its length.
       // Allow ten source samples per output sample, like the platform extractor.
-      int maxInputSize = trackSampleTable.maximumSize + 3 * 10;
+      int maxInputSize = sampleTable.getMaximumSize() + 3 * 10;
       Format format = track.format.copyWithMaxInputSize(maxInputSize);
       if (track.type == C.TRACK_TYPE_AUDIO) {
         if (gaplessInfoHolder.hasGaplessInfo()) {
@@ -430,7 +444,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
       durationUs =
           Math.max(
               durationUs,
-              track.durationUs != C.TIME_UNSET ? track.durationUs : trackSampleTable.durationUs);
+              track.durationUs != C.TIME_UNSET ? track.durationUs : sampleTable.getDurationUs());
       if (track.type == C.TRACK_TYPE_VIDEO && firstVideoTrackIndex == C.INDEX_UNSET) {
         firstVideoTrackIndex = tracks.size();
       }
@@ -439,7 +453,13 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     this.firstVideoTrackIndex = firstVideoTrackIndex;
     this.durationUs = durationUs;
     this.tracks = tracks.toArray(new Mp4Track[tracks.size()]);
-    accumulatedSampleSizes = calculateAccumulatedSampleSizes(this.tracks);
+    if ((flags & FLAG_ENABLE_LAZY_SAMPLE_TABLES) != 0) {
+      // Calculating the accumulated size before every sample would expand every sample.
+      accumulatedSampleSizes = null;
+      averageByteRate = calculateAverageByteRate(this.tracks);
+    } else {
+      accumulatedSampleSizes = calculateAccumulatedSampleSizes(this.tracks);
+    }
 
     extractorOutput.endTracks();
     extractorOutput.seekMap(this);
@@ -473,8 +493,8 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     Mp4Track track = tracks[sampleTrackIndex];
     TrackOutput trackOutput = track.trackOutput;
     int sampleIndex = track.sampleIndex;
-    long position = track.sampleTable.offsets[sampleIndex];
-    int sampleSize = track.sampleTable.sizes[sampleIndex];
+    long position = track.sampleTable.getOffset(sampleIndex);
+    int sampleSize = track.sampleTable.getSize(sampleIndex);
     long skipAmount = position - inputPosition + sampleBytesWritten;
     if (skipAmount < 0 || skipAmount >= RELOAD_MINIMUM_SEEK_DISTANCE) {
       positionHolder.position = position;
@@ -524,8 +544,8 @@ public final class Mp4Extractor implements Extractor, SeekMap {
         sampleCurrentNalBytesRemaining -= writtenBytes;
       }
     }
-    trackOutput.sampleMetadata(track.sampleTable.timestampsUs[sampleIndex],
-        track.sampleTable.flags[sampleIndex], sampleSize, 0, null);
+    trackOutput.sampleMetadata(track.sampleTable.getTimestampUs(sampleIndex),
+        track.sampleTable.getFlags(sampleIndex), sampleSize, 0, null);
     track.sampleIndex++;
     sampleTrackIndex = C.INDEX_UNSET;
     sampleBytesWritten = 0;
@@ -557,11 +577,11 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     for (int trackIndex = 0; trackIndex < tracks.length; trackIndex++) {
       Mp4Track track = tracks[trackIndex];
       int sampleIndex = track.sampleIndex;
-      if (sampleIndex == track.sampleTable.sampleCount) {
+      if (sampleIndex == track.sampleTable.getSampleCount()) {
         continue;
       }
-      long sampleOffset = track.sampleTable.offsets[sampleIndex];
-      long sampleAccumulatedBytes = accumulatedSampleSizes[trackIndex][sampleIndex];
+      long sampleOffset = track.sampleTable.getOffset(sampleIndex);
+      long sampleAccumulatedBytes = getAccumulatedSampleSize(trackIndex, sampleIndex);
       long skipAmount = sampleOffset - inputPosition;
       boolean requiresReload = skipAmount < 0 || skipAmount >= RELOAD_MINIMUM_SEEK_DISTANCE;
       if ((!requiresReload && preferredRequiresReload)
@@ -589,7 +609,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
    */
   private void updateSampleIndices(long timeUs) {
     for (Mp4Track track : tracks) {
-      TrackSampleTable sampleTable = track.sampleTable;
+      SampleTable sampleTable = track.sampleTable;
       int sampleIndex = sampleTable.getIndexOfEarlierOrEqualSynchronizationSample(timeUs);
       if (sampleIndex == C.INDEX_UNSET) {
         // Handle the case where the requested time is before the first synchronization sample.
@@ -599,6 +619,35 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     }
   }
 
+  /**
+   * Returns the accumulated size of all samples which need to be read before a sample can be used.
+   *
+   * @param trackIndex The index of the track.
+   * @param sampleIndex The index of the sample in the track.
+   * @return The accumulated size in bytes.
+   */
+  private long getAccumulatedSampleSize(int trackIndex, int sampleIndex) {
+    if (accumulatedSampleSizes != null) {
+      return accumulatedSampleSizes[trackIndex][sampleIndex];
+    }
+    // Estimate the size from the samples of all tracks up to the timestamp of the sample.
+    long timeUs = Math.max(0, tracks[trackIndex].sampleTable.getTimestampUs(sampleIndex));
+    return Util.scaleLargeTimestamp(timeUs, averageByteRate, C.MICROS_PER_SECOND);
+  }
+
+  /**
+   * Returns the sum of the average byte rates of the tracks, in bytes per second.
+   */
+  private static long calculateAverageByteRate(Mp4Track[] tracks) {
+    long averageByteRate = 0;
+    for (Mp4Track track : tracks) {
+      SampleTable sampleTable = track.sampleTable;
+      averageByteRate += Util.scaleLargeTimestamp(sampleTable.getTotalSize(),
+          C.MICROS_PER_SECOND, Math.max(1, sampleTable.getDurationUs()));
+    }
+    return averageByteRate;
+  }
+
   /**
    * For each sample of each track, calculates accumulated size of all samples which need to be read
    * before this sample can be used.
@@ -609,8 +658,8 @@ public final class Mp4Extractor implements Extractor, SeekMap {
     long[] nextSampleTimesUs = new long[tracks.length];
     boolean[] tracksFinished = new boolean[tracks.length];
     for (int i = 0; i < tracks.length; i++) {
-      accumulatedSampleSizes[i] = new long[tracks[i].sampleTable.sampleCount];
-      nextSampleTimesUs[i] = tracks[i].sampleTable.timestampsUs[0];
+      accumulatedSampleSizes[i] = new long[tracks[i].sampleTable.getSampleCount()];
+      nextSampleTimesUs[i] = tracks[i].sampleTable.getTimestampUs(0);
     }
     long accumulatedSampleSize = 0;
     int finishedTracks = 0;
@@ -625,11 +674,11 @@ public final class Mp4Extractor implements Extractor, SeekMap {
       }
       int trackSampleIndex = nextSampleIndex[minTimeTrackIndex];
       accumulatedSampleSizes[minTimeTrackIndex][trackSampleIndex] = accumulatedSampleSize;
-      accumulatedSampleSize += tracks[minTimeTrackIndex].sampleTable.sizes[trackSampleIndex];
+      accumulatedSampleSize += tracks[minTimeTrackIndex].sampleTable.getSize(trackSampleIndex);
       nextSampleIndex[minTimeTrackIndex] = ++trackSampleIndex;
       if (trackSampleIndex < accumulatedSampleSizes[minTimeTrackIndex].length) {
         nextSampleTimesUs[minTimeTrackIndex] =
-            tracks[minTimeTrackIndex].sampleTable.timestampsUs[trackSampleIndex];
+            tracks[minTimeTrackIndex].sampleTable.getTimestampUs(trackSampleIndex);
       } else {
         tracksFinished[minTimeTrackIndex] = true;
         finishedTracks++;
@@ -648,12 +697,12 @@ public final class Mp4Extractor implements Extractor, SeekMap {
    * @return The adjusted offset.
    */
   private static long maybeAdjustSeekOffset(
-      TrackSampleTable sampleTable, long seekTimeUs, long offset) {
+      SampleTable sampleTable, long seekTimeUs, long offset) {
     int sampleIndex = getSynchronizationSampleIndex(sampleTable, seekTimeUs);
     if (sampleIndex == C.INDEX_UNSET) {
       return offset;
     }
-    long sampleOffset = sampleTable.offsets[sampleIndex];
+    long sampleOffset = sampleTable.getOffset(sampleIndex);
     return Math.min(sampleOffset, offset);
   }
 
@@ -668,7 +717,7 @@ public final class Mp4Extractor implements Extractor, SeekMap {
    *     the first synchronization sample if located after {@code timeUs}, or {@link C#INDEX_UNSET}
    *     if there are no synchronization samples in the table.
    */
-  private static int getSynchronizationSampleIndex(TrackSampleTable sampleTable, long timeUs) {
+  private static int getSynchronizationSampleIndex(SampleTable sampleTable, long timeUs) {
     int sampleIndex = sampleTable.getIndexOfEarlierOrEqualSynchronizationSample(timeUs);
     if (sampleIndex == C.INDEX_UNSET) {
       // Handle the case where the requested time is before the first synchronization sample.
@@ -721,12 +770,12 @@ public final class Mp4Extractor implements Extractor, SeekMap {
   private static final class Mp4Track {
 
     public final Track track;
-    public final TrackSampleTable sampleTable;
+    public final SampleTable sampleTable;
     public final TrackOutput trackOutput;
 
     public int sampleIndex;
 
-    public Mp4Track(Track track, TrackSampleTable sampleTable, TrackOutput trackOutput) {
+    public Mp4Track(Track track, SampleTable sampleTable, TrackOutput trackOutput) {
       this.track = track;
       this.sampleTable = sampleTable;
       this.trackOutput = trackOutput;
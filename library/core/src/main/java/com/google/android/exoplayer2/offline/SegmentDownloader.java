@@ -25,10 +25,21 @@ import com.google.android.exoplayer2.upstream.cache.Cache;
 import com.google.android.exoplayer2.upstream.cache.CacheDataSource;
 import com.google.android.exoplayer2.upstream.cache.CacheUtil;
 import com.google.android.exoplayer2.upstream.cache.CacheUtil.CachingCounters;
+import com.google.android.exoplayer2.util.Assertions;
 import com.google.android.exoplayer2.util.PriorityTaskManager;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Base class for multi segment stream downloaders.
@@ -62,9 +73,13 @@ public abstract class SegmentDownloader<M, K> implements Downloader {
     }
   }
 
+  /** The default maximum number of segments that are downloaded in parallel. */
+  public static final int DEFAULT_MAX_PARALLEL_DOWNLOADS = 1;
+
   private static final int BUFFER_SIZE_BYTES = 128 * 1024;
 
   private final Uri manifestUri;
+  private final DownloaderConstructorHelper constructorHelper;
   private final PriorityTaskManager priorityTaskManager;
   private final Cache cache;
   private final CacheDataSource dataSource;
@@ -72,6 +87,7 @@ public abstract class SegmentDownloader<M, K> implements Downloader {
 
   private M manifest;
   private K[] keys;
+  private int maxParallelDownloads;
   private volatile int totalSegments;
   private volatile int downloadedSegments;
   private volatile long downloadedBytes;
@@ -82,13 +98,31 @@ public abstract class SegmentDownloader<M, K> implements Downloader {
    */
   public SegmentDownloader(Uri manifestUri, DownloaderConstructorHelper constructorHelper) {
     this.manifestUri = manifestUri;
+    this.constructorHelper = constructorHelper;
     this.cache = constructorHelper.getCache();
     this.dataSource = constructorHelper.buildCacheDataSource(false);
     this.offlineDataSource = constructorHelper.buildCacheDataSource(true);
     this.priorityTaskManager = constructorHelper.getPriorityTaskManager();
+    maxParallelDownloads = DEFAULT_MAX_PARALLEL_DOWNLOADS;
     resetCounters();
   }
 
+  /**
+   * Sets the maximum number of segments that are downloaded in parallel by {@link
+   * #download(ProgressListener)}. Downloading several segments at once makes better use of the
+   * available bandwidth on high latency connections. The default value is {@link
+   * #DEFAULT_MAX_PARALLEL_DOWNLOADS}.
+   *
+   * <p>Segments are started in playback order, and the listener is notified in the same order
+   * regardless of the order in which the segments complete.
+   *
+   * @param maxParallelDownloads The maximum number of parallel segment downloads. Must be positive.
+   */
+  public final void setMaxParallelDownloads(int maxParallelDownloads) {
+    Assertions.checkArgument(maxParallelDownloads > 0);
+    this.maxParallelDownloads = maxParallelDownloads;
+  }
+
   /**
    * Returns the manifest. Downloads and parses it if necessary.
    *
@@ -160,6 +194,10 @@ public abstract class SegmentDownloader<M, K> implements Downloader {
       List<Segment> segments = initStatus(false);
       notifyListener(listener); // Initial notification.
       Collections.sort(segments);
+      if (maxParallelDownloads > 1 && segments.size() > 1) {
+        downloadInParallel(segments, listener);
+        return;
+      }
       byte[] buffer = new byte[BUFFER_SIZE_BYTES];
       CachingCounters cachingCounters = new CachingCounters();
       for (int i = 0; i < segments.size(); i++) {
@@ -315,6 +353,75 @@ public abstract class SegmentDownloader<M, K> implements Downloader {
     return segments;
   }
 
+  /**
+   * Downloads the given segments using up to {@link #maxParallelDownloads} worker threads. The
+   * counters are updated and the listener is notified on the calling thread, in segment order.
+   */
+  private void downloadInParallel(List<Segment> segments, ProgressListener listener)
+      throws IOException, InterruptedException {
+    int workerCount = Math.min(maxParallelDownloads, segments.size());
+    // Each worker thread takes exclusive use of one data source and buffer for each segment.
+    ArrayBlockingQueue<SegmentLoader> idleLoaders = new ArrayBlockingQueue<>(workerCount);
+    idleLoaders.add(new SegmentLoader(dataSource));
+    for (int i = 1; i < workerCount; i++) {
+      idleLoaders.add(new SegmentLoader(constructorHelper.buildCacheDataSource(false)));
+    }
+    ExecutorService executorService =
+        Executors.newFixedThreadPool(
+            workerCount,
+            new ThreadFactory() {
+              @Override
+              public Thread newThread(@NonNull Runnable runnable) {
+                return new Thread(runnable, "SegmentDownloader");
+              }
+            });
+    try {
+      List<Future<Long>> results = new ArrayList<>(segments.size());
+      for (int i = 0; i < segments.size(); i++) {
+        results.add(executorService.submit(new SegmentDownloadTask(segments.get(i), idleLoaders)));
+      }
+      for (int i = 0; i < results.size(); i++) {
+        downloadedBytes += getResult(results.get(i));
+        downloadedSegments++;
+        notifyListener(listener);
+      }
+    } finally {
+      // Cancel any remaining downloads, and wait for them to stop writing to the cache.
+      executorService.shutdownNow();
+      boolean interrupted = false;
+      while (true) {
+        try {
+          if (executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS)) {
+            break;
+          }
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private static long getResult(Future<Long> result) throws IOException, InterruptedException {
+    try {
+      return result.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof InterruptedException) {
+        throw (InterruptedException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
   private M getManifestIfNeeded(boolean offline) throws IOException {
     if (manifest == null) {
       manifest = getManifest(getDataSource(offline), manifestUri);
@@ -326,4 +433,43 @@ public abstract class SegmentDownloader<M, K> implements Downloader {
     return offline ? offlineDataSource : dataSource;
   }
 
+  /** The resources used to download a single segment. */
+  private static final class SegmentLoader {
+
+    public final CacheDataSource dataSource;
+    public final byte[] buffer;
+
+    public SegmentLoader(CacheDataSource dataSource) {
+      this.dataSource = dataSource;
+      this.buffer = new byte[BUFFER_SIZE_BYTES];
+    }
+
+  }
+
+  /** Downloads a segment, returning the number of newly cached bytes. */
+  private final class SegmentDownloadTask implements Callable<Long> {
+
+    private final Segment segment;
+    private final BlockingQueue<SegmentLoader> idleLoaders;
+
+    public SegmentDownloadTask(Segment segment, BlockingQueue<SegmentLoader> idleLoaders) {
+      this.segment = segment;
+      this.idleLoaders = idleLoaders;
+    }
+
+    @Override
+    public Long call() throws IOException, InterruptedException {
+      SegmentLoader loader = idleLoaders.take();
+      try {
+        CachingCounters cachingCounters = new CachingCounters();
+        CacheUtil.cache(segment.dataSpec, cache, loader.dataSource, loader.buffer,
+            priorityTaskManager, C.PRIORITY_DOWNLOAD, cachingCounters, true);
+        return cachingCounters.newlyCachedBytes;
+      } finally {
+        idleLoaders.add(loader);
+      }
+    }
+
+  }
+
 }
@@ -43,7 +43,6 @@ import com.google.android.exoplayer2.util.Assertions;
 import com.google.android.exoplayer2.util.ConditionVariable;
 import com.google.android.exoplayer2.util.MimeTypes;
 import com.google.android.exoplayer2.util.Util;
-import java.io.EOFException;
 import java.io.IOException;
 import java.util.Arrays;
 
@@ -75,6 +74,12 @@ import java.util.Arrays;
    */
   private static final long DEFAULT_LAST_SAMPLE_DURATION_US = 10000;
 
+  /**
+   * The maximum time for which a load on a shared executor waits for loading to be continued before
+   * it exits, to be resumed by the next call to {@link #continueLoading(long)}.
+   */
+  private static final long PAUSED_LOAD_WAIT_TIMEOUT_MS = 200;
+
   private final Uri uri;
   private final DataSource dataSource;
   private final int minLoadableRetryCount;
@@ -114,6 +119,7 @@ import java.util.Arrays;
   private boolean pendingDeferredRetry;
 
   private int extractedSamplesCountAtStartOfLoad;
+  private @Nullable ExtractingLoadable pausedLoadable;
   private boolean loadingFinished;
   private boolean released;
 
@@ -129,6 +135,7 @@ import java.util.Arrays;
    *     indexing. May be null.
    * @param continueLoadingCheckIntervalBytes The number of bytes that should be loaded between each
    *     invocation of {@link Callback#onContinueLoadingRequested(SequenceableLoader)}.
+   * @param loaderFactory A factory for the {@link Loader} that loads the media.
    */
   public ExtractorMediaPeriod(
       Uri uri,
@@ -139,7 +146,8 @@ import java.util.Arrays;
       Listener listener,
       Allocator allocator,
       @Nullable String customCacheKey,
-      int continueLoadingCheckIntervalBytes) {
+      int continueLoadingCheckIntervalBytes,
+      Loader.Factory loaderFactory) {
     this.uri = uri;
     this.dataSource = dataSource;
     this.minLoadableRetryCount = minLoadableRetryCount;
@@ -148,7 +156,7 @@ import java.util.Arrays;
     this.allocator = allocator;
     this.customCacheKey = customCacheKey;
     this.continueLoadingCheckIntervalBytes = continueLoadingCheckIntervalBytes;
-    loader = new Loader("Loader:ExtractorMediaPeriod");
+    loader = loaderFactory.createLoader("Loader:ExtractorMediaPeriod");
     extractorHolder = new ExtractorHolder(extractors, this);
     loadCondition = new ConditionVariable();
     maybeFinishPrepareRunnable = new Runnable() {
@@ -262,6 +270,7 @@ import java.util.Arrays;
     if (enabledTrackCount == 0) {
       pendingDeferredRetry = false;
       notifyDiscontinuity = false;
+      pausedLoadable = null;
       if (loader.isLoading()) {
         // Discard as much as we can synchronously.
         for (SampleQueue sampleQueue : sampleQueues) {
@@ -306,7 +315,11 @@ import java.util.Arrays;
     }
     boolean continuedLoading = loadCondition.open();
     if (!loader.isLoading()) {
-      startLoading();
+      if (pausedLoadable != null) {
+        resumeLoading();
+      } else {
+        startLoading();
+      }
       continuedLoading = true;
     }
     return continuedLoading;
@@ -366,6 +379,7 @@ import java.util.Arrays;
     pendingDeferredRetry = false;
     pendingResetPositionUs = positionUs;
     loadingFinished = false;
+    pausedLoadable = null;
     if (loader.isLoading()) {
       loader.cancelLoading();
     } else {
@@ -474,6 +488,12 @@ import java.util.Arrays;
   @Override
   public void onLoadCompleted(ExtractingLoadable loadable, long elapsedRealtimeMs,
       long loadDurationMs) {
+    if (loadable.loadPaused) {
+      // The load exited while loading was paused, and is resumed when loading is continued.
+      pausedLoadable = loadable;
+      callback.onContinueLoadingRequested(this);
+      return;
+    }
     if (durationUs == C.TIME_UNSET) {
       long largestQueuedTimestampUs = getLargestQueuedTimestampUs();
       durationUs = largestQueuedTimestampUs == Long.MIN_VALUE ? 0
@@ -660,6 +680,14 @@ import java.util.Arrays;
         elapsedRealtimeMs);
   }
 
+  private void resumeLoading() {
+    ExtractingLoadable loadable = pausedLoadable;
+    pausedLoadable = null;
+    loadable.loadPaused = false;
+    extractedSamplesCountAtStartOfLoad = getExtractedSamplesCount();
+    loader.startLoading(loadable, this, actualMinLoadableRetryCount);
+  }
+
   /**
    * Called to configure a retry when a load error occurs.
    *
@@ -796,6 +824,7 @@ import java.util.Arrays;
     private final PositionHolder positionHolder;
 
     private volatile boolean loadCanceled;
+    private volatile boolean loadPaused;
 
     private boolean pendingExtractorSeek;
     private long seekTimeUs;
@@ -833,7 +862,7 @@ import java.util.Arrays;
     @Override
     public void load() throws IOException, InterruptedException {
       int result = Extractor.RESULT_CONTINUE;
-      while (result == Extractor.RESULT_CONTINUE && !loadCanceled) {
+      while (result == Extractor.RESULT_CONTINUE && !loadCanceled && !loadPaused) {
         ExtractorInput input = null;
         try {
           long position = positionHolder.position;
@@ -848,8 +877,15 @@ import java.util.Arrays;
             extractor.seek(position, seekTimeUs);
             pendingExtractorSeek = false;
           }
+          boolean canExitWhenPaused = loader.isExecutorShared() && isResumable();
           while (result == Extractor.RESULT_CONTINUE && !loadCanceled) {
-            loadCondition.block();
+            if (!canExitWhenPaused) {
+              loadCondition.block();
+            } else if (!loadCondition.block(PAUSED_LOAD_WAIT_TIMEOUT_MS)) {
+              // Free the shared loading thread, rather than holding it while loading is paused.
+              loadPaused = true;
+              break;
+            }
             result = extractor.read(input, positionHolder);
             if (input.getPosition() > position + continueLoadingCheckIntervalBytes) {
               position = input.getPosition();
@@ -869,6 +905,16 @@ import java.util.Arrays;
       }
     }
 
+    /**
+     * Returns whether the load can continue from its current position after the data source is
+     * reopened, which is the case if the stream is on-demand. The data of a stream with unknown
+     * length and duration may be a shifting window of live media, so its load must not exit.
+     */
+    private boolean isResumable() {
+      return length != C.LENGTH_UNSET
+          || (seekMap != null && seekMap.getDurationUs() != C.TIME_UNSET);
+    }
+
   }
 
   /**
@@ -907,18 +953,7 @@ import java.util.Arrays;
       if (extractor != null) {
         return extractor;
       }
-      for (Extractor extractor : extractors) {
-        try {
-          if (extractor.sniff(input)) {
-            this.extractor = extractor;
-            break;
-          }
-        } catch (EOFException e) {
-          // Do nothing.
-        } finally {
-          input.resetPeekPosition();
-        }
-      }
+      extractor = ExtractorSniffer.sniff(extractors, input, uri);
       if (extractor == null) {
         throw new UnrecognizedInputFormatException("None of the available extractors ("
             + Util.getCommaDelimitedSimpleClassNames(extractors) + ") could read the stream.", uri);
@@ -30,6 +30,7 @@ import com.google.android.exoplayer2.source.ads.AdsMediaSource;
 import com.google.android.exoplayer2.upstream.Allocator;
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.Loader;
 import com.google.android.exoplayer2.util.Assertions;
 import java.io.IOException;
 
@@ -99,6 +100,7 @@ public final class ExtractorMediaSource implements MediaSource, ExtractorMediaPe
   private final EventDispatcher eventDispatcher;
   private final String customCacheKey;
   private final int continueLoadingCheckIntervalBytes;
+  private final Loader.Factory loaderFactory;
 
   private MediaSource.Listener sourceListener;
   private long timelineDurationUs;
@@ -113,6 +115,7 @@ public final class ExtractorMediaSource implements MediaSource, ExtractorMediaPe
     private @Nullable String customCacheKey;
     private int minLoadableRetryCount;
     private int continueLoadingCheckIntervalBytes;
+    private Loader.Factory loaderFactory;
     private boolean isCreateCalled;
 
     /**
@@ -124,6 +127,7 @@ public final class ExtractorMediaSource implements MediaSource, ExtractorMediaPe
       this.dataSourceFactory = dataSourceFactory;
       minLoadableRetryCount = MIN_RETRY_COUNT_DEFAULT_FOR_MEDIA;
       continueLoadingCheckIntervalBytes = DEFAULT_LOADING_CHECK_INTERVAL_BYTES;
+      loaderFactory = Loader.Factory.DEFAULT;
     }
 
     /**
@@ -188,6 +192,22 @@ public final class ExtractorMediaSource implements MediaSource, ExtractorMediaPe
       return this;
     }
 
+    /**
+     * Sets the factory for the {@link Loader}s that load the media. The default value is {@link
+     * Loader.Factory#DEFAULT}, which creates a thread for each period. Pass a {@link
+     * Loader.SharedExecutorFactory} to load the periods of many sources on a bounded number of
+     * threads.
+     *
+     * @param loaderFactory A factory for {@link Loader}s.
+     * @return This factory, for convenience.
+     * @throws IllegalStateException If one of the {@code create} methods has already been called.
+     */
+    public Factory setLoaderFactory(Loader.Factory loaderFactory) {
+      Assertions.checkState(!isCreateCalled);
+      this.loaderFactory = Assertions.checkNotNull(loaderFactory);
+      return this;
+    }
+
     /**
      * Returns a new {@link ExtractorMediaSource} using the current parameters. Media source events
      * will not be delivered.
@@ -216,7 +236,7 @@ public final class ExtractorMediaSource implements MediaSource, ExtractorMediaPe
       }
       return new ExtractorMediaSource(uri, dataSourceFactory, extractorsFactory,
           minLoadableRetryCount, eventHandler, eventListener, customCacheKey,
-          continueLoadingCheckIntervalBytes);
+          continueLoadingCheckIntervalBytes, loaderFactory);
     }
 
     @Override
@@ -302,7 +322,8 @@ public final class ExtractorMediaSource implements MediaSource, ExtractorMediaPe
         eventHandler,
         eventListener == null ? null : new EventListenerWrapper(eventListener),
         customCacheKey,
-        continueLoadingCheckIntervalBytes);
+        continueLoadingCheckIntervalBytes,
+        Loader.Factory.DEFAULT);
   }
 
   private ExtractorMediaSource(
@@ -313,7 +334,8 @@ public final class ExtractorMediaSource implements MediaSource, ExtractorMediaPe
       @Nullable Handler eventHandler,
       @Nullable MediaSourceEventListener eventListener,
       @Nullable String customCacheKey,
-      int continueLoadingCheckIntervalBytes) {
+      int continueLoadingCheckIntervalBytes,
+      Loader.Factory loaderFactory) {
     this.uri = uri;
     this.dataSourceFactory = dataSourceFactory;
     this.extractorsFactory = extractorsFactory;
@@ -321,6 +343,7 @@ public final class ExtractorMediaSource implements MediaSource, ExtractorMediaPe
     this.eventDispatcher = new EventDispatcher(eventHandler, eventListener);
     this.customCacheKey = customCacheKey;
     this.continueLoadingCheckIntervalBytes = continueLoadingCheckIntervalBytes;
+    this.loaderFactory = loaderFactory;
   }
 
   @Override
@@ -346,7 +369,8 @@ public final class ExtractorMediaSource implements MediaSource, ExtractorMediaPe
         this,
         allocator,
         customCacheKey,
-        continueLoadingCheckIntervalBytes);
+        continueLoadingCheckIntervalBytes,
+        loaderFactory);
   }
 
   @Override
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source;
+
+import android.net.Uri;
+import android.support.annotation.Nullable;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.extractor.Extractor;
+import com.google.android.exoplayer2.extractor.ExtractorInput;
+import com.google.android.exoplayer2.extractor.MpegAudioHeader;
+import com.google.android.exoplayer2.extractor.flv.FlvExtractor;
+import com.google.android.exoplayer2.extractor.mkv.MatroskaExtractor;
+import com.google.android.exoplayer2.extractor.mp3.Mp3Extractor;
+import com.google.android.exoplayer2.extractor.mp4.FragmentedMp4Extractor;
+import com.google.android.exoplayer2.extractor.mp4.Mp4Extractor;
+import com.google.android.exoplayer2.extractor.ogg.OggExtractor;
+import com.google.android.exoplayer2.extractor.ts.Ac3Extractor;
+import com.google.android.exoplayer2.extractor.ts.AdtsExtractor;
+import com.google.android.exoplayer2.extractor.ts.PsExtractor;
+import com.google.android.exoplayer2.extractor.ts.TsExtractor;
+import com.google.android.exoplayer2.extractor.wav.WavExtractor;
+import com.google.android.exoplayer2.util.Util;
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Selects the {@link Extractor} for a stream by sniffing.
+ *
+ * <p>The first bytes of the stream are peeked once and matched against the signatures of the
+ * containers supported by the library's extractors. Together with the extension of the stream's
+ * {@link Uri}, this ranks the extractors so that the one that's most likely to read the stream is
+ * sniffed first. Extractors that match neither are still sniffed afterwards, in their original
+ * order, so the ranking never prevents a stream from being recognized.
+ */
+/* package */ final class ExtractorSniffer {
+
+  /**
+   * The number of bytes peeked to match container signatures.
+   */
+  /* package */ static final int PREFIX_LENGTH = 12;
+
+  private static final int CONTAINER_UNKNOWN = 0;
+  private static final int CONTAINER_MATROSKA = 1 << 0;
+  private static final int CONTAINER_MP4 = 1 << 1;
+  private static final int CONTAINER_MP3 = 1 << 2;
+  private static final int CONTAINER_ADTS = 1 << 3;
+  private static final int CONTAINER_AC3 = 1 << 4;
+  private static final int CONTAINER_TS = 1 << 5;
+  private static final int CONTAINER_FLV = 1 << 6;
+  private static final int CONTAINER_OGG = 1 << 7;
+  private static final int CONTAINER_PS = 1 << 8;
+  private static final int CONTAINER_WAV = 1 << 9;
+  private static final int CONTAINER_FLAC = 1 << 10;
+
+  private static final String FLAC_EXTRACTOR_CLASS_NAME =
+      "com.google.android.exoplayer2.ext.flac.FlacExtractor";
+
+  private static final int SIGNATURE_SCORE = 2;
+  private static final int EXTENSION_SCORE = 1;
+  private static final int MAX_SCORE = SIGNATURE_SCORE + EXTENSION_SCORE;
+
+  private ExtractorSniffer() {}
+
+  /**
+   * Returns the first extractor that can read {@code input}, sniffing the extractors in the order
+   * returned by {@link #getSniffingOrder(Extractor[], byte[], int, String)}.
+   *
+   * @param extractors The extractors to choose from.
+   * @param input The {@link ExtractorInput} to sniff. Its peek position is reset on return.
+   * @param uri The {@link Uri} of the data.
+   * @return The extractor that can read {@code input}, or null if none of them can.
+   * @throws IOException If an error occurred reading from the input.
+   * @throws InterruptedException If the thread was interrupted.
+   */
+  @Nullable
+  public static Extractor sniff(Extractor[] extractors, ExtractorInput input, Uri uri)
+      throws IOException, InterruptedException {
+    byte[] prefix = new byte[PREFIX_LENGTH];
+    int prefixLength = 0;
+    try {
+      if (input.peekFully(prefix, 0, PREFIX_LENGTH, /* allowEndOfInput= */ true)) {
+        prefixLength = PREFIX_LENGTH;
+      }
+    } catch (EOFException e) {
+      // The stream is shorter than the prefix. Fall back to the extension.
+    } finally {
+      input.resetPeekPosition();
+    }
+    Extractor[] orderedExtractors =
+        getSniffingOrder(extractors, prefix, prefixLength, getExtension(uri));
+    for (Extractor extractor : orderedExtractors) {
+      try {
+        if (extractor.sniff(input)) {
+          return extractor;
+        }
+      } catch (EOFException e) {
+        // Do nothing.
+      } finally {
+        input.resetPeekPosition();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the order in which {@code extractors} should be sniffed. Extractors whose container
+   * signature matches {@code prefix} come first, followed by those that match {@code extension}.
+   * Extractors of equal rank keep their relative order.
+   *
+   * @param extractors The extractors to order.
+   * @param prefix The first bytes of the stream.
+   * @param prefixLength The number of valid bytes in {@code prefix}.
+   * @param extension The lower case extension of the stream's {@link Uri}, or null if unknown.
+   * @return The extractors, in the order in which they should be sniffed.
+   */
+  /* package */ static Extractor[] getSniffingOrder(
+      Extractor[] extractors, byte[] prefix, int prefixLength, @Nullable String extension) {
+    int signatureContainers = getContainersForSignature(prefix, prefixLength);
+    int extensionContainers = getContainersForExtension(extension);
+    int[] scores = new int[extractors.length];
+    for (int i = 0; i < extractors.length; i++) {
+      int container = getContainer(extractors[i]);
+      if ((container & signatureContainers) != 0) {
+        scores[i] += SIGNATURE_SCORE;
+      }
+      if ((container & extensionContainers) != 0) {
+        scores[i] += EXTENSION_SCORE;
+      }
+    }
+    Extractor[] orderedExtractors = new Extractor[extractors.length];
+    int orderedCount = 0;
+    for (int score = MAX_SCORE; score >= 0; score--) {
+      for (int i = 0; i < extractors.length; i++) {
+        if (scores[i] == score) {
+          orderedExtractors[orderedCount++] = extractors[i];
+        }
+      }
+    }
+    return orderedExtractors;
+  }
+
+  private static int getContainer(Extractor extractor) {
+    if (extractor instanceof MatroskaExtractor) {
+      return CONTAINER_MATROSKA;
+    } else if (extractor instanceof FragmentedMp4Extractor || extractor instanceof Mp4Extractor) {
+      return CONTAINER_MP4;
+    } else if (extractor instanceof Mp3Extractor) {
+      return CONTAINER_MP3;
+    } else if (extractor instanceof AdtsExtractor) {
+      return CONTAINER_ADTS;
+    } else if (extractor instanceof Ac3Extractor) {
+      return CONTAINER_AC3;
+    } else if (extractor instanceof TsExtractor) {
+      return CONTAINER_TS;
+    } else if (extractor instanceof FlvExtractor) {
+      return CONTAINER_FLV;
+    } else if (extractor instanceof OggExtractor) {
+      return CONTAINER_OGG;
+    } else if (extractor instanceof PsExtractor) {
+      return CONTAINER_PS;
+    } else if (extractor instanceof WavExtractor) {
+      return CONTAINER_WAV;
+    } else if (extractor.getClass().getName().equals(FLAC_EXTRACTOR_CLASS_NAME)) {
+      return CONTAINER_FLAC;
+    }
+    return CONTAINER_UNKNOWN;
+  }
+
+  private static int getContainersForSignature(byte[] prefix, int prefixLength) {
+    if (prefixLength < PREFIX_LENGTH) {
+      return CONTAINER_UNKNOWN;
+    }
+    int first = readInt(prefix, 0);
+    if (first == 0x1A45DFA3) {
+      return CONTAINER_MATROSKA;
+    } else if ((first >>> 8) == 0x494433 /* ID3 */) {
+      // ID3 tags are used to prefix the elementary streams of several containers.
+      return CONTAINER_MP3 | CONTAINER_ADTS | CONTAINER_AC3;
+    } else if (first == 0x4F676753 /* OggS */) {
+      return CONTAINER_OGG;
+    } else if (first == 0x664C6143 /* fLaC */) {
+      return CONTAINER_FLAC;
+    } else if ((first >>> 8) == 0x464C56 /* FLV */) {
+      return CONTAINER_FLV;
+    } else if (first == 0x000001BA) {
+      return CONTAINER_PS;
+    } else if (first == 0x52494646 /* RIFF */ && readInt(prefix, 8) == 0x57415645 /* WAVE */) {
+      return CONTAINER_WAV;
+    }
+    switch (readInt(prefix, 4)) {
+      case 0x66747970: // ftyp
+      case 0x6D6F6F76: // moov
+      case 0x6D6F6F66: // moof
+      case 0x73747970: // styp
+      case 0x73696478: // sidx
+        return CONTAINER_MP4;
+      default:
+        break;
+    }
+    if ((first >>> 24) == 0x47) {
+      return CONTAINER_TS;
+    } else if ((first >>> 16) == 0x0B77) {
+      return CONTAINER_AC3;
+    } else if (((first >>> 16) & 0xFFF6) == 0xFFF0) {
+      return CONTAINER_ADTS;
+    } else if (MpegAudioHeader.getFrameSize(first) != C.LENGTH_UNSET) {
+      return CONTAINER_MP3;
+    }
+    return CONTAINER_UNKNOWN;
+  }
+
+  private static int getContainersForExtension(@Nullable String extension) {
+    if (extension == null) {
+      return CONTAINER_UNKNOWN;
+    }
+    switch (extension) {
+      case "mkv":
+      case "mka":
+      case "mks":
+      case "webm":
+        return CONTAINER_MATROSKA;
+      case "mp4":
+      case "m4a":
+      case "m4v":
+      case "mov":
+      case "3gp":
+      case "cmfa":
+      case "cmfv":
+        return CONTAINER_MP4;
+      case "mp3":
+        return CONTAINER_MP3;
+      case "aac":
+      case "adts":
+        return CONTAINER_ADTS;
+      case "ac3":
+      case "ec3":
+      case "eac3":
+        return CONTAINER_AC3;
+      case "ts":
+      case "m2ts":
+      case "mts":
+        return CONTAINER_TS;
+      case "flv":
+        return CONTAINER_FLV;
+      case "ogg":
+      case "oga":
+      case "ogv":
+      case "opus":
+        return CONTAINER_OGG;
+      case "mpg":
+      case "mpeg":
+      case "ps":
+      case "vob":
+        return CONTAINER_PS;
+      case "wav":
+      case "wave":
+        return CONTAINER_WAV;
+      case "flac":
+        return CONTAINER_FLAC;
+      default:
+        return CONTAINER_UNKNOWN;
+    }
+  }
+
+  @Nullable
+  private static String getExtension(Uri uri) {
+    String lastPathSegment = uri.getLastPathSegment();
+    if (lastPathSegment == null) {
+      return null;
+    }
+    int dotIndex = lastPathSegment.lastIndexOf('.');
+    return dotIndex == -1 ? null : Util.toLowerInvariant(lastPathSegment.substring(dotIndex + 1));
+  }
+
+  private static int readInt(byte[] data, int offset) {
+    return (data[offset] & 0xFF) << 24
+        | (data[offset + 1] & 0xFF) << 16
+        | (data[offset + 2] & 0xFF) << 8
+        | (data[offset + 3] & 0xFF);
+  }
+
+}
@@ -40,6 +40,7 @@ import com.google.android.exoplayer2.util.Util;
   }
 
   private static final int SAMPLE_CAPACITY_INCREMENT = 1000;
+  private static final int INITIAL_KEYFRAME_CAPACITY = 64;
 
   private int capacity;
   private int[] sourceIds;
@@ -55,6 +56,13 @@ import com.google.android.exoplayer2.util.Util;
   private int relativeFirstIndex;
   private int readPosition;
 
+  // A circular index of the keyframes in the queue, used to find keyframes by binary search.
+  private int keyframeCapacity;
+  private int[] keyframeIndices;
+  private long[] keyframeTimesUs;
+  private int keyframeCount;
+  private int relativeFirstKeyframeIndex;
+
   private long largestDiscardedTimestampUs;
   private long largestQueuedTimestampUs;
   private boolean upstreamKeyframeRequired;
@@ -71,6 +79,9 @@ import com.google.android.exoplayer2.util.Util;
     sizes = new int[capacity];
     cryptoDatas = new CryptoData[capacity];
     formats = new Format[capacity];
+    keyframeCapacity = INITIAL_KEYFRAME_CAPACITY;
+    keyframeIndices = new int[keyframeCapacity];
+    keyframeTimesUs = new long[keyframeCapacity];
     largestDiscardedTimestampUs = Long.MIN_VALUE;
     largestQueuedTimestampUs = Long.MIN_VALUE;
     upstreamFormatRequired = true;
@@ -90,6 +101,8 @@ import com.google.android.exoplayer2.util.Util;
     absoluteFirstIndex = 0;
     relativeFirstIndex = 0;
     readPosition = 0;
+    keyframeCount = 0;
+    relativeFirstKeyframeIndex = 0;
     upstreamKeyframeRequired = true;
     largestDiscardedTimestampUs = Long.MIN_VALUE;
     largestQueuedTimestampUs = Long.MIN_VALUE;
@@ -117,6 +130,11 @@ import com.google.android.exoplayer2.util.Util;
     int discardCount = getWriteIndex() - discardFromIndex;
     Assertions.checkArgument(0 <= discardCount && discardCount <= (length - readPosition));
     length -= discardCount;
+    int writeIndex = getWriteIndex();
+    while (keyframeCount > 0 && keyframeIndices[getRelativeKeyframeIndex(keyframeCount - 1)]
+        >= writeIndex) {
+      keyframeCount--;
+    }
     largestQueuedTimestampUs = Math.max(largestDiscardedTimestampUs, getLargestTimestamp(length));
     if (length == 0) {
       return 0;
@@ -277,7 +295,7 @@ import com.google.android.exoplayer2.util.Util;
         || (timeUs > largestQueuedTimestampUs && !allowTimeBeyondBuffer)) {
       return SampleQueue.ADVANCE_FAILED;
     }
-    int offset = findSampleBefore(relativeReadIndex, length - readPosition, timeUs, toKeyframe);
+    int offset = findSampleBefore(readPosition, length - readPosition, timeUs, toKeyframe);
     if (offset == -1) {
       return SampleQueue.ADVANCE_FAILED;
     }
@@ -329,7 +347,7 @@ import com.google.android.exoplayer2.util.Util;
       return C.POSITION_UNSET;
     }
     int searchLength = stopAtReadPosition && readPosition != length ? readPosition + 1 : length;
-    int discardCount = findSampleBefore(relativeFirstIndex, searchLength, timeUs, toKeyframe);
+    int discardCount = findSampleBefore(0, searchLength, timeUs, toKeyframe);
     if (discardCount == -1) {
       return C.POSITION_UNSET;
     }
@@ -398,6 +416,9 @@ import com.google.android.exoplayer2.util.Util;
     cryptoDatas[relativeEndIndex] = cryptoData;
     formats[relativeEndIndex] = upstreamFormat;
     sourceIds[relativeEndIndex] = upstreamSourceId;
+    if ((sampleFlags & C.BUFFER_FLAG_KEY_FRAME) != 0) {
+      addKeyframe(getWriteIndex(), timeUs);
+    }
 
     length++;
     if (length == capacity) {
@@ -477,25 +498,82 @@ import com.google.android.exoplayer2.util.Util;
   /**
    * Finds the sample in the specified range that's before or at the specified time. If
    * {@code keyframe} is {@code true} then the sample is additionally required to be a keyframe.
+   * <p>
+   * The last keyframe before or at the specified time is found by binary search, assuming that the
+   * timestamps prior to a keyframe are always less than the timestamp of the keyframe itself. This
+   * implies that the search would reach the keyframe, and so a linear search is only required
+   * from there (or from the start of the range if there's no such keyframe in the range).
    *
-   * @param relativeStartIndex The relative index from which to start searching.
+   * @param startOffset The offset from the start of the queue from which to start searching.
    * @param length The length of the range being searched.
    * @param timeUs The specified time.
    * @param keyframe Whether only keyframes should be considered.
-   * @return The offset from {@code relativeFirstIndex} to the found sample, or -1 if no matching
+   * @return The offset from {@code startOffset} to the found sample, or -1 if no matching sample
+   *     was found.
+   */
+  private int findSampleBefore(int startOffset, int length, long timeUs, boolean keyframe) {
+    int keyframeOffset = findKeyframeBefore(startOffset, length, timeUs);
+    if (keyframeOffset == -1) {
+      return keyframe ? -1 : findSampleBeforeLinear(getRelativeIndex(startOffset), length, timeUs);
+    } else if (keyframe) {
+      return keyframeOffset;
+    }
+    return keyframeOffset + findSampleBeforeLinear(getRelativeIndex(startOffset + keyframeOffset),
+        length - keyframeOffset, timeUs);
+  }
+
+  /**
+   * Finds the last keyframe in the specified range that's before or at the specified time, using
+   * the keyframe index.
+   *
+   * @param startOffset The offset from the start of the queue from which to start searching.
+   * @param length The length of the range being searched.
+   * @param timeUs The specified time.
+   * @return The offset from {@code startOffset} to the found keyframe, or -1 if no matching
+   *     keyframe was found.
+   */
+  private int findKeyframeBefore(int startOffset, int length, long timeUs) {
+    int absoluteStartIndex = absoluteFirstIndex + startOffset;
+    int absoluteEndIndex = absoluteStartIndex + length;
+    // Find the last keyframe that's before the end of the range and before or at the time. Both
+    // the indices and the timestamps of keyframes are increasing.
+    int low = 0;
+    int high = keyframeCount - 1;
+    int found = -1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int relativeMid = getRelativeKeyframeIndex(mid);
+      if (keyframeIndices[relativeMid] < absoluteEndIndex
+          && keyframeTimesUs[relativeMid] <= timeUs) {
+        found = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    if (found == -1) {
+      return -1;
+    }
+    int absoluteKeyframeIndex = keyframeIndices[getRelativeKeyframeIndex(found)];
+    return absoluteKeyframeIndex >= absoluteStartIndex
+        ? absoluteKeyframeIndex - absoluteStartIndex : -1;
+  }
+
+  /**
+   * Finds the sample in the specified range that's before or at the specified time by scanning the
+   * range linearly.
+   *
+   * @param relativeStartIndex The relative index from which to start searching.
+   * @param length The length of the range being searched.
+   * @param timeUs The specified time.
+   * @return The offset from {@code relativeStartIndex} to the found sample, or -1 if no matching
    *     sample was found.
    */
-  private int findSampleBefore(int relativeStartIndex, int length, long timeUs, boolean keyframe) {
-    // This could be optimized to use a binary search, however in practice callers to this method
-    // normally pass times near to the start of the search region. Hence it's unclear whether
-    // switching to a binary search would yield any real benefit.
+  private int findSampleBeforeLinear(int relativeStartIndex, int length, long timeUs) {
     int sampleCountToTarget = -1;
     int searchIndex = relativeStartIndex;
     for (int i = 0; i < length && timesUs[searchIndex] <= timeUs; i++) {
-      if (!keyframe || (flags[searchIndex] & C.BUFFER_FLAG_KEY_FRAME) != 0) {
-        // We've found a suitable sample.
-        sampleCountToTarget = i;
-      }
+      sampleCountToTarget = i;
       searchIndex++;
       if (searchIndex == capacity) {
         searchIndex = 0;
@@ -515,6 +593,14 @@ import com.google.android.exoplayer2.util.Util;
         getLargestTimestamp(discardCount));
     length -= discardCount;
     absoluteFirstIndex += discardCount;
+    while (keyframeCount > 0
+        && keyframeIndices[relativeFirstKeyframeIndex] < absoluteFirstIndex) {
+      keyframeCount--;
+      relativeFirstKeyframeIndex++;
+      if (relativeFirstKeyframeIndex == keyframeCapacity) {
+        relativeFirstKeyframeIndex = 0;
+      }
+    }
     relativeFirstIndex += discardCount;
     if (relativeFirstIndex >= capacity) {
       relativeFirstIndex -= capacity;
@@ -558,6 +644,47 @@ import com.google.android.exoplayer2.util.Util;
     return largestTimestampUs;
   }
 
+  /**
+   * Adds a keyframe to the end of the keyframe index.
+   *
+   * @param absoluteIndex The absolute index of the keyframe.
+   * @param timeUs The timestamp of the keyframe.
+   */
+  private void addKeyframe(int absoluteIndex, long timeUs) {
+    if (keyframeCount == keyframeCapacity) {
+      // Increase the capacity.
+      int newKeyframeCapacity = keyframeCapacity * 2;
+      int[] newKeyframeIndices = new int[newKeyframeCapacity];
+      long[] newKeyframeTimesUs = new long[newKeyframeCapacity];
+      int beforeWrap = keyframeCapacity - relativeFirstKeyframeIndex;
+      System.arraycopy(keyframeIndices, relativeFirstKeyframeIndex, newKeyframeIndices, 0,
+          beforeWrap);
+      System.arraycopy(keyframeTimesUs, relativeFirstKeyframeIndex, newKeyframeTimesUs, 0,
+          beforeWrap);
+      int afterWrap = relativeFirstKeyframeIndex;
+      System.arraycopy(keyframeIndices, 0, newKeyframeIndices, beforeWrap, afterWrap);
+      System.arraycopy(keyframeTimesUs, 0, newKeyframeTimesUs, beforeWrap, afterWrap);
+      keyframeIndices = newKeyframeIndices;
+      keyframeTimesUs = newKeyframeTimesUs;
+      relativeFirstKeyframeIndex = 0;
+      keyframeCapacity = newKeyframeCapacity;
+    }
+    int relativeKeyframeIndex = getRelativeKeyframeIndex(keyframeCount);
+    keyframeIndices[relativeKeyframeIndex] = absoluteIndex;
+    keyframeTimesUs[relativeKeyframeIndex] = timeUs;
+    keyframeCount++;
+  }
+
+  /**
+   * Returns the relative index in the keyframe index for a given offset from its start.
+   *
+   * @param offset The offset, which must be in the range [0, keyframeCount].
+   */
+  private int getRelativeKeyframeIndex(int offset) {
+    int relativeIndex = relativeFirstKeyframeIndex + offset;
+    return relativeIndex < keyframeCapacity ? relativeIndex : relativeIndex - keyframeCapacity;
+  }
+
    /**
     * Returns the relative index for a given offset from the start of the queue.
     *
@@ -58,6 +58,7 @@ public final class SampleQueue implements TrackOutput {
   private final SampleMetadataQueue metadataQueue;
   private final SampleExtrasHolder extrasHolder;
   private final ParsableByteArray scratch;
+  private @Nullable byte[] directWriteScratch;
 
   // References into the linked list of allocations.
   private AllocationNode firstAllocationNode;
@@ -438,7 +439,12 @@ public final class SampleQueue implements TrackOutput {
     while (remaining > 0) {
       int toCopy = Math.min(remaining, (int) (readAllocationNode.endPosition - absolutePosition));
       Allocation allocation = readAllocationNode.allocation;
-      target.put(allocation.data, readAllocationNode.translateOffset(absolutePosition), toCopy);
+      int offset = readAllocationNode.translateOffset(absolutePosition);
+      if (allocation.data != null) {
+        target.put(allocation.data, offset, toCopy);
+      } else {
+        target.put(readAllocationNode.getReadBuffer(offset, toCopy));
+      }
       remaining -= toCopy;
       absolutePosition += toCopy;
       if (absolutePosition == readAllocationNode.endPosition) {
@@ -460,8 +466,12 @@ public final class SampleQueue implements TrackOutput {
     while (remaining > 0) {
       int toCopy = Math.min(remaining, (int) (readAllocationNode.endPosition - absolutePosition));
       Allocation allocation = readAllocationNode.allocation;
-      System.arraycopy(allocation.data, readAllocationNode.translateOffset(absolutePosition),
-          target, length - remaining, toCopy);
+      int offset = readAllocationNode.translateOffset(absolutePosition);
+      if (allocation.data != null) {
+        System.arraycopy(allocation.data, offset, target, length - remaining, toCopy);
+      } else {
+        readAllocationNode.getReadBuffer(offset, toCopy).get(target, length - remaining, toCopy);
+      }
       remaining -= toCopy;
       absolutePosition += toCopy;
       if (absolutePosition == readAllocationNode.endPosition) {
@@ -544,8 +554,22 @@ public final class SampleQueue implements TrackOutput {
   public int sampleData(ExtractorInput input, int length, boolean allowEndOfInput)
       throws IOException, InterruptedException {
     length = preAppend(length);
-    int bytesAppended = input.read(writeAllocationNode.allocation.data,
-        writeAllocationNode.translateOffset(totalBytesWritten), length);
+    Allocation allocation = writeAllocationNode.allocation;
+    int offset = writeAllocationNode.translateOffset(totalBytesWritten);
+    int bytesAppended;
+    if (allocation.data != null) {
+      bytesAppended = input.read(allocation.data, offset, length);
+    } else {
+      // The input can't be read into a direct allocation, so read it via a heap array.
+      if (directWriteScratch == null) {
+        directWriteScratch = new byte[allocationLength];
+      }
+      bytesAppended = input.read(directWriteScratch, 0, length);
+      if (bytesAppended != C.RESULT_END_OF_INPUT) {
+        writeAllocationNode.getWriteBuffer(offset, bytesAppended)
+            .put(directWriteScratch, 0, bytesAppended);
+      }
+    }
     if (bytesAppended == C.RESULT_END_OF_INPUT) {
       if (allowEndOfInput) {
         return C.RESULT_END_OF_INPUT;
@@ -560,8 +584,13 @@ public final class SampleQueue implements TrackOutput {
   public void sampleData(ParsableByteArray buffer, int length) {
     while (length > 0) {
       int bytesAppended = preAppend(length);
-      buffer.readBytes(writeAllocationNode.allocation.data,
-          writeAllocationNode.translateOffset(totalBytesWritten), bytesAppended);
+      Allocation allocation = writeAllocationNode.allocation;
+      int offset = writeAllocationNode.translateOffset(totalBytesWritten);
+      if (allocation.data != null) {
+        buffer.readBytes(allocation.data, offset, bytesAppended);
+      } else {
+        buffer.readBytes(writeAllocationNode.getWriteBuffer(offset, bytesAppended), bytesAppended);
+      }
       length -= bytesAppended;
       postAppend(bytesAppended);
     }
@@ -681,6 +710,11 @@ public final class SampleQueue implements TrackOutput {
      */
     @Nullable public AllocationNode next;
 
+    // Views of a direct allocation's buffer, used by the reading and loading threads respectively,
+    // so that the threads don't modify each other's position and limit.
+    @Nullable private ByteBuffer readBuffer;
+    @Nullable private ByteBuffer writeBuffer;
+
     /**
      * @param startPosition See {@link #startPosition}.
      * @param allocationLength The length of the {@link Allocation} with which this node will be
@@ -700,12 +734,40 @@ public final class SampleQueue implements TrackOutput {
     public void initialize(Allocation allocation, AllocationNode next) {
       this.allocation = allocation;
       this.next = next;
+      if (allocation.buffer != null) {
+        readBuffer = allocation.buffer.duplicate();
+        writeBuffer = allocation.buffer.duplicate();
+      }
       wasInitialized = true;
     }
 
     /**
-     * Gets the offset into the {@link #allocation}'s {@link Allocation#data} that corresponds to
-     * the specified absolute position.
+     * Returns a view of a direct {@link #allocation}'s buffer for reading, whose position and limit
+     * delimit the specified range.
+     *
+     * @param offset The offset into the allocation's {@link Allocation#buffer}.
+     * @param length The length of the range.
+     * @return The view of the buffer.
+     */
+    public ByteBuffer getReadBuffer(int offset, int length) {
+      return setRange(readBuffer, offset, length);
+    }
+
+    /**
+     * Returns a view of a direct {@link #allocation}'s buffer for writing, whose position and limit
+     * delimit the specified range.
+     *
+     * @param offset The offset into the allocation's {@link Allocation#buffer}.
+     * @param length The length of the range.
+     * @return The view of the buffer.
+     */
+    public ByteBuffer getWriteBuffer(int offset, int length) {
+      return setRange(writeBuffer, offset, length);
+    }
+
+    /**
+     * Gets the offset into the {@link #allocation}'s {@link Allocation#data} or {@link
+     * Allocation#buffer} that corresponds to the specified absolute position.
      *
      * @param absolutePosition The absolute position.
      * @return The corresponding offset into the allocation's data.
@@ -721,11 +783,20 @@ public final class SampleQueue implements TrackOutput {
      */
     public AllocationNode clear() {
       allocation = null;
+      readBuffer = null;
+      writeBuffer = null;
       AllocationNode temp = next;
       next = null;
       return temp;
     }
 
+    private static ByteBuffer setRange(ByteBuffer buffer, int offset, int length) {
+      buffer.clear();
+      buffer.position(offset);
+      buffer.limit(offset + length);
+      return buffer;
+    }
+
   }
 
 }
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.chunk;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Base class for {@link MediaChunkIterator}s that iterate over a range of chunk indices.
+ */
+public abstract class BaseMediaChunkIterator implements MediaChunkIterator {
+
+  private final long fromIndex;
+  private final long toIndex;
+
+  private long currentIndex;
+
+  /**
+   * @param fromIndex The index of the first chunk.
+   * @param toIndex The index of the last chunk.
+   */
+  public BaseMediaChunkIterator(long fromIndex, long toIndex) {
+    this.fromIndex = fromIndex;
+    this.toIndex = toIndex;
+    currentIndex = fromIndex - 1;
+  }
+
+  @Override
+  public boolean isEnded() {
+    return currentIndex > toIndex;
+  }
+
+  @Override
+  public boolean next() {
+    currentIndex++;
+    return !isEnded();
+  }
+
+  /**
+   * Throws if the iterator doesn't point to a chunk.
+   *
+   * @throws NoSuchElementException If the iterator doesn't point to a chunk.
+   */
+  protected final void checkInBounds() {
+    if (currentIndex < fromIndex || currentIndex > toIndex) {
+      throw new NoSuchElementException();
+    }
+  }
+
+  /**
+   * Returns the index of the current chunk.
+   */
+  protected final long getCurrentIndex() {
+    return currentIndex;
+  }
+
+}
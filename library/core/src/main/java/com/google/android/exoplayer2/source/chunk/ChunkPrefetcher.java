@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.chunk;
+
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.Util;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads the data of upcoming chunks in parallel with the chunk that's currently being loaded, so
+ * that each chunk doesn't pay a full request round trip after the previous one has finished.
+ *
+ * <p>A {@link ChunkSampleStream} loads one chunk at a time, which keeps samples in order in its
+ * sample queues. A chunk source that uses a prefetcher reads its chunks through the {@link
+ * DataSource} returned by {@link #createDataSource(DataSource)}, and calls {@link
+ * #prefetch(DataSpec)} with the {@link DataSpec}s of the chunks that are likely to follow. When a
+ * chunk whose {@link DataSpec} matches a prefetch is opened, its data is read from the prefetch,
+ * which may still be in progress. Other requests are passed to the upstream {@link DataSource}.
+ *
+ * <p>Prefetched data is held in memory until it's read, so the number of prefetches should be
+ * kept small. Each prefetch holds at most a given number of bytes. The rest of a chunk that's
+ * larger than that is requested from upstream when the prefetched part has been read.
+ */
+public final class ChunkPrefetcher {
+
+  /**
+   * The default maximum number of bytes of a chunk that are prefetched.
+   */
+  public static final int DEFAULT_MAX_PREFETCH_SIZE = 4 * 1024 * 1024;
+
+  private static final int KEEP_ALIVE_TIME_MS = 10000;
+  private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+  private static final int READ_LENGTH = 16 * 1024;
+
+  private final DataSource.Factory dataSourceFactory;
+  private final int maxPrefetchCount;
+  private final int maxPrefetchSize;
+  private final ThreadPoolExecutor executor;
+  private final ArrayList<Prefetch> prefetches;
+
+  /**
+   * @param dataSourceFactory A factory for the {@link DataSource}s on which chunks are prefetched.
+   * @param maxPrefetchCount The maximum number of chunks that are prefetched at the same time, in
+   *     addition to the chunk that's being loaded.
+   */
+  public ChunkPrefetcher(DataSource.Factory dataSourceFactory, int maxPrefetchCount) {
+    this(dataSourceFactory, maxPrefetchCount, DEFAULT_MAX_PREFETCH_SIZE);
+  }
+
+  /**
+   * @param dataSourceFactory A factory for the {@link DataSource}s on which chunks are prefetched.
+   * @param maxPrefetchCount The maximum number of chunks that are prefetched at the same time, in
+   *     addition to the chunk that's being loaded.
+   * @param maxPrefetchSize The maximum number of bytes of a chunk that are prefetched.
+   */
+  public ChunkPrefetcher(DataSource.Factory dataSourceFactory, int maxPrefetchCount,
+      int maxPrefetchSize) {
+    Assertions.checkArgument(maxPrefetchCount > 0 && maxPrefetchSize > 0);
+    this.dataSourceFactory = dataSourceFactory;
+    this.maxPrefetchCount = maxPrefetchCount;
+    this.maxPrefetchSize = maxPrefetchSize;
+    prefetches = new ArrayList<>();
+    // Threads are only kept while there's something to prefetch, so a prefetcher doesn't need to
+    // be released.
+    executor = new ThreadPoolExecutor(maxPrefetchCount, maxPrefetchCount, KEEP_ALIVE_TIME_MS,
+        TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+          @Override
+          public Thread newThread(@NonNull Runnable r) {
+            return new Thread(r, "ChunkPrefetcher");
+          }
+        });
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Returns the maximum number of chunks that are prefetched at the same time.
+   */
+  public int getMaxPrefetchCount() {
+    return maxPrefetchCount;
+  }
+
+  /**
+   * Returns a {@link DataSource} that reads prefetched data when it's opened with the
+   * {@link DataSpec} of a prefetch, and reads from {@code upstream} otherwise.
+   *
+   * @param upstream The {@link DataSource} for requests that haven't been prefetched.
+   * @return The {@link DataSource}.
+   */
+  public DataSource createDataSource(DataSource upstream) {
+    return new PrefetchingDataSource(upstream);
+  }
+
+  /**
+   * Starts prefetching the data of a chunk, if it isn't already being prefetched. If the maximum
+   * number of prefetches is reached, the oldest prefetch that hasn't been read is discarded.
+   *
+   * @param dataSpec The {@link DataSpec} of the chunk.
+   */
+  public synchronized void prefetch(DataSpec dataSpec) {
+    if (dataSpec.postBody != null || getPrefetchIndex(dataSpec) != C.INDEX_UNSET) {
+      return;
+    }
+    if (prefetches.size() == maxPrefetchCount) {
+      prefetches.remove(0).cancel();
+    }
+    Prefetch prefetch = new Prefetch(dataSpec);
+    prefetches.add(prefetch);
+    executor.execute(prefetch);
+  }
+
+  /**
+   * Discards all prefetches that haven't been read.
+   */
+  public synchronized void clear() {
+    for (int i = 0; i < prefetches.size(); i++) {
+      prefetches.get(i).cancel();
+    }
+    prefetches.clear();
+  }
+
+  private synchronized Prefetch takePrefetch(DataSpec dataSpec) {
+    int index = getPrefetchIndex(dataSpec);
+    return index != C.INDEX_UNSET ? prefetches.remove(index) : null;
+  }
+
+  private int getPrefetchIndex(DataSpec dataSpec) {
+    for (int i = 0; i < prefetches.size(); i++) {
+      DataSpec prefetchDataSpec = prefetches.get(i).dataSpec;
+      if (prefetchDataSpec.absoluteStreamPosition == dataSpec.absoluteStreamPosition
+          && prefetchDataSpec.length == dataSpec.length
+          && prefetchDataSpec.flags == dataSpec.flags
+          && dataSpec.postBody == null
+          && prefetchDataSpec.uri.equals(dataSpec.uri)
+          && Util.areEqual(prefetchDataSpec.key, dataSpec.key)) {
+        return i;
+      }
+    }
+    return C.INDEX_UNSET;
+  }
+
+  /**
+   * The data of a chunk that's being prefetched. The data is appended by the loading thread and
+   * read by the thread that loads the chunk.
+   */
+  private final class Prefetch implements Runnable {
+
+    public final DataSpec dataSpec;
+
+    private byte[] data;
+    private int size;
+    private boolean opened;
+    private boolean finished;
+    private boolean truncated;
+    private long length;
+    private Uri uri;
+    private IOException error;
+    private volatile boolean canceled;
+
+    public Prefetch(DataSpec dataSpec) {
+      this.dataSpec = dataSpec;
+      length = C.LENGTH_UNSET;
+    }
+
+    public void cancel() {
+      canceled = true;
+    }
+
+    /**
+     * Blocks until the prefetch has opened its source or failed.
+     *
+     * @return Whether the prefetch opened its source. If false, the chunk should be loaded from
+     *     upstream instead.
+     * @throws InterruptedIOException If the thread was interrupted.
+     */
+    public synchronized boolean blockUntilOpened() throws InterruptedIOException {
+      while (!opened && error == null) {
+        waitForUpdate();
+      }
+      return opened;
+    }
+
+    public synchronized long getLength() {
+      return length;
+    }
+
+    public synchronized Uri getUri() {
+      return uri;
+    }
+
+    /**
+     * Returns whether the prefetch stopped at the maximum prefetch size before the end of the
+     * chunk was reached. Only valid once {@link #read(int, byte[], int, int)} has returned
+     * {@link C#RESULT_END_OF_INPUT}.
+     */
+    public synchronized boolean isTruncated() {
+      return truncated;
+    }
+
+    /**
+     * Reads prefetched data, blocking until data at {@code position} is available.
+     *
+     * @return The number of bytes read, or {@link C#RESULT_END_OF_INPUT}.
+     * @throws IOException If the prefetch failed before the data at {@code position} was loaded.
+     */
+    public synchronized int read(int position, byte[] buffer, int offset, int readLength)
+        throws IOException {
+      while (position == size && !finished && error == null) {
+        waitForUpdate();
+      }
+      if (position < size) {
+        int bytesRead = Math.min(readLength, size - position);
+        System.arraycopy(data, position, buffer, offset, bytesRead);
+        return bytesRead;
+      } else if (error != null) {
+        throw error;
+      }
+      return C.RESULT_END_OF_INPUT;
+    }
+
+    @Override
+    public void run() {
+      if (canceled) {
+        // The prefetch was discarded before it started.
+        onError(new InterruptedIOException());
+        return;
+      }
+      DataSource dataSource = dataSourceFactory.createDataSource();
+      try {
+        long resolvedLength = dataSource.open(dataSpec);
+        onOpened(resolvedLength, dataSource.getUri());
+        byte[] readBuffer = new byte[READ_LENGTH];
+        int bytesLoaded = 0;
+        int bytesRead = 0;
+        while (!canceled && bytesRead != C.RESULT_END_OF_INPUT && bytesLoaded < maxPrefetchSize) {
+          bytesRead = dataSource.read(readBuffer, 0,
+              Math.min(READ_LENGTH, maxPrefetchSize - bytesLoaded));
+          if (bytesRead > 0) {
+            bytesLoaded += bytesRead;
+            onDataLoaded(readBuffer, bytesRead);
+          }
+        }
+        boolean truncated = false;
+        if (!canceled && bytesRead != C.RESULT_END_OF_INPUT && bytesLoaded != resolvedLength) {
+          // The maximum prefetch size was reached. Check whether the chunk continues, in which case
+          // the rest of it is read from upstream once the prefetched data has been read. The byte
+          // read to check this is read again from upstream, so that the request isn't empty.
+          truncated = dataSource.read(readBuffer, 0, 1) != C.RESULT_END_OF_INPUT;
+        }
+        if (canceled) {
+          onError(new InterruptedIOException());
+        } else {
+          onFinished(truncated);
+        }
+      } catch (IOException e) {
+        onError(e);
+      } finally {
+        Util.closeQuietly(dataSource);
+      }
+    }
+
+    private synchronized void onOpened(long resolvedLength, Uri uri) {
+      length = resolvedLength;
+      this.uri = uri;
+      data = new byte[resolvedLength != C.LENGTH_UNSET
+          ? (int) Math.min(resolvedLength, maxPrefetchSize)
+          : Math.min(INITIAL_BUFFER_SIZE, maxPrefetchSize)];
+      opened = true;
+      notifyAll();
+    }
+
+    private synchronized void onDataLoaded(byte[] buffer, int length) {
+      if (size + length > data.length) {
+        data = Arrays.copyOf(data,
+            Math.max(Math.min(data.length * 2, maxPrefetchSize), size + length));
+      }
+      System.arraycopy(buffer, 0, data, size, length);
+      size += length;
+      notifyAll();
+    }
+
+    private synchronized void onFinished(boolean truncated) {
+      this.truncated = truncated;
+      finished = true;
+      notifyAll();
+    }
+
+    private synchronized void onError(IOException e) {
+      error = e;
+      notifyAll();
+    }
+
+    private void waitForUpdate() throws InterruptedIOException {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+    }
+
+  }
+
+  private final class PrefetchingDataSource implements DataSource {
+
+    private final DataSource upstream;
+
+    private Prefetch prefetch;
+    private int readPosition;
+    private boolean upstreamOpened;
+
+    public PrefetchingDataSource(DataSource upstream) {
+      this.upstream = upstream;
+    }
+
+    @Override
+    public long open(DataSpec dataSpec) throws IOException {
+      Prefetch prefetch = takePrefetch(dataSpec);
+      if (prefetch != null) {
+        // Hold the prefetch while blocking, so that it's canceled if the open is interrupted.
+        this.prefetch = prefetch;
+        if (prefetch.blockUntilOpened()) {
+          readPosition = 0;
+          return prefetch.getLength();
+        }
+        // The prefetch failed before any data was loaded. Try again from upstream.
+        this.prefetch = null;
+      }
+      upstreamOpened = true;
+      return upstream.open(dataSpec);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int readLength) throws IOException {
+      if (prefetch == null) {
+        return upstream.read(buffer, offset, readLength);
+      }
+      if (readLength == 0) {
+        return 0;
+      }
+      int bytesRead = prefetch.read(readPosition, buffer, offset, readLength);
+      if (bytesRead > 0) {
+        readPosition += bytesRead;
+      } else if (bytesRead == C.RESULT_END_OF_INPUT && prefetch.isTruncated()) {
+        // Read the rest of the chunk from upstream.
+        DataSpec remainingDataSpec = prefetch.dataSpec.subrange(readPosition);
+        prefetch = null;
+        upstreamOpened = true;
+        upstream.open(remainingDataSpec);
+        bytesRead = upstream.read(buffer, offset, readLength);
+      }
+      return bytesRead;
+    }
+
+    @Override
+    public Uri getUri() {
+      return prefetch != null ? prefetch.getUri() : upstream.getUri();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (prefetch != null) {
+        prefetch.cancel();
+        prefetch = null;
+      }
+      if (upstreamOpened) {
+        upstreamOpened = false;
+        upstream.close();
+      }
+    }
+
+  }
+
+}
@@ -325,6 +325,7 @@ public class ChunkSampleStream<T extends ChunkSource> implements SampleStream, S
     for (SampleQueue embeddedSampleQueue : embeddedSampleQueues) {
       embeddedSampleQueue.reset();
     }
+    chunkSource.release();
     if (releaseCallback != null) {
       releaseCallback.onSampleStreamReleased(this);
     }
@@ -101,4 +101,12 @@ public interface ChunkSource {
    */
   boolean onChunkLoadError(Chunk chunk, boolean cancelable, Exception e);
 
+  /**
+   * Releases any held resources.
+   * <p>
+   * Called by the {@link ChunkSampleStream} once it has been released, after which the source is
+   * no longer used. Implementations that don't hold any resources can do nothing.
+   */
+  void release();
+
 }
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.chunk;
+
+import com.google.android.exoplayer2.upstream.DataSpec;
+
+/**
+ * A {@link MediaChunkIterator} that's only created when it's first used. Sources whose iterators
+ * are expensive to create can use it to avoid the cost for track selections that don't look ahead
+ * at chunks.
+ */
+public abstract class LazyMediaChunkIterator implements MediaChunkIterator {
+
+  private MediaChunkIterator iterator;
+
+  @Override
+  public final boolean isEnded() {
+    return getIterator().isEnded();
+  }
+
+  @Override
+  public final boolean next() {
+    return getIterator().next();
+  }
+
+  @Override
+  public final DataSpec getDataSpec() {
+    return getIterator().getDataSpec();
+  }
+
+  @Override
+  public final long getChunkStartTimeUs() {
+    return getIterator().getChunkStartTimeUs();
+  }
+
+  @Override
+  public final long getChunkEndTimeUs() {
+    return getIterator().getChunkEndTimeUs();
+  }
+
+  /**
+   * Creates the iterator to which calls are delegated. Called at most once.
+   */
+  protected abstract MediaChunkIterator createIterator();
+
+  private MediaChunkIterator getIterator() {
+    if (iterator == null) {
+      iterator = createIterator();
+    }
+    return iterator;
+  }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.chunk;
+
+import com.google.android.exoplayer2.upstream.DataSpec;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the media chunks of a track that follow the current load position, so that a
+ * {@link com.google.android.exoplayer2.trackselection.TrackSelection} can look ahead at the chunks
+ * it's choosing between.
+ * <p>
+ * The iterator initially points before the first chunk, so {@link #next()} must be called before
+ * the chunk properties can be accessed.
+ */
+public interface MediaChunkIterator {
+
+  /**
+   * An empty iterator, for tracks whose upcoming chunks aren't known.
+   */
+  MediaChunkIterator EMPTY = new MediaChunkIterator() {
+
+    @Override
+    public boolean isEnded() {
+      return true;
+    }
+
+    @Override
+    public boolean next() {
+      return false;
+    }
+
+    @Override
+    public DataSpec getDataSpec() {
+      throw new NoSuchElementException();
+    }
+
+    @Override
+    public long getChunkStartTimeUs() {
+      throw new NoSuchElementException();
+    }
+
+    @Override
+    public long getChunkEndTimeUs() {
+      throw new NoSuchElementException();
+    }
+
+  };
+
+  /**
+   * Returns whether the iteration has reached the end of the available chunks.
+   */
+  boolean isEnded();
+
+  /**
+   * Moves the iterator to the next chunk.
+   *
+   * @return Whether the iterator points to a chunk, which is false once the end is reached.
+   */
+  boolean next();
+
+  /**
+   * Returns the {@link DataSpec} of the current chunk. Its length is {@link
+   * com.google.android.exoplayer2.C#LENGTH_UNSET} if the size of the chunk isn't known.
+   *
+   * @throws NoSuchElementException If the iterator doesn't point to a chunk.
+   */
+  DataSpec getDataSpec();
+
+  /**
+   * Returns the media start time of the current chunk, in microseconds.
+   *
+   * @throws NoSuchElementException If the iterator doesn't point to a chunk.
+   */
+  long getChunkStartTimeUs();
+
+  /**
+   * Returns the media end time of the current chunk, in microseconds.
+   *
+   * @throws NoSuchElementException If the iterator doesn't point to a chunk.
+   */
+  long getChunkEndTimeUs();
+
+}
@@ -19,9 +19,11 @@ import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.source.TrackGroup;
 import com.google.android.exoplayer2.source.chunk.MediaChunk;
+import com.google.android.exoplayer2.source.chunk.MediaChunkIterator;
 import com.google.android.exoplayer2.upstream.BandwidthMeter;
 import com.google.android.exoplayer2.util.Clock;
 import com.google.android.exoplayer2.util.Util;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -44,6 +46,7 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
     private final float bufferedFractionToLiveEdgeForQualityIncrease;
     private final long minTimeBetweenBufferReevaluationMs;
     private final Clock clock;
+    private final int chunkLookaheadCount;
 
     /**
      * @param bandwidthMeter Provides an estimate of the currently available bandwidth.
@@ -129,6 +132,51 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
         float bufferedFractionToLiveEdgeForQualityIncrease,
         long minTimeBetweenBufferReevaluationMs,
         Clock clock) {
+      this(
+          bandwidthMeter,
+          maxInitialBitrate,
+          minDurationForQualityIncreaseMs,
+          maxDurationForQualityDecreaseMs,
+          minDurationToRetainAfterDiscardMs,
+          bandwidthFraction,
+          bufferedFractionToLiveEdgeForQualityIncrease,
+          minTimeBetweenBufferReevaluationMs,
+          clock,
+          /* chunkLookaheadCount= */ 0);
+    }
+
+    /**
+     * @param bandwidthMeter Provides an estimate of the currently available bandwidth.
+     * @param maxInitialBitrate See {@link #Factory(BandwidthMeter, int, int, int, int, float,
+     *     float, long, Clock)}.
+     * @param minDurationForQualityIncreaseMs See {@link #Factory(BandwidthMeter, int, int, int,
+     *     int, float, float, long, Clock)}.
+     * @param maxDurationForQualityDecreaseMs See {@link #Factory(BandwidthMeter, int, int, int,
+     *     int, float, float, long, Clock)}.
+     * @param minDurationToRetainAfterDiscardMs See {@link #Factory(BandwidthMeter, int, int, int,
+     *     int, float, float, long, Clock)}.
+     * @param bandwidthFraction See {@link #Factory(BandwidthMeter, int, int, int, int, float,
+     *     float, long, Clock)}.
+     * @param bufferedFractionToLiveEdgeForQualityIncrease See {@link #Factory(BandwidthMeter, int,
+     *     int, int, int, float, float, long, Clock)}.
+     * @param minTimeBetweenBufferReevaluationMs See {@link #Factory(BandwidthMeter, int, int, int,
+     *     int, float, float, long, Clock)}.
+     * @param clock A {@link Clock}.
+     * @param chunkLookaheadCount The number of upcoming chunks whose actual sizes are used to
+     *     determine the bitrate of each track, when the source provides them. If 0, or if the sizes
+     *     of the chunks aren't known, the bitrates of the formats are used.
+     */
+    public Factory(
+        BandwidthMeter bandwidthMeter,
+        int maxInitialBitrate,
+        int minDurationForQualityIncreaseMs,
+        int maxDurationForQualityDecreaseMs,
+        int minDurationToRetainAfterDiscardMs,
+        float bandwidthFraction,
+        float bufferedFractionToLiveEdgeForQualityIncrease,
+        long minTimeBetweenBufferReevaluationMs,
+        Clock clock,
+        int chunkLookaheadCount) {
       this.bandwidthMeter = bandwidthMeter;
       this.maxInitialBitrate = maxInitialBitrate;
       this.minDurationForQualityIncreaseMs = minDurationForQualityIncreaseMs;
@@ -139,6 +187,7 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
           bufferedFractionToLiveEdgeForQualityIncrease;
       this.minTimeBetweenBufferReevaluationMs = minTimeBetweenBufferReevaluationMs;
       this.clock = clock;
+      this.chunkLookaheadCount = chunkLookaheadCount;
     }
 
     @Override
@@ -154,7 +203,8 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
           bandwidthFraction,
           bufferedFractionToLiveEdgeForQualityIncrease,
           minTimeBetweenBufferReevaluationMs,
-          clock);
+          clock,
+          chunkLookaheadCount);
     }
 
   }
@@ -176,6 +226,8 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
   private final float bufferedFractionToLiveEdgeForQualityIncrease;
   private final long minTimeBetweenBufferReevaluationMs;
   private final Clock clock;
+  private final int chunkLookaheadCount;
+  private final long[] chunkBitrates;
 
   private float playbackSpeed;
   private int selectedIndex;
@@ -245,6 +297,61 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
       float bufferedFractionToLiveEdgeForQualityIncrease,
       long minTimeBetweenBufferReevaluationMs,
       Clock clock) {
+    this(
+        group,
+        tracks,
+        bandwidthMeter,
+        maxInitialBitrate,
+        minDurationForQualityIncreaseMs,
+        maxDurationForQualityDecreaseMs,
+        minDurationToRetainAfterDiscardMs,
+        bandwidthFraction,
+        bufferedFractionToLiveEdgeForQualityIncrease,
+        minTimeBetweenBufferReevaluationMs,
+        clock,
+        /* chunkLookaheadCount= */ 0);
+  }
+
+  /**
+   * @param group The {@link TrackGroup}.
+   * @param tracks The indices of the selected tracks within the {@link TrackGroup}. Must not be
+   *     empty. May be in any order.
+   * @param bandwidthMeter Provides an estimate of the currently available bandwidth.
+   * @param maxInitialBitrate See {@link #AdaptiveTrackSelection(TrackGroup, int[], BandwidthMeter,
+   *     int, long, long, long, float, float, long, Clock)}.
+   * @param minDurationForQualityIncreaseMs See {@link #AdaptiveTrackSelection(TrackGroup, int[],
+   *     BandwidthMeter, int, long, long, long, float, float, long, Clock)}.
+   * @param maxDurationForQualityDecreaseMs See {@link #AdaptiveTrackSelection(TrackGroup, int[],
+   *     BandwidthMeter, int, long, long, long, float, float, long, Clock)}.
+   * @param minDurationToRetainAfterDiscardMs See {@link #AdaptiveTrackSelection(TrackGroup, int[],
+   *     BandwidthMeter, int, long, long, long, float, float, long, Clock)}.
+   * @param bandwidthFraction See {@link #AdaptiveTrackSelection(TrackGroup, int[], BandwidthMeter,
+   *     int, long, long, long, float, float, long, Clock)}.
+   * @param bufferedFractionToLiveEdgeForQualityIncrease See {@link
+   *     #AdaptiveTrackSelection(TrackGroup, int[], BandwidthMeter, int, long, long, long, float,
+   *     float, long, Clock)}.
+   * @param minTimeBetweenBufferReevaluationMs See {@link #AdaptiveTrackSelection(TrackGroup,
+   *     int[], BandwidthMeter, int, long, long, long, float, float, long, Clock)}.
+   * @param clock A {@link Clock}.
+   * @param chunkLookaheadCount The number of upcoming chunks whose actual sizes are used to
+   *     determine the bitrate of each track, when the source provides them through {@link
+   *     #updateSelectedTrack(long, long, long, MediaChunkIterator[])}. If 0, or if the sizes of the
+   *     chunks aren't known, the bitrates of the formats are used. Using actual sizes avoids
+   *     under-selecting variable bitrate content, whose formats declare the peak bitrate.
+   */
+  public AdaptiveTrackSelection(
+      TrackGroup group,
+      int[] tracks,
+      BandwidthMeter bandwidthMeter,
+      int maxInitialBitrate,
+      long minDurationForQualityIncreaseMs,
+      long maxDurationForQualityDecreaseMs,
+      long minDurationToRetainAfterDiscardMs,
+      float bandwidthFraction,
+      float bufferedFractionToLiveEdgeForQualityIncrease,
+      long minTimeBetweenBufferReevaluationMs,
+      Clock clock,
+      int chunkLookaheadCount) {
     super(group, tracks);
     this.bandwidthMeter = bandwidthMeter;
     this.maxInitialBitrate = maxInitialBitrate;
@@ -256,6 +363,9 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
         bufferedFractionToLiveEdgeForQualityIncrease;
     this.minTimeBetweenBufferReevaluationMs = minTimeBetweenBufferReevaluationMs;
     this.clock = clock;
+    this.chunkLookaheadCount = chunkLookaheadCount;
+    chunkBitrates = new long[length];
+    Arrays.fill(chunkBitrates, Format.NO_VALUE);
     playbackSpeed = 1f;
     selectedIndex = determineIdealSelectedIndex(Long.MIN_VALUE);
     reason = C.SELECTION_REASON_INITIAL;
@@ -274,35 +384,21 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
 
   @Override
   public void updateSelectedTrack(long playbackPositionUs, long bufferedDurationUs,
-      long availableDurationUs) {
-    long nowMs = clock.elapsedRealtime();
-    // Stash the current selection, then make a new one.
-    int currentSelectedIndex = selectedIndex;
-    selectedIndex = determineIdealSelectedIndex(nowMs);
-    if (selectedIndex == currentSelectedIndex) {
-      return;
-    }
-
-    if (!isBlacklisted(currentSelectedIndex, nowMs)) {
-      // Revert back to the current selection if conditions are not suitable for switching.
-      Format currentFormat = getFormat(currentSelectedIndex);
-      Format selectedFormat = getFormat(selectedIndex);
-      if (selectedFormat.bitrate > currentFormat.bitrate
-          && bufferedDurationUs < minDurationForQualityIncreaseUs(availableDurationUs)) {
-        // The selected track is a higher quality, but we have insufficient buffer to safely switch
-        // up. Defer switching up for now.
-        selectedIndex = currentSelectedIndex;
-      } else if (selectedFormat.bitrate < currentFormat.bitrate
-          && bufferedDurationUs >= maxDurationForQualityDecreaseUs) {
-        // The selected track is a lower quality, but we have sufficient buffer to defer switching
-        // down for now.
-        selectedIndex = currentSelectedIndex;
+      long availableDurationUs, MediaChunkIterator[] mediaChunkIterators) {
+    if (chunkLookaheadCount > 0) {
+      for (int i = 0; i < length; i++) {
+        chunkBitrates[i] = getChunkBitrate(mediaChunkIterators[i]);
       }
     }
-    // If we adapted, update the trigger.
-    if (selectedIndex != currentSelectedIndex) {
-      reason = C.SELECTION_REASON_ADAPTIVE;
-    }
+    updateSelectedIndex(bufferedDurationUs, availableDurationUs);
+  }
+
+  @Override
+  public void updateSelectedTrack(long playbackPositionUs, long bufferedDurationUs,
+      long availableDurationUs) {
+    // The upcoming chunks aren't known, so the bitrates of the formats are used.
+    Arrays.fill(chunkBitrates, Format.NO_VALUE);
+    updateSelectedIndex(bufferedDurationUs, availableDurationUs);
   }
 
   @Override
@@ -362,6 +458,37 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
     return queueSize;
   }
 
+  private void updateSelectedIndex(long bufferedDurationUs, long availableDurationUs) {
+    long nowMs = clock.elapsedRealtime();
+    // Stash the current selection, then make a new one.
+    int currentSelectedIndex = selectedIndex;
+    selectedIndex = determineIdealSelectedIndex(nowMs);
+    if (selectedIndex == currentSelectedIndex) {
+      return;
+    }
+
+    if (!isBlacklisted(currentSelectedIndex, nowMs)) {
+      // Revert back to the current selection if conditions are not suitable for switching.
+      Format currentFormat = getFormat(currentSelectedIndex);
+      Format selectedFormat = getFormat(selectedIndex);
+      if (selectedFormat.bitrate > currentFormat.bitrate
+          && bufferedDurationUs < minDurationForQualityIncreaseUs(availableDurationUs)) {
+        // The selected track is a higher quality, but we have insufficient buffer to safely switch
+        // up. Defer switching up for now.
+        selectedIndex = currentSelectedIndex;
+      } else if (selectedFormat.bitrate < currentFormat.bitrate
+          && bufferedDurationUs >= maxDurationForQualityDecreaseUs) {
+        // The selected track is a lower quality, but we have sufficient buffer to defer switching
+        // down for now.
+        selectedIndex = currentSelectedIndex;
+      }
+    }
+    // If we adapted, update the trigger.
+    if (selectedIndex != currentSelectedIndex) {
+      reason = C.SELECTION_REASON_ADAPTIVE;
+    }
+  }
+
   /**
    * Computes the ideal selected index ignoring buffer health.
    *
@@ -375,8 +502,9 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
     int lowestBitrateNonBlacklistedIndex = 0;
     for (int i = 0; i < length; i++) {
       if (nowMs == Long.MIN_VALUE || !isBlacklisted(i, nowMs)) {
-        Format format = getFormat(i);
-        if (Math.round(format.bitrate * playbackSpeed) <= effectiveBitrate) {
+        long bitrate = chunkBitrates[i] != Format.NO_VALUE ? chunkBitrates[i]
+            : getFormat(i).bitrate;
+        if (Math.round(bitrate * playbackSpeed) <= effectiveBitrate) {
           return i;
         } else {
           lowestBitrateNonBlacklistedIndex = i;
@@ -386,6 +514,24 @@ public class AdaptiveTrackSelection extends BaseTrackSelection {
     return lowestBitrateNonBlacklistedIndex;
   }
 
+  /**
+   * Returns the average bitrate of the next {@link #chunkLookaheadCount} chunks of a track, or
+   * {@link Format#NO_VALUE} if the size of any of them isn't known.
+   */
+  private long getChunkBitrate(MediaChunkIterator iterator) {
+    long bytes = 0;
+    long durationUs = 0;
+    for (int i = 0; i < chunkLookaheadCount && iterator.next(); i++) {
+      long length = iterator.getDataSpec().length;
+      if (length == C.LENGTH_UNSET) {
+        return Format.NO_VALUE;
+      }
+      bytes += length;
+      durationUs += iterator.getChunkEndTimeUs() - iterator.getChunkStartTimeUs();
+    }
+    return durationUs > 0 ? (bytes * 8 * C.MICROS_PER_SECOND) / durationUs : Format.NO_VALUE;
+  }
+
   private long minDurationForQualityIncreaseUs(long availableDurationUs) {
     boolean isAvailableDurationTooShort = availableDurationUs != C.TIME_UNSET
         && availableDurationUs <= minDurationForQualityIncreaseUs;
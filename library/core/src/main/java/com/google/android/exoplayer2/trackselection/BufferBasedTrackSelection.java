@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.trackselection;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.Clock;
+import com.google.android.exoplayer2.util.Util;
+
+/**
+ * A buffer based adaptive {@link TrackSelection}, whose selected track is chosen from the duration
+ * of buffered media using the BOLA algorithm (see Spiteri, Urgaonkar and Sitaraman, "BOLA:
+ * Near-Optimal Bitrate Adaptation for Online Videos").
+ * <p>
+ * Each track has a utility that's the logarithm of its chunk size relative to the chunk size of
+ * the lowest quality track. Chunks are assumed to have the same duration in all tracks, so chunk
+ * sizes are proportional to the bitrates of the formats. The selected track is the one that
+ * maximizes {@code (v * (utility + gamma) - bufferedDuration) / chunkSize}, where {@code v} and
+ * {@code gamma} are chosen so that the lowest quality track is selected while less than the
+ * minimum buffer duration is buffered, and the highest quality track is selected once the buffer
+ * target is reached. Since the selection only depends on the buffer, it doesn't react to short
+ * fluctuations of the bandwidth estimate.
+ * <p>
+ * While playback is starting, and after the buffer has run dry, the buffer says little about the
+ * network, so until the minimum buffer duration is buffered the selection may also pick the track
+ * of highest quality that fits the bandwidth estimate.
+ */
+public final class BufferBasedTrackSelection extends BaseTrackSelection {
+
+  /**
+   * Factory for {@link BufferBasedTrackSelection} instances.
+   */
+  public static final class Factory implements TrackSelection.Factory {
+
+    private final BandwidthMeter bandwidthMeter;
+    private final int maxInitialBitrate;
+    private final int minBufferMs;
+    private final int bufferTargetMs;
+    private final float bandwidthFraction;
+    private final Clock clock;
+
+    /**
+     * @param bandwidthMeter Provides an estimate of the currently available bandwidth, which is
+     *     used while playback is starting.
+     */
+    public Factory(BandwidthMeter bandwidthMeter) {
+      this(
+          bandwidthMeter,
+          AdaptiveTrackSelection.DEFAULT_MAX_INITIAL_BITRATE,
+          DEFAULT_MIN_BUFFER_MS,
+          DEFAULT_BUFFER_TARGET_MS,
+          AdaptiveTrackSelection.DEFAULT_BANDWIDTH_FRACTION,
+          Clock.DEFAULT);
+    }
+
+    /**
+     * @param bandwidthMeter Provides an estimate of the currently available bandwidth, which is
+     *     used while playback is starting.
+     * @param maxInitialBitrate The maximum bitrate in bits per second that should be assumed when a
+     *     bandwidth estimate is unavailable.
+     * @param minBufferMs The buffered duration below which the lowest quality track is selected,
+     *     in milliseconds.
+     * @param bufferTargetMs The buffered duration from which the highest quality track is
+     *     selected, in milliseconds. Must be greater than {@code minBufferMs}.
+     * @param bandwidthFraction The fraction of the available bandwidth that the selection should
+     *     consider available for use while playback is starting.
+     * @param clock A {@link Clock}.
+     */
+    public Factory(
+        BandwidthMeter bandwidthMeter,
+        int maxInitialBitrate,
+        int minBufferMs,
+        int bufferTargetMs,
+        float bandwidthFraction,
+        Clock clock) {
+      this.bandwidthMeter = bandwidthMeter;
+      this.maxInitialBitrate = maxInitialBitrate;
+      this.minBufferMs = minBufferMs;
+      this.bufferTargetMs = bufferTargetMs;
+      this.bandwidthFraction = bandwidthFraction;
+      this.clock = clock;
+    }
+
+    @Override
+    public BufferBasedTrackSelection createTrackSelection(TrackGroup group, int... tracks) {
+      return new BufferBasedTrackSelection(
+          group,
+          tracks,
+          bandwidthMeter,
+          maxInitialBitrate,
+          minBufferMs,
+          bufferTargetMs,
+          bandwidthFraction,
+          clock);
+    }
+
+  }
+
+  public static final int DEFAULT_MIN_BUFFER_MS = 10000;
+  public static final int DEFAULT_BUFFER_TARGET_MS = 30000;
+
+  private final BandwidthMeter bandwidthMeter;
+  private final int maxInitialBitrate;
+  private final long minBufferUs;
+  private final long bufferTargetUs;
+  private final float bandwidthFraction;
+  private final Clock clock;
+  private final double[] utilities;
+  private final double gamma;
+  private final double v;
+
+  private float playbackSpeed;
+  private int selectedIndex;
+  private int reason;
+  private boolean startingUp;
+
+  /**
+   * @param group The {@link TrackGroup}.
+   * @param tracks The indices of the selected tracks within the {@link TrackGroup}. Must not be
+   *     empty. May be in any order.
+   * @param bandwidthMeter Provides an estimate of the currently available bandwidth, which is used
+   *     while playback is starting.
+   */
+  public BufferBasedTrackSelection(TrackGroup group, int[] tracks,
+      BandwidthMeter bandwidthMeter) {
+    this(
+        group,
+        tracks,
+        bandwidthMeter,
+        AdaptiveTrackSelection.DEFAULT_MAX_INITIAL_BITRATE,
+        DEFAULT_MIN_BUFFER_MS,
+        DEFAULT_BUFFER_TARGET_MS,
+        AdaptiveTrackSelection.DEFAULT_BANDWIDTH_FRACTION,
+        Clock.DEFAULT);
+  }
+
+  /**
+   * @param group The {@link TrackGroup}.
+   * @param tracks The indices of the selected tracks within the {@link TrackGroup}. Must not be
+   *     empty. May be in any order.
+   * @param bandwidthMeter Provides an estimate of the currently available bandwidth, which is used
+   *     while playback is starting.
+   * @param maxInitialBitrate The maximum bitrate in bits per second that should be assumed when a
+   *     bandwidth estimate is unavailable.
+   * @param minBufferMs The buffered duration below which the lowest quality track is selected, in
+   *     milliseconds.
+   * @param bufferTargetMs The buffered duration from which the highest quality track is selected,
+   *     in milliseconds. Must be greater than {@code minBufferMs}.
+   * @param bandwidthFraction The fraction of the available bandwidth that the selection should
+   *     consider available for use while playback is starting.
+   * @param clock A {@link Clock}.
+   */
+  public BufferBasedTrackSelection(
+      TrackGroup group,
+      int[] tracks,
+      BandwidthMeter bandwidthMeter,
+      int maxInitialBitrate,
+      int minBufferMs,
+      int bufferTargetMs,
+      float bandwidthFraction,
+      Clock clock) {
+    super(group, tracks);
+    Assertions.checkArgument(minBufferMs > 0 && bufferTargetMs > minBufferMs);
+    this.bandwidthMeter = bandwidthMeter;
+    this.maxInitialBitrate = maxInitialBitrate;
+    this.minBufferUs = minBufferMs * 1000L;
+    this.bufferTargetUs = bufferTargetMs * 1000L;
+    this.bandwidthFraction = bandwidthFraction;
+    this.clock = clock;
+    // Tracks are sorted by decreasing bitrate, so the last track has the lowest quality. Its
+    // utility is one, so that the lowest quality track is worth loading.
+    utilities = new double[length];
+    double lowestBitrate = Math.max(1, getFormat(length - 1).bitrate);
+    for (int i = 0; i < length; i++) {
+      utilities[i] = Math.log(Math.max(1, getFormat(i).bitrate) / lowestBitrate) + 1;
+    }
+    gamma = (utilities[0] - 1) / ((double) bufferTargetUs / minBufferUs - 1);
+    // If all tracks have the same bitrate the scores only depend on the buffer.
+    v = gamma > 0 ? minBufferUs / gamma : 0;
+    playbackSpeed = 1f;
+    startingUp = true;
+    selectedIndex = determineBandwidthBasedSelectedIndex(Long.MIN_VALUE, bandwidthFraction);
+    reason = C.SELECTION_REASON_INITIAL;
+  }
+
+  @Override
+  public void enable() {
+    startingUp = true;
+  }
+
+  @Override
+  public void onPlaybackSpeed(float playbackSpeed) {
+    this.playbackSpeed = playbackSpeed;
+  }
+
+  @Override
+  public void updateSelectedTrack(long playbackPositionUs, long bufferedDurationUs,
+      long availableDurationUs) {
+    long nowMs = clock.elapsedRealtime();
+    long playoutBufferedDurationUs =
+        Util.getPlayoutDurationForMediaDuration(bufferedDurationUs, playbackSpeed);
+    if (availableDurationUs != C.TIME_UNSET && availableDurationUs < bufferTargetUs) {
+      // Close to the live edge the buffer can't reach the target, so measure it relative to the
+      // duration that's available.
+      playoutBufferedDurationUs =
+          playoutBufferedDurationUs * bufferTargetUs / Math.max(1, availableDurationUs);
+    }
+    if (bufferedDurationUs == 0) {
+      startingUp = true;
+    } else if (playoutBufferedDurationUs >= minBufferUs) {
+      startingUp = false;
+    }
+
+    int currentSelectedIndex = selectedIndex;
+    int bufferBasedIndex = determineBufferBasedSelectedIndex(playoutBufferedDurationUs, nowMs);
+    if (startingUp) {
+      selectedIndex = Math.min(bufferBasedIndex,
+          determineBandwidthBasedSelectedIndex(nowMs, bandwidthFraction));
+    } else if (bufferBasedIndex < currentSelectedIndex) {
+      // Only switch up as far as the bandwidth allows, unless the current track is already above
+      // that. Otherwise the selection oscillates between the track that the bandwidth can sustain
+      // and the one above it, which the buffer allows each time it fills up.
+      int bandwidthBasedIndex = determineBandwidthBasedSelectedIndex(nowMs, 1f);
+      selectedIndex = Math.max(bufferBasedIndex,
+          Math.min(currentSelectedIndex, bandwidthBasedIndex));
+    } else {
+      selectedIndex = bufferBasedIndex;
+    }
+    if (selectedIndex != currentSelectedIndex) {
+      reason = C.SELECTION_REASON_ADAPTIVE;
+    }
+  }
+
+  @Override
+  public int getSelectedIndex() {
+    return selectedIndex;
+  }
+
+  @Override
+  public int getSelectionReason() {
+    return reason;
+  }
+
+  @Override
+  public Object getSelectionData() {
+    return null;
+  }
+
+  /**
+   * Returns the index of the track with the highest BOLA score for the given buffered duration.
+   *
+   * @param bufferedDurationUs The buffered duration, in microseconds of playout time.
+   * @param nowMs The current time in the timebase of {@link Clock#elapsedRealtime()}.
+   */
+  private int determineBufferBasedSelectedIndex(long bufferedDurationUs, long nowMs) {
+    int bestIndex = C.INDEX_UNSET;
+    double bestScore = 0;
+    for (int i = 0; i < length; i++) {
+      if (!isBlacklisted(i, nowMs)) {
+        double chunkSize = Math.max(1, getFormat(i).bitrate * playbackSpeed);
+        double score = (v * (utilities[i] + gamma) - bufferedDurationUs) / chunkSize;
+        if (bestIndex == C.INDEX_UNSET || score > bestScore) {
+          bestIndex = i;
+          bestScore = score;
+        }
+      }
+    }
+    return bestIndex;
+  }
+
+  /**
+   * Returns the index of the track of highest quality that fits the bandwidth estimate.
+   *
+   * @param nowMs The current time in the timebase of {@link Clock#elapsedRealtime()}, or {@link
+   *     Long#MIN_VALUE} to ignore blacklisting.
+   * @param bandwidthFraction The fraction of the bandwidth estimate that's considered available.
+   */
+  private int determineBandwidthBasedSelectedIndex(long nowMs, float bandwidthFraction) {
+    long bitrateEstimate = bandwidthMeter.getBitrateEstimate();
+    long effectiveBitrate = bitrateEstimate == BandwidthMeter.NO_ESTIMATE
+        ? maxInitialBitrate : (long) (bitrateEstimate * bandwidthFraction);
+    int lowestBitrateNonBlacklistedIndex = 0;
+    for (int i = 0; i < length; i++) {
+      if (nowMs == Long.MIN_VALUE || !isBlacklisted(i, nowMs)) {
+        Format format = getFormat(i);
+        if (Math.round(format.bitrate * playbackSpeed) <= effectiveBitrate) {
+          return i;
+        } else {
+          lowestBitrateNonBlacklistedIndex = i;
+        }
+      }
+    }
+    return lowestBitrateNonBlacklistedIndex;
+  }
+
+}
@@ -19,6 +19,7 @@ import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.source.TrackGroup;
 import com.google.android.exoplayer2.source.chunk.MediaChunk;
+import com.google.android.exoplayer2.source.chunk.MediaChunkIterator;
 import java.util.List;
 
 /**
@@ -165,6 +166,24 @@ public interface TrackSelection {
   void updateSelectedTrack(long playbackPositionUs, long bufferedDurationUs,
       long availableDurationUs);
 
+  /**
+   * Updates the selected track, as {@link #updateSelectedTrack(long, long, long)} does, for
+   * sources that can provide the upcoming chunks of each track. The chunks allow the selection to
+   * take their actual sizes into account, rather than relying on the bitrates of the formats.
+   * <p>
+   * This method may only be called when the selection is enabled.
+   *
+   * @param playbackPositionUs See {@link #updateSelectedTrack(long, long, long)}.
+   * @param bufferedDurationUs See {@link #updateSelectedTrack(long, long, long)}.
+   * @param availableDurationUs See {@link #updateSelectedTrack(long, long, long)}.
+   * @param mediaChunkIterators An iterator over the chunks that follow the load position for each
+   *     track in the selection, in the order of the selection. {@link MediaChunkIterator#EMPTY} is
+   *     passed for tracks whose upcoming chunks aren't known. The iterators may be advanced by the
+   *     selection.
+   */
+  void updateSelectedTrack(long playbackPositionUs, long bufferedDurationUs,
+      long availableDurationUs, MediaChunkIterator[] mediaChunkIterators);
+
   /**
    * May be called periodically by sources that load media in discrete {@link MediaChunk}s and
    * support discarding of buffered chunks in order to re-buffer using a different selected track.
@@ -15,8 +15,16 @@
  */
 package com.google.android.exoplayer2.upstream;
 
+import android.support.annotation.Nullable;
+import java.nio.ByteBuffer;
+
 /**
- * An allocation within a byte array.
+ * An allocation within a byte array or a direct {@link ByteBuffer}.
+ * <p>
+ * Exactly one of {@link #data} and {@link #buffer} is non-null. {@link DefaultAllocator} always
+ * creates allocations within byte arrays, whereas {@link DirectByteBufferAllocator} always creates
+ * them within direct buffers. Code that handles allocations from arbitrary {@link Allocator}s must
+ * check which of the two holds the allocated space.
  * <p>
  * The allocation's length is obtained by calling {@link Allocator#getIndividualAllocationLength()}
  * on the {@link Allocator} from which it was obtained.
@@ -24,13 +32,22 @@ package com.google.android.exoplayer2.upstream;
 public final class Allocation {
 
   /**
-   * The array containing the allocated space. The allocated space might not be at the start of the
-   * array, and so {@link #offset} must be used when indexing into it.
+   * The array containing the allocated space, or null if the space is within {@link #buffer}. The
+   * allocated space might not be at the start of the array, and so {@link #offset} must be used
+   * when indexing into it.
+   */
+  @Nullable public final byte[] data;
+
+  /**
+   * The direct buffer containing the allocated space, or null if the space is within
+   * {@link #data}. The buffer may be shared with other allocations, and so {@link #offset} must be
+   * used when indexing into it. The buffer's position and limit must not be modified. Instead,
+   * users should access it through a {@link ByteBuffer#duplicate()}.
    */
-  public final byte[] data;
+  @Nullable public final ByteBuffer buffer;
 
   /**
-   * The offset of the allocated space in {@link #data}.
+   * The offset of the allocated space in {@link #data} or {@link #buffer}.
    */
   public final int offset;
 
@@ -40,6 +57,17 @@ public final class Allocation {
    */
   public Allocation(byte[] data, int offset) {
     this.data = data;
+    this.buffer = null;
+    this.offset = offset;
+  }
+
+  /**
+   * @param buffer The direct buffer containing the allocated space.
+   * @param offset The offset of the allocated space in {@code buffer}.
+   */
+  public Allocation(ByteBuffer buffer, int offset) {
+    this.data = null;
+    this.buffer = buffer;
     this.offset = offset;
   }
 
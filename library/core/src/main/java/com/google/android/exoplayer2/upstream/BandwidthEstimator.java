@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+/**
+ * Estimates the available bandwidth from samples of data transfers. Used by
+ * {@link DefaultBandwidthMeter}.
+ */
+public interface BandwidthEstimator {
+
+  /**
+   * Adds a transfer sample.
+   *
+   * @param bytesTransferred The number of bytes transferred.
+   * @param elapsedTimeMs The time taken to transfer the bytes, in milliseconds. May be zero.
+   */
+  void addSample(long bytesTransferred, long elapsedTimeMs);
+
+  /**
+   * Returns the estimated bandwidth in bits/sec, or {@link BandwidthMeter#NO_ESTIMATE} if an
+   * estimate is not available.
+   */
+  long getBitrateEstimate();
+
+}
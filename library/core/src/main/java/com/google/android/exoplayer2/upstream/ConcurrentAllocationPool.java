@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.Util;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of {@link Allocation}s that can be used from multiple threads without contention.
+ *
+ * <p>Each thread that allocates from the pool keeps a small cache of available allocations, from
+ * which it allocates and to which it releases. The cache is only locked by its own thread, except
+ * while the pool is being trimmed, so the lock is uncontended. Allocations that don't fit into a
+ * thread's cache are returned to a global lock-free queue, which is shared by all threads. Threads
+ * that release allocations without allocating themselves (e.g. the playback thread discarding
+ * buffered samples) always return them to the global queue, so that they can be reused by the
+ * loading threads. Trimming the pool first returns the allocations cached by all threads to the
+ * global queue, so they can be discarded like any other available allocation.
+ */
+/* package */ final class ConcurrentAllocationPool {
+
+  /** The maximum number of available allocations held in the cache of each thread. */
+  private static final int THREAD_CACHE_CAPACITY = 16;
+
+  private final int individualAllocationSize;
+  private final byte[] initialAllocationBlock;
+  private final ConcurrentLinkedQueue<Allocation> availableAllocations;
+  private final AtomicInteger availableCount;
+  private final AtomicInteger allocatedCount;
+  private final ThreadLocal<ThreadCache> threadCaches;
+  private final ArrayList<ThreadCache> allThreadCaches;
+
+  /**
+   * @param individualAllocationSize The length of each individual {@link Allocation}.
+   * @param initialAllocationBlock The block backing the allocations that were created up front, or
+   *     null if there are none.
+   * @param initialAllocations The allocations that were created up front.
+   */
+  public ConcurrentAllocationPool(int individualAllocationSize, byte[] initialAllocationBlock,
+      Allocation[] initialAllocations) {
+    this.individualAllocationSize = individualAllocationSize;
+    this.initialAllocationBlock = initialAllocationBlock;
+    availableAllocations = new ConcurrentLinkedQueue<>();
+    for (Allocation allocation : initialAllocations) {
+      availableAllocations.add(allocation);
+    }
+    availableCount = new AtomicInteger(initialAllocations.length);
+    allocatedCount = new AtomicInteger();
+    allThreadCaches = new ArrayList<>();
+    threadCaches = new ThreadLocal<ThreadCache>() {
+      @Override
+      protected ThreadCache initialValue() {
+        ThreadCache threadCache = new ThreadCache(Thread.currentThread());
+        synchronized (allThreadCaches) {
+          allThreadCaches.add(threadCache);
+        }
+        return threadCache;
+      }
+    };
+  }
+
+  /** See {@link Allocator#allocate()}. */
+  public Allocation allocate() {
+    allocatedCount.incrementAndGet();
+    Allocation allocation = threadCaches.get().poll();
+    if (allocation != null) {
+      return allocation;
+    }
+    allocation = availableAllocations.poll();
+    if (allocation != null) {
+      availableCount.decrementAndGet();
+      return allocation;
+    }
+    return new Allocation(new byte[individualAllocationSize], 0);
+  }
+
+  /** See {@link Allocator#release(Allocation)}. */
+  public void release(Allocation allocation) {
+    releaseInternal(threadCaches.get(), allocation);
+    allocatedCount.decrementAndGet();
+  }
+
+  /** See {@link Allocator#release(Allocation[])}. */
+  public void release(Allocation[] allocations) {
+    ThreadCache threadCache = threadCaches.get();
+    for (Allocation allocation : allocations) {
+      releaseInternal(threadCache, allocation);
+    }
+    allocatedCount.addAndGet(-allocations.length);
+  }
+
+  /**
+   * Returns the allocations cached by all threads to the global queue, and then discards available
+   * allocations until the pool holds no more than is required to reach {@code targetBufferSize}.
+   * Allocations that were created up front are never discarded.
+   *
+   * @param targetBufferSize The target buffer size in bytes.
+   */
+  public void trim(int targetBufferSize) {
+    synchronized (allThreadCaches) {
+      for (int i = allThreadCaches.size() - 1; i >= 0; i--) {
+        ThreadCache threadCache = allThreadCaches.get(i);
+        int drainedCount = threadCache.drainTo(availableAllocations);
+        availableCount.addAndGet(drainedCount);
+        if (!threadCache.thread.isAlive()) {
+          allThreadCaches.remove(i);
+        }
+      }
+    }
+    int targetAllocationCount = Util.ceilDivide(targetBufferSize, individualAllocationSize);
+    int targetAvailableCount = Math.max(0, targetAllocationCount - allocatedCount.get());
+    int excessCount = availableCount.get() - targetAvailableCount;
+    // Allocations backed by the initial block are put back at the end of the queue, so limit the
+    // number of polls to avoid cycling through them indefinitely.
+    int remainingPolls = availableCount.get();
+    while (excessCount > 0 && remainingPolls-- > 0) {
+      Allocation allocation = availableAllocations.poll();
+      if (allocation == null) {
+        return;
+      }
+      if (allocation.data == initialAllocationBlock) {
+        availableAllocations.add(allocation);
+      } else {
+        availableCount.decrementAndGet();
+        excessCount--;
+      }
+    }
+  }
+
+  /** See {@link Allocator#getTotalBytesAllocated()}. */
+  public int getTotalBytesAllocated() {
+    return allocatedCount.get() * individualAllocationSize;
+  }
+
+  private void releaseInternal(ThreadCache threadCache, Allocation allocation) {
+    // Weak sanity check that the allocation probably originated from this pool.
+    Assertions.checkArgument(allocation.data != null
+        && (allocation.data == initialAllocationBlock
+            || allocation.data.length == individualAllocationSize));
+    if (!threadCache.offer(allocation)) {
+      availableAllocations.add(allocation);
+      availableCount.incrementAndGet();
+    }
+  }
+
+  /**
+   * The available allocations cached by a single thread. The methods are synchronized so that the
+   * cache can be drained from another thread.
+   */
+  private static final class ThreadCache {
+
+    public final Thread thread;
+
+    private final Allocation[] allocations;
+
+    private int count;
+    private boolean isAllocatingThread;
+
+    public ThreadCache(Thread thread) {
+      this.thread = thread;
+      allocations = new Allocation[THREAD_CACHE_CAPACITY];
+    }
+
+    /**
+     * Takes an allocation from the cache, or returns null if it's empty. Also marks the thread as
+     * one that allocates, so that it caches the allocations it releases from now on.
+     */
+    public synchronized Allocation poll() {
+      isAllocatingThread = true;
+      if (count == 0) {
+        return null;
+      }
+      Allocation allocation = allocations[--count];
+      allocations[count] = null;
+      return allocation;
+    }
+
+    /**
+     * Adds an allocation to the cache, or returns false if the thread doesn't allocate or the cache
+     * is full.
+     */
+    public synchronized boolean offer(Allocation allocation) {
+      if (!isAllocatingThread || count == THREAD_CACHE_CAPACITY) {
+        return false;
+      }
+      allocations[count++] = allocation;
+      return true;
+    }
+
+    /** Moves all cached allocations to {@code queue}, returning how many were moved. */
+    public synchronized int drainTo(ConcurrentLinkedQueue<Allocation> queue) {
+      int drainedCount = count;
+      while (count > 0) {
+        queue.add(allocations[--count]);
+        allocations[count] = null;
+      }
+      return drainedCount;
+    }
+
+  }
+
+}
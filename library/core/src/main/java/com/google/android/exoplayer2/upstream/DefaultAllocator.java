@@ -21,6 +21,12 @@ import java.util.Arrays;
 
 /**
  * Default implementation of {@link Allocator}.
+ *
+ * <p>By default the allocator is guarded by a single lock. If it's shared by several loading
+ * threads, it can instead be created with thread-local caches backed by a lock-free pool, so that
+ * the threads don't contend on the lock each time they allocate or release an {@link Allocation}.
+ * In this mode each allocating thread may hold a small number of available allocations in its
+ * cache, which {@link #trim()} returns to the shared pool before discarding what isn't needed.
  */
 public final class DefaultAllocator implements Allocator {
 
@@ -30,8 +36,9 @@ public final class DefaultAllocator implements Allocator {
   private final int individualAllocationSize;
   private final byte[] initialAllocationBlock;
   private final Allocation[] singleAllocationReleaseHolder;
+  private final ConcurrentAllocationPool concurrentPool;
 
-  private int targetBufferSize;
+  private volatile int targetBufferSize;
   private int allocatedCount;
   private int availableCount;
   private Allocation[] availableAllocations;
@@ -59,6 +66,25 @@ public final class DefaultAllocator implements Allocator {
    */
   public DefaultAllocator(boolean trimOnReset, int individualAllocationSize,
       int initialAllocationCount) {
+    this(trimOnReset, individualAllocationSize, initialAllocationCount, false);
+  }
+
+  /**
+   * Constructs an instance with some {@link Allocation}s created up front, optionally using
+   * thread-local caches backed by a lock-free pool.
+   * <p>
+   * Note: {@link Allocation}s created up front will never be discarded by {@link #trim()}.
+   *
+   * @param trimOnReset Whether memory is freed when the allocator is reset. Should be true unless
+   *     the allocator will be re-used by multiple player instances.
+   * @param individualAllocationSize The length of each individual {@link Allocation}.
+   * @param initialAllocationCount The number of allocations to create up front.
+   * @param useThreadLocalCaches Whether allocations are made from thread-local caches backed by a
+   *     lock-free pool, rather than from a pool guarded by a single lock. This reduces contention
+   *     if the allocator is used by several loading threads at the same time.
+   */
+  public DefaultAllocator(boolean trimOnReset, int individualAllocationSize,
+      int initialAllocationCount, boolean useThreadLocalCaches) {
     Assertions.checkArgument(individualAllocationSize > 0);
     Assertions.checkArgument(initialAllocationCount >= 0);
     this.trimOnReset = trimOnReset;
@@ -75,6 +101,14 @@ public final class DefaultAllocator implements Allocator {
       initialAllocationBlock = null;
     }
     singleAllocationReleaseHolder = new Allocation[1];
+    if (useThreadLocalCaches) {
+      concurrentPool = new ConcurrentAllocationPool(individualAllocationSize,
+          initialAllocationBlock, Arrays.copyOf(availableAllocations, availableCount));
+      Arrays.fill(availableAllocations, 0, availableCount, null);
+      availableCount = 0;
+    } else {
+      concurrentPool = null;
+    }
   }
 
   public synchronized void reset() {
@@ -92,7 +126,49 @@ public final class DefaultAllocator implements Allocator {
   }
 
   @Override
-  public synchronized Allocation allocate() {
+  public Allocation allocate() {
+    return concurrentPool != null ? concurrentPool.allocate() : allocateSynchronized();
+  }
+
+  @Override
+  public void release(Allocation allocation) {
+    if (concurrentPool != null) {
+      concurrentPool.release(allocation);
+    } else {
+      releaseSynchronized(allocation);
+    }
+  }
+
+  @Override
+  public void release(Allocation[] allocations) {
+    if (concurrentPool != null) {
+      concurrentPool.release(allocations);
+    } else {
+      releaseSynchronized(allocations);
+    }
+  }
+
+  @Override
+  public void trim() {
+    if (concurrentPool != null) {
+      concurrentPool.trim(targetBufferSize);
+    } else {
+      trimSynchronized();
+    }
+  }
+
+  @Override
+  public int getTotalBytesAllocated() {
+    return concurrentPool != null ? concurrentPool.getTotalBytesAllocated()
+        : getTotalBytesAllocatedSynchronized();
+  }
+
+  @Override
+  public int getIndividualAllocationLength() {
+    return individualAllocationSize;
+  }
+
+  private synchronized Allocation allocateSynchronized() {
     allocatedCount++;
     Allocation allocation;
     if (availableCount > 0) {
@@ -104,22 +180,21 @@ public final class DefaultAllocator implements Allocator {
     return allocation;
   }
 
-  @Override
-  public synchronized void release(Allocation allocation) {
+  private synchronized void releaseSynchronized(Allocation allocation) {
     singleAllocationReleaseHolder[0] = allocation;
-    release(singleAllocationReleaseHolder);
+    releaseSynchronized(singleAllocationReleaseHolder);
   }
 
-  @Override
-  public synchronized void release(Allocation[] allocations) {
+  private synchronized void releaseSynchronized(Allocation[] allocations) {
     if (availableCount + allocations.length >= availableAllocations.length) {
       availableAllocations = Arrays.copyOf(availableAllocations,
           Math.max(availableAllocations.length * 2, availableCount + allocations.length));
     }
     for (Allocation allocation : allocations) {
       // Weak sanity check that the allocation probably originated from this pool.
-      Assertions.checkArgument(allocation.data == initialAllocationBlock
-          || allocation.data.length == individualAllocationSize);
+      Assertions.checkArgument(allocation.data != null
+          && (allocation.data == initialAllocationBlock
+              || allocation.data.length == individualAllocationSize));
       availableAllocations[availableCount++] = allocation;
     }
     allocatedCount -= allocations.length;
@@ -127,8 +202,7 @@ public final class DefaultAllocator implements Allocator {
     notifyAll();
   }
 
-  @Override
-  public synchronized void trim() {
+  private synchronized void trimSynchronized() {
     int targetAllocationCount = Util.ceilDivide(targetBufferSize, individualAllocationSize);
     int targetAvailableCount = Math.max(0, targetAllocationCount - allocatedCount);
     if (targetAvailableCount >= availableCount) {
@@ -169,14 +243,8 @@ public final class DefaultAllocator implements Allocator {
     availableCount = targetAvailableCount;
   }
 
-  @Override
-  public synchronized int getTotalBytesAllocated() {
+  private synchronized int getTotalBytesAllocatedSynchronized() {
     return allocatedCount * individualAllocationSize;
   }
 
-  @Override
-  public int getIndividualAllocationLength() {
-    return individualAllocationSize;
-  }
-
 }
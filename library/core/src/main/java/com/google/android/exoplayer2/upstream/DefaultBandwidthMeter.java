@@ -16,35 +16,32 @@
 package com.google.android.exoplayer2.upstream;
 
 import android.os.Handler;
+import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.util.Assertions;
 import com.google.android.exoplayer2.util.Clock;
-import com.google.android.exoplayer2.util.SlidingPercentile;
 
 /**
- * Estimates bandwidth by listening to data transfers. The bandwidth estimate is calculated using
- * a {@link SlidingPercentile} and is updated each time a transfer ends.
+ * Estimates bandwidth by listening to data transfers. The bytes transferred are sampled each time
+ * a transfer ends, and optionally at regular intervals during transfers, and the samples are passed
+ * to a {@link BandwidthEstimator}. By default a {@link PercentileBandwidthEstimator} is used and
+ * samples are only taken when transfers end.
  */
 public final class DefaultBandwidthMeter implements BandwidthMeter, TransferListener<Object> {
 
   /**
    * The default maximum weight for the sliding window.
    */
-  public static final int DEFAULT_MAX_WEIGHT = 2000;
-
-  private static final int ELAPSED_MILLIS_FOR_ESTIMATE = 2000;
-  private static final int BYTES_TRANSFERRED_FOR_ESTIMATE = 512 * 1024;
+  public static final int DEFAULT_MAX_WEIGHT = PercentileBandwidthEstimator.DEFAULT_MAX_WEIGHT;
 
   private final Handler eventHandler;
   private final EventListener eventListener;
-  private final SlidingPercentile slidingPercentile;
+  private final BandwidthEstimator bandwidthEstimator;
+  private final long intermediateSampleIntervalMs;
   private final Clock clock;
 
   private int streamCount;
   private long sampleStartTimeMs;
   private long sampleBytesTransferred;
-
-  private long totalElapsedTimeMs;
-  private long totalBytesTransferred;
   private long bitrateEstimate;
 
   public DefaultBandwidthMeter() {
@@ -61,9 +58,26 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
 
   public DefaultBandwidthMeter(Handler eventHandler, EventListener eventListener, int maxWeight,
       Clock clock) {
+    this(eventHandler, eventListener, new PercentileBandwidthEstimator(maxWeight), C.TIME_UNSET,
+        clock);
+  }
+
+  /**
+   * @param eventHandler A handler for events. May be null if delivery of events is not required.
+   * @param eventListener A listener of events. May be null if delivery of events is not required.
+   * @param bandwidthEstimator The {@link BandwidthEstimator} to which samples are passed.
+   * @param intermediateSampleIntervalMs The interval at which samples are taken while transfers
+   *     are in progress, in milliseconds, or {@link C#TIME_UNSET} to only take samples when
+   *     transfers end. Intermediate samples allow the estimate to follow the bandwidth during long
+   *     transfers.
+   * @param clock A {@link Clock}.
+   */
+  public DefaultBandwidthMeter(Handler eventHandler, EventListener eventListener,
+      BandwidthEstimator bandwidthEstimator, long intermediateSampleIntervalMs, Clock clock) {
     this.eventHandler = eventHandler;
     this.eventListener = eventListener;
-    this.slidingPercentile = new SlidingPercentile(maxWeight);
+    this.bandwidthEstimator = bandwidthEstimator;
+    this.intermediateSampleIntervalMs = intermediateSampleIntervalMs;
     this.clock = clock;
     bitrateEstimate = NO_ESTIMATE;
   }
@@ -84,29 +98,30 @@ public final class DefaultBandwidthMeter implements BandwidthMeter, TransferList
   @Override
   public synchronized void onBytesTransferred(Object source, int bytes) {
     sampleBytesTransferred += bytes;
+    if (intermediateSampleIntervalMs != C.TIME_UNSET && streamCount > 0) {
+      long nowMs = clock.elapsedRealtime();
+      if (nowMs - sampleStartTimeMs >= intermediateSampleIntervalMs) {
+        addSample(nowMs);
+        sampleStartTimeMs = nowMs;
+      }
+    }
   }
 
   @Override
   public synchronized void onTransferEnd(Object source) {
     Assertions.checkState(streamCount > 0);
     long nowMs = clock.elapsedRealtime();
-    int sampleElapsedTimeMs = (int) (nowMs - sampleStartTimeMs);
-    totalElapsedTimeMs += sampleElapsedTimeMs;
-    totalBytesTransferred += sampleBytesTransferred;
-    if (sampleElapsedTimeMs > 0) {
-      float bitsPerSecond = (sampleBytesTransferred * 8000) / sampleElapsedTimeMs;
-      slidingPercentile.addSample((int) Math.sqrt(sampleBytesTransferred), bitsPerSecond);
-      if (totalElapsedTimeMs >= ELAPSED_MILLIS_FOR_ESTIMATE
-          || totalBytesTransferred >= BYTES_TRANSFERRED_FOR_ESTIMATE) {
-        float bitrateEstimateFloat = slidingPercentile.getPercentile(0.5f);
-        bitrateEstimate = Float.isNaN(bitrateEstimateFloat) ? NO_ESTIMATE
-            : (long) bitrateEstimateFloat;
-      }
-    }
-    notifyBandwidthSample(sampleElapsedTimeMs, sampleBytesTransferred, bitrateEstimate);
+    addSample(nowMs);
     if (--streamCount > 0) {
       sampleStartTimeMs = nowMs;
     }
+  }
+
+  private void addSample(long nowMs) {
+    int sampleElapsedTimeMs = (int) (nowMs - sampleStartTimeMs);
+    bandwidthEstimator.addSample(sampleBytesTransferred, sampleElapsedTimeMs);
+    bitrateEstimate = bandwidthEstimator.getBitrateEstimate();
+    notifyBandwidthSample(sampleElapsedTimeMs, sampleBytesTransferred, bitrateEstimate);
     sampleBytesTransferred = 0;
   }
 
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import com.google.android.exoplayer2.util.Assertions;
+import com.google.android.exoplayer2.util.Util;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+/**
+ * An {@link Allocator} whose {@link Allocation}s are backed by slabs of direct memory, so that
+ * buffered media doesn't live on the Java heap.
+ *
+ * <p>Each slab is a direct {@link ByteBuffer} that's divided into a fixed number of allocations.
+ * Slabs are created as needed, and are released by {@link #trim()} once none of their allocations
+ * are in use.
+ *
+ * <p>Data in direct allocations can be copied into a {@link
+ * com.google.android.exoplayer2.decoder.DecoderInputBuffer} without an intermediate heap copy.
+ * However, data that's read from a {@link DataSource} still passes through a heap array before
+ * it's written into an allocation.
+ */
+public final class DirectByteBufferAllocator implements Allocator {
+
+  /** The default number of allocations in each slab. */
+  public static final int DEFAULT_SLAB_ALLOCATION_COUNT = 32;
+
+  private static final int AVAILABLE_EXTRA_CAPACITY = 100;
+
+  private final boolean trimOnReset;
+  private final int individualAllocationSize;
+  private final int slabAllocationCount;
+  private final IdentityHashMap<ByteBuffer, Slab> slabs;
+  private final Allocation[] singleAllocationReleaseHolder;
+
+  private int targetBufferSize;
+  private int allocatedCount;
+  private int availableCount;
+  private Allocation[] availableAllocations;
+
+  /**
+   * Constructs an instance with slabs of {@link #DEFAULT_SLAB_ALLOCATION_COUNT} allocations.
+   *
+   * @param trimOnReset Whether memory is freed when the allocator is reset. Should be true unless
+   *     the allocator will be re-used by multiple player instances.
+   * @param individualAllocationSize The length of each individual {@link Allocation}.
+   */
+  public DirectByteBufferAllocator(boolean trimOnReset, int individualAllocationSize) {
+    this(trimOnReset, individualAllocationSize, DEFAULT_SLAB_ALLOCATION_COUNT);
+  }
+
+  /**
+   * @param trimOnReset Whether memory is freed when the allocator is reset. Should be true unless
+   *     the allocator will be re-used by multiple player instances.
+   * @param individualAllocationSize The length of each individual {@link Allocation}.
+   * @param slabAllocationCount The number of allocations in each slab of direct memory.
+   */
+  public DirectByteBufferAllocator(boolean trimOnReset, int individualAllocationSize,
+      int slabAllocationCount) {
+    Assertions.checkArgument(individualAllocationSize > 0);
+    Assertions.checkArgument(slabAllocationCount > 0);
+    this.trimOnReset = trimOnReset;
+    this.individualAllocationSize = individualAllocationSize;
+    this.slabAllocationCount = slabAllocationCount;
+    slabs = new IdentityHashMap<>();
+    singleAllocationReleaseHolder = new Allocation[1];
+    availableAllocations = new Allocation[slabAllocationCount + AVAILABLE_EXTRA_CAPACITY];
+  }
+
+  public synchronized void reset() {
+    if (trimOnReset) {
+      setTargetBufferSize(0);
+    }
+  }
+
+  public synchronized void setTargetBufferSize(int targetBufferSize) {
+    boolean targetBufferSizeReduced = targetBufferSize < this.targetBufferSize;
+    this.targetBufferSize = targetBufferSize;
+    if (targetBufferSizeReduced) {
+      trim();
+    }
+  }
+
+  @Override
+  public synchronized Allocation allocate() {
+    if (availableCount == 0) {
+      addSlab();
+    }
+    Allocation allocation = availableAllocations[--availableCount];
+    availableAllocations[availableCount] = null;
+    slabs.get(allocation.buffer).availableCount--;
+    allocatedCount++;
+    return allocation;
+  }
+
+  @Override
+  public synchronized void release(Allocation allocation) {
+    singleAllocationReleaseHolder[0] = allocation;
+    release(singleAllocationReleaseHolder);
+  }
+
+  @Override
+  public synchronized void release(Allocation[] allocations) {
+    if (availableCount + allocations.length >= availableAllocations.length) {
+      availableAllocations = Arrays.copyOf(availableAllocations,
+          Math.max(availableAllocations.length * 2, availableCount + allocations.length));
+    }
+    for (Allocation allocation : allocations) {
+      Slab slab = slabs.get(allocation.buffer);
+      // Check that the allocation originated from this allocator.
+      Assertions.checkArgument(slab != null);
+      slab.availableCount++;
+      availableAllocations[availableCount++] = allocation;
+    }
+    allocatedCount -= allocations.length;
+  }
+
+  @Override
+  public synchronized void trim() {
+    int targetAllocationCount = Util.ceilDivide(targetBufferSize, individualAllocationSize);
+    int targetAvailableCount = Math.max(0, targetAllocationCount - allocatedCount);
+    if (targetAvailableCount >= availableCount) {
+      // We're already at or below the target.
+      return;
+    }
+
+    // Memory can only be freed a whole slab at a time, so release slabs that aren't in use until
+    // we're at or below the target.
+    int remainingAvailableCount = availableCount;
+    boolean releasedSlab = false;
+    Iterator<Slab> iterator = slabs.values().iterator();
+    while (iterator.hasNext() && remainingAvailableCount > targetAvailableCount) {
+      Slab slab = iterator.next();
+      if (slab.availableCount == slabAllocationCount) {
+        iterator.remove();
+        remainingAvailableCount -= slabAllocationCount;
+        releasedSlab = true;
+      }
+    }
+    if (!releasedSlab) {
+      return;
+    }
+
+    // Discard the available allocations that belong to released slabs.
+    int newAvailableCount = 0;
+    for (int i = 0; i < availableCount; i++) {
+      Allocation allocation = availableAllocations[i];
+      if (slabs.containsKey(allocation.buffer)) {
+        availableAllocations[newAvailableCount++] = allocation;
+      }
+    }
+    Arrays.fill(availableAllocations, newAvailableCount, availableCount, null);
+    availableCount = newAvailableCount;
+  }
+
+  @Override
+  public synchronized int getTotalBytesAllocated() {
+    return allocatedCount * individualAllocationSize;
+  }
+
+  /**
+   * Returns the total number of bytes of direct memory held by the allocator, including memory
+   * that's available for allocation.
+   */
+  public synchronized long getTotalBytesReserved() {
+    return (long) slabs.size() * slabAllocationCount * individualAllocationSize;
+  }
+
+  @Override
+  public int getIndividualAllocationLength() {
+    return individualAllocationSize;
+  }
+
+  private void addSlab() {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(slabAllocationCount * individualAllocationSize);
+    Slab slab = new Slab();
+    slabs.put(buffer, slab);
+    if (availableCount + slabAllocationCount > availableAllocations.length) {
+      availableAllocations = Arrays.copyOf(availableAllocations,
+          Math.max(availableAllocations.length * 2, availableCount + slabAllocationCount));
+    }
+    // Add the allocations in reverse order, so that the slab is allocated from front to back.
+    for (int i = slabAllocationCount - 1; i >= 0; i--) {
+      availableAllocations[availableCount++] =
+          new Allocation(buffer, i * individualAllocationSize);
+    }
+    slab.availableCount = slabAllocationCount;
+  }
+
+  /** The bookkeeping for a slab of direct memory. */
+  private static final class Slab {
+
+    public int availableCount;
+
+  }
+
+}
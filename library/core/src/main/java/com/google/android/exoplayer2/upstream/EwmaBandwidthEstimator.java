@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+/**
+ * A {@link BandwidthEstimator} that keeps two exponentially weighted moving averages of the
+ * transfer rate, weighted by the duration of each sample, and estimates the lower of the two.
+ * <p>
+ * The average with the shorter half-life drops quickly when the bandwidth drops, and the one with
+ * the longer half-life rises slowly when it rises, so the estimate is conservative in both cases.
+ * An estimate is available once 128KB of transfers have been sampled.
+ */
+public final class EwmaBandwidthEstimator implements BandwidthEstimator {
+
+  /**
+   * The default half-life of the fast moving average, in milliseconds.
+   */
+  public static final int DEFAULT_FAST_HALF_LIFE_MS = 2000;
+  /**
+   * The default half-life of the slow moving average, in milliseconds.
+   */
+  public static final int DEFAULT_SLOW_HALF_LIFE_MS = 5000;
+
+  private static final int BYTES_TRANSFERRED_FOR_ESTIMATE = 128 * 1024;
+
+  private final MovingAverage fastAverage;
+  private final MovingAverage slowAverage;
+
+  private long totalBytesTransferred;
+
+  public EwmaBandwidthEstimator() {
+    this(DEFAULT_FAST_HALF_LIFE_MS, DEFAULT_SLOW_HALF_LIFE_MS);
+  }
+
+  /**
+   * @param fastHalfLifeMs The time after which the weight of a sample in the fast moving average
+   *     is halved, in milliseconds.
+   * @param slowHalfLifeMs The time after which the weight of a sample in the slow moving average
+   *     is halved, in milliseconds.
+   */
+  public EwmaBandwidthEstimator(int fastHalfLifeMs, int slowHalfLifeMs) {
+    fastAverage = new MovingAverage(fastHalfLifeMs);
+    slowAverage = new MovingAverage(slowHalfLifeMs);
+  }
+
+  @Override
+  public void addSample(long bytesTransferred, long elapsedTimeMs) {
+    totalBytesTransferred += bytesTransferred;
+    if (elapsedTimeMs > 0) {
+      double bitsPerSecond = (bytesTransferred * 8000d) / elapsedTimeMs;
+      fastAverage.addSample(elapsedTimeMs, bitsPerSecond);
+      slowAverage.addSample(elapsedTimeMs, bitsPerSecond);
+    }
+  }
+
+  @Override
+  public long getBitrateEstimate() {
+    if (totalBytesTransferred < BYTES_TRANSFERRED_FOR_ESTIMATE || fastAverage.totalWeight == 0) {
+      return BandwidthMeter.NO_ESTIMATE;
+    }
+    return (long) Math.min(fastAverage.getAverage(), slowAverage.getAverage());
+  }
+
+  private static final class MovingAverage {
+
+    private final double alpha;
+
+    private double average;
+    private double totalWeight;
+
+    public MovingAverage(int halfLifeMs) {
+      alpha = Math.exp(Math.log(0.5) / halfLifeMs);
+    }
+
+    public void addSample(double weight, double value) {
+      double sampleAlpha = Math.pow(alpha, weight);
+      average = value * (1 - sampleAlpha) + average * sampleAlpha;
+      totalWeight += weight;
+    }
+
+    public double getAverage() {
+      // The average starts at zero, so correct for the weight given to the initial value.
+      return average / (1 - Math.pow(alpha, totalWeight));
+    }
+
+  }
+
+}
@@ -20,9 +20,20 @@ import com.google.android.exoplayer2.C;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * A {@link DataSource} for reading local files.
+ *
+ * <p>Optionally, files can be read through a memory mapping rather than with a system call per
+ * read. A window of at most 8MB of the file is mapped at a time. Each window is unmapped when the
+ * read moves past it and when the source is closed. There's no public API to do this, so it's done
+ * through platform internals where they're accessible. Where they aren't, windows are only unmapped
+ * once they're garbage collected, and on devices with a 32-bit address space a long read may then
+ * hold enough windows to fail with an {@link IOException}.
  */
 public final class FileDataSource implements DataSource {
 
@@ -37,10 +48,17 @@ public final class FileDataSource implements DataSource {
 
   }
 
+  /** The maximum size of the window of the file that's mapped when memory mapping is enabled. */
+  private static final int MEMORY_MAP_WINDOW_SIZE = 8 * 1024 * 1024;
+
   private final TransferListener<? super FileDataSource> listener;
+  private final boolean useMemoryMapping;
 
   private RandomAccessFile file;
+  private MappedByteBuffer mappedBuffer;
   private Uri uri;
+  private long filePosition;
+  private long fileLength;
   private long bytesRemaining;
   private boolean opened;
 
@@ -52,7 +70,17 @@ public final class FileDataSource implements DataSource {
    * @param listener An optional listener.
    */
   public FileDataSource(TransferListener<? super FileDataSource> listener) {
+    this(listener, false);
+  }
+
+  /**
+   * @param listener An optional listener.
+   * @param useMemoryMapping Whether to read files through a memory mapping.
+   */
+  public FileDataSource(
+      TransferListener<? super FileDataSource> listener, boolean useMemoryMapping) {
     this.listener = listener;
+    this.useMemoryMapping = useMemoryMapping;
   }
 
   @Override
@@ -60,8 +88,12 @@ public final class FileDataSource implements DataSource {
     try {
       uri = dataSpec.uri;
       file = new RandomAccessFile(dataSpec.uri.getPath(), "r");
-      file.seek(dataSpec.position);
-      bytesRemaining = dataSpec.length == C.LENGTH_UNSET ? file.length() - dataSpec.position
+      fileLength = file.length();
+      filePosition = dataSpec.position;
+      if (!useMemoryMapping) {
+        file.seek(dataSpec.position);
+      }
+      bytesRemaining = dataSpec.length == C.LENGTH_UNSET ? fileLength - dataSpec.position
           : dataSpec.length;
       if (bytesRemaining < 0) {
         throw new EOFException();
@@ -87,12 +119,15 @@ public final class FileDataSource implements DataSource {
     } else {
       int bytesRead;
       try {
-        bytesRead = file.read(buffer, offset, (int) Math.min(bytesRemaining, readLength));
+        int bytesToRead = (int) Math.min(bytesRemaining, readLength);
+        bytesRead = useMemoryMapping ? readMapped(buffer, offset, bytesToRead)
+            : file.read(buffer, offset, bytesToRead);
       } catch (IOException e) {
         throw new FileDataSourceException(e);
       }
 
       if (bytesRead > 0) {
+        filePosition += bytesRead;
         bytesRemaining -= bytesRead;
         if (listener != null) {
           listener.onBytesTransferred(this, bytesRead);
@@ -103,6 +138,52 @@ public final class FileDataSource implements DataSource {
     }
   }
 
+  private int readMapped(byte[] buffer, int offset, int readLength) throws IOException {
+    if (mappedBuffer == null || !mappedBuffer.hasRemaining()) {
+      long mapLength = Math.min(Math.min(bytesRemaining, fileLength - filePosition),
+          MEMORY_MAP_WINDOW_SIZE);
+      if (mapLength <= 0) {
+        return C.RESULT_END_OF_INPUT;
+      }
+      releaseMappedBuffer();
+      mappedBuffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, filePosition, mapLength);
+    }
+    int bytesRead = Math.min(readLength, mappedBuffer.remaining());
+    mappedBuffer.get(buffer, offset, bytesRead);
+    return bytesRead;
+  }
+
+  private void releaseMappedBuffer() {
+    if (mappedBuffer != null) {
+      unmap(mappedBuffer);
+      mappedBuffer = null;
+    }
+  }
+
+  /**
+   * Unmaps a buffer without waiting for it to be garbage collected, if the platform allows it. The
+   * buffer must not be accessed afterwards.
+   */
+  private static void unmap(MappedByteBuffer buffer) {
+    try {
+      // OpenJDK based runtimes, which includes Android from API level 24.
+      Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+      cleanerMethod.setAccessible(true);
+      Object cleaner = cleanerMethod.invoke(buffer);
+      cleaner.getClass().getMethod("clean").invoke(cleaner);
+      return;
+    } catch (Exception e) {
+      // Fall through.
+    }
+    try {
+      // Earlier versions of Android.
+      Class<?> nioUtils = Class.forName("java.nio.NioUtils");
+      nioUtils.getMethod("freeDirectBuffer", ByteBuffer.class).invoke(null, buffer);
+    } catch (Exception e) {
+      // The buffer will be unmapped when it's garbage collected.
+    }
+  }
+
   @Override
   public Uri getUri() {
     return uri;
@@ -119,6 +200,7 @@ public final class FileDataSource implements DataSource {
       throw new FileDataSourceException(e);
     } finally {
       file = null;
+      releaseMappedBuffer();
       if (opened) {
         opened = false;
         if (listener != null) {
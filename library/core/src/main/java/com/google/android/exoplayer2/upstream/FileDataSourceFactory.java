@@ -21,18 +21,30 @@ package com.google.android.exoplayer2.upstream;
 public final class FileDataSourceFactory implements DataSource.Factory {
 
   private final TransferListener<? super FileDataSource> listener;
+  private final boolean useMemoryMapping;
 
   public FileDataSourceFactory() {
     this(null);
   }
 
   public FileDataSourceFactory(TransferListener<? super FileDataSource> listener) {
+    this(listener, false);
+  }
+
+  /**
+   * @param listener An optional listener.
+   * @param useMemoryMapping Whether the created sources read files through a memory mapping.
+   * @see FileDataSource#FileDataSource(TransferListener, boolean)
+   */
+  public FileDataSourceFactory(
+      TransferListener<? super FileDataSource> listener, boolean useMemoryMapping) {
     this.listener = listener;
+    this.useMemoryMapping = useMemoryMapping;
   }
 
   @Override
   public DataSource createDataSource() {
-    return new FileDataSource(listener);
+    return new FileDataSource(listener, useMemoryMapping);
   }
 
 }
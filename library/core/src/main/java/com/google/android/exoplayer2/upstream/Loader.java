@@ -26,6 +26,8 @@ import com.google.android.exoplayer2.util.Assertions;
 import com.google.android.exoplayer2.util.TraceUtil;
 import com.google.android.exoplayer2.util.Util;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 
 /**
@@ -132,12 +134,63 @@ public final class Loader implements LoaderErrorThrower {
 
   }
 
+  /**
+   * Creates {@link Loader} instances.
+   */
+  public interface Factory {
+
+    /**
+     * A factory for loaders that each run on a thread of their own.
+     */
+    Factory DEFAULT = new Factory() {
+      @Override
+      public Loader createLoader(String threadName) {
+        return new Loader(threadName);
+      }
+    };
+
+    /**
+     * Creates a {@link Loader}.
+     *
+     * @param threadName A name for the loader's thread, if the loader has a thread of its own.
+     * @return The new {@link Loader}.
+     */
+    Loader createLoader(String threadName);
+
+  }
+
+  /**
+   * A {@link Factory} for loaders that run on a shared {@link ExecutorService}. The number of
+   * threads used for loading is bounded by the executor rather than by the number of loaders.
+   *
+   * @see Loader#Loader(ExecutorService)
+   */
+  public static final class SharedExecutorFactory implements Factory {
+
+    private final ExecutorService executorService;
+
+    /**
+     * @param executorService The executor on which the created loaders load. It's not shut down
+     *     when the loaders are released.
+     */
+    public SharedExecutorFactory(ExecutorService executorService) {
+      this.executorService = Assertions.checkNotNull(executorService);
+    }
+
+    @Override
+    public Loader createLoader(String threadName) {
+      return new Loader(executorService);
+    }
+
+  }
+
   public static final int RETRY = 0;
   public static final int RETRY_RESET_ERROR_COUNT = 1;
   public static final int DONT_RETRY = 2;
   public static final int DONT_RETRY_FATAL = 3;
 
-  private final ExecutorService downloadExecutorService;
+  private final @Nullable ExecutorService ownedExecutorService;
+  private final Executor downloadExecutor;
 
   private LoadTask<? extends Loadable> currentTask;
   private IOException fatalError;
@@ -146,7 +199,21 @@ public final class Loader implements LoaderErrorThrower {
    * @param threadName A name for the loader's thread.
    */
   public Loader(String threadName) {
-    this.downloadExecutorService = Util.newSingleThreadExecutor(threadName);
+    ownedExecutorService = Util.newSingleThreadExecutor(threadName);
+    downloadExecutor = ownedExecutorService;
+  }
+
+  /**
+   * Creates a loader that runs on an executor that may be shared with other loaders, rather than
+   * on a thread of its own. The loader runs its tasks one at a time and in order, as it would on a
+   * thread of its own, so callbacks are invoked in the same order. The executor is not shut down
+   * when the loader is released.
+   *
+   * @param executorService The executor on which to load.
+   */
+  public Loader(ExecutorService executorService) {
+    ownedExecutorService = null;
+    downloadExecutor = new SerialExecutor(executorService);
   }
 
   /**
@@ -179,6 +246,15 @@ public final class Loader implements LoaderErrorThrower {
     return currentTask != null;
   }
 
+  /**
+   * Returns whether the loader runs on an executor that may be shared with other loaders. A load
+   * that waits for something other than its data should exit rather than wait for long on a shared
+   * executor, since it holds up the loads of other loaders while it waits.
+   */
+  public boolean isExecutorShared() {
+    return ownedExecutorService == null;
+  }
+
   /**
    * Cancels the current load. This method should only be called when a load is in progress.
    */
@@ -206,9 +282,11 @@ public final class Loader implements LoaderErrorThrower {
       currentTask.cancel(true);
     }
     if (callback != null) {
-      downloadExecutorService.execute(new ReleaseTask(callback));
+      downloadExecutor.execute(new ReleaseTask(callback));
+    }
+    if (ownedExecutorService != null) {
+      ownedExecutorService.shutdown();
     }
-    downloadExecutorService.shutdown();
   }
 
   // LoaderErrorThrower implementation.
@@ -249,7 +327,7 @@ public final class Loader implements LoaderErrorThrower {
     private IOException currentError;
     private int errorCount;
 
-    private volatile Thread executorThread;
+    private Thread executorThread;
     private volatile boolean released;
 
     public LoadTask(Looper looper, T loadable, Loader.Callback<T> callback,
@@ -287,8 +365,10 @@ public final class Loader implements LoaderErrorThrower {
         }
       } else {
         loadable.cancelLoad();
-        if (executorThread != null) {
-          executorThread.interrupt();
+        synchronized (this) {
+          if (executorThread != null) {
+            executorThread.interrupt();
+          }
         }
       }
       if (released) {
@@ -301,7 +381,9 @@ public final class Loader implements LoaderErrorThrower {
     @Override
     public void run() {
       try {
-        executorThread = Thread.currentThread();
+        synchronized (this) {
+          executorThread = Thread.currentThread();
+        }
         if (!loadable.isLoadCanceled()) {
           TraceUtil.beginSection("load:" + loadable.getClass().getSimpleName());
           try {
@@ -346,6 +428,13 @@ public final class Loader implements LoaderErrorThrower {
           obtainMessage(MSG_FATAL_ERROR, e).sendToTarget();
         }
         throw e;
+      } finally {
+        synchronized (this) {
+          executorThread = null;
+        }
+        // Clear any interrupt that arrived after the load finished, so that it doesn't affect the
+        // next task that runs on the thread.
+        Thread.interrupted();
       }
     }
 
@@ -399,7 +488,7 @@ public final class Loader implements LoaderErrorThrower {
 
     private void execute() {
       currentError = null;
-      downloadExecutorService.execute(currentTask);
+      downloadExecutor.execute(currentTask);
     }
 
     private void finish() {
@@ -412,6 +501,48 @@ public final class Loader implements LoaderErrorThrower {
 
   }
 
+  /**
+   * An {@link Executor} that runs tasks one at a time and in order on an underlying executor,
+   * which may run tasks from other sources concurrently.
+   */
+  private static final class SerialExecutor implements Executor {
+
+    private final Executor executor;
+    private final ArrayDeque<Runnable> tasks;
+
+    private Runnable activeTask;
+
+    public SerialExecutor(Executor executor) {
+      this.executor = executor;
+      tasks = new ArrayDeque<>();
+    }
+
+    @Override
+    public synchronized void execute(final Runnable task) {
+      tasks.add(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            task.run();
+          } finally {
+            scheduleNext();
+          }
+        }
+      });
+      if (activeTask == null) {
+        scheduleNext();
+      }
+    }
+
+    private synchronized void scheduleNext() {
+      activeTask = tasks.poll();
+      if (activeTask != null) {
+        executor.execute(activeTask);
+      }
+    }
+
+  }
+
   private static final class ReleaseTask implements Runnable {
 
     private final ReleaseCallback callback;
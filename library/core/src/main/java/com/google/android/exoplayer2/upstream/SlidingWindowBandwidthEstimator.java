@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import java.util.ArrayDeque;
+
+/**
+ * A {@link BandwidthEstimator} that estimates the transfer rate over the most recent samples whose
+ * total duration is at least a given window. Each sample contributes in proportion to the time it
+ * took, so long and short transfers are weighted by how long the network was being measured.
+ */
+public final class SlidingWindowBandwidthEstimator implements BandwidthEstimator {
+
+  /**
+   * The default duration of the window, in milliseconds.
+   */
+  public static final int DEFAULT_WINDOW_MS = 8000;
+
+  private final long windowMs;
+  private final ArrayDeque<long[]> samples;
+
+  private long windowBytesTransferred;
+  private long windowElapsedTimeMs;
+
+  public SlidingWindowBandwidthEstimator() {
+    this(DEFAULT_WINDOW_MS);
+  }
+
+  /**
+   * @param windowMs The minimum total duration of the samples from which the estimate is
+   *     calculated, in milliseconds. Older samples are discarded once the samples that follow them
+   *     cover the window.
+   */
+  public SlidingWindowBandwidthEstimator(long windowMs) {
+    this.windowMs = windowMs;
+    samples = new ArrayDeque<>();
+  }
+
+  @Override
+  public void addSample(long bytesTransferred, long elapsedTimeMs) {
+    if (elapsedTimeMs <= 0) {
+      return;
+    }
+    samples.addLast(new long[] {bytesTransferred, elapsedTimeMs});
+    windowBytesTransferred += bytesTransferred;
+    windowElapsedTimeMs += elapsedTimeMs;
+    long[] oldestSample = samples.peekFirst();
+    while (windowElapsedTimeMs - oldestSample[1] >= windowMs) {
+      samples.removeFirst();
+      windowBytesTransferred -= oldestSample[0];
+      windowElapsedTimeMs -= oldestSample[1];
+      oldestSample = samples.peekFirst();
+    }
+  }
+
+  @Override
+  public long getBitrateEstimate() {
+    return windowElapsedTimeMs == 0 ? BandwidthMeter.NO_ESTIMATE
+        : (windowBytesTransferred * 8000) / windowElapsedTimeMs;
+  }
+
+}
@@ -56,7 +56,7 @@ public final class CacheDataSource implements DataSource {
    */
   @Retention(RetentionPolicy.SOURCE)
   @IntDef(flag = true, value = {FLAG_BLOCK_ON_CACHE, FLAG_IGNORE_CACHE_ON_ERROR,
-      FLAG_IGNORE_CACHE_FOR_UNSET_LENGTH_REQUESTS})
+      FLAG_IGNORE_CACHE_FOR_UNSET_LENGTH_REQUESTS, FLAG_MEMORY_MAP_CACHE_READS})
   public @interface Flags {}
   /**
    * A flag indicating whether we will block reads if the cache key is locked. If unset then data is
@@ -77,6 +77,13 @@ public final class CacheDataSource implements DataSource {
    */
   public static final int FLAG_IGNORE_CACHE_FOR_UNSET_LENGTH_REQUESTS = 1 << 2;
 
+  /**
+   * A flag indicating that cached data should be read through a memory mapping of the cache files.
+   * This flag only applies if the {@link DataSource} for reading the cache is created by the
+   * {@link CacheDataSource}, in which case it's a {@link FileDataSource}.
+   */
+  public static final int FLAG_MEMORY_MAP_CACHE_READS = 1 << 3;
+
   /**
    * Listener of {@link CacheDataSource} events.
    */
@@ -135,8 +142,9 @@ public final class CacheDataSource implements DataSource {
    *
    * @param cache The cache.
    * @param upstream A {@link DataSource} for reading data not in the cache.
-   * @param flags A combination of {@link #FLAG_BLOCK_ON_CACHE}, {@link #FLAG_IGNORE_CACHE_ON_ERROR}
-   *     and {@link #FLAG_IGNORE_CACHE_FOR_UNSET_LENGTH_REQUESTS}, or 0.
+   * @param flags A combination of {@link #FLAG_BLOCK_ON_CACHE}, {@link
+   *     #FLAG_IGNORE_CACHE_ON_ERROR}, {@link #FLAG_IGNORE_CACHE_FOR_UNSET_LENGTH_REQUESTS} and
+   *     {@link #FLAG_MEMORY_MAP_CACHE_READS}, or 0.
    */
   public CacheDataSource(Cache cache, DataSource upstream, @Flags int flags) {
     this(cache, upstream, flags, DEFAULT_MAX_CACHE_FILE_SIZE);
@@ -149,16 +157,17 @@ public final class CacheDataSource implements DataSource {
    *
    * @param cache The cache.
    * @param upstream A {@link DataSource} for reading data not in the cache.
-   * @param flags A combination of {@link #FLAG_BLOCK_ON_CACHE}, {@link #FLAG_IGNORE_CACHE_ON_ERROR}
-   *     and {@link #FLAG_IGNORE_CACHE_FOR_UNSET_LENGTH_REQUESTS}, or 0.
+   * @param flags A combination of {@link #FLAG_BLOCK_ON_CACHE}, {@link
+   *     #FLAG_IGNORE_CACHE_ON_ERROR}, {@link #FLAG_IGNORE_CACHE_FOR_UNSET_LENGTH_REQUESTS} and
+   *     {@link #FLAG_MEMORY_MAP_CACHE_READS}, or 0.
    * @param maxCacheFileSize The maximum size of a cache file, in bytes. If the cached data size
    *     exceeds this value, then the data will be fragmented into multiple cache files. The
    *     finer-grained this is the finer-grained the eviction policy can be.
    */
   public CacheDataSource(Cache cache, DataSource upstream, @Flags int flags,
       long maxCacheFileSize) {
-    this(cache, upstream, new FileDataSource(), new CacheDataSink(cache, maxCacheFileSize),
-        flags, null);
+    this(cache, upstream, new FileDataSource(null, (flags & FLAG_MEMORY_MAP_CACHE_READS) != 0),
+        new CacheDataSink(cache, maxCacheFileSize), flags, null);
   }
 
   /**
@@ -53,7 +53,8 @@ public final class CacheDataSourceFactory implements DataSource.Factory {
    */
   public CacheDataSourceFactory(Cache cache, DataSource.Factory upstreamFactory,
       @CacheDataSource.Flags int flags, long maxCacheFileSize) {
-    this(cache, upstreamFactory, new FileDataSourceFactory(),
+    this(cache, upstreamFactory,
+        new FileDataSourceFactory(null, (flags & CacheDataSource.FLAG_MEMORY_MAP_CACHE_READS) != 0),
         new CacheDataSinkFactory(cache, maxCacheFileSize), flags, null);
   }
 
@@ -24,7 +24,8 @@ import java.io.IOException;
 import java.util.TreeSet;
 
 /**
- * Defines the cached content for a single stream.
+ * Defines the cached content for a single stream. Instances are not thread-safe. {@link
+ * SimpleCache} guards each instance with the lock for its {@link #key}.
  */
 /*package*/ final class CachedContent {
 
@@ -183,13 +184,22 @@ import java.util.TreeSet;
     return cachedSpans.isEmpty();
   }
 
-  /** Removes the given span from cache. */
+  /**
+   * Removes the given span from cache. The span is only removed if it's still the current span at
+   * its position, which is not the case if it has since been replaced by a call to {@link
+   * #touch(SimpleCacheSpan)}.
+   */
   public boolean removeSpan(CacheSpan span) {
-    if (cachedSpans.remove(span)) {
-      span.file.delete();
-      return true;
+    SimpleCacheSpan currentSpan =
+        cachedSpans.floor(SimpleCacheSpan.createLookup(span.key, span.position));
+    if (currentSpan == null
+        || currentSpan.position != span.position
+        || !currentSpan.file.equals(span.file)) {
+      return false;
     }
-    return false;
+    cachedSpans.remove(currentSpan);
+    span.file.delete();
+    return true;
   }
 
   /** Calculates a hash code for the header of this {@code CachedContent}. */
@@ -17,6 +17,7 @@ package com.google.android.exoplayer2.upstream.cache;
 
 import android.util.Log;
 import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.upstream.cache.Cache.CacheException;
 import com.google.android.exoplayer2.util.Assertions;
@@ -24,38 +25,61 @@ import com.google.android.exoplayer2.util.AtomicFile;
 import com.google.android.exoplayer2.util.ReusableBufferedOutputStream;
 import com.google.android.exoplayer2.util.Util;
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Random;
 import java.util.Set;
+import java.util.zip.CRC32;
 import javax.crypto.Cipher;
 import javax.crypto.CipherInputStream;
-import javax.crypto.CipherOutputStream;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 /**
- * This class maintains the index of cached content.
+ * This class maintains the index of cached content. The methods of this class are thread-safe, but
+ * the state of the {@link CachedContent} instances it holds is not guarded by the index.
+ *
+ * <p>The index file consists of a snapshot of the index, followed by a journal of records that
+ * were appended to it afterwards. Each record describes the changes made between two calls to
+ * {@link #store()}, so storing typically costs time proportional to the number of changed entries.
+ * The file is compacted into a new snapshot once the journal grows larger than the index itself.
  */
 /*package*/ class CachedContentIndex {
 
   public static final String FILE_NAME = "cached_content_index.exi";
 
-  private static final int VERSION = 1;
+  private static final int VERSION = 2;
+  /** The version of index files that consist of a snapshot only. Still supported for reading. */
+  private static final int VERSION_WITHOUT_JOURNAL = 1;
 
   private static final int FLAG_ENCRYPTED_INDEX = 1;
 
+  private static final int JOURNAL_OPERATION_PUT = 0;
+  private static final int JOURNAL_OPERATION_REMOVE = 1;
+
+  /** The minimum number of journaled operations before the index file may be compacted. */
+  private static final int MIN_JOURNAL_OPERATIONS_BEFORE_COMPACTION = 256;
+  /** The maximum length of a journal record, beyond which the record is considered corrupt. */
+  private static final int MAX_JOURNAL_RECORD_LENGTH = 16 * 1024 * 1024;
+
   private static final String TAG = "CachedContentIndex";
 
   private final HashMap<String, CachedContent> keyToContent;
@@ -64,7 +88,11 @@ import javax.crypto.spec.SecretKeySpec;
   private final Cipher cipher;
   private final SecretKeySpec secretKeySpec;
   private final boolean encrypt;
+  private final HashSet<String> changedKeys;
+  private final SparseBooleanArray removedIds;
   private boolean changed;
+  private boolean compactionRequired;
+  private int journalOperationCount;
   private ReusableBufferedOutputStream bufferedOutputStream;
 
   /**
@@ -111,25 +139,47 @@ import javax.crypto.spec.SecretKeySpec;
     }
     keyToContent = new HashMap<>();
     idToKey = new SparseArray<>();
+    changedKeys = new HashSet<>();
+    removedIds = new SparseBooleanArray();
+    compactionRequired = true;
     atomicFile = new AtomicFile(new File(cacheDir, FILE_NAME));
   }
 
   /** Loads the index file. */
-  public void load() {
+  public synchronized void load() {
     Assertions.checkState(!changed);
+    compactionRequired = false;
+    journalOperationCount = 0;
     if (!readFile()) {
       atomicFile.delete();
       keyToContent.clear();
       idToKey.clear();
+      changed = false;
+      compactionRequired = true;
+      journalOperationCount = 0;
     }
   }
 
-  /** Stores the index data to index file if there is a change. */
-  public void store() throws CacheException {
+  /**
+   * Stores the index data to index file if there is a change. The changes are appended to the
+   * journal, unless the index file needs to be compacted.
+   */
+  public synchronized void store() throws CacheException {
     if (!changed) {
       return;
     }
-    writeFile();
+    int operationCount = removedIds.size() + changedKeys.size();
+    int newJournalOperationCount = journalOperationCount + operationCount;
+    if (compactionRequired
+        || newJournalOperationCount
+            > Math.max(keyToContent.size(), MIN_JOURNAL_OPERATIONS_BEFORE_COMPACTION)
+        || !appendToFile()) {
+      writeFile();
+      newJournalOperationCount = 0;
+    }
+    journalOperationCount = newJournalOperationCount;
+    changedKeys.clear();
+    removedIds.clear();
     changed = false;
   }
 
@@ -139,7 +189,7 @@ import javax.crypto.spec.SecretKeySpec;
    * @param key The cache key that uniquely identifies the original stream.
    * @return A new or existing CachedContent instance with the given key.
    */
-  public CachedContent getOrAdd(String key) {
+  public synchronized CachedContent getOrAdd(String key) {
     CachedContent cachedContent = keyToContent.get(key);
     if (cachedContent == null) {
       cachedContent = addNew(key, C.LENGTH_UNSET);
@@ -148,43 +198,38 @@ import javax.crypto.spec.SecretKeySpec;
   }
 
   /** Returns a CachedContent instance with the given key or null if there isn't one. */
-  public CachedContent get(String key) {
+  public synchronized CachedContent get(String key) {
     return keyToContent.get(key);
   }
 
-  /**
-   * Returns a Collection of all CachedContent instances in the index. The collection is backed by
-   * the {@code keyToContent} map, so changes to the map are reflected in the collection, and
-   * vice-versa. If the map is modified while an iteration over the collection is in progress
-   * (except through the iterator's own remove operation), the results of the iteration are
-   * undefined.
-   */
-  public Collection<CachedContent> getAll() {
-    return keyToContent.values();
+  /** Returns a snapshot of all CachedContent instances in the index. */
+  public synchronized Collection<CachedContent> getAll() {
+    return new ArrayList<>(keyToContent.values());
   }
 
   /** Returns an existing or new id assigned to the given key. */
-  public int assignIdForKey(String key) {
+  public synchronized int assignIdForKey(String key) {
     return getOrAdd(key).id;
   }
 
   /** Returns the key which has the given id assigned. */
-  public String getKeyForId(int id) {
+  public synchronized String getKeyForId(int id) {
     return idToKey.get(id);
   }
 
   /** Removes {@link CachedContent} with the given key from index if it's empty and not locked. */
-  public void maybeRemove(String key) {
+  public synchronized void maybeRemove(String key) {
     CachedContent cachedContent = keyToContent.get(key);
     if (cachedContent != null && cachedContent.isEmpty() && !cachedContent.isLocked()) {
       keyToContent.remove(key);
       idToKey.remove(cachedContent.id);
+      removedIds.put(cachedContent.id, true);
       changed = true;
     }
   }
 
   /** Removes empty and not locked {@link CachedContent} instances from index. */
-  public void removeEmpty() {
+  public synchronized void removeEmpty() {
     String[] keys = new String[keyToContent.size()];
     keyToContent.keySet().toArray(keys);
     for (String key : keys) {
@@ -192,25 +237,21 @@ import javax.crypto.spec.SecretKeySpec;
     }
   }
 
-  /**
-   * Returns a set of all content keys. The set is backed by the {@code keyToContent} map, so
-   * changes to the map are reflected in the set, and vice-versa. If the map is modified while an
-   * iteration over the set is in progress (except through the iterator's own remove operation), the
-   * results of the iteration are undefined.
-   */
-  public Set<String> getKeys() {
-    return keyToContent.keySet();
+  /** Returns a snapshot of all content keys. */
+  public synchronized Set<String> getKeys() {
+    return new HashSet<>(keyToContent.keySet());
   }
 
   /**
    * Sets the content length for the given key. A new {@link CachedContent} is added if there isn't
    * one already with the given key.
    */
-  public void setContentLength(String key, long length) {
+  public synchronized void setContentLength(String key, long length) {
     CachedContent cachedContent = get(key);
     if (cachedContent != null) {
       if (cachedContent.getLength() != length) {
         cachedContent.setLength(length);
+        changedKeys.add(key);
         changed = true;
       }
     } else {
@@ -222,7 +263,7 @@ import javax.crypto.spec.SecretKeySpec;
    * Returns the content length for the given key if one set, or {@link
    * com.google.android.exoplayer2.C#LENGTH_UNSET} otherwise.
    */
-  public long getContentLength(String key) {
+  public synchronized long getContentLength(String key) {
     CachedContent cachedContent = get(key);
     return cachedContent == null ? C.LENGTH_UNSET : cachedContent.getLength();
   }
@@ -233,42 +274,52 @@ import javax.crypto.spec.SecretKeySpec;
       InputStream inputStream = new BufferedInputStream(atomicFile.openRead());
       input = new DataInputStream(inputStream);
       int version = input.readInt();
-      if (version != VERSION) {
-        // Currently there is no other version
+      if (version != VERSION && version != VERSION_WITHOUT_JOURNAL) {
         return false;
       }
 
       int flags = input.readInt();
-      if ((flags & FLAG_ENCRYPTED_INDEX) != 0) {
+      boolean encrypted = (flags & FLAG_ENCRYPTED_INDEX) != 0;
+      DataInputStream snapshotInput = input;
+      if (encrypted) {
         if (cipher == null) {
           return false;
         }
         byte[] initializationVector = new byte[16];
         input.readFully(initializationVector);
-        IvParameterSpec ivParameterSpec = new IvParameterSpec(initializationVector);
-        try {
-          cipher.init(Cipher.DECRYPT_MODE, secretKeySpec, ivParameterSpec);
-        } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
-          throw new IllegalStateException(e);
+        initCipher(Cipher.DECRYPT_MODE, initializationVector);
+        if (version == VERSION_WITHOUT_JOURNAL) {
+          // The encrypted snapshot extends to the end of the file.
+          snapshotInput = new DataInputStream(new CipherInputStream(inputStream, cipher));
+        } else {
+          byte[] encryptedSnapshot = new byte[input.readInt()];
+          input.readFully(encryptedSnapshot);
+          snapshotInput =
+              new DataInputStream(new ByteArrayInputStream(cipher.doFinal(encryptedSnapshot)));
         }
-        input = new DataInputStream(new CipherInputStream(inputStream, cipher));
-      } else if (encrypt) {
-        changed = true; // Force index to be rewritten encrypted after read.
+      }
+      if (version == VERSION_WITHOUT_JOURNAL || encrypted != encrypt) {
+        // Force the index to be rewritten in the current format when it's next stored.
+        compactionRequired = true;
+        changed |= encrypt && !encrypted;
       }
 
-      int count = input.readInt();
+      int count = snapshotInput.readInt();
       int hashCode = 0;
       for (int i = 0; i < count; i++) {
-        CachedContent cachedContent = new CachedContent(input);
+        CachedContent cachedContent = new CachedContent(snapshotInput);
         add(cachedContent);
         hashCode += cachedContent.headerHashCode();
       }
-      if (input.readInt() != hashCode) {
+      if (snapshotInput.readInt() != hashCode) {
         return false;
       }
+      if (version == VERSION) {
+        readJournal(input, encrypted);
+      }
     } catch (FileNotFoundException e) {
       return false;
-    } catch (IOException e) {
+    } catch (IOException | GeneralSecurityException e) {
       Log.e(TAG, "Error reading cache content index file.", e);
       return false;
     } finally {
@@ -279,7 +330,162 @@ import javax.crypto.spec.SecretKeySpec;
     return true;
   }
 
+  /**
+   * Reads the journal records that follow the snapshot and applies them to the index. Reading stops
+   * at the first incomplete or corrupt record, which is left behind if the process dies whilst a
+   * record is being appended. In this case the index is compacted by the next {@link #store()}, so
+   * that the remainder of the journal isn't appended after the bad record.
+   */
+  private void readJournal(DataInputStream input, boolean encrypted) throws IOException {
+    while (true) {
+      int firstByte = input.read();
+      if (firstByte == -1) {
+        // Reached the end of the journal.
+        return;
+      }
+      byte[] record;
+      try {
+        int recordLength = (firstByte << 24) | (input.readUnsignedByte() << 16)
+            | (input.readUnsignedByte() << 8) | input.readUnsignedByte();
+        if (recordLength <= 0 || recordLength > MAX_JOURNAL_RECORD_LENGTH) {
+          break;
+        }
+        record = new byte[recordLength];
+        input.readFully(record);
+      } catch (EOFException e) {
+        break;
+      }
+      int operationCount = applyJournalRecord(record, encrypted);
+      if (operationCount == C.LENGTH_UNSET) {
+        break;
+      }
+      journalOperationCount += operationCount;
+    }
+    Log.w(TAG, "Ignoring incomplete or corrupt cache content index journal record.");
+    compactionRequired = true;
+    changed = true;
+  }
+
+  /**
+   * Applies a journal record to the index.
+   *
+   * @return The number of operations applied, or {@link C#LENGTH_UNSET} if the record is corrupt.
+   */
+  private int applyJournalRecord(byte[] record, boolean encrypted) throws IOException {
+    byte[] data = record;
+    if (encrypted) {
+      if (record.length < 16) {
+        return C.LENGTH_UNSET;
+      }
+      try {
+        initCipher(Cipher.DECRYPT_MODE, Arrays.copyOf(record, 16));
+        data = cipher.doFinal(record, 16, record.length - 16);
+      } catch (GeneralSecurityException e) {
+        return C.LENGTH_UNSET;
+      }
+    }
+    // The record data ends with a checksum of the preceding operations.
+    int operationsLength = data.length - 4;
+    if (operationsLength < 4) {
+      return C.LENGTH_UNSET;
+    }
+    CRC32 crc = new CRC32();
+    crc.update(data, 0, operationsLength);
+    DataInputStream input =
+        new DataInputStream(new ByteArrayInputStream(data, operationsLength, 4));
+    if (input.readInt() != (int) crc.getValue()) {
+      return C.LENGTH_UNSET;
+    }
+    input = new DataInputStream(new ByteArrayInputStream(data, 0, operationsLength));
+    int operationCount = input.readInt();
+    for (int i = 0; i < operationCount; i++) {
+      int operation = input.readUnsignedByte();
+      if (operation == JOURNAL_OPERATION_PUT) {
+        CachedContent cachedContent = new CachedContent(input);
+        CachedContent previousContent = keyToContent.get(cachedContent.key);
+        if (previousContent != null) {
+          idToKey.remove(previousContent.id);
+        }
+        removeId(cachedContent.id);
+        add(cachedContent);
+      } else if (operation == JOURNAL_OPERATION_REMOVE) {
+        removeId(input.readInt());
+      } else {
+        throw new IOException("Unexpected cache content index journal operation: " + operation);
+      }
+    }
+    return operationCount;
+  }
+
+  private void removeId(int id) {
+    String key = idToKey.get(id);
+    if (key != null) {
+      idToKey.remove(id);
+      keyToContent.remove(key);
+    }
+  }
+
+  /**
+   * Appends the changes since the last call to {@link #store()} to the journal.
+   *
+   * @return Whether the changes were appended. If false, the index file should be compacted.
+   */
+  private boolean appendToFile() throws CacheException {
+    compactionRequired = true;
+    try {
+      ByteArrayOutputStream operationsStream = new ByteArrayOutputStream();
+      DataOutputStream operationsOutput = new DataOutputStream(operationsStream);
+      int operationCount = 0;
+      for (int i = 0; i < removedIds.size(); i++) {
+        operationsOutput.writeByte(JOURNAL_OPERATION_REMOVE);
+        operationsOutput.writeInt(removedIds.keyAt(i));
+        operationCount++;
+      }
+      for (String key : changedKeys) {
+        CachedContent cachedContent = keyToContent.get(key);
+        if (cachedContent != null) {
+          operationsOutput.writeByte(JOURNAL_OPERATION_PUT);
+          cachedContent.writeToStream(operationsOutput);
+          operationCount++;
+        }
+      }
+      ByteArrayOutputStream recordStream = new ByteArrayOutputStream();
+      DataOutputStream recordOutput = new DataOutputStream(recordStream);
+      recordOutput.writeInt(operationCount);
+      operationsStream.writeTo(recordOutput);
+      CRC32 crc = new CRC32();
+      crc.update(recordStream.toByteArray());
+      recordOutput.writeInt((int) crc.getValue());
+      byte[] record = recordStream.toByteArray();
+      if (encrypt) {
+        byte[] initializationVector = new byte[16];
+        new Random().nextBytes(initializationVector);
+        initCipher(Cipher.ENCRYPT_MODE, initializationVector);
+        byte[] encryptedData = cipher.doFinal(record);
+        record = Arrays.copyOf(initializationVector, 16 + encryptedData.length);
+        System.arraycopy(encryptedData, 0, record, 16, encryptedData.length);
+      }
+      if (record.length > MAX_JOURNAL_RECORD_LENGTH) {
+        return false;
+      }
+      DataOutputStream output = new DataOutputStream(atomicFile.startAppend());
+      try {
+        output.writeInt(record.length);
+        output.write(record);
+        atomicFile.endWrite(output);
+        output = null;
+      } finally {
+        Util.closeQuietly(output);
+      }
+    } catch (IOException | GeneralSecurityException e) {
+      throw new CacheException(e);
+    }
+    compactionRequired = false;
+    return true;
+  }
+
   private void writeFile() throws CacheException {
+    compactionRequired = true;
     DataOutputStream output = null;
     try {
       OutputStream outputStream = atomicFile.startWrite();
@@ -294,36 +500,47 @@ import javax.crypto.spec.SecretKeySpec;
       int flags = encrypt ? FLAG_ENCRYPTED_INDEX : 0;
       output.writeInt(flags);
 
+      DataOutputStream snapshotOutput = output;
+      ByteArrayOutputStream snapshotStream = null;
       if (encrypt) {
-        byte[] initializationVector = new byte[16];
-        new Random().nextBytes(initializationVector);
-        output.write(initializationVector);
-        IvParameterSpec ivParameterSpec = new IvParameterSpec(initializationVector);
-        try {
-          cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec, ivParameterSpec);
-        } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
-          throw new IllegalStateException(e); // Should never happen.
-        }
-        output.flush();
-        output = new DataOutputStream(new CipherOutputStream(bufferedOutputStream, cipher));
+        // The snapshot is encrypted in memory, so that its length can be written before it.
+        snapshotStream = new ByteArrayOutputStream();
+        snapshotOutput = new DataOutputStream(snapshotStream);
       }
 
-      output.writeInt(keyToContent.size());
+      snapshotOutput.writeInt(keyToContent.size());
       int hashCode = 0;
       for (CachedContent cachedContent : keyToContent.values()) {
-        cachedContent.writeToStream(output);
+        cachedContent.writeToStream(snapshotOutput);
         hashCode += cachedContent.headerHashCode();
       }
-      output.writeInt(hashCode);
+      snapshotOutput.writeInt(hashCode);
+
+      if (encrypt) {
+        byte[] initializationVector = new byte[16];
+        new Random().nextBytes(initializationVector);
+        output.write(initializationVector);
+        initCipher(Cipher.ENCRYPT_MODE, initializationVector);
+        byte[] encryptedSnapshot = cipher.doFinal(snapshotStream.toByteArray());
+        output.writeInt(encryptedSnapshot.length);
+        output.write(encryptedSnapshot);
+      }
       atomicFile.endWrite(output);
-      // Avoid calling close twice. Duplicate CipherOutputStream.close calls did
-      // not used to be no-ops: https://android-review.googlesource.com/#/c/272799/
       output = null;
-    } catch (IOException e) {
+    } catch (IOException | GeneralSecurityException e) {
       throw new CacheException(e);
     } finally {
       Util.closeQuietly(output);
     }
+    compactionRequired = false;
+  }
+
+  private void initCipher(int mode, byte[] initializationVector) {
+    try {
+      cipher.init(mode, secretKeySpec, new IvParameterSpec(initializationVector));
+    } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+      throw new IllegalStateException(e); // Should never happen.
+    }
   }
 
   private void add(CachedContent cachedContent) {
@@ -332,8 +549,9 @@ import javax.crypto.spec.SecretKeySpec;
   }
 
   /** Adds the given CachedContent to the index. */
-  /*package*/ void addNew(CachedContent cachedContent) {
+  /*package*/ synchronized void addNew(CachedContent cachedContent) {
     add(cachedContent);
+    changedKeys.add(cachedContent.key);
     changed = true;
   }
 
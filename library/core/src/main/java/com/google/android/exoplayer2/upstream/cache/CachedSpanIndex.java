@@ -0,0 +1,453 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream.cache;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.util.SparseArray;
+import com.google.android.exoplayer2.upstream.cache.Cache.CacheException;
+import com.google.android.exoplayer2.util.AtomicFile;
+import com.google.android.exoplayer2.util.ReusableBufferedOutputStream;
+import com.google.android.exoplayer2.util.Util;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Persists the metadata of the spans held by a {@link SimpleCache}, so that the cache can be
+ * initialized without listing the cache directory and parsing the name of every span file. The
+ * methods of this class are thread-safe.
+ *
+ * <p>The index file consists of a snapshot of the spans, followed by a journal of span additions
+ * and removals. Since the cache directory may be modified whilst the index isn't being updated,
+ * the loaded spans are only a hint that must be reconciled with the directory afterwards.
+ *
+ * <p>Each span is stored together with the hash code of its key. If the key of any span doesn't
+ * match the {@link CachedContentIndex}, for example because the content index couldn't be read,
+ * then the span index is considered to be invalid.
+ */
+/*package*/ final class CachedSpanIndex {
+
+  public static final String FILE_NAME = "cached_span_index.exi";
+
+  private static final int VERSION = 1;
+
+  private static final int JOURNAL_OPERATION_ADD = 0;
+  private static final int JOURNAL_OPERATION_REMOVE = 1;
+
+  /** The minimum number of journaled operations before the index file may be compacted. */
+  private static final int MIN_JOURNAL_OPERATIONS_BEFORE_COMPACTION = 1024;
+  /** The maximum length of a journal record, beyond which the record is considered corrupt. */
+  private static final int MAX_JOURNAL_RECORD_LENGTH = 16 * 1024 * 1024;
+
+  private static final String TAG = "CachedSpanIndex";
+
+  private final File cacheDir;
+  private final AtomicFile atomicFile;
+
+  private ByteArrayOutputStream pendingOperationsStream;
+  private DataOutputStream pendingOperationsOutput;
+  private int pendingOperationCount;
+  private int journalOperationCount;
+  private int spanCount;
+  private boolean compactionRequired;
+  private ReusableBufferedOutputStream bufferedOutputStream;
+
+  /**
+   * Creates a CachedSpanIndex which works on the index file in the given cacheDir.
+   *
+   * @param cacheDir Directory where the index file is kept.
+   */
+  public CachedSpanIndex(File cacheDir) {
+    this.cacheDir = cacheDir;
+    atomicFile = new AtomicFile(new File(cacheDir, FILE_NAME));
+    compactionRequired = true;
+    clearPendingOperations();
+  }
+
+  /**
+   * Loads the index file.
+   *
+   * @param index The index of the content to which the spans belong.
+   * @return The loaded spans, or null if the index file doesn't exist, couldn't be read or doesn't
+   *     match the content index.
+   */
+  @Nullable
+  public synchronized ArrayList<SimpleCacheSpan> load(CachedContentIndex index) {
+    clearPendingOperations();
+    journalOperationCount = 0;
+    compactionRequired = false;
+    SparseArray<HashMap<Long, SpanMetadata>> spansById = new SparseArray<>();
+    ArrayList<SimpleCacheSpan> spans = readFile(spansById) ? createSpans(index, spansById) : null;
+    if (spans == null) {
+      atomicFile.delete();
+      compactionRequired = true;
+      return null;
+    }
+    spanCount = spans.size();
+    return spans;
+  }
+
+  /**
+   * Records that a span has been added. If there's already a span at the same position of the same
+   * content, then it's replaced.
+   *
+   * @param id The id of the {@link CachedContent} to which the span belongs.
+   * @param span The span.
+   */
+  public synchronized void onSpanAdded(int id, SimpleCacheSpan span) {
+    try {
+      pendingOperationsOutput.writeByte(JOURNAL_OPERATION_ADD);
+      pendingOperationsOutput.writeInt(id);
+      pendingOperationsOutput.writeInt(span.key.hashCode());
+      pendingOperationsOutput.writeLong(span.position);
+      pendingOperationsOutput.writeLong(span.length);
+      pendingOperationsOutput.writeLong(span.lastAccessTimestamp);
+    } catch (IOException e) {
+      throw new IllegalStateException(e); // Should never happen.
+    }
+    pendingOperationCount++;
+    spanCount++;
+  }
+
+  /**
+   * Records that a span has been replaced by a copy with an updated last access timestamp.
+   *
+   * @param id The id of the {@link CachedContent} to which the span belongs.
+   * @param newSpan The new span.
+   */
+  public synchronized void onSpanTouched(int id, SimpleCacheSpan newSpan) {
+    onSpanAdded(id, newSpan);
+    spanCount--;
+  }
+
+  /**
+   * Records that a span has been removed.
+   *
+   * @param id The id of the {@link CachedContent} to which the span belonged.
+   * @param span The span.
+   */
+  public synchronized void onSpanRemoved(int id, CacheSpan span) {
+    try {
+      pendingOperationsOutput.writeByte(JOURNAL_OPERATION_REMOVE);
+      pendingOperationsOutput.writeInt(id);
+      pendingOperationsOutput.writeLong(span.position);
+    } catch (IOException e) {
+      throw new IllegalStateException(e); // Should never happen.
+    }
+    pendingOperationCount++;
+    spanCount--;
+  }
+
+  /** Returns the number of operations that have been recorded, but not yet stored. */
+  public synchronized int getPendingOperationCount() {
+    return pendingOperationCount;
+  }
+
+  /**
+   * Returns whether the next store should write a snapshot of all of the spans, rather than append
+   * the pending operations to the journal.
+   */
+  public synchronized boolean isCompactionRequired() {
+    return compactionRequired
+        || journalOperationCount + pendingOperationCount
+            > Math.max(spanCount, MIN_JOURNAL_OPERATIONS_BEFORE_COMPACTION);
+  }
+
+  /**
+   * Appends the pending operations to the journal. If a snapshot needs to be stored before the
+   * journal can be appended to, which is the case if the last store failed or the index file
+   * couldn't be read, then the operations remain pending.
+   *
+   * @throws CacheException If an error occurs writing the index file.
+   */
+  public synchronized void store() throws CacheException {
+    if (compactionRequired || pendingOperationCount == 0) {
+      return;
+    }
+    compactionRequired = true;
+    try {
+      ByteArrayOutputStream recordStream = new ByteArrayOutputStream();
+      DataOutputStream recordOutput = new DataOutputStream(recordStream);
+      recordOutput.writeInt(pendingOperationCount);
+      pendingOperationsStream.writeTo(recordOutput);
+      CRC32 crc = new CRC32();
+      crc.update(recordStream.toByteArray());
+      recordOutput.writeInt((int) crc.getValue());
+      if (recordStream.size() > MAX_JOURNAL_RECORD_LENGTH) {
+        // Leave the operations pending, so that they're included in the next snapshot.
+        return;
+      }
+      DataOutputStream output = new DataOutputStream(atomicFile.startAppend());
+      try {
+        output.writeInt(recordStream.size());
+        recordStream.writeTo(output);
+        atomicFile.endWrite(output);
+        output = null;
+      } finally {
+        Util.closeQuietly(output);
+      }
+    } catch (IOException e) {
+      throw new CacheException(e);
+    }
+    journalOperationCount += pendingOperationCount;
+    clearPendingOperations();
+    compactionRequired = false;
+  }
+
+  /**
+   * Prepares a snapshot of the spans to be written by {@link #storeSnapshot(SparseArray)}. The
+   * pending operations are discarded, since the spans they describe will be part of the snapshot.
+   * Operations recorded after this call are stored after the snapshot, so they may be recorded
+   * whilst the snapshot is being collected. Replaying an operation that is already reflected in the
+   * snapshot has no effect.
+   */
+  public synchronized void startSnapshot() {
+    clearPendingOperations();
+  }
+
+  /**
+   * Writes a snapshot of the spans, replacing the content of the index file. If there are no spans
+   * then the index file is deleted instead. Operations that were recorded since {@link
+   * #startSnapshot()} remain pending.
+   *
+   * @param spansById The spans of each {@link CachedContent}, keyed by its id.
+   * @throws CacheException If an error occurs writing the index file.
+   */
+  public synchronized void storeSnapshot(SparseArray<ArrayList<SimpleCacheSpan>> spansById)
+      throws CacheException {
+    compactionRequired = true;
+    if (spansById.size() == 0) {
+      // A missing index file is equivalent to an empty one. The next store writes a snapshot.
+      atomicFile.delete();
+      spanCount = 0;
+      journalOperationCount = 0;
+      return;
+    }
+    DataOutputStream output = null;
+    int newSpanCount = 0;
+    try {
+      OutputStream outputStream = atomicFile.startWrite();
+      if (bufferedOutputStream == null) {
+        bufferedOutputStream = new ReusableBufferedOutputStream(outputStream);
+      } else {
+        bufferedOutputStream.reset(outputStream);
+      }
+      output = new DataOutputStream(bufferedOutputStream);
+      output.writeInt(VERSION);
+      CRC32 crc = new CRC32();
+      DataOutputStream checkedOutput = new DataOutputStream(new CheckedOutputStream(output, crc));
+      checkedOutput.writeInt(spansById.size());
+      for (int i = 0; i < spansById.size(); i++) {
+        ArrayList<SimpleCacheSpan> spans = spansById.valueAt(i);
+        checkedOutput.writeInt(spansById.keyAt(i));
+        checkedOutput.writeInt(spans.isEmpty() ? 0 : spans.get(0).key.hashCode());
+        checkedOutput.writeInt(spans.size());
+        for (int j = 0; j < spans.size(); j++) {
+          SimpleCacheSpan span = spans.get(j);
+          checkedOutput.writeLong(span.position);
+          checkedOutput.writeLong(span.length);
+          checkedOutput.writeLong(span.lastAccessTimestamp);
+        }
+        newSpanCount += spans.size();
+      }
+      checkedOutput.flush();
+      output.writeInt((int) crc.getValue());
+      atomicFile.endWrite(output);
+      output = null;
+    } catch (IOException e) {
+      throw new CacheException(e);
+    } finally {
+      Util.closeQuietly(output);
+    }
+    spanCount = newSpanCount;
+    journalOperationCount = 0;
+    compactionRequired = false;
+  }
+
+  private boolean readFile(SparseArray<HashMap<Long, SpanMetadata>> spansById) {
+    DataInputStream input = null;
+    try {
+      input = new DataInputStream(new BufferedInputStream(atomicFile.openRead()));
+      int version = input.readInt();
+      if (version != VERSION) {
+        return false;
+      }
+      CRC32 crc = new CRC32();
+      DataInputStream checkedInput = new DataInputStream(new CheckedInputStream(input, crc));
+      int contentCount = checkedInput.readInt();
+      for (int i = 0; i < contentCount; i++) {
+        int id = checkedInput.readInt();
+        int keyHashCode = checkedInput.readInt();
+        int count = checkedInput.readInt();
+        for (int j = 0; j < count; j++) {
+          long position = checkedInput.readLong();
+          long length = checkedInput.readLong();
+          long lastAccessTimestamp = checkedInput.readLong();
+          putSpan(spansById, id, keyHashCode, position, length, lastAccessTimestamp);
+        }
+      }
+      if (input.readInt() != (int) crc.getValue()) {
+        return false;
+      }
+      readJournal(input, spansById);
+    } catch (FileNotFoundException e) {
+      return false;
+    } catch (IOException e) {
+      Log.e(TAG, "Error reading cache span index file.", e);
+      return false;
+    } finally {
+      Util.closeQuietly(input);
+    }
+    return true;
+  }
+
+  /**
+   * Reads the journal records that follow the snapshot and applies them to the spans. Reading stops
+   * at the first incomplete or corrupt record, in which case the index file is compacted by the
+   * next store.
+   */
+  private void readJournal(
+      DataInputStream input, SparseArray<HashMap<Long, SpanMetadata>> spansById)
+      throws IOException {
+    while (true) {
+      int firstByte = input.read();
+      if (firstByte == -1) {
+        // Reached the end of the journal.
+        return;
+      }
+      byte[] record;
+      try {
+        int recordLength = (firstByte << 24) | (input.readUnsignedByte() << 16)
+            | (input.readUnsignedByte() << 8) | input.readUnsignedByte();
+        if (recordLength < 8 || recordLength > MAX_JOURNAL_RECORD_LENGTH) {
+          break;
+        }
+        record = new byte[recordLength];
+        input.readFully(record);
+      } catch (EOFException e) {
+        break;
+      }
+      // The record ends with a checksum of the preceding operations.
+      int operationsLength = record.length - 4;
+      CRC32 crc = new CRC32();
+      crc.update(record, 0, operationsLength);
+      DataInputStream recordInput =
+          new DataInputStream(new ByteArrayInputStream(record, operationsLength, 4));
+      if (recordInput.readInt() != (int) crc.getValue()) {
+        break;
+      }
+      recordInput = new DataInputStream(new ByteArrayInputStream(record, 0, operationsLength));
+      int operationCount = recordInput.readInt();
+      for (int i = 0; i < operationCount; i++) {
+        int operation = recordInput.readUnsignedByte();
+        int id = recordInput.readInt();
+        if (operation == JOURNAL_OPERATION_ADD) {
+          int keyHashCode = recordInput.readInt();
+          long position = recordInput.readLong();
+          long length = recordInput.readLong();
+          long lastAccessTimestamp = recordInput.readLong();
+          putSpan(spansById, id, keyHashCode, position, length, lastAccessTimestamp);
+        } else if (operation == JOURNAL_OPERATION_REMOVE) {
+          long position = recordInput.readLong();
+          HashMap<Long, SpanMetadata> spans = spansById.get(id);
+          if (spans != null) {
+            spans.remove(position);
+          }
+        } else {
+          throw new IOException("Unexpected cache span index journal operation: " + operation);
+        }
+      }
+      journalOperationCount += operationCount;
+    }
+    Log.w(TAG, "Ignoring incomplete or corrupt cache span index journal record.");
+    compactionRequired = true;
+  }
+
+  /**
+   * Creates the spans described by the given metadata.
+   *
+   * @return The spans, or null if the key of any span doesn't match the content index.
+   */
+  @Nullable
+  private ArrayList<SimpleCacheSpan> createSpans(
+      CachedContentIndex index, SparseArray<HashMap<Long, SpanMetadata>> spansById) {
+    ArrayList<SimpleCacheSpan> spans = new ArrayList<>();
+    for (int i = 0; i < spansById.size(); i++) {
+      int id = spansById.keyAt(i);
+      String key = index.getKeyForId(id);
+      for (SpanMetadata metadata : spansById.valueAt(i).values()) {
+        if (key == null || key.hashCode() != metadata.keyHashCode) {
+          return null;
+        }
+        spans.add(SimpleCacheSpan.createCacheEntry(cacheDir, id, key, metadata.position,
+            metadata.length, metadata.lastAccessTimestamp));
+      }
+    }
+    return spans;
+  }
+
+  private static void putSpan(
+      SparseArray<HashMap<Long, SpanMetadata>> spansById,
+      int id,
+      int keyHashCode,
+      long position,
+      long length,
+      long lastAccessTimestamp) {
+    HashMap<Long, SpanMetadata> spans = spansById.get(id);
+    if (spans == null) {
+      spans = new HashMap<>();
+      spansById.put(id, spans);
+    }
+    spans.put(position, new SpanMetadata(keyHashCode, position, length, lastAccessTimestamp));
+  }
+
+  private void clearPendingOperations() {
+    pendingOperationsStream = new ByteArrayOutputStream();
+    pendingOperationsOutput = new DataOutputStream(pendingOperationsStream);
+    pendingOperationCount = 0;
+  }
+
+  /** The metadata of a span, as read from the index file. */
+  private static final class SpanMetadata {
+
+    public final int keyHashCode;
+    public final long position;
+    public final long length;
+    public final long lastAccessTimestamp;
+
+    public SpanMetadata(int keyHashCode, long position, long length, long lastAccessTimestamp) {
+      this.keyHashCode = keyHashCode;
+      this.position = position;
+      this.length = length;
+      this.lastAccessTimestamp = lastAccessTimestamp;
+    }
+
+  }
+
+}
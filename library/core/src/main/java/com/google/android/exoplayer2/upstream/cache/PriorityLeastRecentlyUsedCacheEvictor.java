@@ -0,0 +1,386 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream.cache;
+
+import android.support.annotation.Nullable;
+import com.google.android.exoplayer2.upstream.cache.Cache.CacheException;
+import com.google.android.exoplayer2.util.Assertions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Evicts least recently used cache files first, optionally preferring to evict spans of lower
+ * priority.
+ *
+ * <p>Unlike {@link LeastRecentlyUsedCacheEvictor}, spans are kept in linked lists ordered by last
+ * access, so that moving a span to the most recently used end of its list takes constant time.
+ * Spans are found by a binary search over the positions of the spans of their key. When the cache
+ * exceeds its maximum size, spans are evicted until its size drops to a lower threshold, so that
+ * eviction isn't triggered again by each new span that's written.
+ *
+ * <p>A {@link SpanPrioritizer} can be provided to assign each span to a priority class, for example
+ * to keep initialization segments cached for longer, or to evict large spans first. Spans of a
+ * lower priority are always evicted before spans of a higher priority. Within each priority, the
+ * least recently used span is evicted first.
+ */
+public final class PriorityLeastRecentlyUsedCacheEvictor implements CacheEvictor {
+
+  /** Assigns spans to priority classes. */
+  public interface SpanPrioritizer {
+
+    /**
+     * Returns the priority of a span, which must be non-negative and less than the priority count
+     * passed to the evictor. Spans of a lower priority are evicted first. The same priority must be
+     * returned for all spans with the same key and position.
+     *
+     * @param span The span.
+     * @return The priority of the span.
+     */
+    int getPriority(CacheSpan span);
+
+  }
+
+  /**
+   * The default size to which the cache is reduced when it exceeds its maximum size, as a fraction
+   * of the maximum size.
+   */
+  public static final float DEFAULT_LOW_WATER_MARK_FRACTION = 0.9f;
+
+  private static final Comparator<Node> LAST_ACCESS_TIMESTAMP_COMPARATOR =
+      new Comparator<Node>() {
+        @Override
+        public int compare(Node lhs, Node rhs) {
+          long lhsTimestamp = lhs.span.lastAccessTimestamp;
+          long rhsTimestamp = rhs.span.lastAccessTimestamp;
+          return lhsTimestamp < rhsTimestamp ? -1 : (lhsTimestamp == rhsTimestamp ? 0 : 1);
+        }
+      };
+
+  private final long maxBytes;
+  private final long lowWaterMarkBytes;
+  private final @Nullable SpanPrioritizer prioritizer;
+  private final HashMap<String, NodesForKey> nodes;
+  private final Node[] heads;
+  private final Node[] tails;
+
+  private long currentSize;
+  private boolean initialized;
+
+  /**
+   * Creates an evictor that reduces the cache to {@link #DEFAULT_LOW_WATER_MARK_FRACTION} of its
+   * maximum size when the maximum size is exceeded.
+   *
+   * @param maxBytes The maximum size of the cache, in bytes.
+   */
+  public PriorityLeastRecentlyUsedCacheEvictor(long maxBytes) {
+    this(maxBytes, (long) (maxBytes * DEFAULT_LOW_WATER_MARK_FRACTION));
+  }
+
+  /**
+   * @param maxBytes The maximum size of the cache, in bytes.
+   * @param lowWaterMarkBytes The size to which the cache is reduced when the maximum size is
+   *     exceeded, in bytes. Must not be greater than {@code maxBytes}.
+   */
+  public PriorityLeastRecentlyUsedCacheEvictor(long maxBytes, long lowWaterMarkBytes) {
+    this(maxBytes, lowWaterMarkBytes, 1, null);
+  }
+
+  /**
+   * @param maxBytes The maximum size of the cache, in bytes.
+   * @param lowWaterMarkBytes The size to which the cache is reduced when the maximum size is
+   *     exceeded, in bytes. Must not be greater than {@code maxBytes}.
+   * @param priorityCount The number of priority classes.
+   * @param prioritizer Assigns spans to priority classes, or null if all spans have the same
+   *     priority.
+   */
+  public PriorityLeastRecentlyUsedCacheEvictor(
+      long maxBytes,
+      long lowWaterMarkBytes,
+      int priorityCount,
+      @Nullable SpanPrioritizer prioritizer) {
+    Assertions.checkArgument(lowWaterMarkBytes <= maxBytes);
+    Assertions.checkArgument(priorityCount > 0);
+    this.maxBytes = maxBytes;
+    this.lowWaterMarkBytes = lowWaterMarkBytes;
+    this.prioritizer = prioritizer;
+    nodes = new HashMap<>();
+    heads = new Node[priorityCount];
+    tails = new Node[priorityCount];
+  }
+
+  @Override
+  public void onCacheInitialized() {
+    // The spans of an initializing cache are added in no particular order, so they're sorted once
+    // the cache has been initialized. Until then nothing is evicted, since the order isn't known.
+    ArrayList<Node> sortedNodes = new ArrayList<>();
+    for (int priority = 0; priority < heads.length; priority++) {
+      sortedNodes.clear();
+      for (Node node = heads[priority]; node != null; node = node.next) {
+        sortedNodes.add(node);
+      }
+      Collections.sort(sortedNodes, LAST_ACCESS_TIMESTAMP_COMPARATOR);
+      heads[priority] = null;
+      tails[priority] = null;
+      for (int i = 0; i < sortedNodes.size(); i++) {
+        Node node = sortedNodes.get(i);
+        node.previous = null;
+        node.next = null;
+        linkLast(node);
+      }
+    }
+    initialized = true;
+  }
+
+  @Override
+  public void onStartFile(Cache cache, String key, long position, long maxLength) {
+    evictCache(cache, maxLength);
+  }
+
+  @Override
+  public void onSpanAdded(Cache cache, CacheSpan span) {
+    addNode(span);
+    currentSize += span.length;
+    evictCache(cache, 0);
+  }
+
+  @Override
+  public void onSpanRemoved(Cache cache, CacheSpan span) {
+    NodesForKey nodesForKey = nodes.get(span.key);
+    Node node = nodesForKey != null ? nodesForKey.remove(span.position) : null;
+    if (node == null) {
+      return;
+    }
+    if (nodesForKey.size == 0) {
+      nodes.remove(span.key);
+    }
+    unlink(node);
+    currentSize -= node.span.length;
+  }
+
+  @Override
+  public void onSpanTouched(Cache cache, CacheSpan oldSpan, CacheSpan newSpan) {
+    // Touching a span doesn't change the size of the cache, so there's no need to evict.
+    onSpanRemoved(cache, oldSpan);
+    addNode(newSpan);
+    currentSize += newSpan.length;
+  }
+
+  private void addNode(CacheSpan span) {
+    NodesForKey nodesForKey = nodes.get(span.key);
+    if (nodesForKey == null) {
+      nodesForKey = new NodesForKey();
+      nodes.put(span.key, nodesForKey);
+    }
+    int priority = prioritizer != null ? prioritizer.getPriority(span) : 0;
+    Node node = new Node(span, priority);
+    Node previousNode = nodesForKey.put(span.position, node);
+    if (previousNode != null) {
+      unlink(previousNode);
+      currentSize -= previousNode.span.length;
+    }
+    if (initialized) {
+      linkByLastAccessTimestamp(node);
+    } else {
+      linkLast(node);
+    }
+  }
+
+  private void evictCache(Cache cache, long requiredSpace) {
+    if (!initialized || currentSize + requiredSpace <= maxBytes) {
+      return;
+    }
+    // Select the spans to evict before evicting any of them, since evicting a span modifies the
+    // lists through onSpanRemoved. The list is local, since removing a span may call back into the
+    // evictor.
+    ArrayList<CacheSpan> spansToEvict = new ArrayList<>();
+    long targetSize = lowWaterMarkBytes - requiredSpace;
+    long remainingSize = currentSize;
+    for (int priority = 0; priority < heads.length && remainingSize > targetSize; priority++) {
+      for (Node node = heads[priority]; node != null && remainingSize > targetSize;
+          node = node.next) {
+        spansToEvict.add(node.span);
+        remainingSize -= node.span.length;
+      }
+    }
+    for (int i = 0; i < spansToEvict.size(); i++) {
+      CacheSpan span = spansToEvict.get(i);
+      if (!containsSpan(span)) {
+        // The span was removed while an earlier span was being evicted.
+        continue;
+      }
+      try {
+        cache.removeSpan(span);
+      } catch (CacheException e) {
+        // do nothing.
+      }
+    }
+  }
+
+  private boolean containsSpan(CacheSpan span) {
+    NodesForKey nodesForKey = nodes.get(span.key);
+    Node node = nodesForKey != null ? nodesForKey.get(span.position) : null;
+    return node != null && node.span == span;
+  }
+
+  /** Inserts the node such that its list remains ordered by last access timestamp. */
+  private void linkByLastAccessTimestamp(Node node) {
+    // New and touched spans are normally the most recently used, so search from the tail.
+    Node previous = tails[node.priority];
+    while (previous != null
+        && previous.span.lastAccessTimestamp > node.span.lastAccessTimestamp) {
+      previous = previous.previous;
+    }
+    if (previous == null) {
+      Node head = heads[node.priority];
+      node.next = head;
+      if (head != null) {
+        head.previous = node;
+      } else {
+        tails[node.priority] = node;
+      }
+      heads[node.priority] = node;
+    } else {
+      node.previous = previous;
+      node.next = previous.next;
+      if (previous.next != null) {
+        previous.next.previous = node;
+      } else {
+        tails[node.priority] = node;
+      }
+      previous.next = node;
+    }
+  }
+
+  private void linkLast(Node node) {
+    Node tail = tails[node.priority];
+    node.previous = tail;
+    if (tail != null) {
+      tail.next = node;
+    } else {
+      heads[node.priority] = node;
+    }
+    tails[node.priority] = node;
+  }
+
+  private void unlink(Node node) {
+    if (node.previous != null) {
+      node.previous.next = node.next;
+    } else {
+      heads[node.priority] = node.next;
+    }
+    if (node.next != null) {
+      node.next.previous = node.previous;
+    } else {
+      tails[node.priority] = node.previous;
+    }
+    node.previous = null;
+    node.next = null;
+  }
+
+  /**
+   * The nodes of the spans of a key, sorted by position. Positions are kept in a primitive array,
+   * so that looking up a node doesn't box the position. Spans are normally added in order of
+   * position, which appends to the arrays.
+   */
+  private static final class NodesForKey {
+
+    private long[] positions;
+    private Node[] nodes;
+    private int size;
+
+    public NodesForKey() {
+      positions = new long[4];
+      nodes = new Node[4];
+    }
+
+    /**
+     * Returns the node at a position, or null if there's no node at the position.
+     *
+     * @param position The position.
+     */
+    public @Nullable Node get(long position) {
+      int index = Arrays.binarySearch(positions, 0, size, position);
+      return index >= 0 ? nodes[index] : null;
+    }
+
+    /**
+     * Sets the node at a position.
+     *
+     * @param position The position.
+     * @param node The node.
+     * @return The node that was previously at the position, or null.
+     */
+    public @Nullable Node put(long position, Node node) {
+      int index = Arrays.binarySearch(positions, 0, size, position);
+      if (index >= 0) {
+        Node previousNode = nodes[index];
+        nodes[index] = node;
+        return previousNode;
+      }
+      index = -index - 1;
+      if (size == positions.length) {
+        positions = Arrays.copyOf(positions, size * 2);
+        nodes = Arrays.copyOf(nodes, size * 2);
+      }
+      System.arraycopy(positions, index, positions, index + 1, size - index);
+      System.arraycopy(nodes, index, nodes, index + 1, size - index);
+      positions[index] = position;
+      nodes[index] = node;
+      size++;
+      return null;
+    }
+
+    /**
+     * Removes the node at a position.
+     *
+     * @param position The position.
+     * @return The removed node, or null if there was no node at the position.
+     */
+    public @Nullable Node remove(long position) {
+      int index = Arrays.binarySearch(positions, 0, size, position);
+      if (index < 0) {
+        return null;
+      }
+      Node node = nodes[index];
+      size--;
+      System.arraycopy(positions, index + 1, positions, index, size - index);
+      System.arraycopy(nodes, index + 1, nodes, index, size - index);
+      nodes[size] = null;
+      return node;
+    }
+
+  }
+
+  /** An entry in the list of spans of a priority class. */
+  private static final class Node {
+
+    public final CacheSpan span;
+    public final int priority;
+
+    public Node previous;
+    public Node next;
+
+    public Node(CacheSpan span, int priority) {
+      this.span = span;
+      this.priority = priority;
+    }
+
+  }
+
+}
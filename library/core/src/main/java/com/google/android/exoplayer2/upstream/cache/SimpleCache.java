@@ -16,29 +16,62 @@
 package com.google.android.exoplayer2.upstream.cache;
 
 import android.os.ConditionVariable;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.SparseArray;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.util.Assertions;
 import java.io.File;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.NavigableSet;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A {@link Cache} implementation that maintains an in-memory representation.
+ *
+ * <p>The cache is safe for concurrent use. Operations on different keys only contend if the keys
+ * map to the same lock stripe, so independent readers and writers can make progress in parallel.
+ * The {@link CacheEvictor} is always called from one thread at a time, but not necessarily in the
+ * same call stack as the operation that caused the event.
+ *
+ * <p>The metadata of the cached spans is persisted in a {@link CachedSpanIndex}, from which the
+ * cache is initialized without scanning the cache directory. The directory is reconciled with the
+ * loaded spans in the background once the cache has become usable.
  */
 public final class SimpleCache implements Cache {
 
   private static final String TAG = "SimpleCache";
 
+  /** The number of lock stripes. Must be a power of two. */
+  private static final int KEY_LOCK_COUNT = 32;
+  /**
+   * The number of span index operations that may be pending before a read stores the span index.
+   */
+  /* package */ static final int MAX_PENDING_SPAN_INDEX_OPERATIONS = 256;
+  /** The maximum time for which a read leaves span index operations pending, in milliseconds. */
+  /* package */ static final long MAX_SPAN_INDEX_STORE_INTERVAL_MS = 30000;
+
   private final File cacheDir;
   private final CacheEvictor evictor;
   private final CachedContentIndex index;
-  private final HashMap<String, ArrayList<Listener>> listeners;
-  private long totalSpace = 0;
+  private final CachedSpanIndex spanIndex;
+  private final ConcurrentHashMap<String, ArrayList<Listener>> listeners;
+  private final Object[] keyLocks;
+  private final AtomicLong totalSpace;
+  private final ReentrantLock evictorLock;
+  private final ConcurrentLinkedQueue<EvictorEvent> pendingEvictorEvents;
+  private final ConditionVariable initializationCondition;
+  private final ReentrantLock spanIndexLock;
+  private final ConditionVariable reconciliationCondition;
+
+  private volatile boolean initialized;
+  private volatile long spanIndexStoreTimeMs;
 
   /**
    * Constructs the cache. The cache will delete any unrecognized files from the directory. Hence
@@ -91,158 +124,307 @@ public final class SimpleCache implements Cache {
     this.cacheDir = cacheDir;
     this.evictor = evictor;
     this.index = index;
-    this.listeners = new HashMap<>();
-    // Start cache initialization.
-    final ConditionVariable conditionVariable = new ConditionVariable();
+    spanIndex = new CachedSpanIndex(cacheDir);
+    this.listeners = new ConcurrentHashMap<>();
+    keyLocks = new Object[KEY_LOCK_COUNT];
+    for (int i = 0; i < KEY_LOCK_COUNT; i++) {
+      keyLocks[i] = new Object();
+    }
+    totalSpace = new AtomicLong();
+    evictorLock = new ReentrantLock();
+    pendingEvictorEvents = new ConcurrentLinkedQueue<>();
+    initializationCondition = new ConditionVariable();
+    spanIndexLock = new ReentrantLock();
+    spanIndexStoreTimeMs = SystemClock.elapsedRealtime();
+    reconciliationCondition = new ConditionVariable();
+    // Start cache initialization. Cache operations block until it has completed, but not until the
+    // cache directory has been reconciled with the span index.
     new Thread("SimpleCache.initialize()") {
       @Override
       public void run() {
-        synchronized (SimpleCache.this) {
-          conditionVariable.open();
-          initialize();
+        boolean reconciliationRequired = initialize();
+        evictorLock.lock();
+        try {
+          dispatchPendingEvictorEvents();
           SimpleCache.this.evictor.onCacheInitialized();
+        } finally {
+          evictorLock.unlock();
+        }
+        initialized = true;
+        initializationCondition.open();
+        if (reconciliationRequired) {
+          reconcile();
+          storeSpanIndex();
         }
+        reconciliationCondition.open();
       }
     }.start();
-    conditionVariable.block();
   }
 
   @Override
-  public synchronized NavigableSet<CacheSpan> addListener(String key, Listener listener) {
-    ArrayList<Listener> listenersForKey = listeners.get(key);
-    if (listenersForKey == null) {
-      listenersForKey = new ArrayList<>();
-      listeners.put(key, listenersForKey);
+  public NavigableSet<CacheSpan> addListener(String key, Listener listener) {
+    blockUntilInitialized();
+    synchronized (getKeyLock(key)) {
+      ArrayList<Listener> listenersForKey = listeners.get(key);
+      if (listenersForKey == null) {
+        listenersForKey = new ArrayList<>();
+        listeners.put(key, listenersForKey);
+      }
+      listenersForKey.add(listener);
+      return getCachedSpans(key);
     }
-    listenersForKey.add(listener);
-    return getCachedSpans(key);
   }
 
   @Override
-  public synchronized void removeListener(String key, Listener listener) {
-    ArrayList<Listener> listenersForKey = listeners.get(key);
-    if (listenersForKey != null) {
-      listenersForKey.remove(listener);
-      if (listenersForKey.isEmpty()) {
-        listeners.remove(key);
+  public void removeListener(String key, Listener listener) {
+    blockUntilInitialized();
+    synchronized (getKeyLock(key)) {
+      ArrayList<Listener> listenersForKey = listeners.get(key);
+      if (listenersForKey != null) {
+        listenersForKey.remove(listener);
+        if (listenersForKey.isEmpty()) {
+          listeners.remove(key);
+        }
       }
     }
   }
 
   @Override
-  public synchronized NavigableSet<CacheSpan> getCachedSpans(String key) {
-    CachedContent cachedContent = index.get(key);
-    return cachedContent == null || cachedContent.isEmpty()
-        ? new TreeSet<CacheSpan>()
-        : new TreeSet<CacheSpan>(cachedContent.getSpans());
+  public NavigableSet<CacheSpan> getCachedSpans(String key) {
+    blockUntilInitialized();
+    synchronized (getKeyLock(key)) {
+      CachedContent cachedContent = index.get(key);
+      return cachedContent == null || cachedContent.isEmpty()
+          ? new TreeSet<CacheSpan>()
+          : new TreeSet<CacheSpan>(cachedContent.getSpans());
+    }
   }
 
   @Override
-  public synchronized Set<String> getKeys() {
+  public Set<String> getKeys() {
+    blockUntilInitialized();
     return new HashSet<>(index.getKeys());
   }
 
   @Override
-  public synchronized long getCacheSpace() {
-    return totalSpace;
+  public long getCacheSpace() {
+    blockUntilInitialized();
+    return totalSpace.get();
   }
 
   @Override
-  public synchronized SimpleCacheSpan startReadWrite(String key, long position)
+  public SimpleCacheSpan startReadWrite(String key, long position)
       throws InterruptedException, CacheException {
-    while (true) {
-      SimpleCacheSpan span = startReadWriteNonBlocking(key, position);
-      if (span != null) {
-        return span;
-      } else {
-        // Write case, lock not available. We'll be woken up when a locked span is released (if the
-        // released lock is for the requested key then we'll be able to make progress) or when a
-        // span is added to the cache (if the span is for the requested key and covers the requested
-        // position, then we'll become a read and be able to make progress).
-        wait();
+    blockUntilInitialized();
+    Object keyLock = getKeyLock(key);
+    try {
+      synchronized (keyLock) {
+        while (true) {
+          SimpleCacheSpan span = startReadWriteNonBlockingLocked(key, position);
+          if (span != null) {
+            return span;
+          } else {
+            // Write case, lock not available. We'll be woken up when a locked span for a key using
+            // the same lock stripe is released (if the released lock is for the requested key then
+            // we'll be able to make progress) or when a span is added to the cache (if the span is
+            // for the requested key and covers the requested position, then we'll become a read
+            // and be able to make progress).
+            keyLock.wait();
+          }
+        }
       }
+    } finally {
+      maybeDispatchPendingEvictorEvents();
+      maybeStoreSpanIndex();
     }
   }
 
   @Override
-  public synchronized SimpleCacheSpan startReadWriteNonBlocking(String key, long position)
+  public SimpleCacheSpan startReadWriteNonBlocking(String key, long position)
       throws CacheException {
-    SimpleCacheSpan cacheSpan = getSpan(key, position);
-
-    // Read case.
-    if (cacheSpan.isCached) {
-      // Obtain a new span with updated last access timestamp.
-      SimpleCacheSpan newCacheSpan = index.get(key).touch(cacheSpan);
-      notifySpanTouched(cacheSpan, newCacheSpan);
-      return newCacheSpan;
-    }
-
-    CachedContent cachedContent = index.getOrAdd(key);
-    if (!cachedContent.isLocked()) {
-      // Write case, lock available.
-      cachedContent.setLocked(true);
-      return cacheSpan;
+    blockUntilInitialized();
+    try {
+      synchronized (getKeyLock(key)) {
+        return startReadWriteNonBlockingLocked(key, position);
+      }
+    } finally {
+      maybeDispatchPendingEvictorEvents();
+      maybeStoreSpanIndex();
     }
-
-    // Write case, lock not available.
-    return null;
   }
 
   @Override
-  public synchronized File startFile(String key, long position, long maxLength)
-      throws CacheException {
-    CachedContent cachedContent = index.get(key);
-    Assertions.checkNotNull(cachedContent);
-    Assertions.checkState(cachedContent.isLocked());
+  public File startFile(String key, long position, long maxLength) throws CacheException {
+    blockUntilInitialized();
+    int id;
+    synchronized (getKeyLock(key)) {
+      CachedContent cachedContent = index.get(key);
+      Assertions.checkNotNull(cachedContent);
+      Assertions.checkState(cachedContent.isLocked());
+      id = cachedContent.id;
+    }
     if (!cacheDir.exists()) {
       // For some reason the cache directory doesn't exist. Make a best effort to create it.
       removeStaleSpansAndCachedContents();
       cacheDir.mkdirs();
     }
-    evictor.onStartFile(this, key, position, maxLength);
-    return SimpleCacheSpan.getCacheFile(
-        cacheDir, cachedContent.id, position, System.currentTimeMillis());
+    evictorLock.lock();
+    try {
+      dispatchPendingEvictorEvents();
+      evictor.onStartFile(this, key, position, maxLength);
+    } finally {
+      evictorLock.unlock();
+    }
+    maybeDispatchPendingEvictorEvents();
+    return SimpleCacheSpan.getCacheFile(cacheDir, id, position, System.currentTimeMillis());
   }
 
   @Override
-  public synchronized void commitFile(File file) throws CacheException {
+  public void commitFile(File file) throws CacheException {
+    blockUntilInitialized();
     SimpleCacheSpan span = SimpleCacheSpan.createCacheEntry(file, index);
     Assertions.checkState(span != null);
-    CachedContent cachedContent = index.get(span.key);
-    Assertions.checkNotNull(cachedContent);
-    Assertions.checkState(cachedContent.isLocked());
-    // If the file doesn't exist, don't add it to the in-memory representation.
-    if (!file.exists()) {
-      return;
+    Object keyLock = getKeyLock(span.key);
+    try {
+      synchronized (keyLock) {
+        CachedContent cachedContent = index.get(span.key);
+        Assertions.checkNotNull(cachedContent);
+        Assertions.checkState(cachedContent.isLocked());
+        // If the file doesn't exist, don't add it to the in-memory representation.
+        if (!file.exists()) {
+          return;
+        }
+        // If the file has length 0, delete it and don't add it to the in-memory representation.
+        if (file.length() == 0) {
+          file.delete();
+          return;
+        }
+        // Check if the span conflicts with the set content length
+        long length = index.getContentLength(span.key);
+        if (length != C.LENGTH_UNSET) {
+          Assertions.checkState((span.position + span.length) <= length);
+        }
+        addSpan(span);
+        spanIndex.onSpanAdded(cachedContent.id, span);
+        keyLock.notifyAll();
+      }
+    } finally {
+      maybeDispatchPendingEvictorEvents();
     }
-    // If the file has length 0, delete it and don't add it to the in-memory representation.
-    if (file.length() == 0) {
-      file.delete();
-      return;
+    index.store();
+    storeSpanIndex();
+  }
+
+  @Override
+  public void releaseHoleSpan(CacheSpan holeSpan) {
+    blockUntilInitialized();
+    Object keyLock = getKeyLock(holeSpan.key);
+    synchronized (keyLock) {
+      CachedContent cachedContent = index.get(holeSpan.key);
+      Assertions.checkNotNull(cachedContent);
+      Assertions.checkState(cachedContent.isLocked());
+      cachedContent.setLocked(false);
+      index.maybeRemove(cachedContent.key);
+      keyLock.notifyAll();
+    }
+  }
+
+  @Override
+  public void removeSpan(CacheSpan span) throws CacheException {
+    blockUntilInitialized();
+    boolean removed;
+    try {
+      synchronized (getKeyLock(span.key)) {
+        removed = removeSpanLocked(span);
+        if (removed) {
+          index.maybeRemove(span.key);
+        }
+      }
+    } finally {
+      maybeDispatchPendingEvictorEvents();
     }
-    // Check if the span conflicts with the set content length
-    Long length = cachedContent.getLength();
-    if (length != C.LENGTH_UNSET) {
-      Assertions.checkState((span.position + span.length) <= length);
+    if (removed) {
+      index.store();
+      storeSpanIndex();
+    }
+  }
+
+  @Override
+  public boolean isCached(String key, long position, long length) {
+    blockUntilInitialized();
+    synchronized (getKeyLock(key)) {
+      CachedContent cachedContent = index.get(key);
+      return cachedContent != null
+          && cachedContent.getCachedBytesLength(position, length) >= length;
+    }
+  }
+
+  @Override
+  public long getCachedLength(String key, long position, long length) {
+    blockUntilInitialized();
+    synchronized (getKeyLock(key)) {
+      CachedContent cachedContent = index.get(key);
+      return cachedContent != null ? cachedContent.getCachedBytesLength(position, length) : -length;
+    }
+  }
+
+  @Override
+  public void setContentLength(String key, long length) throws CacheException {
+    blockUntilInitialized();
+    synchronized (getKeyLock(key)) {
+      index.setContentLength(key, length);
     }
-    addSpan(span);
     index.store();
-    notifyAll();
   }
 
   @Override
-  public synchronized void releaseHoleSpan(CacheSpan holeSpan) {
-    CachedContent cachedContent = index.get(holeSpan.key);
-    Assertions.checkNotNull(cachedContent);
-    Assertions.checkState(cachedContent.isLocked());
-    cachedContent.setLocked(false);
-    index.maybeRemove(cachedContent.key);
-    notifyAll();
+  public long getContentLength(String key) {
+    blockUntilInitialized();
+    return index.getContentLength(key);
+  }
+
+  /**
+   * Flushes the changes to the cache's metadata that are pending to the span index file. The last
+   * access timestamps of the spans that are read are stored in batches, at most every 256 reads or
+   * 30 seconds, so this method should be called when the cache is no longer required. Timestamps
+   * that aren't stored are recovered when the cache directory is reconciled after the cache is next
+   * initialized, but until then reads of the affected spans miss the cache.
+   *
+   * <p>The cache remains usable after this method is called.
+   */
+  public void flush() {
+    blockUntilInitialized();
+    storeSpanIndex();
+  }
+
+  private SimpleCacheSpan startReadWriteNonBlockingLocked(String key, long position)
+      throws CacheException {
+    SimpleCacheSpan cacheSpan = getSpan(key, position);
+
+    // Read case.
+    if (cacheSpan.isCached) {
+      // Obtain a new span with updated last access timestamp.
+      CachedContent cachedContent = index.get(key);
+      SimpleCacheSpan newCacheSpan = cachedContent.touch(cacheSpan);
+      spanIndex.onSpanTouched(cachedContent.id, newCacheSpan);
+      notifySpanTouched(cacheSpan, newCacheSpan);
+      return newCacheSpan;
+    }
+
+    CachedContent cachedContent = index.getOrAdd(key);
+    if (!cachedContent.isLocked()) {
+      // Write case, lock available.
+      cachedContent.setLocked(true);
+      return cacheSpan;
+    }
+
+    // Write case, lock not available.
+    return null;
   }
 
   /**
    * Returns the cache {@link SimpleCacheSpan} corresponding to the provided lookup {@link
-   * SimpleCacheSpan}.
+   * SimpleCacheSpan}. Must be called while holding the lock for {@code key}.
    *
    * <p>If the lookup position is contained by an existing entry in the cache, then the returned
    * {@link SimpleCacheSpan} defines the file in which the data is stored. If the lookup position is
@@ -253,7 +435,7 @@ public final class SimpleCache implements Cache {
    * @param position The position of the span being requested.
    * @return The corresponding cache {@link SimpleCacheSpan}.
    */
-  private SimpleCacheSpan getSpan(String key, long position) throws CacheException {
+  private SimpleCacheSpan getSpan(String key, long position) {
     CachedContent cachedContent = index.get(key);
     if (cachedContent == null) {
       return SimpleCacheSpan.createOpenHole(key, position);
@@ -261,32 +443,51 @@ public final class SimpleCache implements Cache {
     while (true) {
       SimpleCacheSpan span = cachedContent.getSpan(position);
       if (span.isCached && !span.file.exists()) {
-        // The file has been deleted from under us. It's likely that other files will have been
-        // deleted too, so scan the whole in-memory representation.
-        removeStaleSpansAndCachedContents();
+        // The file has been deleted from under us. It's likely that other files of the same content
+        // will have been deleted too, so scan all of its spans. Other contents are cleaned up when
+        // they are next accessed.
+        removeStaleSpans(cachedContent);
         continue;
       }
       return span;
     }
   }
 
+  /** Blocks until the cache directory has been reconciled with the span index. */
+  /*package*/ void blockUntilReconciled() {
+    reconciliationCondition.block();
+  }
+
   /**
-   * Ensures that the cache's in-memory representation has been initialized.
+   * Initializes the cache's in-memory representation, from the span index if possible and otherwise
+   * by scanning the cache directory.
+   *
+   * @return Whether the in-memory representation was loaded from the span index, in which case the
+   *     cache directory needs to be reconciled with it.
    */
-  private void initialize() {
+  private boolean initialize() {
     if (!cacheDir.exists()) {
       cacheDir.mkdirs();
-      return;
+      storeSpanIndex();
+      return false;
     }
 
     index.load();
 
+    ArrayList<SimpleCacheSpan> spans = spanIndex.load(index);
+    if (spans != null) {
+      for (int i = 0; i < spans.size(); i++) {
+        addSpan(spans.get(i));
+      }
+      return true;
+    }
+
     File[] files = cacheDir.listFiles();
     if (files == null) {
-      return;
+      return false;
     }
     for (File file : files) {
-      if (file.getName().equals(CachedContentIndex.FILE_NAME)) {
+      if (isIndexFile(file.getName())) {
         continue;
       }
       SimpleCacheSpan span = file.length() > 0
@@ -304,58 +505,229 @@ public final class SimpleCache implements Cache {
     } catch (CacheException e) {
       Log.e(TAG, "Storing index file failed", e);
     }
+    storeSpanIndex();
+    return false;
   }
 
   /**
-   * Adds a cached span to the in-memory representation.
+   * Reconciles the cache directory with the in-memory representation that was loaded from the span
+   * index, whilst the cache is in use. Spans whose files no longer exist are removed. Files that
+   * aren't known to the cache are added as spans, or deleted if they can't be.
+   */
+  private void reconcile() {
+    File[] files = cacheDir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (isIndexFile(file.getName())) {
+          continue;
+        }
+        SimpleCacheSpan span = SimpleCacheSpan.createCacheEntry(file, index);
+        if (span == null) {
+          file.delete();
+          continue;
+        }
+        try {
+          synchronized (getKeyLock(span.key)) {
+            reconcileSpanLocked(span);
+          }
+        } finally {
+          maybeDispatchPendingEvictorEvents();
+        }
+      }
+    }
+    try {
+      removeStaleSpansAndCachedContents();
+    } catch (CacheException e) {
+      Log.e(TAG, "Storing index file failed", e);
+    }
+  }
+
+  /**
+   * Adds a span for a file that was found when reconciling the cache directory, if it isn't known
+   * to the cache already. Must be called while holding the lock for the span's key.
+   */
+  private void reconcileSpanLocked(SimpleCacheSpan span) {
+    CachedContent cachedContent = index.get(span.key);
+    if (cachedContent == null
+        || !span.file.equals(SimpleCacheSpan.getCacheFile(
+            cacheDir, cachedContent.id, span.position, span.lastAccessTimestamp))) {
+      // The content was removed after the file was found, so the file is no longer needed.
+      span.file.delete();
+      return;
+    }
+    if (cachedContent.isLocked()) {
+      // The file may be being written.
+      return;
+    }
+    SimpleCacheSpan existingSpan = cachedContent.getSpan(span.position);
+    if (existingSpan.isCached && !existingSpan.file.exists()) {
+      // The span may have been touched after the span index was stored, in which case the file
+      // being reconciled is its renamed file.
+      removeStaleSpans(cachedContent);
+      existingSpan = cachedContent.getSpan(span.position);
+    }
+    if (existingSpan.isCached && existingSpan.file.equals(span.file)) {
+      return;
+    }
+    if (span.length > 0
+        && existingSpan.isHoleSpan()
+        && (existingSpan.isOpenEnded() || span.length <= existingSpan.length)) {
+      addSpan(span);
+      spanIndex.onSpanAdded(cachedContent.id, span);
+      getKeyLock(span.key).notifyAll();
+    } else {
+      // The file is empty, or overlaps data that's been cached since the span index was stored.
+      span.file.delete();
+    }
+  }
+
+  /**
+   * Stores the span index, writing a new snapshot of all of the spans if required. Must not be
+   * called while holding the lock for any key.
+   */
+  private void storeSpanIndex() {
+    spanIndexLock.lock();
+    try {
+      storeSpanIndexLocked();
+    } finally {
+      spanIndexLock.unlock();
+    }
+  }
+
+  /**
+   * Stores the span index if enough operations are pending or if it hasn't been stored recently,
+   * unless another thread is already doing so. Must not be called while holding the lock for any
+   * key.
+   */
+  private void maybeStoreSpanIndex() {
+    // Reads only change the last access timestamps of spans, which don't need to be stored
+    // immediately. They're batched so that reads rarely write to the index file, and they don't
+    // wait for another thread that's storing the span index.
+    int pendingOperationCount = spanIndex.getPendingOperationCount();
+    if (pendingOperationCount == 0
+        || (pendingOperationCount < MAX_PENDING_SPAN_INDEX_OPERATIONS
+            && SystemClock.elapsedRealtime() - spanIndexStoreTimeMs
+                < MAX_SPAN_INDEX_STORE_INTERVAL_MS)) {
+      return;
+    }
+    if (spanIndexLock.tryLock()) {
+      try {
+        storeSpanIndexLocked();
+      } finally {
+        spanIndexLock.unlock();
+      }
+    }
+  }
+
+  /** Stores the span index. Must be called while holding the span index lock. */
+  private void storeSpanIndexLocked() {
+    spanIndexStoreTimeMs = SystemClock.elapsedRealtime();
+    try {
+      if (spanIndex.isCompactionRequired()) {
+        spanIndex.startSnapshot();
+        SparseArray<ArrayList<SimpleCacheSpan>> spansById = new SparseArray<>();
+        for (CachedContent cachedContent : index.getAll()) {
+          synchronized (getKeyLock(cachedContent.key)) {
+            if (!cachedContent.isEmpty()) {
+              spansById.put(cachedContent.id, new ArrayList<>(cachedContent.getSpans()));
+            }
+          }
+        }
+        spanIndex.storeSnapshot(spansById);
+      }
+      spanIndex.store();
+    } catch (CacheException e) {
+      Log.e(TAG, "Storing span index file failed", e);
+    }
+  }
+
+  private void blockUntilInitialized() {
+    // The evictor may call back into the cache whilst it's being notified of the initial spans, in
+    // which case the calling thread is the one performing the initialization.
+    if (!initialized && !evictorLock.isHeldByCurrentThread()) {
+      initializationCondition.block();
+    }
+  }
+
+  private static boolean isIndexFile(String fileName) {
+    // Also matches the backup files of the index files.
+    return fileName.startsWith(CachedContentIndex.FILE_NAME)
+        || fileName.startsWith(CachedSpanIndex.FILE_NAME);
+  }
+
+  private Object getKeyLock(String key) {
+    int hash = key.hashCode();
+    // Spread the higher bits, since the number of stripes is small.
+    hash ^= hash >>> 16;
+    return keyLocks[hash & (KEY_LOCK_COUNT - 1)];
+  }
+
+  /**
+   * Adds a cached span to the in-memory representation. Must be called while holding the lock for
+   * the span's key.
    *
    * @param span The span to be added.
    */
   private void addSpan(SimpleCacheSpan span) {
     index.getOrAdd(span.key).addSpan(span);
-    totalSpace += span.length;
+    totalSpace.addAndGet(span.length);
     notifySpanAdded(span);
   }
 
-  private void removeSpan(CacheSpan span, boolean removeEmptyCachedContent) throws CacheException {
+  /**
+   * Removes a cached span from the in-memory representation and deletes its file. Must be called
+   * while holding the lock for the span's key.
+   *
+   * @param span The span to be removed.
+   * @return Whether the span was removed.
+   */
+  private boolean removeSpanLocked(CacheSpan span) {
     CachedContent cachedContent = index.get(span.key);
     if (cachedContent == null || !cachedContent.removeSpan(span)) {
-      return;
-    }
-    totalSpace -= span.length;
-    try {
-      if (removeEmptyCachedContent) {
-        index.maybeRemove(cachedContent.key);
-        index.store();
-      }
-    } finally {
-      notifySpanRemoved(span);
+      return false;
     }
+    spanIndex.onSpanRemoved(cachedContent.id, span);
+    totalSpace.addAndGet(-span.length);
+    notifySpanRemoved(span);
+    return true;
   }
 
-  @Override
-  public synchronized void removeSpan(CacheSpan span) throws CacheException {
-    removeSpan(span, true);
+  /**
+   * Removes the spans of the given {@link CachedContent} whose files no longer exist. Must be
+   * called while holding the lock for the content's key.
+   */
+  private void removeStaleSpans(CachedContent cachedContent) {
+    ArrayList<CacheSpan> spansToBeRemoved = new ArrayList<>();
+    for (CacheSpan span : cachedContent.getSpans()) {
+      if (!span.file.exists()) {
+        spansToBeRemoved.add(span);
+      }
+    }
+    for (int i = 0; i < spansToBeRemoved.size(); i++) {
+      removeSpanLocked(spansToBeRemoved.get(i));
+    }
   }
 
   /**
    * Scans all of the cached spans in the in-memory representation, removing any for which files
-   * no longer exist.
+   * no longer exist. Must not be called while holding the lock for any key.
    */
   private void removeStaleSpansAndCachedContents() throws CacheException {
-    ArrayList<CacheSpan> spansToBeRemoved = new ArrayList<>();
-    for (CachedContent cachedContent : index.getAll()) {
-      for (CacheSpan span : cachedContent.getSpans()) {
-        if (!span.file.exists()) {
-          spansToBeRemoved.add(span);
+    try {
+      for (CachedContent cachedContent : index.getAll()) {
+        String key = cachedContent.key;
+        synchronized (getKeyLock(key)) {
+          // The content may have been replaced since the snapshot was taken.
+          cachedContent = index.get(key);
+          if (cachedContent != null) {
+            removeStaleSpans(cachedContent);
+            index.maybeRemove(key);
+          }
         }
       }
+    } finally {
+      maybeDispatchPendingEvictorEvents();
     }
-    for (int i = 0; i < spansToBeRemoved.size(); i++) {
-      // Remove span but not CachedContent to prevent multiple index.store() calls.
-      removeSpan(spansToBeRemoved.get(i), false);
-    }
-    index.removeEmpty();
     index.store();
   }
 
@@ -366,7 +738,7 @@ public final class SimpleCache implements Cache {
         keyListeners.get(i).onSpanRemoved(this, span);
       }
     }
-    evictor.onSpanRemoved(this, span);
+    pendingEvictorEvents.add(new EvictorEvent(EvictorEvent.TYPE_REMOVED, span, null));
   }
 
   private void notifySpanAdded(SimpleCacheSpan span) {
@@ -376,7 +748,7 @@ public final class SimpleCache implements Cache {
         keyListeners.get(i).onSpanAdded(this, span);
       }
     }
-    evictor.onSpanAdded(this, span);
+    pendingEvictorEvents.add(new EvictorEvent(EvictorEvent.TYPE_ADDED, span, null));
   }
 
   private void notifySpanTouched(SimpleCacheSpan oldSpan, CacheSpan newSpan) {
@@ -386,30 +758,63 @@ public final class SimpleCache implements Cache {
         keyListeners.get(i).onSpanTouched(this, oldSpan, newSpan);
       }
     }
-    evictor.onSpanTouched(this, oldSpan, newSpan);
+    pendingEvictorEvents.add(new EvictorEvent(EvictorEvent.TYPE_TOUCHED, oldSpan, newSpan));
   }
 
-  @Override
-  public synchronized boolean isCached(String key, long position, long length) {
-    CachedContent cachedContent = index.get(key);
-    return cachedContent != null && cachedContent.getCachedBytesLength(position, length) >= length;
+  /**
+   * Delivers pending events to the evictor, unless another thread is already doing so. Must not be
+   * called while holding the lock for any key, since the evictor may remove spans of any key.
+   */
+  private void maybeDispatchPendingEvictorEvents() {
+    // Events are queued whilst holding the lock for their key, so the evictor sees the events of
+    // each key in order. If another thread holds the evictor lock it will pick up our events after
+    // releasing it, which is why the queue is checked again after every unlock.
+    while (!pendingEvictorEvents.isEmpty() && evictorLock.tryLock()) {
+      try {
+        dispatchPendingEvictorEvents();
+      } finally {
+        evictorLock.unlock();
+      }
+    }
   }
 
-  @Override
-  public synchronized long getCachedLength(String key, long position, long length) {
-    CachedContent cachedContent = index.get(key);
-    return cachedContent != null ? cachedContent.getCachedBytesLength(position, length) : -length;
+  /** Delivers pending events to the evictor. Must be called while holding the evictor lock. */
+  private void dispatchPendingEvictorEvents() {
+    EvictorEvent event;
+    while ((event = pendingEvictorEvents.poll()) != null) {
+      switch (event.type) {
+        case EvictorEvent.TYPE_ADDED:
+          evictor.onSpanAdded(this, event.span);
+          break;
+        case EvictorEvent.TYPE_REMOVED:
+          evictor.onSpanRemoved(this, event.span);
+          break;
+        case EvictorEvent.TYPE_TOUCHED:
+          evictor.onSpanTouched(this, event.span, event.newSpan);
+          break;
+        default:
+          throw new IllegalStateException();
+      }
+    }
   }
 
-  @Override
-  public synchronized void setContentLength(String key, long length) throws CacheException {
-    index.setContentLength(key, length);
-    index.store();
-  }
+  /** A span event that is yet to be delivered to the evictor. */
+  private static final class EvictorEvent {
+
+    public static final int TYPE_ADDED = 0;
+    public static final int TYPE_REMOVED = 1;
+    public static final int TYPE_TOUCHED = 2;
+
+    public final int type;
+    public final CacheSpan span;
+    public final CacheSpan newSpan;
+
+    public EvictorEvent(int type, CacheSpan span, CacheSpan newSpan) {
+      this.type = type;
+      this.span = span;
+      this.newSpan = newSpan;
+    }
 
-  @Override
-  public synchronized long getContentLength(String key) {
-    return index.getContentLength(key);
   }
 
 }
@@ -114,6 +114,24 @@ import java.util.regex.Pattern;
         Long.parseLong(matcher.group(3)), file);
   }
 
+  /**
+   * Creates a cache span from metadata that was stored by a {@link CachedSpanIndex}. The underlying
+   * cache file isn't accessed.
+   *
+   * @param cacheDir The cache directory.
+   * @param id The cache file id.
+   * @param key The cache key.
+   * @param position The position of the span in the original stream.
+   * @param length The length of the span.
+   * @param lastAccessTimestamp The last access timestamp.
+   * @return The span.
+   */
+  public static SimpleCacheSpan createCacheEntry(
+      File cacheDir, int id, String key, long position, long length, long lastAccessTimestamp) {
+    File file = getCacheFile(cacheDir, id, position, lastAccessTimestamp);
+    return new SimpleCacheSpan(key, position, length, lastAccessTimestamp, file);
+  }
+
   /**
    * Upgrades the cache file if it is created by an earlier version of {@link SimpleCache}.
    *
@@ -115,10 +115,31 @@ public final class AtomicFile {
     return str;
   }
 
+  /**
+   * Start a new append to the file. The returned stream must be passed
+   * to {@link #endWrite(OutputStream)} when finished.
+   *
+   * <p>Unlike {@link #startWrite()}, appending is not atomic. If the append does not complete then
+   * the file will contain a partial tail, which the reader must be able to detect and ignore. If
+   * there previously was an incomplete call to {@link #startWrite()}, this will roll back to the
+   * last good data before appending.
+   *
+   * @return The output stream to append to.
+   * @throws IOException If the file could not be opened for appending.
+   */
+  public OutputStream startAppend() throws IOException {
+    restoreBackup();
+    try {
+      return new AtomicFileOutputStream(baseName, true);
+    } catch (FileNotFoundException e) {
+      throw new IOException("Couldn't append to " + baseName, e);
+    }
+  }
+
   /**
    * Call when you have successfully finished writing to the stream returned by {@link
-   * #startWrite()}. This will close, sync, and commit the new data. The next attempt to read the
-   * atomic file will return the new file stream.
+   * #startWrite()} or {@link #startAppend()}. This will close, sync, and commit the new data. The
+   * next attempt to read the atomic file will return the new file stream.
    *
    * @param str Outer-most wrapper OutputStream used to write to the stream returned by {@link
    *     #startWrite()}.
@@ -156,7 +177,11 @@ public final class AtomicFile {
     private boolean closed = false;
 
     public AtomicFileOutputStream(File file) throws FileNotFoundException {
-      fileOutputStream = new FileOutputStream(file);
+      this(file, false);
+    }
+
+    public AtomicFileOutputStream(File file, boolean append) throws FileNotFoundException {
+      fileOutputStream = new FileOutputStream(file, append);
     }
 
     @Override
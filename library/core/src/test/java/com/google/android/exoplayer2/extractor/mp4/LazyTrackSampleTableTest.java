@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.extractor.mp4;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.ParserException;
+import com.google.android.exoplayer2.extractor.GaplessInfoHolder;
+import com.google.android.exoplayer2.util.MimeTypes;
+import com.google.android.exoplayer2.util.ParsableByteArray;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Tests for {@link LazyTrackSampleTable}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public final class LazyTrackSampleTableTest {
+
+  // Enough samples for several expanded windows.
+  private static final int SAMPLE_COUNT = 5000;
+  private static final int VIDEO_TIMESCALE = 30000;
+  private static final int AUDIO_TIMESCALE = 44100;
+  private static final int AUDIO_FRAME_DURATION = 1024;
+
+  private static final Format VIDEO_FORMAT = Format.createVideoSampleFormat(null,
+      MimeTypes.VIDEO_H264, null, Format.NO_VALUE, Format.NO_VALUE, 1280, 720, Format.NO_VALUE,
+      null, null);
+  private static final Format AUDIO_FORMAT = Format.createAudioSampleFormat(null,
+      MimeTypes.AUDIO_AAC, null, Format.NO_VALUE, Format.NO_VALUE, 2, AUDIO_TIMESCALE, null, null,
+      0, null);
+
+  @Test
+  public void testVideoSamplesMatchTrackSampleTable() throws ParserException {
+    assertSamplesMatchTrackSampleTable(
+        buildVideoTrack(/* editListDurations= */ null, /* editListMediaTimes= */ null),
+        buildVideoStbl());
+  }
+
+  @Test
+  public void testEditedVideoSamplesMatchTrackSampleTable() throws ParserException {
+    // An empty edit delays the presentation of an edit that starts ten seconds into the media.
+    Track track = buildVideoTrack(new long[] {500, 100000}, new long[] {-1, 10 * VIDEO_TIMESCALE});
+    LazyTrackSampleTable sampleTable = assertSamplesMatchTrackSampleTable(track, buildVideoStbl());
+
+    assertThat(sampleTable.getSampleCount()).isLessThan(SAMPLE_COUNT);
+    assertThat(sampleTable.getTimestampUs(0)).isAtLeast(500000L);
+  }
+
+  @Test
+  public void testGaplessAudioSamplesMatchTrackSampleTable() throws ParserException {
+    long encoderDelay = 576;
+    long encoderPadding = 500;
+    long mediaDuration = (long) SAMPLE_COUNT * AUDIO_FRAME_DURATION;
+    Track track = buildAudioTrack(new long[] {mediaDuration - encoderDelay - encoderPadding},
+        new long[] {encoderDelay});
+    GaplessInfoHolder gaplessInfoHolder = new GaplessInfoHolder();
+    GaplessInfoHolder lazyGaplessInfoHolder = new GaplessInfoHolder();
+    TrackSampleTable trackSampleTable =
+        AtomParsers.parseStbl(track, buildAudioStbl(), gaplessInfoHolder);
+    LazyTrackSampleTable sampleTable =
+        new LazyTrackSampleTable(track, buildAudioStbl(), lazyGaplessInfoHolder);
+
+    assertSamplesEqual(sampleTable, trackSampleTable);
+    assertThat(lazyGaplessInfoHolder.encoderDelay).isEqualTo(encoderDelay);
+    assertThat(lazyGaplessInfoHolder.encoderPadding).isEqualTo(encoderPadding);
+    assertThat(gaplessInfoHolder.encoderDelay).isEqualTo(encoderDelay);
+  }
+
+  @Test
+  public void testCanParse() {
+    assertThat(LazyTrackSampleTable.canParse(buildVideoTrack(null, null), buildVideoStbl()))
+        .isTrue();
+    assertThat(LazyTrackSampleTable.canParse(buildAudioTrack(null, null), buildAudioStbl()))
+        .isTrue();
+    // Edit lists that include media from several edits are only supported by AtomParsers.
+    Track track = buildVideoTrack(new long[] {1000, 1000}, new long[] {0, 5 * VIDEO_TIMESCALE});
+    assertThat(LazyTrackSampleTable.canParse(track, buildVideoStbl())).isFalse();
+  }
+
+  private static LazyTrackSampleTable assertSamplesMatchTrackSampleTable(Track track,
+      Atom.ContainerAtom stblAtom) throws ParserException {
+    TrackSampleTable trackSampleTable =
+        AtomParsers.parseStbl(track, stblAtom, new GaplessInfoHolder());
+    LazyTrackSampleTable sampleTable =
+        new LazyTrackSampleTable(track, stblAtom, new GaplessInfoHolder());
+    assertSamplesEqual(sampleTable, trackSampleTable);
+    return sampleTable;
+  }
+
+  private static void assertSamplesEqual(SampleTable sampleTable,
+      TrackSampleTable trackSampleTable) {
+    int sampleCount = trackSampleTable.sampleCount;
+    assertThat(sampleTable.getSampleCount()).isEqualTo(sampleCount);
+    assertThat(sampleTable.getMaximumSize()).isEqualTo(trackSampleTable.maximumSize);
+    assertThat(sampleTable.getTotalSize()).isEqualTo(trackSampleTable.getTotalSize());
+    assertThat(sampleTable.getDurationUs()).isEqualTo(trackSampleTable.durationUs);
+    // Read the samples in order, and then in reverse order.
+    for (int i = 0; i < 2 * sampleCount; i++) {
+      int sampleIndex = i < sampleCount ? i : 2 * sampleCount - i - 1;
+      assertThat(sampleTable.getOffset(sampleIndex))
+          .isEqualTo(trackSampleTable.offsets[sampleIndex]);
+      assertThat(sampleTable.getSize(sampleIndex)).isEqualTo(trackSampleTable.sizes[sampleIndex]);
+      assertThat(sampleTable.getTimestampUs(sampleIndex))
+          .isEqualTo(trackSampleTable.timestampsUs[sampleIndex]);
+      assertThat(sampleTable.getFlags(sampleIndex)).isEqualTo(trackSampleTable.flags[sampleIndex]);
+    }
+    long endTimeUs = trackSampleTable.durationUs + C.MICROS_PER_SECOND;
+    for (long timeUs = -C.MICROS_PER_SECOND; timeUs < endTimeUs; timeUs += 123457) {
+      assertThat(sampleTable.getIndexOfEarlierOrEqualSynchronizationSample(timeUs))
+          .isEqualTo(trackSampleTable.getIndexOfEarlierOrEqualSynchronizationSample(timeUs));
+      assertThat(sampleTable.getIndexOfLaterOrEqualSynchronizationSample(timeUs))
+          .isEqualTo(trackSampleTable.getIndexOfLaterOrEqualSynchronizationSample(timeUs));
+    }
+  }
+
+  private static Track buildVideoTrack(long[] editListDurations, long[] editListMediaTimes) {
+    return new Track(1, C.TRACK_TYPE_VIDEO, VIDEO_TIMESCALE, 1000, C.TIME_UNSET, VIDEO_FORMAT,
+        Track.TRANSFORMATION_NONE, null, 4, editListDurations, editListMediaTimes);
+  }
+
+  private static Track buildAudioTrack(long[] editListDurations, long[] editListMediaTimes) {
+    return new Track(2, C.TRACK_TYPE_AUDIO, AUDIO_TIMESCALE, AUDIO_TIMESCALE, C.TIME_UNSET,
+        AUDIO_FORMAT, Track.TRANSFORMATION_NONE, null, 0, editListDurations, editListMediaTimes);
+  }
+
+  /**
+   * Returns an stbl atom for video with variable sample sizes, chunk sizes and frame durations,
+   * reordered frames and a synchronization sample every 30 frames.
+   */
+  private static Atom.ContainerAtom buildVideoStbl() {
+    int[] sizes = new int[SAMPLE_COUNT];
+    ByteBuffer stsz = allocateFullAtom(8 + 4 * SAMPLE_COUNT).putInt(0).putInt(SAMPLE_COUNT);
+    for (int i = 0; i < SAMPLE_COUNT; i++) {
+      sizes[i] = 1000 + (i * 7919) % 20000;
+      stsz.putInt(sizes[i]);
+    }
+    // Chunks 1 to 10 have 4 samples, chunks 11 to 50 have 7 samples, and later chunks 2 samples.
+    ByteBuffer stsc = allocateFullAtom(4 + 3 * 12).putInt(3)
+        .putInt(1).putInt(4).putInt(1)
+        .putInt(11).putInt(7).putInt(1)
+        .putInt(51).putInt(2).putInt(1);
+    int chunkCount = 50 + (SAMPLE_COUNT - 10 * 4 - 40 * 7) / 2;
+    ByteBuffer stco = allocateFullAtom(4 + 4 * chunkCount).putInt(chunkCount);
+    int offset = 48;
+    int sampleIndex = 0;
+    for (int chunkIndex = 0; chunkIndex < chunkCount; chunkIndex++) {
+      stco.putInt(offset);
+      int samplesPerChunk = chunkIndex < 10 ? 4 : chunkIndex < 50 ? 7 : 2;
+      for (int i = 0; i < samplesPerChunk; i++) {
+        offset += sizes[sampleIndex++];
+      }
+      // Leave room for samples of other tracks.
+      offset += 512;
+    }
+    ByteBuffer stts = allocateFullAtom(4 + 2 * 8).putInt(2)
+        .putInt(SAMPLE_COUNT / 2).putInt(1001)
+        .putInt(SAMPLE_COUNT - SAMPLE_COUNT / 2).putInt(1000);
+    // Groups of three frames are decoded in the order I, P, B and presented in the order I, B, P.
+    ByteBuffer ctts = allocateFullAtom(4 + 8 * SAMPLE_COUNT).putInt(SAMPLE_COUNT);
+    int[] timestampOffsets = new int[] {1001, 3003, 0};
+    for (int i = 0; i < SAMPLE_COUNT; i++) {
+      ctts.putInt(1).putInt(timestampOffsets[i % 3]);
+    }
+    int synchronizationSampleCount = (SAMPLE_COUNT + 29) / 30;
+    ByteBuffer stss =
+        allocateFullAtom(4 + 4 * synchronizationSampleCount).putInt(synchronizationSampleCount);
+    for (int i = 0; i < SAMPLE_COUNT; i += 30) {
+      stss.putInt(i + 1);
+    }
+
+    Atom.ContainerAtom stblAtom = new Atom.ContainerAtom(Atom.TYPE_stbl, 0);
+    stblAtom.add(buildLeafAtom(Atom.TYPE_stsz, stsz));
+    stblAtom.add(buildLeafAtom(Atom.TYPE_stsc, stsc));
+    stblAtom.add(buildLeafAtom(Atom.TYPE_stco, stco));
+    stblAtom.add(buildLeafAtom(Atom.TYPE_stts, stts));
+    stblAtom.add(buildLeafAtom(Atom.TYPE_ctts, ctts));
+    stblAtom.add(buildLeafAtom(Atom.TYPE_stss, stss));
+    return stblAtom;
+  }
+
+  /**
+   * Returns an stbl atom for audio with 16-bit sample sizes in an stz2 atom, 64-bit chunk offsets
+   * and a fixed number of samples per chunk.
+   */
+  private static Atom.ContainerAtom buildAudioStbl() {
+    int samplesPerChunk = 43;
+    ByteBuffer stz2 = allocateFullAtom(8 + 2 * SAMPLE_COUNT).putInt(16).putInt(SAMPLE_COUNT);
+    int[] sizes = new int[SAMPLE_COUNT];
+    for (int i = 0; i < SAMPLE_COUNT; i++) {
+      sizes[i] = 200 + (i * 131) % 300;
+      stz2.putShort((short) sizes[i]);
+    }
+    ByteBuffer stsc =
+        allocateFullAtom(4 + 12).putInt(1).putInt(1).putInt(samplesPerChunk).putInt(1);
+    int chunkCount = (SAMPLE_COUNT + samplesPerChunk - 1) / samplesPerChunk;
+    ByteBuffer co64 = allocateFullAtom(4 + 8 * chunkCount).putInt(chunkCount);
+    // Place the samples after the first 4 GB.
+    long offset = 1L << 32;
+    for (int i = 0; i < SAMPLE_COUNT; i++) {
+      if (i % samplesPerChunk == 0) {
+        co64.putLong(offset);
+      }
+      offset += sizes[i];
+    }
+    ByteBuffer stts = allocateFullAtom(4 + 8).putInt(1).putInt(SAMPLE_COUNT)
+        .putInt(AUDIO_FRAME_DURATION);
+
+    Atom.ContainerAtom stblAtom = new Atom.ContainerAtom(Atom.TYPE_stbl, 0);
+    stblAtom.add(buildLeafAtom(Atom.TYPE_stz2, stz2));
+    stblAtom.add(buildLeafAtom(Atom.TYPE_stsc, stsc));
+    stblAtom.add(buildLeafAtom(Atom.TYPE_co64, co64));
+    stblAtom.add(buildLeafAtom(Atom.TYPE_stts, stts));
+    return stblAtom;
+  }
+
+  private static ByteBuffer allocateFullAtom(int payloadSize) {
+    ByteBuffer buffer = ByteBuffer.allocate(Atom.FULL_HEADER_SIZE + payloadSize);
+    buffer.position(Atom.FULL_HEADER_SIZE);
+    return buffer;
+  }
+
+  private static Atom.LeafAtom buildLeafAtom(int type, ByteBuffer buffer) {
+    buffer.putInt(0, buffer.capacity()).putInt(4, type);
+    return new Atom.LeafAtom(type, new ParsableByteArray(buffer.array()));
+  }
+
+}
@@ -39,4 +39,17 @@ public final class Mp4ExtractorTest {
         },
         "mp4/sample.mp4");
   }
+
+  @Test
+  public void testMp4SampleWithLazySampleTables() throws Exception {
+    // The lazy sample tables contain the same samples, so the output matches the same dumps.
+    ExtractorAsserts.assertBehavior(
+        new ExtractorFactory() {
+          @Override
+          public Extractor create() {
+            return new Mp4Extractor(Mp4Extractor.FLAG_ENABLE_LAZY_SAMPLE_TABLES);
+          }
+        },
+        "mp4/sample.mp4");
+  }
 }
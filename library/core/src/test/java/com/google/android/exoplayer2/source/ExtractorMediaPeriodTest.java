@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.extractor.Extractor;
+import com.google.android.exoplayer2.extractor.ExtractorInput;
+import com.google.android.exoplayer2.extractor.ExtractorOutput;
+import com.google.android.exoplayer2.extractor.PositionHolder;
+import com.google.android.exoplayer2.extractor.SeekMap;
+import com.google.android.exoplayer2.extractor.TrackOutput;
+import com.google.android.exoplayer2.testutil.RobolectricUtil;
+import com.google.android.exoplayer2.trackselection.FixedTrackSelection;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+import com.google.android.exoplayer2.upstream.ByteArrayDataSource;
+import com.google.android.exoplayer2.upstream.DefaultAllocator;
+import com.google.android.exoplayer2.upstream.Loader;
+import com.google.android.exoplayer2.upstream.Loader.Loadable;
+import com.google.android.exoplayer2.util.MimeTypes;
+import com.google.android.exoplayer2.util.ParsableByteArray;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Unit tests for {@link ExtractorMediaPeriod}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(shadows = {RobolectricUtil.CustomLooper.class, RobolectricUtil.CustomMessageQueue.class})
+public final class ExtractorMediaPeriodTest {
+
+  private static final int TIMEOUT_MS = 10000;
+  private static final int CLOCK_STEP_MS = 1000;
+  private static final int SAMPLE_SIZE = 100;
+  private static final int SAMPLE_COUNT = 10;
+  private static final long SAMPLE_DURATION_US = 1000;
+  private static final Uri URI = Uri.parse("test://media");
+
+  private HandlerThread playbackThread;
+  private Handler playbackHandler;
+  private ExecutorService executorService;
+
+  @Before
+  public void setUp() {
+    playbackThread = new HandlerThread("ExtractorMediaPeriodTest");
+    playbackThread.start();
+    playbackHandler = new Handler(playbackThread.getLooper());
+  }
+
+  @After
+  public void tearDown() {
+    playbackThread.quit();
+    if (executorService != null) {
+      executorService.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testPausedPeriodsDontHoldSharedLoadingThreads() throws Exception {
+    int threadCount = 2;
+    int periodCount = 6;
+    executorService = Executors.newFixedThreadPool(threadCount);
+    final Loader.Factory loaderFactory = new Loader.SharedExecutorFactory(executorService);
+    final CountDownLatch preparedLatch = new CountDownLatch(periodCount);
+    final CountDownLatch finishedLatch = new CountDownLatch(periodCount);
+    final ExtractorMediaPeriod[] periods = new ExtractorMediaPeriod[periodCount];
+    final FakeSampleExtractor[] extractors = new FakeSampleExtractor[periodCount];
+    final boolean[] loadingContinued = new boolean[1];
+    final MediaPeriod.Callback callback =
+        new MediaPeriod.Callback() {
+          @Override
+          public void onPrepared(MediaPeriod mediaPeriod) {
+            TrackSelection[] selections = new TrackSelection[] {
+                new FixedTrackSelection(mediaPeriod.getTrackGroups().get(0), 0)};
+            mediaPeriod.selectTracks(selections, new boolean[1], new SampleStream[1],
+                new boolean[1], /* positionUs= */ 0);
+            preparedLatch.countDown();
+          }
+
+          @Override
+          public void onContinueLoadingRequested(MediaPeriod mediaPeriod) {
+            // Loading stays paused, as it is when the buffers of the periods are full, until the
+            // test continues it.
+            if (loadingContinued[0]) {
+              if (mediaPeriod.getBufferedPositionUs() == C.TIME_END_OF_SOURCE) {
+                finishedLatch.countDown();
+              } else {
+                mediaPeriod.continueLoading(/* positionUs= */ 0);
+              }
+            }
+          }
+        };
+    playbackHandler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            for (int i = 0; i < periods.length; i++) {
+              extractors[i] = new FakeSampleExtractor();
+              periods[i] = createPeriod(extractors[i], loaderFactory);
+              periods[i].prepare(callback, /* positionUs= */ 0);
+            }
+          }
+        });
+    assertThat(awaitAdvancingClock(preparedLatch)).isTrue();
+
+    // Another loader on the same executor can load while all periods are paused.
+    final CountDownLatch otherLoadLatch = new CountDownLatch(1);
+    final Loader otherLoader = loaderFactory.createLoader("Loader:Other");
+    playbackHandler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            otherLoader.startLoading(new NoOpLoadable(),
+                new Loader.Callback<NoOpLoadable>() {
+                  @Override
+                  public void onLoadCompleted(NoOpLoadable loadable, long elapsedRealtimeMs,
+                      long loadDurationMs) {
+                    otherLoadLatch.countDown();
+                  }
+
+                  @Override
+                  public void onLoadCanceled(NoOpLoadable loadable, long elapsedRealtimeMs,
+                      long loadDurationMs, boolean released) {}
+
+                  @Override
+                  public int onLoadError(NoOpLoadable loadable, long elapsedRealtimeMs,
+                      long loadDurationMs, IOException error) {
+                    return Loader.DONT_RETRY;
+                  }
+                }, /* defaultMinRetryCount= */ 0);
+          }
+        });
+    assertThat(awaitAdvancingClock(otherLoadLatch)).isTrue();
+
+    // Paused loads resume from where they exited when loading is continued.
+    playbackHandler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            loadingContinued[0] = true;
+            for (ExtractorMediaPeriod period : periods) {
+              period.continueLoading(/* positionUs= */ 0);
+            }
+          }
+        });
+    assertThat(awaitAdvancingClock(finishedLatch)).isTrue();
+    List<Long> expectedSampleTimesUs = new ArrayList<>();
+    for (int i = 0; i < SAMPLE_COUNT; i++) {
+      expectedSampleTimesUs.add(i * SAMPLE_DURATION_US);
+    }
+    for (FakeSampleExtractor extractor : extractors) {
+      assertThat(extractor.sampleTimesUs).containsExactlyElementsIn(expectedSampleTimesUs)
+          .inOrder();
+    }
+
+    final CountDownLatch releasedLatch = new CountDownLatch(1);
+    playbackHandler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            otherLoader.release();
+            for (ExtractorMediaPeriod period : periods) {
+              period.release();
+            }
+            releasedLatch.countDown();
+          }
+        });
+    assertThat(releasedLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+  }
+
+  /**
+   * Waits for {@code latch} while advancing the clock, so that paused loads stop waiting for
+   * loading to be continued.
+   */
+  private static boolean awaitAdvancingClock(CountDownLatch latch) throws InterruptedException {
+    long endTimeMs = System.currentTimeMillis() + TIMEOUT_MS;
+    while (System.currentTimeMillis() < endTimeMs) {
+      SystemClock.setCurrentTimeMillis(SystemClock.elapsedRealtime() + CLOCK_STEP_MS);
+      if (latch.await(/* timeout= */ 10, TimeUnit.MILLISECONDS)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static ExtractorMediaPeriod createPeriod(Extractor extractor,
+      Loader.Factory loaderFactory) {
+    return new ExtractorMediaPeriod(
+        URI,
+        new ByteArrayDataSource(new byte[SAMPLE_SIZE * SAMPLE_COUNT]),
+        new Extractor[] {extractor},
+        /* minLoadableRetryCount= */ 0,
+        new MediaSourceEventListener.EventDispatcher(/* handler= */ null, /* listener= */ null),
+        new ExtractorMediaPeriod.Listener() {
+          @Override
+          public void onSourceInfoRefreshed(long durationUs, boolean isSeekable) {}
+        },
+        new DefaultAllocator(/* trimOnReset= */ true, C.DEFAULT_BUFFER_SEGMENT_SIZE),
+        /* customCacheKey= */ null,
+        /* continueLoadingCheckIntervalBytes= */ SAMPLE_SIZE,
+        loaderFactory);
+  }
+
+  /**
+   * Outputs a single track of fixed size samples.
+   */
+  private static final class FakeSampleExtractor implements Extractor {
+
+    public final List<Long> sampleTimesUs;
+
+    private final ParsableByteArray sampleData;
+    private TrackOutput trackOutput;
+
+    public FakeSampleExtractor() {
+      sampleTimesUs = Collections.synchronizedList(new ArrayList<Long>());
+      sampleData = new ParsableByteArray(SAMPLE_SIZE);
+    }
+
+    @Override
+    public boolean sniff(ExtractorInput input) {
+      return true;
+    }
+
+    @Override
+    public void init(ExtractorOutput output) {
+      trackOutput = output.track(/* id= */ 0, C.TRACK_TYPE_AUDIO);
+      trackOutput.format(Format.createSampleFormat(/* id= */ null, MimeTypes.AUDIO_RAW,
+          /* subsampleOffsetUs= */ 0));
+      output.endTracks();
+      output.seekMap(new SeekMap.Unseekable(SAMPLE_COUNT * SAMPLE_DURATION_US));
+    }
+
+    @Override
+    public int read(ExtractorInput input, PositionHolder seekPosition)
+        throws IOException, InterruptedException {
+      long timeUs = input.getPosition() / SAMPLE_SIZE * SAMPLE_DURATION_US;
+      if (!input.readFully(sampleData.data, 0, SAMPLE_SIZE, /* allowEndOfInput= */ true)) {
+        return RESULT_END_OF_INPUT;
+      }
+      sampleData.setPosition(0);
+      trackOutput.sampleData(sampleData, SAMPLE_SIZE);
+      trackOutput.sampleMetadata(timeUs, C.BUFFER_FLAG_KEY_FRAME, SAMPLE_SIZE, 0, null);
+      sampleTimesUs.add(timeUs);
+      return RESULT_CONTINUE;
+    }
+
+    @Override
+    public void seek(long position, long timeUs) {
+      // Do nothing.
+    }
+
+    @Override
+    public void release() {
+      // Do nothing.
+    }
+
+  }
+
+  private static final class NoOpLoadable implements Loadable {
+
+    @Override
+    public void cancelLoad() {
+      // Do nothing.
+    }
+
+    @Override
+    public boolean isLoadCanceled() {
+      return false;
+    }
+
+    @Override
+    public void load() {
+      // Do nothing.
+    }
+
+  }
+
+}
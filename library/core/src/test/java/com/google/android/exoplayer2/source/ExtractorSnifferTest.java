@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory;
+import com.google.android.exoplayer2.extractor.Extractor;
+import com.google.android.exoplayer2.extractor.flv.FlvExtractor;
+import com.google.android.exoplayer2.extractor.mkv.MatroskaExtractor;
+import com.google.android.exoplayer2.extractor.mp3.Mp3Extractor;
+import com.google.android.exoplayer2.extractor.mp4.FragmentedMp4Extractor;
+import com.google.android.exoplayer2.extractor.mp4.Mp4Extractor;
+import com.google.android.exoplayer2.extractor.ogg.OggExtractor;
+import com.google.android.exoplayer2.extractor.ts.Ac3Extractor;
+import com.google.android.exoplayer2.extractor.ts.AdtsExtractor;
+import com.google.android.exoplayer2.extractor.ts.PsExtractor;
+import com.google.android.exoplayer2.extractor.ts.TsExtractor;
+import com.google.android.exoplayer2.extractor.wav.WavExtractor;
+import com.google.android.exoplayer2.testutil.FakeExtractorInput;
+import com.google.android.exoplayer2.testutil.TestUtil;
+import java.util.Arrays;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+/** Unit test for {@link ExtractorSniffer}. */
+@RunWith(RobolectricTestRunner.class)
+public final class ExtractorSnifferTest {
+
+  @Test
+  public void testSniffSelectsExtractorForEachContainer() throws Exception {
+    assertSniffedFirst("mkv/sample.mkv", MatroskaExtractor.class);
+    assertSniffedFirst("mkv/subsample_encrypted_altref.webm", MatroskaExtractor.class);
+    assertSniffedFirst("mp4/sample_fragmented.mp4", FragmentedMp4Extractor.class);
+    assertSniffedFirst("mp3/bear.mp3", Mp3Extractor.class);
+    assertSniffedFirst("mp3/play-trimmed.mp3", Mp3Extractor.class);
+    assertSniffedFirst("ts/sample.adts", AdtsExtractor.class);
+    assertSniffedFirst("ts/sample.ac3", Ac3Extractor.class);
+    assertSniffedFirst("ts/sample.ts", TsExtractor.class);
+    assertSniffedFirst("flv/sample.flv", FlvExtractor.class);
+    assertSniffedFirst("ogg/bear.opus", OggExtractor.class);
+    assertSniffedFirst("ogg/bear_vorbis.ogg", OggExtractor.class);
+    assertSniffedFirst("ts/sample.ps", PsExtractor.class);
+    assertSniffedFirst("wav/sample.wav", WavExtractor.class);
+  }
+
+  @Test
+  public void testSniffFallsBackToMp4AfterFragmentedMp4() throws Exception {
+    byte[] data = TestUtil.getByteArray(RuntimeEnvironment.application, "mp4/sample.mp4");
+    Extractor[] orderedExtractors = getSniffingOrder(data, "mp4");
+
+    assertThat(orderedExtractors[0]).isInstanceOf(FragmentedMp4Extractor.class);
+    assertThat(orderedExtractors[1]).isInstanceOf(Mp4Extractor.class);
+    assertThat(sniff(data, "sample.mp4")).isInstanceOf(Mp4Extractor.class);
+  }
+
+  @Test
+  public void testExtensionRanksExtractorWithoutSignature() {
+    byte[] prefix = new byte[ExtractorSniffer.PREFIX_LENGTH];
+    Extractor[] orderedExtractors = getSniffingOrder(prefix, /* extension= */ "ts");
+
+    assertThat(orderedExtractors[0]).isInstanceOf(TsExtractor.class);
+  }
+
+  @Test
+  public void testUnrecognizedInputKeepsOriginalOrder() {
+    Extractor[] extractors = new DefaultExtractorsFactory().createExtractors();
+    Extractor[] orderedExtractors =
+        ExtractorSniffer.getSniffingOrder(
+            extractors, new byte[ExtractorSniffer.PREFIX_LENGTH], ExtractorSniffer.PREFIX_LENGTH,
+            /* extension= */ null);
+
+    assertThat(orderedExtractors).isEqualTo(extractors);
+  }
+
+  @Test
+  public void testSniffMisleadingExtension() throws Exception {
+    byte[] data = TestUtil.getByteArray(RuntimeEnvironment.application, "ts/sample.ts");
+
+    assertThat(sniff(data, "sample.mp4")).isInstanceOf(TsExtractor.class);
+  }
+
+  private static void assertSniffedFirst(String fileName, Class<? extends Extractor> expected)
+      throws Exception {
+    byte[] data = TestUtil.getByteArray(RuntimeEnvironment.application, fileName);
+    String extension = fileName.substring(fileName.lastIndexOf('.') + 1);
+
+    assertThat(getSniffingOrder(data, extension)[0]).isInstanceOf(expected);
+    assertThat(sniff(data, fileName)).isInstanceOf(expected);
+  }
+
+  private static Extractor[] getSniffingOrder(byte[] data, String extension) {
+    return ExtractorSniffer.getSniffingOrder(
+        new DefaultExtractorsFactory().createExtractors(),
+        Arrays.copyOf(data, ExtractorSniffer.PREFIX_LENGTH),
+        ExtractorSniffer.PREFIX_LENGTH,
+        extension);
+  }
+
+  private static Extractor sniff(byte[] data, String fileName) throws Exception {
+    FakeExtractorInput input = new FakeExtractorInput.Builder().setData(data).build();
+    return ExtractorSniffer.sniff(
+        new DefaultExtractorsFactory().createExtractors(), input,
+        Uri.parse("https://test/" + fileName));
+  }
+
+}
@@ -27,9 +27,11 @@ import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.FormatHolder;
 import com.google.android.exoplayer2.decoder.DecoderInputBuffer;
+import com.google.android.exoplayer2.testutil.FakeExtractorInput;
 import com.google.android.exoplayer2.testutil.TestUtil;
 import com.google.android.exoplayer2.upstream.Allocator;
 import com.google.android.exoplayer2.upstream.DefaultAllocator;
+import com.google.android.exoplayer2.upstream.DirectByteBufferAllocator;
 import com.google.android.exoplayer2.util.ParsableByteArray;
 import org.junit.After;
 import org.junit.Before;
@@ -197,6 +199,36 @@ public final class SampleQueueTest {
     assertAllocationCount(0);
   }
 
+  @Test
+  public void testReadMultiSamplesWithDirectAllocator() {
+    allocator = new DirectByteBufferAllocator(false, ALLOCATION_SIZE, 4);
+    sampleQueue = new SampleQueue(allocator);
+    inputBuffer = new DecoderInputBuffer(DecoderInputBuffer.BUFFER_REPLACEMENT_MODE_DIRECT);
+    writeTestData();
+    assertAllocationCount(10);
+    assertReadTestData();
+    sampleQueue.discardToRead();
+    assertAllocationCount(0);
+  }
+
+  @Test
+  public void testReadMultiSamplesFromExtractorInputWithDirectAllocator() throws Exception {
+    allocator = new DirectByteBufferAllocator(false, ALLOCATION_SIZE, 4);
+    sampleQueue = new SampleQueue(allocator);
+    FakeExtractorInput input =
+        new FakeExtractorInput.Builder().setData(TEST_DATA).setSimulatePartialReads(true).build();
+    int bytesRemaining = TEST_DATA.length;
+    while (bytesRemaining > 0) {
+      bytesRemaining -= sampleQueue.sampleData(input, bytesRemaining, false);
+    }
+    writeTestMetadata(TEST_SAMPLE_SIZES, TEST_SAMPLE_OFFSETS, TEST_SAMPLE_TIMESTAMPS,
+        TEST_SAMPLE_FORMATS, TEST_SAMPLE_FLAGS);
+    assertAllocationCount(10);
+    assertReadTestData();
+    sampleQueue.discardToRead();
+    assertAllocationCount(0);
+  }
+
   @Test
   public void testReadMultiSamplesTwice() {
     writeTestData();
@@ -330,6 +362,41 @@ public final class SampleQueueTest {
     assertNoSamplesToRead(TEST_FORMAT_2);
   }
 
+  @Test
+  public void testAdvanceToInLargeQueue() {
+    // Write enough samples for the queue to grow, and discard some so that its arrays wrap.
+    writeSequentialSamples(0, 2500);
+    sampleQueue.discardTo(sequentialSampleTimeUs(1005), true, false);
+    assertThat(sampleQueue.getFirstIndex()).isEqualTo(1000);
+    writeSequentialSamples(2500, 1000);
+
+    // Advance to a keyframe.
+    assertThat(sampleQueue.advanceTo(sequentialSampleTimeUs(2345), true, false)).isEqualTo(1340);
+    assertThat(sampleQueue.getReadIndex()).isEqualTo(2340);
+    // Advance to a non-keyframe.
+    assertThat(sampleQueue.advanceTo(sequentialSampleTimeUs(3005), false, false)).isEqualTo(665);
+    assertThat(sampleQueue.getReadIndex()).isEqualTo(3005);
+    // Advancing to a keyframe that's before the read position fails.
+    assertThat(sampleQueue.advanceTo(sequentialSampleTimeUs(3008), true, false))
+        .isEqualTo(ADVANCE_FAILED);
+    assertThat(sampleQueue.getReadIndex()).isEqualTo(3005);
+    // Discard to the keyframe before the read position.
+    sampleQueue.discardTo(sequentialSampleTimeUs(3499), true, true);
+    assertThat(sampleQueue.getFirstIndex()).isEqualTo(3000);
+  }
+
+  @Test
+  public void testAdvanceToAfterDiscardUpstreamInLargeQueue() {
+    writeSequentialSamples(0, 2500);
+    sampleQueue.discardUpstreamSamples(1995);
+
+    // The last keyframe that remains in the queue is 1990.
+    assertThat(sampleQueue.advanceTo(sequentialSampleTimeUs(2400), true, true)).isEqualTo(1990);
+    assertThat(sampleQueue.getReadIndex()).isEqualTo(1990);
+    assertThat(sampleQueue.advanceTo(sequentialSampleTimeUs(2400), false, true)).isEqualTo(4);
+    assertThat(sampleQueue.getReadIndex()).isEqualTo(1994);
+  }
+
   @Test
   public void testDiscardToEnd() {
     writeTestData();
@@ -531,6 +598,15 @@ public final class SampleQueueTest {
   private void writeTestData(byte[] data, int[] sampleSizes, int[] sampleOffsets,
       long[] sampleTimestamps, Format[] sampleFormats, int[] sampleFlags) {
     sampleQueue.sampleData(new ParsableByteArray(data), data.length);
+    writeTestMetadata(sampleSizes, sampleOffsets, sampleTimestamps, sampleFormats, sampleFlags);
+  }
+
+  /**
+   * Writes the specified sample metadata to {@code sampleQueue}.
+   */
+  @SuppressWarnings("ReferenceEquality")
+  private void writeTestMetadata(int[] sampleSizes, int[] sampleOffsets, long[] sampleTimestamps,
+      Format[] sampleFormats, int[] sampleFlags) {
     Format format = null;
     for (int i = 0; i < sampleTimestamps.length; i++) {
       if (sampleFormats[i] != format) {
@@ -542,6 +618,27 @@ public final class SampleQueueTest {
     }
   }
 
+  /**
+   * Writes one-byte samples with sequential timestamps to {@code sampleQueue}, where every tenth
+   * sample is a keyframe.
+   *
+   * @param firstSampleIndex The index of the first sample to write.
+   * @param sampleCount The number of samples to write.
+   */
+  private void writeSequentialSamples(int firstSampleIndex, int sampleCount) {
+    sampleQueue.format(TEST_FORMAT_1);
+    sampleQueue.sampleData(new ParsableByteArray(new byte[sampleCount]), sampleCount);
+    for (int i = firstSampleIndex; i < firstSampleIndex + sampleCount; i++) {
+      int flags = i % 10 == 0 ? C.BUFFER_FLAG_KEY_FRAME : 0;
+      int offset = firstSampleIndex + sampleCount - i - 1;
+      sampleQueue.sampleMetadata(sequentialSampleTimeUs(i), flags, 1, offset, null);
+    }
+  }
+
+  private static long sequentialSampleTimeUs(int sampleIndex) {
+    return sampleIndex * 1000L;
+  }
+
   /**
    * Asserts correct reading of standard test data from {@code sampleQueue}.
    */
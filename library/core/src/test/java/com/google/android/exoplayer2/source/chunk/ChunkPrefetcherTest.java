@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.chunk;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.testutil.TestUtil;
+import com.google.android.exoplayer2.upstream.ByteArrayDataSource;
+import com.google.android.exoplayer2.upstream.DataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Unit tests for {@link ChunkPrefetcher}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public final class ChunkPrefetcherTest {
+
+  private static final int CHUNK_LENGTH = 100000;
+  private static final Uri FAILING_URI = Uri.parse("https://test/failing");
+  private static final String UNKNOWN_LENGTH_URI_PREFIX = "https://test/unknown_length/";
+
+  private List<Uri> prefetchedUris;
+  private List<Uri> upstreamUris;
+  private ChunkPrefetcher chunkPrefetcher;
+  private DataSource dataSource;
+
+  @Before
+  public void setUp() {
+    prefetchedUris = Collections.synchronizedList(new ArrayList<Uri>());
+    upstreamUris = new ArrayList<>();
+    chunkPrefetcher = new ChunkPrefetcher(new RecordingDataSourceFactory(prefetchedUris), 2);
+    dataSource = chunkPrefetcher.createDataSource(
+        new RecordingDataSourceFactory(upstreamUris).createDataSource());
+  }
+
+  @Test
+  public void testPrefetchedChunkIsReadFromPrefetch() throws IOException {
+    DataSpec dataSpec = newDataSpec(1);
+    chunkPrefetcher.prefetch(dataSpec);
+
+    assertThat(dataSource.open(dataSpec)).isEqualTo(CHUNK_LENGTH);
+    assertThat(TestUtil.readToEnd(dataSource)).isEqualTo(buildChunkData(1));
+    dataSource.close();
+    assertThat(prefetchedUris).containsExactly(dataSpec.uri);
+    assertThat(upstreamUris).isEmpty();
+  }
+
+  @Test
+  public void testChunkThatWasNotPrefetchedIsReadFromUpstream() throws IOException {
+    chunkPrefetcher.prefetch(newDataSpec(1));
+    DataSpec dataSpec = newDataSpec(2);
+
+    dataSource.open(dataSpec);
+    assertThat(TestUtil.readToEnd(dataSource)).isEqualTo(buildChunkData(2));
+    dataSource.close();
+    assertThat(upstreamUris).containsExactly(dataSpec.uri);
+  }
+
+  @Test
+  public void testPrefetchIsOnlyReadOnce() throws IOException {
+    DataSpec dataSpec = newDataSpec(1);
+    chunkPrefetcher.prefetch(dataSpec);
+    dataSource.open(dataSpec);
+    dataSource.close();
+
+    dataSource.open(dataSpec);
+    assertThat(TestUtil.readToEnd(dataSource)).isEqualTo(buildChunkData(1));
+    dataSource.close();
+    assertThat(upstreamUris).containsExactly(dataSpec.uri);
+  }
+
+  @Test
+  public void testOldestPrefetchIsDiscardedWhenMaxPrefetchCountIsReached() throws IOException {
+    chunkPrefetcher.prefetch(newDataSpec(1));
+    chunkPrefetcher.prefetch(newDataSpec(2));
+    chunkPrefetcher.prefetch(newDataSpec(3));
+
+    dataSource.open(newDataSpec(1));
+    dataSource.close();
+    dataSource.open(newDataSpec(3));
+    assertThat(TestUtil.readToEnd(dataSource)).isEqualTo(buildChunkData(3));
+    dataSource.close();
+    assertThat(upstreamUris).containsExactly(newDataSpec(1).uri);
+  }
+
+  @Test
+  public void testFailedPrefetchFallsBackToUpstream() throws IOException {
+    DataSpec dataSpec = new DataSpec(FAILING_URI);
+    chunkPrefetcher.prefetch(dataSpec);
+
+    dataSource.open(dataSpec);
+    dataSource.close();
+    assertThat(upstreamUris).containsExactly(FAILING_URI);
+  }
+
+  @Test
+  public void testRemainderOfChunkLargerThanMaxPrefetchSizeIsReadFromUpstream()
+      throws IOException {
+    chunkPrefetcher = new ChunkPrefetcher(new RecordingDataSourceFactory(prefetchedUris), 2, 1000);
+    dataSource = chunkPrefetcher.createDataSource(
+        new RecordingDataSourceFactory(upstreamUris).createDataSource());
+    DataSpec dataSpec = newDataSpec(1);
+    chunkPrefetcher.prefetch(dataSpec);
+
+    dataSource.open(dataSpec);
+    assertThat(TestUtil.readToEnd(dataSource)).isEqualTo(buildChunkData(1));
+    dataSource.close();
+    assertThat(prefetchedUris).containsExactly(dataSpec.uri);
+    assertThat(upstreamUris).containsExactly(dataSpec.uri);
+  }
+
+  @Test
+  public void testChunkOfUnknownLengthEndingAtMaxPrefetchSizeIsReadFromPrefetch()
+      throws IOException {
+    chunkPrefetcher =
+        new ChunkPrefetcher(new RecordingDataSourceFactory(prefetchedUris), 2, CHUNK_LENGTH);
+    dataSource = chunkPrefetcher.createDataSource(
+        new RecordingDataSourceFactory(upstreamUris).createDataSource());
+    DataSpec dataSpec = new DataSpec(Uri.parse(UNKNOWN_LENGTH_URI_PREFIX + "chunk1"));
+    chunkPrefetcher.prefetch(dataSpec);
+
+    assertThat(dataSource.open(dataSpec)).isEqualTo(C.LENGTH_UNSET);
+    assertThat(TestUtil.readToEnd(dataSource)).isEqualTo(buildChunkData(1));
+    dataSource.close();
+    assertThat(upstreamUris).isEmpty();
+  }
+
+  @Test
+  public void testRemainderOfChunkOfUnknownLengthIsReadFromUpstream() throws IOException {
+    chunkPrefetcher =
+        new ChunkPrefetcher(new RecordingDataSourceFactory(prefetchedUris), 2, CHUNK_LENGTH - 1);
+    dataSource = chunkPrefetcher.createDataSource(
+        new RecordingDataSourceFactory(upstreamUris).createDataSource());
+    DataSpec dataSpec = new DataSpec(Uri.parse(UNKNOWN_LENGTH_URI_PREFIX + "chunk1"));
+    chunkPrefetcher.prefetch(dataSpec);
+
+    dataSource.open(dataSpec);
+    assertThat(TestUtil.readToEnd(dataSource)).isEqualTo(buildChunkData(1));
+    dataSource.close();
+    assertThat(upstreamUris).containsExactly(dataSpec.uri);
+  }
+
+  @Test
+  public void testClearDiscardsPrefetches() throws IOException {
+    DataSpec dataSpec = newDataSpec(1);
+    chunkPrefetcher.prefetch(dataSpec);
+    chunkPrefetcher.clear();
+
+    dataSource.open(dataSpec);
+    assertThat(TestUtil.readToEnd(dataSource)).isEqualTo(buildChunkData(1));
+    dataSource.close();
+    assertThat(upstreamUris).containsExactly(dataSpec.uri);
+  }
+
+  private static DataSpec newDataSpec(int chunkIndex) {
+    return new DataSpec(Uri.parse("https://test/chunk" + chunkIndex), 0, C.LENGTH_UNSET, null);
+  }
+
+  private static byte[] buildChunkData(int chunkIndex) {
+    return TestUtil.buildTestData(CHUNK_LENGTH, chunkIndex);
+  }
+
+  /**
+   * Creates {@link DataSource}s that record the {@link Uri}s they open. The data of each chunk is
+   * derived from the last digit of its {@link Uri}. Only prefetches fail to open {@link
+   * #FAILING_URI}. The length of chunks whose {@link Uri} starts with {@link
+   * #UNKNOWN_LENGTH_URI_PREFIX} isn't resolved when they're opened.
+   */
+  private static final class RecordingDataSourceFactory implements DataSource.Factory {
+
+    private final List<Uri> openedUris;
+
+    public RecordingDataSourceFactory(List<Uri> openedUris) {
+      this.openedUris = openedUris;
+    }
+
+    @Override
+    public DataSource createDataSource() {
+      return new DataSource() {
+
+        private DataSource dataSource;
+
+        @Override
+        public long open(DataSpec dataSpec) throws IOException {
+          openedUris.add(dataSpec.uri);
+          int chunkIndex = 0;
+          if (dataSpec.uri.equals(FAILING_URI)) {
+            if (Thread.currentThread().getName().equals("ChunkPrefetcher")) {
+              throw new IOException();
+            }
+          } else {
+            String uri = dataSpec.uri.toString();
+            chunkIndex = uri.charAt(uri.length() - 1) - '0';
+          }
+          dataSource = new ByteArrayDataSource(buildChunkData(chunkIndex));
+          long length = dataSource.open(dataSpec);
+          return dataSpec.uri.toString().startsWith(UNKNOWN_LENGTH_URI_PREFIX)
+              ? C.LENGTH_UNSET : length;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int readLength) throws IOException {
+          return dataSource.read(buffer, offset, readLength);
+        }
+
+        @Override
+        public Uri getUri() {
+          return dataSource.getUri();
+        }
+
+        @Override
+        public void close() throws IOException {
+          if (dataSource != null) {
+            dataSource.close();
+          }
+        }
+
+      };
+    }
+
+  }
+
+}
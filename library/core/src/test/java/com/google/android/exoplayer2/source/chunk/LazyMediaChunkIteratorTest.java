@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.chunk;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.android.exoplayer2.upstream.DataSpec;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Unit tests for {@link LazyMediaChunkIterator}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public final class LazyMediaChunkIteratorTest {
+
+  @Test
+  public void testIteratorIsNotCreatedUntilUsed() {
+    CountingLazyMediaChunkIterator iterator = new CountingLazyMediaChunkIterator();
+    assertThat(iterator.createCount).isEqualTo(0);
+
+    assertThat(iterator.isEnded()).isFalse();
+    assertThat(iterator.createCount).isEqualTo(1);
+  }
+
+  @Test
+  public void testIteratorIsCreatedOnceAndDelegatedTo() {
+    CountingLazyMediaChunkIterator iterator = new CountingLazyMediaChunkIterator();
+
+    assertThat(iterator.next()).isTrue();
+    assertThat(iterator.getChunkStartTimeUs()).isEqualTo(3000);
+    assertThat(iterator.getChunkEndTimeUs()).isEqualTo(4000);
+    assertThat(iterator.next()).isTrue();
+    assertThat(iterator.getChunkStartTimeUs()).isEqualTo(4000);
+    assertThat(iterator.next()).isFalse();
+    assertThat(iterator.isEnded()).isTrue();
+    assertThat(iterator.createCount).isEqualTo(1);
+  }
+
+  private static final class CountingLazyMediaChunkIterator extends LazyMediaChunkIterator {
+
+    public int createCount;
+
+    @Override
+    protected MediaChunkIterator createIterator() {
+      createCount++;
+      return new BaseMediaChunkIterator(/* fromIndex= */ 3, /* toIndex= */ 4) {
+
+        @Override
+        public DataSpec getDataSpec() {
+          throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long getChunkStartTimeUs() {
+          checkInBounds();
+          return getCurrentIndex() * 1000;
+        }
+
+        @Override
+        public long getChunkEndTimeUs() {
+          checkInBounds();
+          return (getCurrentIndex() + 1) * 1000;
+        }
+
+      };
+    }
+
+  }
+
+}
@@ -24,15 +24,21 @@ import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.source.TrackGroup;
 import com.google.android.exoplayer2.source.chunk.MediaChunk;
+import com.google.android.exoplayer2.source.chunk.MediaChunkIterator;
+import com.google.android.exoplayer2.testutil.BandwidthTraceSimulator;
+import com.google.android.exoplayer2.testutil.FakeAdaptiveDataSet;
 import com.google.android.exoplayer2.testutil.FakeClock;
 import com.google.android.exoplayer2.upstream.BandwidthMeter;
 import com.google.android.exoplayer2.upstream.DataSource;
 import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
 import com.google.android.exoplayer2.upstream.DefaultHttpDataSource;
+import com.google.android.exoplayer2.util.Clock;
 import com.google.android.exoplayer2.util.MimeTypes;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -294,6 +300,118 @@ public final class AdaptiveTrackSelectionTest {
     assertThat(newSize).isEqualTo(2);
   }
 
+  @Test
+  public void testUpdateSelectedTrackUsesChunkSizesWithLookahead() {
+    Format format1 = videoFormat(/* bitrate= */ 500, /* width= */ 320, /* height= */ 240);
+    Format format2 = videoFormat(/* bitrate= */ 1000, /* width= */ 640, /* height= */ 480);
+    Format format3 = videoFormat(/* bitrate= */ 2000, /* width= */ 960, /* height= */ 720);
+    TrackGroup trackGroup = new TrackGroup(format1, format2, format3);
+    // The chunks of each track are half the size implied by the bitrate of its format.
+    FakeAdaptiveDataSet dataSet = createDataSet(trackGroup, /* bitrateFactor= */ 0.5f);
+
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(BandwidthMeter.NO_ESTIMATE, 1000L);
+
+    adaptiveTrackSelection =
+        adaptiveTrackSelectionWithChunkLookaheadCount(
+            trackGroup, /* initialBitrate= */ 1000, /* chunkLookaheadCount= */ 3);
+
+    adaptiveTrackSelection.updateSelectedTrack(
+        /* playbackPositionUs= */ 0,
+        /* bufferedDurationUs= */ 20_000_000,
+        /* availableDurationUs= */ C.TIME_UNSET,
+        createIterators(dataSet, trackGroup.length));
+
+    // The upcoming chunks of format3 only need 1000 bps, which fits the bandwidth estimate.
+    assertThat(adaptiveTrackSelection.getSelectedFormat()).isEqualTo(format3);
+    assertThat(adaptiveTrackSelection.getSelectionReason()).isEqualTo(C.SELECTION_REASON_ADAPTIVE);
+  }
+
+  @Test
+  public void testUpdateSelectedTrackUsesFormatBitrateIfChunkSizesUnknown() {
+    Format format1 = videoFormat(/* bitrate= */ 500, /* width= */ 320, /* height= */ 240);
+    Format format2 = videoFormat(/* bitrate= */ 1000, /* width= */ 640, /* height= */ 480);
+    Format format3 = videoFormat(/* bitrate= */ 2000, /* width= */ 960, /* height= */ 720);
+    TrackGroup trackGroup = new TrackGroup(format1, format2, format3);
+
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(BandwidthMeter.NO_ESTIMATE, 1000L);
+
+    adaptiveTrackSelection =
+        adaptiveTrackSelectionWithChunkLookaheadCount(
+            trackGroup, /* initialBitrate= */ 500, /* chunkLookaheadCount= */ 3);
+
+    MediaChunkIterator[] iterators = new MediaChunkIterator[trackGroup.length];
+    for (int i = 0; i < iterators.length; i++) {
+      iterators[i] = MediaChunkIterator.EMPTY;
+    }
+    adaptiveTrackSelection.updateSelectedTrack(
+        /* playbackPositionUs= */ 0,
+        /* bufferedDurationUs= */ 20_000_000,
+        /* availableDurationUs= */ C.TIME_UNSET,
+        iterators);
+
+    assertThat(adaptiveTrackSelection.getSelectedFormat()).isEqualTo(format2);
+  }
+
+  @Test
+  public void testUpdateSelectedTrackWithoutChunksDoesNotUseStaleChunkSizes() {
+    Format format1 = videoFormat(/* bitrate= */ 500, /* width= */ 320, /* height= */ 240);
+    Format format2 = videoFormat(/* bitrate= */ 1000, /* width= */ 640, /* height= */ 480);
+    Format format3 = videoFormat(/* bitrate= */ 2000, /* width= */ 960, /* height= */ 720);
+    TrackGroup trackGroup = new TrackGroup(format1, format2, format3);
+    FakeAdaptiveDataSet dataSet = createDataSet(trackGroup, /* bitrateFactor= */ 0.5f);
+
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(BandwidthMeter.NO_ESTIMATE, 1000L);
+
+    adaptiveTrackSelection =
+        adaptiveTrackSelectionWithChunkLookaheadCount(
+            trackGroup, /* initialBitrate= */ 1000, /* chunkLookaheadCount= */ 3);
+    adaptiveTrackSelection.updateSelectedTrack(
+        /* playbackPositionUs= */ 0,
+        /* bufferedDurationUs= */ 20_000_000,
+        /* availableDurationUs= */ C.TIME_UNSET,
+        createIterators(dataSet, trackGroup.length));
+    assertThat(adaptiveTrackSelection.getSelectedFormat()).isEqualTo(format3);
+
+    adaptiveTrackSelection.updateSelectedTrack(
+        /* playbackPositionUs= */ 0,
+        /* bufferedDurationUs= */ 20_000_000,
+        /* availableDurationUs= */ C.TIME_UNSET);
+
+    // Without the upcoming chunks, format3 needs 2000 bps, which exceeds the bandwidth estimate.
+    assertThat(adaptiveTrackSelection.getSelectedFormat()).isEqualTo(format2);
+  }
+
+  @Test
+  public void testSimulatedVariableBitrateContent() {
+    // The formats declare the peak bitrate of their variable bitrate chunks, which is 1.5 times
+    // their average bitrate.
+    TrackGroup averageTrackGroup = new TrackGroup(
+        videoFormat(250000, 320, 240),
+        videoFormat(500000, 480, 360),
+        videoFormat(1000000, 640, 480),
+        videoFormat(2000000, 960, 720),
+        videoFormat(4000000, 1280, 720));
+    Format[] peakFormats = new Format[averageTrackGroup.length];
+    for (int i = 0; i < peakFormats.length; i++) {
+      Format format = averageTrackGroup.getFormat(i);
+      peakFormats[i] = videoFormat(format.bitrate * 3 / 2, format.width, format.height);
+    }
+    TrackGroup peakTrackGroup = new TrackGroup(peakFormats);
+    // The throughput alternates between 4 Mbps and 2 Mbps every 20 seconds.
+    long[] trace = new long[40];
+    for (int i = 0; i < trace.length; i++) {
+      trace[i] = i < 20 ? 4000000 : 2000000;
+    }
+
+    BandwidthTraceSimulator.Result formatBitrateResult =
+        simulate(trace, averageTrackGroup, peakTrackGroup, /* chunkLookaheadCount= */ 0);
+    BandwidthTraceSimulator.Result chunkSizeResult =
+        simulate(trace, averageTrackGroup, peakTrackGroup, /* chunkLookaheadCount= */ 5);
+
+    assertThat(chunkSizeResult.rebufferCount).isAtMost(formatBitrateResult.rebufferCount);
+    assertThat(chunkSizeResult.averageBitrate).isGreaterThan(formatBitrateResult.averageBitrate);
+  }
+
   private AdaptiveTrackSelection adaptiveTrackSelection(TrackGroup trackGroup, int initialBitrate) {
     return new AdaptiveTrackSelection(
         trackGroup,
@@ -360,6 +478,70 @@ public final class AdaptiveTrackSelectionTest {
         fakeClock);
   }
 
+  private AdaptiveTrackSelection adaptiveTrackSelectionWithChunkLookaheadCount(
+      TrackGroup trackGroup, int initialBitrate, int chunkLookaheadCount) {
+    return new AdaptiveTrackSelection(
+        trackGroup,
+        selectedAllTracksInGroup(trackGroup),
+        mockBandwidthMeter,
+        initialBitrate,
+        AdaptiveTrackSelection.DEFAULT_MIN_DURATION_FOR_QUALITY_INCREASE_MS,
+        AdaptiveTrackSelection.DEFAULT_MAX_DURATION_FOR_QUALITY_DECREASE_MS,
+        AdaptiveTrackSelection.DEFAULT_MIN_DURATION_TO_RETAIN_AFTER_DISCARD_MS,
+        /* bandwidthFraction= */ 1.0f,
+        AdaptiveTrackSelection.DEFAULT_BUFFERED_FRACTION_TO_LIVE_EDGE_FOR_QUALITY_INCREASE,
+        AdaptiveTrackSelection.DEFAULT_MIN_TIME_BETWEEN_BUFFER_REEVALUTATION_MS,
+        fakeClock,
+        chunkLookaheadCount);
+  }
+
+  private static BandwidthTraceSimulator.Result simulate(long[] trace,
+      TrackGroup averageTrackGroup, TrackGroup peakTrackGroup, int chunkLookaheadCount) {
+    BandwidthTraceSimulator simulator =
+        new BandwidthTraceSimulator(trace, /* traceIntervalMs= */ 1000,
+            /* maxBufferDurationMs= */ 30000);
+    Clock clock = simulator.getClock();
+    DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(null, null,
+        DefaultBandwidthMeter.DEFAULT_MAX_WEIGHT, clock);
+    TrackSelection.Factory trackSelectionFactory = new AdaptiveTrackSelection.Factory(
+        bandwidthMeter,
+        AdaptiveTrackSelection.DEFAULT_MAX_INITIAL_BITRATE,
+        AdaptiveTrackSelection.DEFAULT_MIN_DURATION_FOR_QUALITY_INCREASE_MS,
+        AdaptiveTrackSelection.DEFAULT_MAX_DURATION_FOR_QUALITY_DECREASE_MS,
+        AdaptiveTrackSelection.DEFAULT_MIN_DURATION_TO_RETAIN_AFTER_DISCARD_MS,
+        AdaptiveTrackSelection.DEFAULT_BANDWIDTH_FRACTION,
+        AdaptiveTrackSelection.DEFAULT_BUFFERED_FRACTION_TO_LIVE_EDGE_FOR_QUALITY_INCREASE,
+        AdaptiveTrackSelection.DEFAULT_MIN_TIME_BETWEEN_BUFFER_REEVALUTATION_MS,
+        clock,
+        chunkLookaheadCount);
+    // Chunk sizes vary by 30% around the average bitrate of each track.
+    FakeAdaptiveDataSet dataSet =
+        new FakeAdaptiveDataSet.Factory(4 * C.MICROS_PER_SECOND, 30, new Random(0))
+            .createDataSet(averageTrackGroup, 600 * C.MICROS_PER_SECOND);
+    return simulator.simulate(
+        trackSelectionFactory.createTrackSelection(peakTrackGroup, 0, 1, 2, 3, 4), bandwidthMeter,
+        dataSet);
+  }
+
+  private static FakeAdaptiveDataSet createDataSet(TrackGroup trackGroup, float bitrateFactor) {
+    Format[] formats = new Format[trackGroup.length];
+    for (int i = 0; i < formats.length; i++) {
+      Format format = trackGroup.getFormat(i);
+      formats[i] = videoFormat((int) (format.bitrate * bitrateFactor), format.width,
+          format.height);
+    }
+    return new FakeAdaptiveDataSet.Factory(4 * C.MICROS_PER_SECOND, 0, new Random(0))
+        .createDataSet(new TrackGroup(formats), 60 * C.MICROS_PER_SECOND);
+  }
+
+  private static MediaChunkIterator[] createIterators(FakeAdaptiveDataSet dataSet, int length) {
+    MediaChunkIterator[] iterators = new MediaChunkIterator[length];
+    for (int i = 0; i < length; i++) {
+      iterators[i] = new FakeAdaptiveDataSet.Iterator(dataSet, i, /* chunkIndex= */ 0);
+    }
+    return iterators;
+  }
+
   private int[] selectedAllTracksInGroup(TrackGroup trackGroup) {
     int[] listIndices = new int[trackGroup.length];
     for (int i = 0; i < trackGroup.length; i++) {
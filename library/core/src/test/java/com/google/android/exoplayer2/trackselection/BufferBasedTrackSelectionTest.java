@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.trackselection;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.testutil.BandwidthTraceSimulator;
+import com.google.android.exoplayer2.testutil.FakeAdaptiveDataSet;
+import com.google.android.exoplayer2.testutil.FakeClock;
+import com.google.android.exoplayer2.upstream.BandwidthMeter;
+import com.google.android.exoplayer2.upstream.DefaultBandwidthMeter;
+import com.google.android.exoplayer2.util.Clock;
+import com.google.android.exoplayer2.util.MimeTypes;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.robolectric.RobolectricTestRunner;
+
+/** Unit test for {@link BufferBasedTrackSelection}. */
+@RunWith(RobolectricTestRunner.class)
+public final class BufferBasedTrackSelectionTest {
+
+  private static final Format FORMAT_250K = videoFormat(/* bitrate= */ 250000);
+  private static final Format FORMAT_500K = videoFormat(/* bitrate= */ 500000);
+  private static final Format FORMAT_1M = videoFormat(/* bitrate= */ 1000000);
+  private static final Format FORMAT_2M = videoFormat(/* bitrate= */ 2000000);
+  private static final Format FORMAT_4M = videoFormat(/* bitrate= */ 4000000);
+  private static final TrackGroup TRACK_GROUP =
+      new TrackGroup(FORMAT_250K, FORMAT_500K, FORMAT_1M, FORMAT_2M, FORMAT_4M);
+
+  @Mock private BandwidthMeter mockBandwidthMeter;
+  private FakeClock fakeClock;
+
+  @Before
+  public void setUp() {
+    initMocks(this);
+    fakeClock = new FakeClock(0);
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(BandwidthMeter.NO_ESTIMATE);
+  }
+
+  @Test
+  public void testSelectInitialIndexUsingMaxInitialBitrate() {
+    BufferBasedTrackSelection trackSelection = bufferBasedTrackSelection(mockBandwidthMeter);
+
+    assertThat(trackSelection.getSelectedFormat()).isEqualTo(FORMAT_500K);
+    assertThat(trackSelection.getSelectionReason()).isEqualTo(C.SELECTION_REASON_INITIAL);
+  }
+
+  @Test
+  public void testSelectionFollowsBufferedDuration() {
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(10000000L);
+    BufferBasedTrackSelection trackSelection = bufferBasedTrackSelection(mockBandwidthMeter);
+
+    trackSelection.updateSelectedTrack(0, /* bufferedDurationUs= */ 30 * C.MICROS_PER_SECOND,
+        C.TIME_UNSET);
+    assertThat(trackSelection.getSelectedFormat()).isEqualTo(FORMAT_4M);
+
+    trackSelection.updateSelectedTrack(0, /* bufferedDurationUs= */ 2 * C.MICROS_PER_SECOND,
+        C.TIME_UNSET);
+    assertThat(trackSelection.getSelectedFormat()).isEqualTo(FORMAT_250K);
+    assertThat(trackSelection.getSelectionReason()).isEqualTo(C.SELECTION_REASON_ADAPTIVE);
+  }
+
+  @Test
+  public void testStartupUsesBandwidthEstimate() {
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(2000000L);
+    BufferBasedTrackSelection trackSelection = bufferBasedTrackSelection(mockBandwidthMeter);
+
+    trackSelection.updateSelectedTrack(0, /* bufferedDurationUs= */ C.MICROS_PER_SECOND,
+        C.TIME_UNSET);
+
+    // 75% of the bandwidth estimate is used while starting up.
+    assertThat(trackSelection.getSelectedFormat()).isEqualTo(FORMAT_1M);
+  }
+
+  @Test
+  public void testDoesNotSwitchUpBeyondBandwidthEstimate() {
+    when(mockBandwidthMeter.getBitrateEstimate()).thenReturn(1500000L);
+    BufferBasedTrackSelection trackSelection = bufferBasedTrackSelection(mockBandwidthMeter);
+    trackSelection.updateSelectedTrack(0, /* bufferedDurationUs= */ 12 * C.MICROS_PER_SECOND,
+        C.TIME_UNSET);
+    trackSelection.updateSelectedTrack(0, /* bufferedDurationUs= */ 2 * C.MICROS_PER_SECOND,
+        C.TIME_UNSET);
+    assertThat(trackSelection.getSelectedFormat()).isEqualTo(FORMAT_250K);
+
+    trackSelection.updateSelectedTrack(0, /* bufferedDurationUs= */ 30 * C.MICROS_PER_SECOND,
+        C.TIME_UNSET);
+
+    assertThat(trackSelection.getSelectedFormat()).isEqualTo(FORMAT_1M);
+  }
+
+  @Test
+  public void testSimulatedBandwidthDrop() {
+    // 6 Mbps for a minute, then 600 kbps.
+    long[] trace = new long[600];
+    Arrays.fill(trace, 0, 60, 6000000);
+    Arrays.fill(trace, 60, trace.length, 600000);
+
+    BandwidthTraceSimulator.Result adaptiveResult = simulate(trace, /* bufferBased= */ false);
+    BandwidthTraceSimulator.Result bufferBasedResult = simulate(trace, /* bufferBased= */ true);
+
+    assertThat(bufferBasedResult.rebufferCount).isEqualTo(0);
+    assertThat(bufferBasedResult.averageBitrate).isGreaterThan(adaptiveResult.averageBitrate);
+  }
+
+  @Test
+  public void testSimulatedFluctuatingBandwidth() {
+    // The throughput alternates between 6 Mbps and 1 Mbps every 10 seconds.
+    long[] trace = new long[20];
+    Arrays.fill(trace, 0, 10, 6000000);
+    Arrays.fill(trace, 10, 20, 1000000);
+
+    BandwidthTraceSimulator.Result adaptiveResult = simulate(trace, /* bufferBased= */ false);
+    BandwidthTraceSimulator.Result bufferBasedResult = simulate(trace, /* bufferBased= */ true);
+
+    assertThat(bufferBasedResult.rebufferCount).isEqualTo(0);
+    assertThat(bufferBasedResult.averageBitrate).isGreaterThan(adaptiveResult.averageBitrate);
+  }
+
+  private BufferBasedTrackSelection bufferBasedTrackSelection(BandwidthMeter bandwidthMeter) {
+    return new BufferBasedTrackSelection(
+        TRACK_GROUP,
+        new int[] {0, 1, 2, 3, 4},
+        bandwidthMeter,
+        /* maxInitialBitrate= */ 500000,
+        BufferBasedTrackSelection.DEFAULT_MIN_BUFFER_MS,
+        BufferBasedTrackSelection.DEFAULT_BUFFER_TARGET_MS,
+        AdaptiveTrackSelection.DEFAULT_BANDWIDTH_FRACTION,
+        fakeClock);
+  }
+
+  private static BandwidthTraceSimulator.Result simulate(long[] trace, boolean bufferBased) {
+    BandwidthTraceSimulator simulator =
+        new BandwidthTraceSimulator(trace, /* traceIntervalMs= */ 1000,
+            /* maxBufferDurationMs= */ 30000);
+    Clock clock = simulator.getClock();
+    DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(null, null,
+        DefaultBandwidthMeter.DEFAULT_MAX_WEIGHT, clock);
+    TrackSelection.Factory trackSelectionFactory;
+    if (bufferBased) {
+      trackSelectionFactory = new BufferBasedTrackSelection.Factory(
+          bandwidthMeter,
+          AdaptiveTrackSelection.DEFAULT_MAX_INITIAL_BITRATE,
+          BufferBasedTrackSelection.DEFAULT_MIN_BUFFER_MS,
+          BufferBasedTrackSelection.DEFAULT_BUFFER_TARGET_MS,
+          AdaptiveTrackSelection.DEFAULT_BANDWIDTH_FRACTION,
+          clock);
+    } else {
+      trackSelectionFactory = new AdaptiveTrackSelection.Factory(
+          bandwidthMeter,
+          AdaptiveTrackSelection.DEFAULT_MAX_INITIAL_BITRATE,
+          AdaptiveTrackSelection.DEFAULT_MIN_DURATION_FOR_QUALITY_INCREASE_MS,
+          AdaptiveTrackSelection.DEFAULT_MAX_DURATION_FOR_QUALITY_DECREASE_MS,
+          AdaptiveTrackSelection.DEFAULT_MIN_DURATION_TO_RETAIN_AFTER_DISCARD_MS,
+          AdaptiveTrackSelection.DEFAULT_BANDWIDTH_FRACTION,
+          AdaptiveTrackSelection.DEFAULT_BUFFERED_FRACTION_TO_LIVE_EDGE_FOR_QUALITY_INCREASE,
+          AdaptiveTrackSelection.DEFAULT_MIN_TIME_BETWEEN_BUFFER_REEVALUTATION_MS,
+          clock);
+    }
+    // Chunk sizes vary by 20% around the average bitrate of each format.
+    FakeAdaptiveDataSet dataSet =
+        new FakeAdaptiveDataSet.Factory(4 * C.MICROS_PER_SECOND, 20, new Random(0))
+            .createDataSet(TRACK_GROUP, 600 * C.MICROS_PER_SECOND);
+    return simulator.simulate(
+        trackSelectionFactory.createTrackSelection(TRACK_GROUP, 0, 1, 2, 3, 4), bandwidthMeter,
+        dataSet);
+  }
+
+  private static Format videoFormat(int bitrate) {
+    return Format.createVideoSampleFormat(null, MimeTypes.VIDEO_H264, null, bitrate,
+        Format.NO_VALUE, 1280, 720, Format.NO_VALUE, null, null);
+  }
+
+}
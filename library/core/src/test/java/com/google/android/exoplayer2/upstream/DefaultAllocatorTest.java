@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Unit tests for {@link DefaultAllocator}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public final class DefaultAllocatorTest {
+
+  private static final int INDIVIDUAL_ALLOCATION_SIZE = 16;
+  private static final int LOADING_THREAD_COUNT = 4;
+  private static final int ITERATION_COUNT = 2000;
+  private static final int ALLOCATIONS_PER_ITERATION = 20;
+
+  @Test
+  public void testTotalBytesAllocated() {
+    assertTotalBytesAllocated(new DefaultAllocator(true, INDIVIDUAL_ALLOCATION_SIZE));
+  }
+
+  @Test
+  public void testTotalBytesAllocatedWithThreadLocalCaches() {
+    assertTotalBytesAllocated(new DefaultAllocator(true, INDIVIDUAL_ALLOCATION_SIZE, 0, true));
+  }
+
+  @Test
+  public void testTrimRetainsInitialAllocations() throws Exception {
+    assertTrimRetainsInitialAllocations(
+        new DefaultAllocator(true, INDIVIDUAL_ALLOCATION_SIZE, 2, false));
+  }
+
+  @Test
+  public void testTrimRetainsInitialAllocationsWithThreadLocalCaches() throws Exception {
+    assertTrimRetainsInitialAllocations(
+        new DefaultAllocator(true, INDIVIDUAL_ALLOCATION_SIZE, 2, true));
+  }
+
+  @Test
+  public void testReleaseDirectAllocationThrows() {
+    assertReleaseDirectAllocationThrows(new DefaultAllocator(true, INDIVIDUAL_ALLOCATION_SIZE));
+  }
+
+  @Test
+  public void testReleaseDirectAllocationWithThreadLocalCachesThrows() {
+    assertReleaseDirectAllocationThrows(
+        new DefaultAllocator(true, INDIVIDUAL_ALLOCATION_SIZE, 0, true));
+  }
+
+  @Test
+  public void testResetDiscardsAllocationsInThreadLocalCaches() throws Exception {
+    final DefaultAllocator allocator =
+        new DefaultAllocator(true, INDIVIDUAL_ALLOCATION_SIZE, 0, true);
+    allocator.setTargetBufferSize(10 * INDIVIDUAL_ALLOCATION_SIZE);
+    Allocation[] allocations =
+        new Allocation[] {allocator.allocate(), allocator.allocate(), allocator.allocate()};
+    // Releasing from the allocating thread puts the allocations into its cache.
+    allocator.release(allocations);
+    Thread resettingThread = new Thread() {
+      @Override
+      public void run() {
+        allocator.reset();
+      }
+    };
+    resettingThread.start();
+    resettingThread.join();
+
+    Allocation allocation = allocator.allocate();
+    assertThat(allocation).isNotIn(Arrays.asList(allocations));
+  }
+
+  @Test
+  public void testConcurrentAllocateAndRelease() throws Exception {
+    assertConcurrentAllocateAndRelease(new DefaultAllocator(true, INDIVIDUAL_ALLOCATION_SIZE));
+  }
+
+  @Test
+  public void testConcurrentAllocateAndReleaseWithThreadLocalCaches() throws Exception {
+    assertConcurrentAllocateAndRelease(
+        new DefaultAllocator(true, INDIVIDUAL_ALLOCATION_SIZE, 0, true));
+  }
+
+  private static void assertReleaseDirectAllocationThrows(DefaultAllocator allocator) {
+    Allocation allocation =
+        new Allocation(ByteBuffer.allocateDirect(INDIVIDUAL_ALLOCATION_SIZE), /* offset= */ 0);
+    try {
+      allocator.release(allocation);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  private static void assertTotalBytesAllocated(DefaultAllocator allocator) {
+    Allocation allocation1 = allocator.allocate();
+    Allocation allocation2 = allocator.allocate();
+    Allocation allocation3 = allocator.allocate();
+    assertThat(allocator.getTotalBytesAllocated()).isEqualTo(3 * INDIVIDUAL_ALLOCATION_SIZE);
+
+    allocator.release(allocation1);
+    assertThat(allocator.getTotalBytesAllocated()).isEqualTo(2 * INDIVIDUAL_ALLOCATION_SIZE);
+    allocator.release(new Allocation[] {allocation2, allocation3});
+    assertThat(allocator.getTotalBytesAllocated()).isEqualTo(0);
+
+    // Released allocations are reused.
+    Allocation allocation4 = allocator.allocate();
+    assertThat(allocation4).isAnyOf(allocation1, allocation2, allocation3);
+    assertThat(allocator.getTotalBytesAllocated()).isEqualTo(INDIVIDUAL_ALLOCATION_SIZE);
+  }
+
+  private static void assertTrimRetainsInitialAllocations(final DefaultAllocator allocator)
+      throws Exception {
+    allocator.setTargetBufferSize(10 * INDIVIDUAL_ALLOCATION_SIZE);
+    final Allocation[] allocations =
+        new Allocation[] {allocator.allocate(), allocator.allocate(), allocator.allocate()};
+    // Release from another thread, as the playback thread does, so that the allocations aren't
+    // held in the cache of the allocating thread.
+    Thread releasingThread = new Thread() {
+      @Override
+      public void run() {
+        allocator.release(allocations);
+      }
+    };
+    releasingThread.start();
+    releasingThread.join();
+    allocator.reset();
+
+    // The allocations created up front are backed by a single block.
+    Allocation allocation4 = allocator.allocate();
+    Allocation allocation5 = allocator.allocate();
+    assertThat(allocation4.data.length).isEqualTo(2 * INDIVIDUAL_ALLOCATION_SIZE);
+    assertThat(allocation5.data).isSameAs(allocation4.data);
+    assertThat(allocator.getTotalBytesAllocated()).isEqualTo(2 * INDIVIDUAL_ALLOCATION_SIZE);
+  }
+
+  /**
+   * Allocates and releases from several threads at the same time, where each thread marks the
+   * allocations it holds to check that no allocation is handed out twice.
+   */
+  private static void assertConcurrentAllocateAndRelease(final DefaultAllocator allocator)
+      throws Exception {
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final AtomicReference<String> error = new AtomicReference<>();
+    Thread[] threads = new Thread[LOADING_THREAD_COUNT];
+    for (int i = 0; i < LOADING_THREAD_COUNT; i++) {
+      final byte threadId = (byte) (i + 1);
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          Allocation[] allocations = new Allocation[ALLOCATIONS_PER_ITERATION];
+          try {
+            startLatch.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+          for (int iteration = 0; iteration < ITERATION_COUNT; iteration++) {
+            for (int i = 0; i < allocations.length; i++) {
+              allocations[i] = allocator.allocate();
+              allocations[i].data[allocations[i].offset] = threadId;
+            }
+            for (Allocation allocation : allocations) {
+              if (allocation.data[allocation.offset] != threadId) {
+                error.set("Allocation was handed out to more than one thread");
+              }
+              allocation.data[allocation.offset] = 0;
+            }
+            if (iteration % 2 == 0) {
+              allocator.release(allocations);
+            } else {
+              for (Allocation allocation : allocations) {
+                allocator.release(allocation);
+              }
+            }
+            if (iteration % 100 == 0) {
+              allocator.trim();
+            }
+          }
+        }
+      };
+      threads[i].start();
+    }
+    startLatch.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertThat(error.get()).isNull();
+    assertThat(allocator.getTotalBytesAllocated()).isEqualTo(0);
+  }
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.testutil.BandwidthTraceSimulator;
+import com.google.android.exoplayer2.testutil.FakeAdaptiveDataSet;
+import com.google.android.exoplayer2.testutil.FakeClock;
+import com.google.android.exoplayer2.trackselection.AdaptiveTrackSelection;
+import com.google.android.exoplayer2.util.MimeTypes;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Unit tests for {@link DefaultBandwidthMeter} and its {@link BandwidthEstimator}s.
+ */
+@RunWith(RobolectricTestRunner.class)
+public final class DefaultBandwidthMeterTest {
+
+  private static final DataSpec DATA_SPEC = new DataSpec(Uri.parse("https://test/chunk"));
+  private static final long BITS_PER_SECOND = 2000000;
+  private static final int BYTES_PER_SECOND = (int) (BITS_PER_SECOND / 8);
+
+  private FakeClock clock;
+
+  @Before
+  public void setUp() {
+    clock = new FakeClock(0);
+  }
+
+  @Test
+  public void testEstimateIsOnlyUpdatedWhenTransferEnds() {
+    DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(null, null,
+        DefaultBandwidthMeter.DEFAULT_MAX_WEIGHT, clock);
+
+    bandwidthMeter.onTransferStart(null, DATA_SPEC);
+    transfer(bandwidthMeter, 5);
+    assertThat(bandwidthMeter.getBitrateEstimate()).isEqualTo(BandwidthMeter.NO_ESTIMATE);
+    bandwidthMeter.onTransferEnd(null);
+
+    assertThat(bandwidthMeter.getBitrateEstimate()).isEqualTo(BITS_PER_SECOND);
+  }
+
+  @Test
+  public void testIntermediateSamplesUpdateEstimateDuringTransfer() {
+    DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(null, null,
+        new EwmaBandwidthEstimator(), 500, clock);
+
+    bandwidthMeter.onTransferStart(null, DATA_SPEC);
+    transfer(bandwidthMeter, 5);
+
+    assertThat(bandwidthMeter.getBitrateEstimate()).isEqualTo(BITS_PER_SECOND);
+  }
+
+  @Test
+  public void testPercentileEstimatorNeedsEnoughData() {
+    BandwidthEstimator estimator = new PercentileBandwidthEstimator();
+    estimator.addSample(BYTES_PER_SECOND / 10, 100);
+    assertThat(estimator.getBitrateEstimate()).isEqualTo(BandwidthMeter.NO_ESTIMATE);
+    estimator.addSample(BYTES_PER_SECOND * 2, 2000);
+    assertThat(estimator.getBitrateEstimate()).isEqualTo(BITS_PER_SECOND);
+  }
+
+  @Test
+  public void testEwmaEstimatorFollowsDropQuickly() {
+    BandwidthEstimator estimator = new EwmaBandwidthEstimator();
+    for (int i = 0; i < 20; i++) {
+      estimator.addSample(BYTES_PER_SECOND, 1000);
+    }
+    assertThat(estimator.getBitrateEstimate()).isEqualTo(BITS_PER_SECOND);
+
+    for (int i = 0; i < 4; i++) {
+      estimator.addSample(BYTES_PER_SECOND / 4, 1000);
+    }
+    // After two half-lives of the fast average, a quarter of the previous bandwidth remains.
+    assertThat(estimator.getBitrateEstimate()).isAtMost(BITS_PER_SECOND / 2);
+  }
+
+  @Test
+  public void testSlidingWindowEstimatorDiscardsOldSamples() {
+    BandwidthEstimator estimator = new SlidingWindowBandwidthEstimator(4000);
+    assertThat(estimator.getBitrateEstimate()).isEqualTo(BandwidthMeter.NO_ESTIMATE);
+    estimator.addSample(BYTES_PER_SECOND * 4, 4000);
+    estimator.addSample(BYTES_PER_SECOND / 2, 2000);
+    estimator.addSample(BYTES_PER_SECOND / 2, 2000);
+
+    assertThat(estimator.getBitrateEstimate()).isEqualTo(BITS_PER_SECOND / 4);
+  }
+
+  @Test
+  public void testIntermediateEwmaSamplesReduceSwitchingOnFluctuatingTrace() {
+    // The throughput alternates between 6 Mbps and 1 Mbps every 10 seconds.
+    long[] trace = new long[20];
+    Arrays.fill(trace, 0, 10, 6000000);
+    Arrays.fill(trace, 10, 20, 1000000);
+
+    BandwidthTraceSimulator.Result defaultResult =
+        simulate(trace, new PercentileBandwidthEstimator(), C.TIME_UNSET);
+    BandwidthTraceSimulator.Result ewmaResult =
+        simulate(trace, new EwmaBandwidthEstimator(), /* intermediateSampleIntervalMs= */ 500);
+
+    assertThat(defaultResult.rebufferTimeMs).isEqualTo(0);
+    assertThat(ewmaResult.rebufferTimeMs).isEqualTo(0);
+    assertThat(ewmaResult.switchCount).isLessThan(defaultResult.switchCount);
+  }
+
+  private BandwidthTraceSimulator.Result simulate(long[] trace, BandwidthEstimator estimator,
+      long intermediateSampleIntervalMs) {
+    BandwidthTraceSimulator simulator = new BandwidthTraceSimulator(trace, 1000, 30000);
+    DefaultBandwidthMeter bandwidthMeter = new DefaultBandwidthMeter(null, null, estimator,
+        intermediateSampleIntervalMs, simulator.getClock());
+    TrackGroup trackGroup = new TrackGroup(videoFormat(250000), videoFormat(500000),
+        videoFormat(1000000), videoFormat(2000000), videoFormat(4000000));
+    AdaptiveTrackSelection trackSelection = new AdaptiveTrackSelection(trackGroup,
+        new int[] {0, 1, 2, 3, 4}, bandwidthMeter,
+        AdaptiveTrackSelection.DEFAULT_MAX_INITIAL_BITRATE,
+        AdaptiveTrackSelection.DEFAULT_MIN_DURATION_FOR_QUALITY_INCREASE_MS,
+        AdaptiveTrackSelection.DEFAULT_MAX_DURATION_FOR_QUALITY_DECREASE_MS,
+        AdaptiveTrackSelection.DEFAULT_MIN_DURATION_TO_RETAIN_AFTER_DISCARD_MS,
+        AdaptiveTrackSelection.DEFAULT_BANDWIDTH_FRACTION,
+        AdaptiveTrackSelection.DEFAULT_BUFFERED_FRACTION_TO_LIVE_EDGE_FOR_QUALITY_INCREASE,
+        AdaptiveTrackSelection.DEFAULT_MIN_TIME_BETWEEN_BUFFER_REEVALUTATION_MS,
+        simulator.getClock());
+    FakeAdaptiveDataSet dataSet = new FakeAdaptiveDataSet.Factory(4 * C.MICROS_PER_SECOND, 0)
+        .createDataSet(trackGroup, 240 * C.MICROS_PER_SECOND);
+    return simulator.simulate(trackSelection, bandwidthMeter, dataSet);
+  }
+
+  private void transfer(DefaultBandwidthMeter bandwidthMeter, int seconds) {
+    for (int i = 0; i < seconds * 10; i++) {
+      clock.advanceTime(100);
+      bandwidthMeter.onBytesTransferred(null, BYTES_PER_SECOND / 10);
+    }
+  }
+
+  private static Format videoFormat(int bitrate) {
+    return Format.createVideoSampleFormat(null, MimeTypes.VIDEO_H264, null, bitrate,
+        Format.NO_VALUE, 1280, 720, Format.NO_VALUE, null, null);
+  }
+
+}
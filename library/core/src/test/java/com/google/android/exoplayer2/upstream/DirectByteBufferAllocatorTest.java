@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Unit tests for {@link DirectByteBufferAllocator}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public final class DirectByteBufferAllocatorTest {
+
+  private static final int INDIVIDUAL_ALLOCATION_SIZE = 16;
+  private static final int SLAB_ALLOCATION_COUNT = 4;
+  private static final int SLAB_SIZE = INDIVIDUAL_ALLOCATION_SIZE * SLAB_ALLOCATION_COUNT;
+
+  private DirectByteBufferAllocator allocator;
+
+  @Before
+  public void setUp() {
+    allocator =
+        new DirectByteBufferAllocator(true, INDIVIDUAL_ALLOCATION_SIZE, SLAB_ALLOCATION_COUNT);
+  }
+
+  @Test
+  public void testAllocationsAreBackedByDirectSlabs() {
+    Allocation allocation1 = allocator.allocate();
+    Allocation allocation2 = allocator.allocate();
+
+    assertThat(allocation1.data).isNull();
+    assertThat(allocation1.buffer.isDirect()).isTrue();
+    assertThat(allocation2.buffer).isSameAs(allocation1.buffer);
+    assertThat(allocation1.offset).isEqualTo(0);
+    assertThat(allocation2.offset).isEqualTo(INDIVIDUAL_ALLOCATION_SIZE);
+    assertThat(allocator.getTotalBytesAllocated()).isEqualTo(2 * INDIVIDUAL_ALLOCATION_SIZE);
+    assertThat(allocator.getTotalBytesReserved()).isEqualTo(SLAB_SIZE);
+  }
+
+  @Test
+  public void testAllocateBeyondSlabAddsSlab() {
+    Allocation[] allocations = allocate(SLAB_ALLOCATION_COUNT + 1);
+
+    assertThat(allocations[SLAB_ALLOCATION_COUNT].buffer).isNotSameAs(allocations[0].buffer);
+    assertThat(allocator.getTotalBytesReserved()).isEqualTo(2 * SLAB_SIZE);
+  }
+
+  @Test
+  public void testReleasedAllocationsAreReused() {
+    Allocation[] allocations = allocate(SLAB_ALLOCATION_COUNT);
+    allocator.release(allocations[1]);
+    assertThat(allocator.getTotalBytesAllocated())
+        .isEqualTo((SLAB_ALLOCATION_COUNT - 1) * INDIVIDUAL_ALLOCATION_SIZE);
+
+    assertThat(allocator.allocate()).isSameAs(allocations[1]);
+    assertThat(allocator.getTotalBytesReserved()).isEqualTo(SLAB_SIZE);
+  }
+
+  @Test
+  public void testTrimReleasesUnusedSlabsOnly() {
+    Allocation[] allocations = allocate(2 * SLAB_ALLOCATION_COUNT);
+    // Release all allocations of the first slab, and one allocation of the second.
+    allocator.release(new Allocation[] {allocations[0], allocations[1], allocations[2],
+        allocations[3], allocations[4]});
+
+    allocator.trim();
+
+    assertThat(allocator.getTotalBytesReserved()).isEqualTo(SLAB_SIZE);
+    assertThat(allocator.getTotalBytesAllocated())
+        .isEqualTo(3 * INDIVIDUAL_ALLOCATION_SIZE);
+    // The available allocation of the second slab is reused.
+    assertThat(allocator.allocate()).isSameAs(allocations[4]);
+  }
+
+  @Test
+  public void testResetReleasesAllSlabs() {
+    allocator.setTargetBufferSize(10 * SLAB_SIZE);
+    allocator.release(allocate(2 * SLAB_ALLOCATION_COUNT));
+    allocator.trim();
+    assertThat(allocator.getTotalBytesReserved()).isEqualTo(2 * SLAB_SIZE);
+
+    allocator.reset();
+
+    assertThat(allocator.getTotalBytesReserved()).isEqualTo(0);
+  }
+
+  @Test
+  public void testReleaseHeapAllocationThrows() {
+    try {
+      allocator.release(new Allocation(new byte[INDIVIDUAL_ALLOCATION_SIZE], /* offset= */ 0));
+      fail();
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  private Allocation[] allocate(int count) {
+    Allocation[] allocations = new Allocation[count];
+    for (int i = 0; i < count; i++) {
+      allocations[i] = allocator.allocate();
+    }
+    return allocations;
+  }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import static com.google.android.exoplayer2.upstream.DataSourceAsserts.assertDataSourceContent;
+
+import android.net.Uri;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.testutil.TestUtil;
+import com.google.android.exoplayer2.util.Util;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+/**
+ * Unit tests for {@link FileDataSource}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public final class FileDataSourceTest {
+
+  // Larger than the window that's mapped at a time when memory mapping is enabled.
+  private static final int TEST_DATA_LENGTH = 9 * 1024 * 1024;
+
+  private File tempFolder;
+  private Uri uri;
+  private byte[] data;
+
+  @Before
+  public void setUp() throws Exception {
+    tempFolder = Util.createTempDirectory(RuntimeEnvironment.application, "ExoPlayerTest");
+    File file = new File(tempFolder, "data");
+    data = TestUtil.buildTestData(TEST_DATA_LENGTH);
+    FileOutputStream outputStream = new FileOutputStream(file);
+    try {
+      outputStream.write(data);
+    } finally {
+      outputStream.close();
+    }
+    uri = Uri.fromFile(file);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    Util.recursiveDelete(tempFolder);
+  }
+
+  @Test
+  public void testReadAll() throws Exception {
+    assertDataSourceContent(new FileDataSource(), new DataSpec(uri), data);
+  }
+
+  @Test
+  public void testReadAllMemoryMapped() throws Exception {
+    assertDataSourceContent(new FileDataSource(null, true), new DataSpec(uri), data);
+  }
+
+  @Test
+  public void testReadRangeMemoryMapped() throws Exception {
+    int position = 5 * 1024 * 1024;
+    int length = 4 * 1024 * 1024 - 10;
+    assertDataSourceContent(
+        new FileDataSource(null, true),
+        new DataSpec(uri, position, length, null),
+        Arrays.copyOfRange(data, position, position + length));
+  }
+
+  @Test
+  public void testReadToEndFromPositionMemoryMapped() throws Exception {
+    int position = TEST_DATA_LENGTH - 100;
+    assertDataSourceContent(
+        new FileDataSource(null, true),
+        new DataSpec(uri, position, C.LENGTH_UNSET, null),
+        Arrays.copyOfRange(data, position, TEST_DATA_LENGTH));
+  }
+
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import com.google.android.exoplayer2.testutil.RobolectricUtil;
+import com.google.android.exoplayer2.upstream.Loader.Loadable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Unit tests for {@link Loader}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(shadows = {RobolectricUtil.CustomLooper.class, RobolectricUtil.CustomMessageQueue.class})
+public final class LoaderTest {
+
+  private static final int TIMEOUT_MS = 10000;
+  private static final int SHARED_LOADER_COUNT = 48;
+  private static final int SHARED_THREAD_COUNT = 3;
+
+  private HandlerThread callbackThread;
+  private Handler callbackHandler;
+  private ExecutorService executorService;
+
+  @Before
+  public void setUp() {
+    callbackThread = new HandlerThread("LoaderTest");
+    callbackThread.start();
+    callbackHandler = new Handler(callbackThread.getLooper());
+  }
+
+  @After
+  public void tearDown() {
+    callbackThread.quit();
+    if (executorService != null) {
+      executorService.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testLoadersShareExecutor() throws Exception {
+    executorService = Executors.newFixedThreadPool(2);
+    int loaderCount = 6;
+    final Set<Thread> loadingThreads = Collections.synchronizedSet(new HashSet<Thread>());
+    CountDownLatch completedLatch = new CountDownLatch(loaderCount);
+    Loader[] loaders = new Loader[loaderCount];
+    for (int i = 0; i < loaderCount; i++) {
+      loaders[i] = new Loader(executorService);
+      startLoading(loaders[i], new TestLoadable() {
+        @Override
+        public void load() {
+          loadingThreads.add(Thread.currentThread());
+        }
+      }, completedLatch);
+    }
+
+    assertThat(completedLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+    assertThat(loadingThreads.size()).isAtMost(2);
+    for (Loader loader : loaders) {
+      loader.release();
+    }
+    assertThat(executorService.isShutdown()).isFalse();
+  }
+
+  @Test
+  public void testDozensOfLoadersOnSmallPool() throws Exception {
+    executorService = Executors.newFixedThreadPool(SHARED_THREAD_COUNT);
+    Loader.Factory loaderFactory = new Loader.SharedExecutorFactory(executorService);
+    final Set<Thread> loadingThreads = Collections.synchronizedSet(new HashSet<Thread>());
+    final AtomicReference<String> error = new AtomicReference<>();
+    final Loader[] loaders = new Loader[SHARED_LOADER_COUNT];
+    final BlockingLoadable[] blockingLoadables = new BlockingLoadable[SHARED_LOADER_COUNT];
+
+    // Complete a load on each loader.
+    CountDownLatch completedLatch = new CountDownLatch(SHARED_LOADER_COUNT);
+    for (int i = 0; i < SHARED_LOADER_COUNT; i++) {
+      loaders[i] = loaderFactory.createLoader("LoaderTest");
+      startLoading(loaders[i], new TestLoadable() {
+        @Override
+        public void load() {
+          loadingThreads.add(Thread.currentThread());
+        }
+      }, completedLatch);
+    }
+    assertThat(completedLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+    assertThat(loadingThreads.size()).isAtMost(SHARED_THREAD_COUNT);
+
+    // Start a load that blocks until it's canceled on each loader, so that most of them are queued
+    // behind the ones that occupy the threads, then release the loaders.
+    CountDownLatch blockedLatch = new CountDownLatch(SHARED_THREAD_COUNT);
+    for (int i = 0; i < SHARED_LOADER_COUNT; i++) {
+      blockingLoadables[i] = new BlockingLoadable(blockedLatch);
+      startLoading(loaders[i], blockingLoadables[i], new CountDownLatch(1));
+    }
+    assertThat(blockedLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+    final CountDownLatch releasedLatch = new CountDownLatch(SHARED_LOADER_COUNT);
+    callbackHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 0; i < SHARED_LOADER_COUNT; i++) {
+          final BlockingLoadable loadable = blockingLoadables[i];
+          loaders[i].release(new Loader.ReleaseCallback() {
+            @Override
+            public void onLoaderReleased() {
+              if (loadable.loadStarted && !loadable.loadExited) {
+                error.set("Loader released before its load exited");
+              }
+              releasedLatch.countDown();
+            }
+          });
+        }
+      }
+    });
+
+    assertThat(releasedLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+    assertThat(error.get()).isNull();
+    assertThat(executorService.isShutdown()).isFalse();
+  }
+
+  @Test
+  public void testCanceledLoadDoesNotInterruptNextLoadOnSharedThread() throws Exception {
+    executorService = Executors.newSingleThreadExecutor();
+    final CountDownLatch blockingLoadStartedLatch = new CountDownLatch(1);
+    final boolean[] nextLoadInterrupted = new boolean[1];
+    final Loader blockingLoader = new Loader(executorService);
+    Loader nextLoader = new Loader(executorService);
+    CountDownLatch completedLatch = new CountDownLatch(2);
+
+    startLoading(blockingLoader, new TestLoadable() {
+      @Override
+      public void load() throws InterruptedException {
+        blockingLoadStartedLatch.countDown();
+        Thread.sleep(TIMEOUT_MS);
+      }
+    }, completedLatch);
+    startLoading(nextLoader, new TestLoadable() {
+      @Override
+      public void load() {
+        nextLoadInterrupted[0] = Thread.currentThread().isInterrupted();
+      }
+    }, completedLatch);
+    assertThat(blockingLoadStartedLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+    callbackHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        blockingLoader.cancelLoading();
+      }
+    });
+
+    assertThat(completedLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+    assertThat(nextLoadInterrupted[0]).isFalse();
+  }
+
+  private void startLoading(final Loader loader, final TestLoadable loadable,
+      final CountDownLatch completedLatch) {
+    callbackHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        loader.startLoading(loadable, new Loader.Callback<TestLoadable>() {
+          @Override
+          public void onLoadCompleted(TestLoadable loadable, long elapsedRealtimeMs,
+              long loadDurationMs) {
+            completedLatch.countDown();
+          }
+
+          @Override
+          public void onLoadCanceled(TestLoadable loadable, long elapsedRealtimeMs,
+              long loadDurationMs, boolean released) {
+            completedLatch.countDown();
+          }
+
+          @Override
+          public int onLoadError(TestLoadable loadable, long elapsedRealtimeMs,
+              long loadDurationMs, IOException error) {
+            return Loader.DONT_RETRY;
+          }
+        }, 0);
+      }
+    });
+  }
+
+  private static final class BlockingLoadable extends TestLoadable {
+
+    private final CountDownLatch blockedLatch;
+
+    public volatile boolean loadStarted;
+    public volatile boolean loadExited;
+
+    public BlockingLoadable(CountDownLatch blockedLatch) {
+      this.blockedLatch = blockedLatch;
+    }
+
+    @Override
+    public void load() throws InterruptedException {
+      loadStarted = true;
+      try {
+        blockedLatch.countDown();
+        Thread.sleep(TIMEOUT_MS);
+      } finally {
+        loadExited = true;
+      }
+    }
+
+  }
+
+  private abstract static class TestLoadable implements Loadable {
+
+    private volatile boolean canceled;
+
+    @Override
+    public void cancelLoad() {
+      canceled = true;
+    }
+
+    @Override
+    public boolean isLoadCanceled() {
+      return canceled;
+    }
+
+  }
+
+}
@@ -97,6 +97,22 @@ public final class CacheDataSourceTest {
     assertCacheAndRead(true, true);
   }
 
+  @Test
+  public void testCacheAndReadMemoryMapped() throws Exception {
+    // Read all data from upstream and write to cache
+    CacheDataSource cacheDataSource = createCacheDataSource(false, false);
+    assertReadDataContentLength(cacheDataSource, false, false);
+
+    // Read from cache through a memory mapping
+    FakeDataSource upstream = new FakeDataSource();
+    upstream.getDataSet().newDefaultData().appendReadData(TEST_DATA)
+        .appendReadError(new IOException("Shouldn't read from upstream"));
+    cacheDataSource = new CacheDataSource(cache, upstream,
+        CacheDataSource.FLAG_BLOCK_ON_CACHE | CacheDataSource.FLAG_MEMORY_MAP_CACHE_READS,
+        MAX_CACHE_FILE_SIZE);
+    assertReadData(cacheDataSource, false, 0, TEST_DATA.length);
+  }
+
   @Test
   public void testUnsatisfiableRange() throws Exception {
     // Bounded request but the content length is unknown. This forces all data to be cached but not
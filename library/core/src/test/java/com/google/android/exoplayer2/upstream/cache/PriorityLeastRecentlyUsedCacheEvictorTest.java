@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.upstream.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+
+import com.google.android.exoplayer2.upstream.cache.PriorityLeastRecentlyUsedCacheEvictor.SpanPrioritizer;
+import java.io.File;
+import java.util.ArrayList;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+
+/** Unit tests for {@link PriorityLeastRecentlyUsedCacheEvictor}. */
+@RunWith(RobolectricTestRunner.class)
+public final class PriorityLeastRecentlyUsedCacheEvictorTest {
+
+  @Mock private Cache cache;
+
+  private PriorityLeastRecentlyUsedCacheEvictor evictor;
+  private ArrayList<CacheSpan> removedSpans;
+
+  @Before
+  public void setUp() throws Exception {
+    MockitoAnnotations.initMocks(this);
+    removedSpans = new ArrayList<>();
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        CacheSpan span = (CacheSpan) invocation.getArguments()[0];
+        removedSpans.add(span);
+        evictor.onSpanRemoved(cache, span);
+        return null;
+      }
+    }).when(cache).removeSpan(any(CacheSpan.class));
+  }
+
+  @Test
+  public void testContentBiggerThanMaxSizeDoesNotThrowException() throws Exception {
+    int maxBytes = 100;
+    evictor = new PriorityLeastRecentlyUsedCacheEvictor(maxBytes);
+    evictor.onCacheInitialized();
+    evictor.onStartFile(cache, "key", 0, maxBytes + 1);
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsedDownToLowWaterMark() throws Exception {
+    evictor = new PriorityLeastRecentlyUsedCacheEvictor(100, 60);
+    evictor.onCacheInitialized();
+    CacheSpan span1 = createSpan("key", 0, 20, 1);
+    CacheSpan span2 = createSpan("key", 20, 20, 2);
+    CacheSpan span3 = createSpan("key", 40, 20, 3);
+    CacheSpan span4 = createSpan("key", 60, 20, 4);
+    evictor.onSpanAdded(cache, span1);
+    evictor.onSpanAdded(cache, span2);
+    evictor.onSpanAdded(cache, span3);
+    evictor.onSpanAdded(cache, span4);
+    assertThat(removedSpans).isEmpty();
+
+    // Writing 40 more bytes exceeds the maximum size, so the cache is reduced to 60 - 40 bytes.
+    evictor.onStartFile(cache, "key", 80, 40);
+
+    assertThat(removedSpans).containsExactly(span1, span2, span3).inOrder();
+  }
+
+  @Test
+  public void testTouchedSpanIsEvictedLast() throws Exception {
+    evictor = new PriorityLeastRecentlyUsedCacheEvictor(50, 50);
+    evictor.onCacheInitialized();
+    CacheSpan span1 = createSpan("key1", 0, 20, 1);
+    CacheSpan span2 = createSpan("key2", 0, 20, 2);
+    evictor.onSpanAdded(cache, span1);
+    evictor.onSpanAdded(cache, span2);
+    CacheSpan touchedSpan1 = createSpan("key1", 0, 20, 3);
+    evictor.onSpanTouched(cache, span1, touchedSpan1);
+
+    evictor.onSpanAdded(cache, createSpan("key3", 0, 20, 4));
+
+    assertThat(removedSpans).containsExactly(span2);
+  }
+
+  @Test
+  public void testSpansAddedBeforeInitializationAreSortedByLastAccessTimestamp() throws Exception {
+    evictor = new PriorityLeastRecentlyUsedCacheEvictor(50, 50);
+    CacheSpan span1 = createSpan("key1", 0, 20, 3);
+    CacheSpan span2 = createSpan("key2", 0, 20, 1);
+    CacheSpan span3 = createSpan("key3", 0, 20, 2);
+    evictor.onSpanAdded(cache, span1);
+    evictor.onSpanAdded(cache, span2);
+    evictor.onSpanAdded(cache, span3);
+    // Nothing is evicted before the cache has been initialized.
+    assertThat(removedSpans).isEmpty();
+    evictor.onCacheInitialized();
+
+    // A span that's added later, but was last accessed earlier, is also ordered correctly.
+    CacheSpan span4 = createSpan("key4", 0, 10, 0);
+    evictor.onSpanAdded(cache, span4);
+
+    assertThat(removedSpans).containsExactly(span4, span2).inOrder();
+  }
+
+  @Test
+  public void testLowerPrioritySpansAreEvictedFirst() throws Exception {
+    SpanPrioritizer prioritizer = new SpanPrioritizer() {
+      @Override
+      public int getPriority(CacheSpan span) {
+        return span.key.startsWith("init") ? 1 : 0;
+      }
+    };
+    evictor = new PriorityLeastRecentlyUsedCacheEvictor(60, 60, 2, prioritizer);
+    evictor.onCacheInitialized();
+    CacheSpan initSpan = createSpan("init", 0, 20, 1);
+    CacheSpan mediaSpan1 = createSpan("media1", 0, 20, 2);
+    CacheSpan mediaSpan2 = createSpan("media2", 0, 20, 3);
+    evictor.onSpanAdded(cache, initSpan);
+    evictor.onSpanAdded(cache, mediaSpan1);
+    evictor.onSpanAdded(cache, mediaSpan2);
+
+    evictor.onStartFile(cache, "media3", 0, 40);
+
+    assertThat(removedSpans).containsExactly(mediaSpan1, mediaSpan2).inOrder();
+  }
+
+  @Test
+  public void testEvictionTriggeredWhileEvictingRemovesEachSpanOnce() throws Exception {
+    evictor = new PriorityLeastRecentlyUsedCacheEvictor(100, 100);
+    evictor.onCacheInitialized();
+    final CacheSpan span1 = createSpan("key", 0, 20, 1);
+    CacheSpan span2 = createSpan("key", 20, 20, 2);
+    CacheSpan span3 = createSpan("key", 40, 20, 3);
+    CacheSpan span4 = createSpan("key", 60, 20, 4);
+    CacheSpan span5 = createSpan("key", 80, 20, 5);
+    evictor.onSpanAdded(cache, span1);
+    evictor.onSpanAdded(cache, span2);
+    evictor.onSpanAdded(cache, span3);
+    evictor.onSpanAdded(cache, span4);
+    evictor.onSpanAdded(cache, span5);
+    final CacheSpan otherSpan = createSpan("other", 0, 60, 6);
+    // Removing the first span adds another span, which triggers a nested eviction.
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        CacheSpan span = (CacheSpan) invocation.getArguments()[0];
+        removedSpans.add(span);
+        evictor.onSpanRemoved(cache, span);
+        if (span == span1) {
+          evictor.onSpanAdded(cache, otherSpan);
+        }
+        return null;
+      }
+    }).when(cache).removeSpan(any(CacheSpan.class));
+
+    evictor.onStartFile(cache, "key", 100, 80);
+
+    assertThat(removedSpans).containsExactly(span1, span2, span3, span4).inOrder();
+  }
+
+  private static CacheSpan createSpan(
+      String key, long position, long length, long lastAccessTimestamp) {
+    return new CacheSpan(key, position, length, lastAccessTimestamp, new File(key + position));
+  }
+
+}
@@ -20,6 +20,7 @@ import static com.google.android.exoplayer2.util.Util.toByteArray;
 import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.Mockito.doAnswer;
 
+import android.os.SystemClock;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.upstream.cache.Cache.CacheException;
 import com.google.android.exoplayer2.util.Util;
@@ -30,6 +31,8 @@ import java.io.IOException;
 import java.util.NavigableSet;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -49,6 +52,7 @@ import org.robolectric.RuntimeEnvironment;
 public class SimpleCacheTest {
 
   private static final String KEY_1 = "key1";
+  private static final String KEY_2 = "key2";
 
   private File cacheDir;
 
@@ -157,6 +161,166 @@ public class SimpleCacheTest {
     assertCachedDataReadCorrect(cacheSpan2);
   }
 
+  @Test
+  public void testReloadCacheAfterRead() throws Exception {
+    SimpleCache simpleCache = getSimpleCache();
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0);
+    addCache(simpleCache, KEY_1, 0, 15);
+    simpleCache.releaseHoleSpan(holeSpan);
+    // Reading renames the span file, which must be reflected by the span index.
+    CacheSpan readSpan = simpleCache.startReadWrite(KEY_1, 0);
+    simpleCache.flush();
+
+    simpleCache = getSimpleCache();
+
+    NavigableSet<CacheSpan> cachedSpans = simpleCache.getCachedSpans(KEY_1);
+    assertThat(cachedSpans).hasSize(1);
+    assertThat(cachedSpans.first().file).isEqualTo(readSpan.file);
+    assertCachedDataReadCorrect(simpleCache.startReadWrite(KEY_1, 0));
+  }
+
+  @Test
+  public void testReadsDoNotStoreSpanIndexUntilFlushed() throws Exception {
+    SimpleCache simpleCache = getSimpleCache();
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0);
+    addCache(simpleCache, KEY_1, 0, 15);
+    simpleCache.releaseHoleSpan(holeSpan);
+    File spanIndexFile = new File(cacheDir, CachedSpanIndex.FILE_NAME);
+    long spanIndexFileLength = spanIndexFile.length();
+
+    CacheSpan readSpan = simpleCache.startReadWrite(KEY_1, 0);
+    assertThat(spanIndexFile.length()).isEqualTo(spanIndexFileLength);
+    simpleCache.flush();
+    assertThat(spanIndexFile.length()).isGreaterThan(spanIndexFileLength);
+
+    simpleCache = getSimpleCache();
+    assertThat(simpleCache.getCachedSpans(KEY_1).first().file).isEqualTo(readSpan.file);
+  }
+
+  @Test
+  public void testReloadCacheAfterUnstoredReadReconcilesRenamedFile() throws Exception {
+    SimpleCache simpleCache = getSimpleCache();
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0);
+    addCache(simpleCache, KEY_1, 0, 15);
+    simpleCache.releaseHoleSpan(holeSpan);
+    CacheSpan readSpan = simpleCache.startReadWrite(KEY_1, 0);
+
+    // The cache isn't flushed, so the span index refers to the file from before it was renamed.
+    simpleCache = getSimpleCache();
+    simpleCache.blockUntilReconciled();
+
+    NavigableSet<CacheSpan> cachedSpans = simpleCache.getCachedSpans(KEY_1);
+    assertThat(cachedSpans).hasSize(1);
+    assertThat(cachedSpans.first().file).isEqualTo(readSpan.file);
+    assertCachedDataReadCorrect(simpleCache.startReadWrite(KEY_1, 0));
+  }
+
+  @Test
+  public void testReloadCacheAfterUnflushedReadsOfSeveralSpans() throws Exception {
+    SimpleCache simpleCache = getSimpleCache();
+    CacheSpan holeSpan1 = simpleCache.startReadWrite(KEY_1, 0);
+    addCache(simpleCache, KEY_1, 0, 15);
+    addCache(simpleCache, KEY_1, 15, 15);
+    simpleCache.releaseHoleSpan(holeSpan1);
+    CacheSpan holeSpan2 = simpleCache.startReadWrite(KEY_2, 0);
+    addCache(simpleCache, KEY_2, 0, 15);
+    simpleCache.releaseHoleSpan(holeSpan2);
+    CacheSpan readSpan1 = simpleCache.startReadWrite(KEY_1, 0);
+    CacheSpan readSpan2 = simpleCache.startReadWrite(KEY_1, 15);
+    CacheSpan readSpan3 = simpleCache.startReadWrite(KEY_2, 0);
+
+    // The touches aren't flushed, so the span index refers to the files from before they were
+    // renamed.
+    simpleCache = getSimpleCache();
+    simpleCache.blockUntilReconciled();
+
+    NavigableSet<CacheSpan> cachedSpans = simpleCache.getCachedSpans(KEY_1);
+    assertThat(cachedSpans).hasSize(2);
+    assertThat(cachedSpans.first().file).isEqualTo(readSpan1.file);
+    assertThat(cachedSpans.last().file).isEqualTo(readSpan2.file);
+    assertThat(simpleCache.getCachedSpans(KEY_2).first().file).isEqualTo(readSpan3.file);
+    assertThat(simpleCache.getCacheSpace()).isEqualTo(45);
+    assertCachedDataReadCorrect(simpleCache.startReadWrite(KEY_1, 0));
+    assertCachedDataReadCorrect(simpleCache.startReadWrite(KEY_1, 15));
+    assertCachedDataReadCorrect(simpleCache.startReadWrite(KEY_2, 0));
+  }
+
+  @Test
+  public void testReadsStoreSpanIndexAfterMaxPendingOperations() throws Exception {
+    SimpleCache simpleCache = getSimpleCache();
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0);
+    addCache(simpleCache, KEY_1, 0, 15);
+    simpleCache.releaseHoleSpan(holeSpan);
+    File spanIndexFile = new File(cacheDir, CachedSpanIndex.FILE_NAME);
+    long spanIndexFileLength = spanIndexFile.length();
+
+    for (int i = 0; i < SimpleCache.MAX_PENDING_SPAN_INDEX_OPERATIONS - 1; i++) {
+      simpleCache.startReadWrite(KEY_1, 0);
+    }
+    assertThat(spanIndexFile.length()).isEqualTo(spanIndexFileLength);
+    simpleCache.startReadWrite(KEY_1, 0);
+
+    assertThat(spanIndexFile.length()).isNotEqualTo(spanIndexFileLength);
+  }
+
+  @Test
+  public void testReadsStoreSpanIndexAfterMaxInterval() throws Exception {
+    SimpleCache simpleCache = getSimpleCache();
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0);
+    addCache(simpleCache, KEY_1, 0, 15);
+    simpleCache.releaseHoleSpan(holeSpan);
+    File spanIndexFile = new File(cacheDir, CachedSpanIndex.FILE_NAME);
+    long spanIndexFileLength = spanIndexFile.length();
+    simpleCache.startReadWrite(KEY_1, 0);
+    assertThat(spanIndexFile.length()).isEqualTo(spanIndexFileLength);
+
+    SystemClock.setCurrentTimeMillis(
+        SystemClock.elapsedRealtime() + SimpleCache.MAX_SPAN_INDEX_STORE_INTERVAL_MS);
+    simpleCache.startReadWrite(KEY_1, 0);
+
+    assertThat(spanIndexFile.length()).isGreaterThan(spanIndexFileLength);
+  }
+
+  @Test
+  public void testReloadCacheReconcilesCacheDirectory() throws Exception {
+    SimpleCache simpleCache = getSimpleCache();
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0);
+    addCache(simpleCache, KEY_1, 0, 15);
+    addCache(simpleCache, KEY_1, 15, 15);
+    simpleCache.releaseHoleSpan(holeSpan);
+    NavigableSet<CacheSpan> cachedSpans = simpleCache.getCachedSpans(KEY_1);
+
+    // Modify the cache directory without the span index being updated.
+    assertThat(cachedSpans.first().file.delete()).isTrue();
+    String fileName = cachedSpans.last().file.getName();
+    int id = Integer.parseInt(fileName.substring(0, fileName.indexOf('.')));
+    File unknownFile = SimpleCacheSpan.getCacheFile(cacheDir, id, 30, System.currentTimeMillis());
+    FileOutputStream fos = new FileOutputStream(unknownFile);
+    try {
+      fos.write(generateData(KEY_1, 30, 15));
+    } finally {
+      fos.close();
+    }
+    File unrecognizedFile = new File(cacheDir, "unrecognized");
+    assertThat(unrecognizedFile.createNewFile()).isTrue();
+
+    simpleCache = getSimpleCache();
+    simpleCache.blockUntilReconciled();
+
+    cachedSpans = simpleCache.getCachedSpans(KEY_1);
+    assertThat(cachedSpans).hasSize(2);
+    assertThat(cachedSpans.first().position).isEqualTo(15);
+    assertThat(cachedSpans.last().position).isEqualTo(30);
+    assertThat(simpleCache.getCacheSpace()).isEqualTo(30);
+    assertThat(unrecognizedFile.exists()).isFalse();
+    assertCachedDataReadCorrect(simpleCache.startReadWrite(KEY_1, 30));
+
+    // The reconciled spans are stored in the span index.
+    simpleCache = getSimpleCache();
+    assertThat(simpleCache.getCachedSpans(KEY_1)).hasSize(2);
+    assertThat(simpleCache.getCacheSpace()).isEqualTo(30);
+  }
+
   @Test
   public void testEncryptedIndex() throws Exception {
     byte[] key = "Bar12345Bar12345".getBytes(C.UTF8_NAME); // 128 bit key
@@ -283,6 +447,97 @@ public class SimpleCacheTest {
     assertThat(cachedSpans.pollFirst().position).isEqualTo(15);
   }
 
+  @Test
+  public void testConcurrentReadWriteOnDifferentKeys() throws Exception {
+    final int threadCount = 8;
+    final int spansPerThread = 20;
+    final int spanLength = 10;
+    final long maxBytes = threadCount * spanLength * 5;
+    final SimpleCache simpleCache =
+        new SimpleCache(cacheDir, new LeastRecentlyUsedCacheEvictor(maxBytes));
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    Thread[] threads = new Thread[threadCount];
+    for (int i = 0; i < threadCount; i++) {
+      final String key = "key" + i;
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            startLatch.await();
+            for (int j = 0; j < spansPerThread; j++) {
+              int position = j * spanLength;
+              CacheSpan holeSpan = simpleCache.startReadWrite(key, position);
+              assertThat(holeSpan.isCached).isFalse();
+              addCache(simpleCache, key, position, spanLength);
+              simpleCache.releaseHoleSpan(holeSpan);
+              // Read back the span, unless the evictor has already removed it. Reads don't lock
+              // the span, so its file may be evicted at any time and isn't checked here.
+              CacheSpan readSpan = simpleCache.startReadWriteNonBlocking(key, position);
+              if (readSpan != null && readSpan.isCached) {
+                assertThat(readSpan.position).isEqualTo(position);
+                assertThat(readSpan.length).isEqualTo(spanLength);
+              } else if (readSpan != null) {
+                simpleCache.releaseHoleSpan(readSpan);
+              }
+            }
+          } catch (Throwable e) {
+            error.compareAndSet(null, e);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    startLatch.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    if (error.get() != null) {
+      throw new AssertionError(error.get());
+    }
+
+    long cachedBytes = 0;
+    for (String key : simpleCache.getKeys()) {
+      for (CacheSpan span : simpleCache.getCachedSpans(key)) {
+        assertThat(span.file.exists()).isTrue();
+        cachedBytes += span.length;
+      }
+    }
+    assertThat(simpleCache.getCacheSpace()).isEqualTo(cachedBytes);
+    assertThat(cachedBytes).isAtMost(maxBytes);
+  }
+
+  @Test
+  public void testStartReadWriteBlocksUntilHoleSpanReleased() throws Exception {
+    final SimpleCache simpleCache = getSimpleCache();
+    CacheSpan holeSpan = simpleCache.startReadWrite(KEY_1, 0);
+    final AtomicReference<CacheSpan> blockedSpan = new AtomicReference<>();
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          blockedSpan.set(simpleCache.startReadWrite(KEY_1, 0));
+        } catch (Exception e) {
+          // Leave blockedSpan unset.
+        }
+      }
+    };
+    thread.start();
+    // Operations on other keys can proceed whilst the writer is blocked.
+    CacheSpan otherHoleSpan = simpleCache.startReadWrite(KEY_2, 0);
+    addCache(simpleCache, KEY_2, 0, 15);
+    simpleCache.releaseHoleSpan(otherHoleSpan);
+    assertThat(blockedSpan.get()).isNull();
+
+    addCache(simpleCache, KEY_1, 0, 15);
+    simpleCache.releaseHoleSpan(holeSpan);
+    thread.join();
+
+    // The blocked caller is woken up by the commit and reads the committed span.
+    assertThat(blockedSpan.get()).isNotNull();
+    assertCachedDataReadCorrect(blockedSpan.get());
+  }
+
   private SimpleCache getSimpleCache() {
     return new SimpleCache(cacheDir, new NoOpCacheEvictor());
   }
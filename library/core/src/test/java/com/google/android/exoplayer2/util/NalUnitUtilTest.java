@@ -18,11 +18,15 @@ package com.google.android.exoplayer2.util;
 import static com.google.android.exoplayer2.testutil.TestUtil.createByteArray;
 import static com.google.common.truth.Truth.assertThat;
 
+import com.google.android.exoplayer2.testutil.TestUtil;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
 
 /**
  * Tests for {@link NalUnitUtil}.
@@ -122,6 +126,23 @@ public final class NalUnitUtilTest {
     assertPrefixFlagsCleared(prefixFlags);
   }
 
+  @Test
+  public void testFindNalUnitInStreamSplitIntoChunks() throws Exception {
+    byte[] data = TestUtil.getByteArray(RuntimeEnvironment.application, "ts/sample.ts");
+    List<Integer> expectedPositions = new ArrayList<>();
+    for (int i = 0; i + 2 < data.length; i++) {
+      if (data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 1) {
+        expectedPositions.add(i);
+      }
+    }
+    assertThat(expectedPositions).isNotEmpty();
+
+    int[] chunkLengths = new int[] {1, 2, 3, 4, 5, 7, 184, 4096, data.length};
+    for (int chunkLength : chunkLengths) {
+      assertThat(findNalUnitsInChunks(data, chunkLength)).isEqualTo(expectedPositions);
+    }
+  }
+
   @Test
   public void testParseSpsNalUnit() {
     NalUnitUtil.SpsData data = NalUnitUtil.parseSpsNalUnit(SPS_TEST_DATA, SPS_TEST_DATA_OFFSET,
@@ -185,6 +206,30 @@ public final class NalUnitUtilTest {
     return data;
   }
 
+  /**
+   * Returns the positions of the NAL units in {@code data}, found by passing it to {@link
+   * NalUnitUtil#findNalUnit(byte[], int, int, boolean[])} in chunks the way the elementary stream
+   * readers do.
+   */
+  private static List<Integer> findNalUnitsInChunks(byte[] data, int chunkLength) {
+    List<Integer> positions = new ArrayList<>();
+    boolean[] prefixFlags = new boolean[3];
+    for (int chunkStart = 0; chunkStart < data.length; chunkStart += chunkLength) {
+      byte[] chunk =
+          Arrays.copyOfRange(data, chunkStart, Math.min(chunkStart + chunkLength, data.length));
+      int offset = 0;
+      while (offset < chunk.length) {
+        int nalUnitOffset = NalUnitUtil.findNalUnit(chunk, offset, chunk.length, prefixFlags);
+        if (nalUnitOffset == chunk.length) {
+          break;
+        }
+        positions.add(chunkStart + nalUnitOffset);
+        offset = nalUnitOffset + 3;
+      }
+    }
+    return positions;
+  }
+
   private static void assertPrefixFlagsCleared(boolean[] flags) {
     assertThat(flags[0] || flags[1] || flags[2]).isEqualTo(false);
   }
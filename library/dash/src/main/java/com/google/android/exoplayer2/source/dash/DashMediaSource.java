@@ -129,7 +129,8 @@ public final class DashMediaSource implements MediaSource {
     }
 
     /**
-     * Sets the manifest parser to parse loaded manifest data when loading a manifest URI.
+     * Sets the manifest parser to parse loaded manifest data when loading a manifest URI. The
+     * default is an incremental {@link DashManifestParser}, which is created for each source.
      *
      * @param manifestParser A parser for loaded manifest data.
      * @return This factory, for convenience.
@@ -215,14 +216,12 @@ public final class DashMediaSource implements MediaSource {
         @Nullable Handler eventHandler,
         @Nullable MediaSourceEventListener eventListener) {
       isCreateCalled = true;
-      if (manifestParser == null) {
-        manifestParser = new DashManifestParser();
-      }
       return new DashMediaSource(
           null,
           Assertions.checkNotNull(manifestUri),
           manifestDataSourceFactory,
-          manifestParser,
+          // Each source has its own default parser, so that refreshes can be parsed incrementally.
+          manifestParser != null ? manifestParser : new DashManifestParser(null, true),
           chunkSourceFactory,
           compositeSequenceableLoaderFactory,
           minLoadableRetryCount,
@@ -395,8 +394,9 @@ public final class DashMediaSource implements MediaSource {
       long livePresentationDelayMs,
       Handler eventHandler,
       MediaSourceEventListener eventListener) {
-    this(manifestUri, manifestDataSourceFactory, new DashManifestParser(), chunkSourceFactory,
-        minLoadableRetryCount, livePresentationDelayMs, eventHandler, eventListener);
+    this(manifestUri, manifestDataSourceFactory, new DashManifestParser(null, true),
+        chunkSourceFactory, minLoadableRetryCount, livePresentationDelayMs, eventHandler,
+        eventListener);
   }
 
   /**
@@ -29,13 +29,17 @@ import com.google.android.exoplayer2.extractor.mkv.MatroskaExtractor;
 import com.google.android.exoplayer2.extractor.mp4.FragmentedMp4Extractor;
 import com.google.android.exoplayer2.extractor.rawcc.RawCcExtractor;
 import com.google.android.exoplayer2.source.BehindLiveWindowException;
+import com.google.android.exoplayer2.source.chunk.BaseMediaChunkIterator;
 import com.google.android.exoplayer2.source.chunk.Chunk;
 import com.google.android.exoplayer2.source.chunk.ChunkExtractorWrapper;
 import com.google.android.exoplayer2.source.chunk.ChunkHolder;
+import com.google.android.exoplayer2.source.chunk.ChunkPrefetcher;
 import com.google.android.exoplayer2.source.chunk.ChunkedTrackBlacklistUtil;
 import com.google.android.exoplayer2.source.chunk.ContainerMediaChunk;
 import com.google.android.exoplayer2.source.chunk.InitializationChunk;
+import com.google.android.exoplayer2.source.chunk.LazyMediaChunkIterator;
 import com.google.android.exoplayer2.source.chunk.MediaChunk;
+import com.google.android.exoplayer2.source.chunk.MediaChunkIterator;
 import com.google.android.exoplayer2.source.chunk.SingleSampleMediaChunk;
 import com.google.android.exoplayer2.source.dash.PlayerEmsgHandler.PlayerTrackEmsgHandler;
 import com.google.android.exoplayer2.source.dash.manifest.AdaptationSet;
@@ -63,14 +67,30 @@ public class DefaultDashChunkSource implements DashChunkSource {
 
     private final DataSource.Factory dataSourceFactory;
     private final int maxSegmentsPerLoad;
+    private final int maxParallelSegmentLoads;
 
     public Factory(DataSource.Factory dataSourceFactory) {
       this(dataSourceFactory, 1);
     }
 
     public Factory(DataSource.Factory dataSourceFactory, int maxSegmentsPerLoad) {
+      this(dataSourceFactory, maxSegmentsPerLoad, 1);
+    }
+
+    /**
+     * @param dataSourceFactory A factory for {@link DataSource}s suitable for loading the media
+     *     data.
+     * @param maxSegmentsPerLoad The maximum number of segments to combine into a single request.
+     * @param maxParallelSegmentLoads The maximum number of media segment requests of each chunk
+     *     source that are in flight at the same time. If greater than one, the data of the
+     *     segments following the one that's being loaded is prefetched using a {@link
+     *     ChunkPrefetcher}.
+     */
+    public Factory(DataSource.Factory dataSourceFactory, int maxSegmentsPerLoad,
+        int maxParallelSegmentLoads) {
       this.dataSourceFactory = dataSourceFactory;
       this.maxSegmentsPerLoad = maxSegmentsPerLoad;
+      this.maxParallelSegmentLoads = maxParallelSegmentLoads;
     }
 
     @Override
@@ -86,6 +106,8 @@ public class DefaultDashChunkSource implements DashChunkSource {
         boolean enableCea608Track,
         @Nullable PlayerTrackEmsgHandler playerEmsgHandler) {
       DataSource dataSource = dataSourceFactory.createDataSource();
+      ChunkPrefetcher chunkPrefetcher = maxParallelSegmentLoads > 1
+          ? new ChunkPrefetcher(dataSourceFactory, maxParallelSegmentLoads - 1) : null;
       return new DefaultDashChunkSource(
           manifestLoaderErrorThrower,
           manifest,
@@ -98,7 +120,8 @@ public class DefaultDashChunkSource implements DashChunkSource {
           maxSegmentsPerLoad,
           enableEventMessageTrack,
           enableCea608Track,
-          playerEmsgHandler);
+          playerEmsgHandler,
+          chunkPrefetcher);
     }
 
   }
@@ -111,6 +134,7 @@ public class DefaultDashChunkSource implements DashChunkSource {
   private final long elapsedRealtimeOffsetMs;
   private final int maxSegmentsPerLoad;
   @Nullable private final PlayerTrackEmsgHandler playerTrackEmsgHandler;
+  @Nullable private final ChunkPrefetcher chunkPrefetcher;
 
   protected final RepresentationHolder[] representationHolders;
 
@@ -153,16 +177,59 @@ public class DefaultDashChunkSource implements DashChunkSource {
       boolean enableEventMessageTrack,
       boolean enableCea608Track,
       @Nullable PlayerTrackEmsgHandler playerTrackEmsgHandler) {
+    this(manifestLoaderErrorThrower, manifest, periodIndex, adaptationSetIndices, trackSelection,
+        trackType, dataSource, elapsedRealtimeOffsetMs, maxSegmentsPerLoad,
+        enableEventMessageTrack, enableCea608Track, playerTrackEmsgHandler, null);
+  }
+
+  /**
+   * @param manifestLoaderErrorThrower Throws errors affecting loading of manifests.
+   * @param manifest The initial manifest.
+   * @param periodIndex The index of the period in the manifest.
+   * @param adaptationSetIndices The indices of the adaptation sets in the period.
+   * @param trackSelection The track selection.
+   * @param trackType The type of the tracks in the selection.
+   * @param dataSource A {@link DataSource} suitable for loading the media data.
+   * @param elapsedRealtimeOffsetMs If known, an estimate of the instantaneous difference between
+   *     server-side unix time and {@link SystemClock#elapsedRealtime()} in milliseconds, specified
+   *     as the server's unix time minus the local elapsed time. If unknown, set to 0.
+   * @param maxSegmentsPerLoad The maximum number of segments to combine into a single request. Note
+   *     that segments will only be combined if their {@link Uri}s are the same and if their data
+   *     ranges are adjacent.
+   * @param enableEventMessageTrack Whether the chunks generated by the source may output an event
+   *     message track.
+   * @param enableCea608Track Whether the chunks generated by the source may output a CEA-608 track.
+   * @param playerTrackEmsgHandler The {@link PlayerTrackEmsgHandler} instance to handle emsg
+   *     messages targeting the player. Maybe null if this is not necessary.
+   * @param chunkPrefetcher A {@link ChunkPrefetcher} for the data of the media segments that
+   *     follow the one being loaded. May be null if segments should be loaded one at a time.
+   */
+  public DefaultDashChunkSource(
+      LoaderErrorThrower manifestLoaderErrorThrower,
+      DashManifest manifest,
+      int periodIndex,
+      int[] adaptationSetIndices,
+      TrackSelection trackSelection,
+      int trackType,
+      DataSource dataSource,
+      long elapsedRealtimeOffsetMs,
+      int maxSegmentsPerLoad,
+      boolean enableEventMessageTrack,
+      boolean enableCea608Track,
+      @Nullable PlayerTrackEmsgHandler playerTrackEmsgHandler,
+      @Nullable ChunkPrefetcher chunkPrefetcher) {
     this.manifestLoaderErrorThrower = manifestLoaderErrorThrower;
     this.manifest = manifest;
     this.adaptationSetIndices = adaptationSetIndices;
     this.trackSelection = trackSelection;
     this.trackType = trackType;
-    this.dataSource = dataSource;
+    this.dataSource =
+        chunkPrefetcher != null ? chunkPrefetcher.createDataSource(dataSource) : dataSource;
     this.periodIndex = periodIndex;
     this.elapsedRealtimeOffsetMs = elapsedRealtimeOffsetMs;
     this.maxSegmentsPerLoad = maxSegmentsPerLoad;
     this.playerTrackEmsgHandler = playerTrackEmsgHandler;
+    this.chunkPrefetcher = chunkPrefetcher;
 
     long periodDurationUs = manifest.getPeriodDurationUs(periodIndex);
     liveEdgeTimeUs = C.TIME_UNSET;
@@ -234,12 +301,18 @@ public class DefaultDashChunkSource implements DashChunkSource {
   }
 
   @Override
-  public void getNextChunk(MediaChunk previous, long playbackPositionUs, long loadPositionUs,
-      ChunkHolder out) {
+  public void getNextChunk(final MediaChunk previous, long playbackPositionUs,
+      final long loadPositionUs, ChunkHolder out) {
     if (fatalError != null) {
       return;
     }
 
+    if (previous == null && chunkPrefetcher != null) {
+      // Loading starts from a new position, for example after a seek, so the prefetched chunks
+      // won't be read.
+      chunkPrefetcher.clear();
+    }
+
     long bufferedDurationUs = loadPositionUs - playbackPositionUs;
     long timeToLiveEdgeUs = resolveTimeToLiveEdgeUs(playbackPositionUs);
     long presentationPositionUs =
@@ -253,7 +326,27 @@ public class DefaultDashChunkSource implements DashChunkSource {
       return;
     }
 
-    trackSelection.updateSelectedTrack(playbackPositionUs, bufferedDurationUs, timeToLiveEdgeUs);
+    final long nowUnixTimeUs = getNowUnixTimeUs();
+    MediaChunkIterator[] chunkIterators = new MediaChunkIterator[trackSelection.length()];
+    for (int i = 0; i < chunkIterators.length; i++) {
+      final RepresentationHolder representationHolder = representationHolders[i];
+      if (representationHolder.segmentIndex == null) {
+        chunkIterators[i] = MediaChunkIterator.EMPTY;
+      } else {
+        // Most track selections don't look ahead at chunks, so only look up the segments if the
+        // iterator is used.
+        chunkIterators[i] = new LazyMediaChunkIterator() {
+          @Override
+          protected MediaChunkIterator createIterator() {
+            return newRepresentationSegmentIterator(
+                representationHolder, previous, loadPositionUs, nowUnixTimeUs);
+          }
+        };
+      }
+    }
+
+    trackSelection.updateSelectedTrack(
+        playbackPositionUs, bufferedDurationUs, timeToLiveEdgeUs, chunkIterators);
 
     RepresentationHolder representationHolder =
         representationHolders[trackSelection.getSelectedIndex()];
@@ -284,39 +377,24 @@ public class DefaultDashChunkSource implements DashChunkSource {
       return;
     }
 
-    long firstAvailableSegmentNum = representationHolder.getFirstSegmentNum();
-    long lastAvailableSegmentNum;
-    if (availableSegmentCount == DashSegmentIndex.INDEX_UNBOUNDED) {
-      // The index is itself unbounded. We need to use the current time to calculate the range of
-      // available segments.
-      long liveEdgeTimeUs = getNowUnixTimeUs() - C.msToUs(manifest.availabilityStartTimeMs);
-      long periodStartUs = C.msToUs(manifest.getPeriod(periodIndex).startMs);
-      long liveEdgeTimeInPeriodUs = liveEdgeTimeUs - periodStartUs;
-      if (manifest.timeShiftBufferDepthMs != C.TIME_UNSET) {
-        long bufferDepthUs = C.msToUs(manifest.timeShiftBufferDepthMs);
-        firstAvailableSegmentNum = Math.max(firstAvailableSegmentNum,
-            representationHolder.getSegmentNum(liveEdgeTimeInPeriodUs - bufferDepthUs));
-      }
-      // getSegmentNum(liveEdgeTimeInPeriodUs) will not be completed yet, so subtract one to get the
-      // index of the last completed segment.
-      lastAvailableSegmentNum = representationHolder.getSegmentNum(liveEdgeTimeInPeriodUs) - 1;
-    } else {
-      lastAvailableSegmentNum = firstAvailableSegmentNum + availableSegmentCount - 1;
-    }
+    long firstAvailableSegmentNum =
+        representationHolder.getFirstAvailableSegmentNum(manifest, periodIndex, nowUnixTimeUs);
+    long lastAvailableSegmentNum =
+        representationHolder.getLastAvailableSegmentNum(manifest, periodIndex, nowUnixTimeUs);
 
     updateLiveEdgeTimeUs(representationHolder, lastAvailableSegmentNum);
 
-    long segmentNum;
-    if (previous == null) {
-      segmentNum = Util.constrainValue(representationHolder.getSegmentNum(loadPositionUs),
-          firstAvailableSegmentNum, lastAvailableSegmentNum);
-    } else {
-      segmentNum = previous.getNextChunkIndex();
-      if (segmentNum < firstAvailableSegmentNum) {
-        // This is before the first chunk in the current manifest.
-        fatalError = new BehindLiveWindowException();
-        return;
-      }
+    long segmentNum =
+        getSegmentNum(
+            representationHolder,
+            previous,
+            loadPositionUs,
+            firstAvailableSegmentNum,
+            lastAvailableSegmentNum);
+    if (segmentNum < firstAvailableSegmentNum) {
+      // This is before the first chunk in the current manifest.
+      fatalError = new BehindLiveWindowException();
+      return;
     }
 
     if (segmentNum > lastAvailableSegmentNum
@@ -331,6 +409,13 @@ public class DefaultDashChunkSource implements DashChunkSource {
     out.chunk = newMediaChunk(representationHolder, dataSource, trackType,
         trackSelection.getSelectedFormat(), trackSelection.getSelectionReason(),
         trackSelection.getSelectionData(), segmentNum, maxSegmentCount);
+    if (chunkPrefetcher != null) {
+      if (missingLastSegment) {
+        lastAvailableSegmentNum--;
+      }
+      prefetchFollowingChunks(representationHolder, (MediaChunk) out.chunk,
+          lastAvailableSegmentNum);
+    }
   }
 
   @Override
@@ -354,6 +439,13 @@ public class DefaultDashChunkSource implements DashChunkSource {
     }
   }
 
+  @Override
+  public void release() {
+    if (chunkPrefetcher != null) {
+      chunkPrefetcher.clear();
+    }
+  }
+
   @Override
   public boolean onChunkLoadError(Chunk chunk, boolean cancelable, Exception e) {
     if (!cancelable) {
@@ -394,6 +486,61 @@ public class DefaultDashChunkSource implements DashChunkSource {
     return representations;
   }
 
+  /**
+   * Prefetches the chunks that will follow a media chunk if the selected track doesn't change.
+   */
+  private void prefetchFollowingChunks(RepresentationHolder representationHolder,
+      MediaChunk chunk, long lastAvailableSegmentNum) {
+    long segmentNum = chunk.getNextChunkIndex();
+    for (int i = 0; i < chunkPrefetcher.getMaxPrefetchCount()
+        && segmentNum <= lastAvailableSegmentNum; i++) {
+      int maxSegmentCount =
+          (int) Math.min(maxSegmentsPerLoad, lastAvailableSegmentNum - segmentNum + 1);
+      MediaChunk nextChunk = (MediaChunk) newMediaChunk(representationHolder, dataSource,
+          trackType, trackSelection.getSelectedFormat(), trackSelection.getSelectionReason(),
+          trackSelection.getSelectionData(), segmentNum, maxSegmentCount);
+      chunkPrefetcher.prefetch(nextChunk.dataSpec);
+      segmentNum = nextChunk.getNextChunkIndex();
+    }
+  }
+
+  private MediaChunkIterator newRepresentationSegmentIterator(
+      RepresentationHolder representationHolder,
+      MediaChunk previous,
+      long loadPositionUs,
+      long nowUnixTimeUs) {
+    long firstAvailableSegmentNum =
+        representationHolder.getFirstAvailableSegmentNum(manifest, periodIndex, nowUnixTimeUs);
+    long lastAvailableSegmentNum =
+        representationHolder.getLastAvailableSegmentNum(manifest, periodIndex, nowUnixTimeUs);
+    long segmentNum =
+        getSegmentNum(
+            representationHolder,
+            previous,
+            loadPositionUs,
+            firstAvailableSegmentNum,
+            lastAvailableSegmentNum);
+    if (segmentNum < firstAvailableSegmentNum) {
+      return MediaChunkIterator.EMPTY;
+    }
+    return new RepresentationSegmentIterator(
+        representationHolder, segmentNum, lastAvailableSegmentNum);
+  }
+
+  private long getSegmentNum(
+      RepresentationHolder representationHolder,
+      MediaChunk previousChunk,
+      long loadPositionUs,
+      long firstAvailableSegmentNum,
+      long lastAvailableSegmentNum) {
+    return previousChunk != null
+        ? previousChunk.getNextChunkIndex()
+        : Util.constrainValue(
+            representationHolder.getSegmentNum(loadPositionUs),
+            firstAvailableSegmentNum,
+            lastAvailableSegmentNum);
+  }
+
   private void updateLiveEdgeTimeUs(
       RepresentationHolder representationHolder, long lastAvailableSegmentNum) {
     liveEdgeTimeUs = manifest.dynamic
@@ -598,6 +745,39 @@ public class DefaultDashChunkSource implements DashChunkSource {
       return segmentIndex.getSegmentUrl(segmentNum - segmentNumShift);
     }
 
+    public long getFirstAvailableSegmentNum(
+        DashManifest manifest, int periodIndex, long nowUnixTimeUs) {
+      if (getSegmentCount() == DashSegmentIndex.INDEX_UNBOUNDED
+          && manifest.timeShiftBufferDepthMs != C.TIME_UNSET) {
+        // The index is itself unbounded. We need to use the current time to calculate the range of
+        // available segments.
+        long liveEdgeTimeInPeriodUs = getLiveEdgeTimeInPeriodUs(manifest, periodIndex,
+            nowUnixTimeUs);
+        long bufferDepthUs = C.msToUs(manifest.timeShiftBufferDepthMs);
+        return Math.max(
+            getFirstSegmentNum(), getSegmentNum(liveEdgeTimeInPeriodUs - bufferDepthUs));
+      }
+      return getFirstSegmentNum();
+    }
+
+    public long getLastAvailableSegmentNum(
+        DashManifest manifest, int periodIndex, long nowUnixTimeUs) {
+      int availableSegmentCount = getSegmentCount();
+      if (availableSegmentCount == DashSegmentIndex.INDEX_UNBOUNDED) {
+        // getSegmentNum(liveEdgeTimeInPeriodUs) will not be completed yet, so subtract one to get
+        // the index of the last completed segment.
+        return getSegmentNum(getLiveEdgeTimeInPeriodUs(manifest, periodIndex, nowUnixTimeUs)) - 1;
+      }
+      return getFirstSegmentNum() + availableSegmentCount - 1;
+    }
+
+    private static long getLiveEdgeTimeInPeriodUs(
+        DashManifest manifest, int periodIndex, long nowUnixTimeUs) {
+      long liveEdgeTimeUs = nowUnixTimeUs - C.msToUs(manifest.availabilityStartTimeMs);
+      long periodStartUs = C.msToUs(manifest.getPeriod(periodIndex).startMs);
+      return liveEdgeTimeUs - periodStartUs;
+    }
+
     private static boolean mimeTypeIsWebm(String mimeType) {
       return mimeType.startsWith(MimeTypes.VIDEO_WEBM) || mimeType.startsWith(MimeTypes.AUDIO_WEBM)
           || mimeType.startsWith(MimeTypes.APPLICATION_WEBM);
@@ -607,4 +787,42 @@ public class DefaultDashChunkSource implements DashChunkSource {
       return MimeTypes.isText(mimeType) || MimeTypes.APPLICATION_TTML.equals(mimeType);
     }
   }
+
+  /** {@link MediaChunkIterator} wrapping a {@link RepresentationHolder}. */
+  protected static final class RepresentationSegmentIterator extends BaseMediaChunkIterator {
+
+    private final RepresentationHolder representationHolder;
+
+    /**
+     * @param representationHolder The {@link RepresentationHolder} to wrap.
+     * @param firstSegmentNum The number of the first segment to iterate over.
+     * @param lastAvailableSegmentNum The number of the last available segment.
+     */
+    public RepresentationSegmentIterator(RepresentationHolder representationHolder,
+        long firstSegmentNum, long lastAvailableSegmentNum) {
+      super(/* fromIndex= */ firstSegmentNum, /* toIndex= */ lastAvailableSegmentNum);
+      this.representationHolder = representationHolder;
+    }
+
+    @Override
+    public DataSpec getDataSpec() {
+      checkInBounds();
+      Representation representation = representationHolder.representation;
+      RangedUri segmentUri = representationHolder.getSegmentUrl(getCurrentIndex());
+      return new DataSpec(segmentUri.resolveUri(representation.baseUrl), segmentUri.start,
+          segmentUri.length, representation.getCacheKey());
+    }
+
+    @Override
+    public long getChunkStartTimeUs() {
+      checkInBounds();
+      return representationHolder.getSegmentStartTimeUs(getCurrentIndex());
+    }
+
+    @Override
+    public long getChunkEndTimeUs() {
+      checkInBounds();
+      return representationHolder.getSegmentEndTimeUs(getCurrentIndex());
+    }
+  }
 }
@@ -28,6 +28,7 @@ import com.google.android.exoplayer2.drm.DrmInitData;
 import com.google.android.exoplayer2.drm.DrmInitData.SchemeData;
 import com.google.android.exoplayer2.extractor.mp4.PsshAtomUtil;
 import com.google.android.exoplayer2.metadata.emsg.EventMessage;
+import com.google.android.exoplayer2.source.dash.manifest.SegmentBase.MultiSegmentBase;
 import com.google.android.exoplayer2.source.dash.manifest.SegmentBase.SegmentList;
 import com.google.android.exoplayer2.source.dash.manifest.SegmentBase.SegmentTemplate;
 import com.google.android.exoplayer2.source.dash.manifest.SegmentBase.SegmentTimelineElement;
@@ -54,6 +55,17 @@ import org.xmlpull.v1.XmlSerializer;
 
 /**
  * A parser of media presentation description files.
+ *
+ * <p>Segment timelines are parsed into compact {@link SegmentTimeline}s, and a timeline that's
+ * equal to the one parsed before it in the same manifest (e.g. when every representation of an
+ * adaptation set repeats the same timeline) is shared rather than duplicated. An instance can
+ * optionally parse incrementally, in which case each segment timeline shares the runs of segments
+ * it has in common with the corresponding timeline of the manifest parsed previously, and only the
+ * runs that follow them are stored. Segment bases and representations that are unchanged since
+ * the previous manifest are reused. This reduces the allocations made and the memory retained
+ * when refreshing the manifests of live streams, whose windows mostly overlap between refreshes.
+ * Incremental parsing is most effective if an instance is used to parse successive manifests of a
+ * single stream.
  */
 public class DashManifestParser extends DefaultHandler
     implements ParsingLoadable.Parser<DashManifest> {
@@ -68,6 +80,12 @@ public class DashManifestParser extends DefaultHandler
 
   private final String contentId;
   private final XmlPullParserFactory xmlParserFactory;
+  private final boolean incremental;
+
+  // The reusable elements of the previous and current manifests. The previous elements are only
+  // retained if parsing incrementally. Guarded by this instance's lock.
+  private ReusableElements previousElements;
+  private ReusableElements elements;
 
   /**
    * Equivalent to calling {@code new DashManifestParser(null)}.
@@ -80,7 +98,18 @@ public class DashManifestParser extends DefaultHandler
    * @param contentId An optional content identifier to include in the parsed manifest.
    */
   public DashManifestParser(String contentId) {
+    this(contentId, false);
+  }
+
+  /**
+   * @param contentId An optional content identifier to include in the parsed manifest.
+   * @param incremental Whether to parse incrementally, sharing the segments that the segment
+   *     timelines have in common with those of the previously parsed manifest, and reusing its
+   *     segment bases and representations where they're unchanged.
+   */
+  public DashManifestParser(String contentId, boolean incremental) {
     this.contentId = contentId;
+    this.incremental = incremental;
     try {
       xmlParserFactory = XmlPullParserFactory.newInstance();
     } catch (XmlPullParserException e) {
@@ -91,7 +120,20 @@ public class DashManifestParser extends DefaultHandler
   // MPD parsing.
 
   @Override
-  public DashManifest parse(Uri uri, InputStream inputStream) throws IOException {
+  public synchronized DashManifest parse(Uri uri, InputStream inputStream) throws IOException {
+    elements = new ReusableElements();
+    try {
+      DashManifest manifest = parseInternal(uri, inputStream);
+      if (incremental) {
+        previousElements = elements;
+      }
+      return manifest;
+    } finally {
+      elements = null;
+    }
+  }
+
+  private DashManifest parseInternal(Uri uri, InputStream inputStream) throws IOException {
     try {
       XmlPullParser xpp = xmlParserFactory.newPullParser();
       xpp.setInput(inputStream, null);
@@ -305,8 +347,10 @@ public class DashManifestParser extends DefaultHandler
     // Build the representations.
     List<Representation> representations = new ArrayList<>(representationInfos.size());
     for (int i = 0; i < representationInfos.size(); i++) {
-      representations.add(buildRepresentation(representationInfos.get(i), contentId,
-          drmSchemeType, drmSchemeDatas, inbandEventStreams));
+      RepresentationInfo representationInfo = representationInfos.get(i);
+      representations.add(getSharedRepresentation(representationInfo.segmentBase,
+          buildRepresentation(representationInfo, contentId, drmSchemeType, drmSchemeDatas,
+              inbandEventStreams)));
     }
 
     return buildAdaptationSet(id, contentType, representations, accessibilityDescriptors,
@@ -502,7 +546,7 @@ public class DashManifestParser extends DefaultHandler
     Format format = buildFormat(id, mimeType, width, height, frameRate, audioChannels,
         audioSamplingRate, bandwidth, adaptationSetLanguage, adaptationSetSelectionFlags,
         adaptationSetAccessibilityDescriptors, codecs, supplementalProperties);
-    segmentBase = segmentBase != null ? segmentBase : new SingleSegmentBase();
+    segmentBase = segmentBase != null ? segmentBase : getSharedSegmentBase(new SingleSegmentBase());
 
     return new RepresentationInfo(format, baseUrl, segmentBase, drmSchemeType, drmSchemeDatas,
         inbandEventStreams, Representation.REVISION_ID_DEFAULT);
@@ -585,8 +629,8 @@ public class DashManifestParser extends DefaultHandler
       }
     } while (!XmlPullParserUtil.isEndTag(xpp, "SegmentBase"));
 
-    return buildSingleSegmentBase(initialization, timescale, presentationTimeOffset, indexStart,
-        indexLength);
+    return getSharedSegmentBase(buildSingleSegmentBase(initialization, timescale,
+        presentationTimeOffset, indexStart, indexLength));
   }
 
   protected SingleSegmentBase buildSingleSegmentBase(RangedUri initialization, long timescale,
@@ -628,8 +672,8 @@ public class DashManifestParser extends DefaultHandler
       segments = segments != null ? segments : parent.mediaSegments;
     }
 
-    return buildSegmentList(initialization, timescale, presentationTimeOffset,
-        startNumber, duration, timeline, segments);
+    return getSharedSegmentBase(buildSegmentList(initialization, timescale,
+        presentationTimeOffset, startNumber, duration, timeline, segments));
   }
 
   protected SegmentList buildSegmentList(
@@ -673,8 +717,9 @@ public class DashManifestParser extends DefaultHandler
       timeline = timeline != null ? timeline : parent.segmentTimeline;
     }
 
-    return buildSegmentTemplate(initialization, timescale, presentationTimeOffset,
-        startNumber, duration, timeline, initializationTemplate, mediaTemplate);
+    return getSharedSegmentBase(buildSegmentTemplate(initialization, timescale,
+        presentationTimeOffset, startNumber, duration, timeline, initializationTemplate,
+        mediaTemplate));
   }
 
   protected SegmentTemplate buildSegmentTemplate(
@@ -827,7 +872,7 @@ public class DashManifestParser extends DefaultHandler
 
   protected List<SegmentTimelineElement> parseSegmentTimeline(XmlPullParser xpp)
       throws XmlPullParserException, IOException {
-    List<SegmentTimelineElement> segmentTimeline = new ArrayList<>();
+    SegmentTimeline.Builder builder = new SegmentTimeline.Builder(getBaseSegmentTimeline());
     long elapsedTime = 0;
     do {
       xpp.next();
@@ -835,17 +880,92 @@ public class DashManifestParser extends DefaultHandler
         elapsedTime = parseLong(xpp, "t", elapsedTime);
         long duration = parseLong(xpp, "d", C.TIME_UNSET);
         int count = 1 + parseInt(xpp, "r", 0);
-        for (int i = 0; i < count; i++) {
-          segmentTimeline.add(buildSegmentTimelineElement(elapsedTime, duration));
-          elapsedTime += duration;
+        builder.add(elapsedTime, duration, count);
+        if (count > 0) {
+          elapsedTime += count * duration;
         }
       }
     } while (!XmlPullParserUtil.isEndTag(xpp, "SegmentTimeline"));
+    SegmentTimeline segmentTimeline = builder.build();
+    if (elements != null) {
+      elements.segmentTimelines.add(segmentTimeline);
+    }
     return segmentTimeline;
   }
 
-  protected SegmentTimelineElement buildSegmentTimelineElement(long elapsedTime, long duration) {
-    return new SegmentTimelineElement(elapsedTime, duration);
+  /**
+   * Returns the timeline whose runs the next segment timeline should share where they match, or
+   * null if there isn't one. This is the corresponding timeline in the previous manifest if parsing
+   * incrementally, where timelines correspond if they're at the same position in document order.
+   * If the previous manifest's timeline was shared with the timeline before it, or if there's no
+   * previous manifest, then it's the timeline parsed before it in the current manifest, so that
+   * representations that repeat a timeline share one instance.
+   */
+  private SegmentTimeline getBaseSegmentTimeline() {
+    if (elements == null) {
+      // The timeline is being parsed outside of parse(Uri, InputStream).
+      return null;
+    }
+    List<SegmentTimeline> segmentTimelines = elements.segmentTimelines;
+    List<SegmentTimeline> previousSegmentTimelines =
+        previousElements != null ? previousElements.segmentTimelines : null;
+    int index = segmentTimelines.size();
+    SegmentTimeline previousSegmentTimeline =
+        previousSegmentTimelines != null && index < previousSegmentTimelines.size()
+            ? previousSegmentTimelines.get(index) : null;
+    if (index > 0 && (previousSegmentTimeline == null
+        || previousSegmentTimeline == previousSegmentTimelines.get(index - 1))) {
+      return segmentTimelines.get(index - 1);
+    }
+    return previousSegmentTimeline;
+  }
+
+  /**
+   * Returns the segment base at the same position in document order in the previous manifest if
+   * it's the same as the specified one and parsing incrementally, or the specified one otherwise.
+   */
+  private <T extends SegmentBase> T getSharedSegmentBase(T segmentBase) {
+    if (elements == null) {
+      return segmentBase;
+    }
+    int index = elements.segmentBases.size();
+    if (previousElements != null && index < previousElements.segmentBases.size()) {
+      SegmentBase previousSegmentBase = previousElements.segmentBases.get(index);
+      if (isSameSegmentBase(previousSegmentBase, segmentBase)) {
+        @SuppressWarnings("unchecked")
+        T sharedSegmentBase = (T) previousSegmentBase;
+        segmentBase = sharedSegmentBase;
+      }
+    }
+    elements.segmentBases.add(segmentBase);
+    return segmentBase;
+  }
+
+  /**
+   * Returns the representation at the same position in document order in the previous manifest if
+   * it's the same as the specified one and parsing incrementally, or the specified one otherwise.
+   *
+   * @param segmentBase The segment base from which the representation was built.
+   * @param representation The representation.
+   * @return The representation to include in the manifest.
+   */
+  private Representation getSharedRepresentation(SegmentBase segmentBase,
+      Representation representation) {
+    if (elements == null) {
+      return representation;
+    }
+    int index = elements.representations.size();
+    if (previousElements != null && index < previousElements.representations.size()) {
+      Representation previousRepresentation = previousElements.representations.get(index);
+      // Segment bases are shared if they're unchanged, so they can be compared by identity.
+      if (previousElements.representationSegmentBases.get(index) == segmentBase
+          && isSameRepresentation(previousRepresentation, representation)) {
+        representation = previousRepresentation;
+      }
+    }
+    elements.representations.add(representation);
+    elements.representationSegmentBases.add(segmentBase);
+    return representation;
   }
 
   protected UrlTemplate parseUrlTemplate(XmlPullParser xpp, String name,
@@ -902,6 +1022,45 @@ public class DashManifestParser extends DefaultHandler
 
   // Utility methods.
 
+  private static boolean isSameSegmentBase(SegmentBase a, SegmentBase b) {
+    if (a.getClass() != b.getClass() || a.timescale != b.timescale
+        || a.presentationTimeOffset != b.presentationTimeOffset
+        || !Util.areEqual(a.initialization, b.initialization)) {
+      return false;
+    }
+    if (a instanceof SingleSegmentBase) {
+      SingleSegmentBase singleA = (SingleSegmentBase) a;
+      SingleSegmentBase singleB = (SingleSegmentBase) b;
+      return singleA.indexStart == singleB.indexStart && singleA.indexLength == singleB.indexLength;
+    }
+    MultiSegmentBase multiA = (MultiSegmentBase) a;
+    MultiSegmentBase multiB = (MultiSegmentBase) b;
+    // Segment timelines are shared if they're unchanged, so they can be compared by identity.
+    if (multiA.startNumber != multiB.startNumber || multiA.duration != multiB.duration
+        || multiA.segmentTimeline != multiB.segmentTimeline) {
+      return false;
+    }
+    if (a instanceof SegmentList) {
+      return Util.areEqual(((SegmentList) a).mediaSegments, ((SegmentList) b).mediaSegments);
+    } else if (a instanceof SegmentTemplate) {
+      SegmentTemplate templateA = (SegmentTemplate) a;
+      SegmentTemplate templateB = (SegmentTemplate) b;
+      return Util.areEqual(templateA.initializationTemplate, templateB.initializationTemplate)
+          && Util.areEqual(templateA.mediaTemplate, templateB.mediaTemplate);
+    }
+    return false;
+  }
+
+  private static boolean isSameRepresentation(Representation a, Representation b) {
+    return a.getClass() == b.getClass()
+        && a.revisionId == b.revisionId
+        && Util.areEqual(a.contentId, b.contentId)
+        && Util.areEqual(a.format, b.format)
+        && Util.areEqual(a.baseUrl, b.baseUrl)
+        && Util.areEqual(a.inbandEventStreams, b.inbandEventStreams)
+        && Util.areEqual(a.getCacheKey(), b.getCacheKey());
+  }
+
   /**
    * Removes unnecessary {@link SchemeData}s with null {@link SchemeData#data}.
    */
@@ -1163,6 +1322,27 @@ public class DashManifestParser extends DefaultHandler
     }
   }
 
+  /**
+   * The elements of a manifest that may be reused when parsing the next manifest, in document
+   * order.
+   */
+  private static final class ReusableElements {
+
+    public final List<SegmentTimeline> segmentTimelines;
+    public final List<SegmentBase> segmentBases;
+    public final List<Representation> representations;
+    // The segment base from which each representation was built.
+    public final List<SegmentBase> representationSegmentBases;
+
+    public ReusableElements() {
+      segmentTimelines = new ArrayList<>();
+      segmentBases = new ArrayList<>();
+      representations = new ArrayList<>();
+      representationSegmentBases = new ArrayList<>();
+    }
+
+  }
+
   /** A parsed Representation element. */
   protected static final class RepresentationInfo {
 
@@ -101,7 +101,7 @@ public abstract class SegmentBase {
 
     /* package */ final long startNumber;
     /* package */ final long duration;
-    /* package */ final List<SegmentTimelineElement> segmentTimeline;
+    /* package */ final SegmentTimeline segmentTimeline;
 
     /**
      * @param initialization A {@link RangedUri} corresponding to initialization data, if such data
@@ -115,7 +115,8 @@ public abstract class SegmentBase {
      *     segmentTimeline} is non-null then this parameter is ignored.
      * @param segmentTimeline A segment timeline corresponding to the segments. If null, then
      *     segments are assumed to be of fixed duration as specified by the {@code duration}
-     *     parameter.
+     *     parameter. The timeline is stored as a {@link SegmentTimeline}, so passing one avoids a
+     *     copy and allows it to be shared with other instances.
      */
     public MultiSegmentBase(
         RangedUri initialization,
@@ -127,7 +128,8 @@ public abstract class SegmentBase {
       super(initialization, timescale, presentationTimeOffset);
       this.startNumber = startNumber;
       this.duration = duration;
-      this.segmentTimeline = segmentTimeline;
+      this.segmentTimeline =
+          segmentTimeline != null ? SegmentTimeline.copyOf(segmentTimeline) : null;
     }
 
     /** @see DashSegmentIndex#getSegmentNum(long, long) */
@@ -146,28 +148,28 @@ public abstract class SegmentBase {
             : segmentCount == DashSegmentIndex.INDEX_UNBOUNDED ? segmentNum
             : Math.min(segmentNum, firstSegmentNum + segmentCount - 1);
       } else {
-        // The index cannot be unbounded. Identify the segment using binary search.
-        long lowIndex = firstSegmentNum;
-        long highIndex = firstSegmentNum + segmentCount - 1;
-        while (lowIndex <= highIndex) {
-          long midIndex = lowIndex + (highIndex - lowIndex) / 2;
-          long midTimeUs = getSegmentTimeUs(midIndex);
-          if (midTimeUs < timeUs) {
-            lowIndex = midIndex + 1;
-          } else if (midTimeUs > timeUs) {
-            highIndex = midIndex - 1;
-          } else {
-            return midIndex;
-          }
+        // The index cannot be unbounded. Identify the segment by searching the timeline, then
+        // correct for rounding in the conversion between the timescale and microseconds.
+        long time = Util.scaleLargeTimestamp(timeUs, timescale, C.MICROS_PER_SECOND)
+            + presentationTimeOffset;
+        long lastSegmentNum = firstSegmentNum + segmentCount - 1;
+        long segmentNum = Math.min(
+            startNumber + segmentTimeline.getIndexOfSegmentStartingAtOrBefore(time),
+            lastSegmentNum);
+        while (segmentNum < lastSegmentNum && getSegmentTimeUs(segmentNum + 1) <= timeUs) {
+          segmentNum++;
+        }
+        while (segmentNum >= firstSegmentNum && getSegmentTimeUs(segmentNum) > timeUs) {
+          segmentNum--;
         }
-        return lowIndex == firstSegmentNum ? lowIndex : highIndex;
+        return Math.max(segmentNum, firstSegmentNum);
       }
     }
 
     /** @see DashSegmentIndex#getDurationUs(long, long) */
     public final long getSegmentDurationUs(long sequenceNumber, long periodDurationUs) {
       if (segmentTimeline != null) {
-        long duration = segmentTimeline.get((int) (sequenceNumber - startNumber)).duration;
+        long duration = segmentTimeline.getDuration((int) (sequenceNumber - startNumber));
         return (duration * C.MICROS_PER_SECOND) / timescale;
       } else {
         int segmentCount = getSegmentCount(periodDurationUs);
@@ -183,7 +185,7 @@ public abstract class SegmentBase {
       long unscaledSegmentTime;
       if (segmentTimeline != null) {
         unscaledSegmentTime =
-            segmentTimeline.get((int) (sequenceNumber - startNumber)).startTime
+            segmentTimeline.getStartTime((int) (sequenceNumber - startNumber))
                 - presentationTimeOffset;
       } else {
         unscaledSegmentTime = (sequenceNumber - startNumber) * duration;
@@ -327,7 +329,7 @@ public abstract class SegmentBase {
     public RangedUri getSegmentUrl(Representation representation, long sequenceNumber) {
       long time;
       if (segmentTimeline != null) {
-        time = segmentTimeline.get((int) (sequenceNumber - startNumber)).startTime;
+        time = segmentTimeline.getStartTime((int) (sequenceNumber - startNumber));
       } else {
         time = (sequenceNumber - startNumber) * duration;
       }
@@ -369,6 +371,32 @@ public abstract class SegmentBase {
       this.duration = duration;
     }
 
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (obj == null || getClass() != obj.getClass()) {
+        return false;
+      }
+      SegmentTimelineElement other = (SegmentTimelineElement) obj;
+      return startTime == other.startTime && duration == other.duration;
+    }
+
+    @Override
+    public int hashCode() {
+      return computeHashCode(startTime, duration);
+    }
+
+    /**
+     * Returns the hash code of an element with the specified start time and duration, without
+     * instantiating it.
+     */
+    /* package */ static int computeHashCode(long startTime, long duration) {
+      int result = (int) (startTime ^ (startTime >>> 32));
+      return 31 * result + (int) (duration ^ (duration >>> 32));
+    }
+
   }
 
 }
@@ -0,0 +1,399 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.dash.manifest;
+
+import com.google.android.exoplayer2.source.dash.manifest.SegmentBase.SegmentTimelineElement;
+import com.google.android.exoplayer2.util.Assertions;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A compact representation of a SegmentTimeline manifest element.
+ *
+ * <p>Consecutive segments of equal duration are stored as a single run, in the same way as an S
+ * element with a repeat count, so the memory used by a timeline depends on the number of runs
+ * rather than the number of segments. Segments are looked up by index or by time in logarithmic
+ * time in the number of runs.
+ *
+ * <p>A timeline is a window onto arrays of runs that can be shared with other timelines. A timeline
+ * that's built from another one, for example when a live manifest is refreshed and its window has
+ * moved, shares the runs it has in common with the other timeline and only stores the runs that
+ * follow them.
+ *
+ * <p>The timeline is also a {@link List} of {@link SegmentTimelineElement}s, whose elements are
+ * instantiated when they're accessed. Instances are immutable, so they can be shared between the
+ * representations of an adaptation set.
+ */
+public final class SegmentTimeline extends AbstractList<SegmentTimelineElement>
+    implements RandomAccess {
+
+  /**
+   * Builds {@link SegmentTimeline} instances.
+   *
+   * <p>A builder can be created with a base timeline, in which case the segments that are added are
+   * matched against it. Whilst they match, the timeline being built shares the runs of the base
+   * timeline. Segments that follow the end of the base timeline are appended to its arrays if no
+   * other timeline has done so already. The runs are copied if the segments diverge from the base
+   * timeline, after which the builder behaves as if it had been created without one.
+   */
+  public static final class Builder {
+
+    private static final int INITIAL_RUN_CAPACITY = 8;
+
+    private SegmentTimeline base;
+    private Runs runs;
+    private long[] runStartTimes;
+    private long[] runDurations;
+    private int[] runStartIndices;
+    // The runs and segments of the timeline being built, as indices into the arrays. The first run
+    // may start before the first segment.
+    private int firstRun;
+    private int endRun;
+    private int firstSegment;
+    private int endSegment;
+
+    public Builder() {
+      this(null);
+    }
+
+    /**
+     * @param base A timeline whose runs should be shared where the segments that are added match
+     *     its segments, or null.
+     */
+    public Builder(SegmentTimeline base) {
+      this.base = base;
+      if (base != null) {
+        setRuns(base.runs, base.runStartTimes, base.runDurations, base.runStartIndices);
+        firstRun = base.firstRun;
+        endRun = base.firstRun;
+        firstSegment = base.firstSegment;
+        endSegment = base.firstSegment;
+      } else {
+        setRuns(new Runs(), new long[INITIAL_RUN_CAPACITY], new long[INITIAL_RUN_CAPACITY],
+            new int[INITIAL_RUN_CAPACITY]);
+      }
+    }
+
+    /**
+     * Appends segments of equal duration to the timeline. The segments are merged into the last
+     * run if they have its duration and directly follow it.
+     *
+     * @param startTime The start time of the first segment. The value in seconds is the division
+     *     of this value and the {@code timescale} of the enclosing element.
+     * @param duration The duration of each segment, in the same units as {@code startTime}.
+     * @param count The number of segments to append.
+     * @return This builder.
+     */
+    public Builder add(long startTime, long duration, int count) {
+      if (count <= 0) {
+        return this;
+      }
+      if (base != null && endSegment == firstSegment) {
+        // Find the first segment in the base timeline.
+        int index = base.getIndexOfSegmentStartingAtOrBefore(startTime);
+        if (index != -1 && base.getStartTime(index) == startTime) {
+          firstRun = base.getRunIndex(index);
+          endRun = firstRun;
+          firstSegment = base.firstSegment + index;
+          endSegment = firstSegment;
+        } else {
+          detach();
+        }
+      }
+      while (base != null && count > 0 && endSegment < base.endSegment) {
+        int run = endRun > firstRun && endSegment < getRunEndSegment(endRun - 1, base.endRun,
+            base.endSegment) ? endRun - 1 : endRun;
+        if (runDurations[run] != duration || getStartTime(run, endSegment) != startTime) {
+          detach();
+          break;
+        }
+        int matchedCount =
+            Math.min(count, getRunEndSegment(run, base.endRun, base.endSegment) - endSegment);
+        endRun = run + 1;
+        endSegment += matchedCount;
+        startTime += matchedCount * duration;
+        count -= matchedCount;
+      }
+      if (count > 0) {
+        append(startTime, duration, count);
+      }
+      return this;
+    }
+
+    /** Builds a {@link SegmentTimeline} with the segments that have been added. */
+    public SegmentTimeline build() {
+      if (base != null && firstSegment == base.firstSegment && endSegment == base.endSegment) {
+        return base;
+      }
+      return new SegmentTimeline(runs, runStartTimes, runDurations, runStartIndices, firstRun,
+          endRun, firstSegment, endSegment);
+    }
+
+    private void append(long startTime, long duration, int count) {
+      synchronized (runs) {
+        if (runs.runCount != endRun || runs.segmentCount != endSegment) {
+          // The arrays have been appended to by another timeline.
+          detach();
+        }
+        int lastRun = endRun - 1;
+        if (lastRun < firstRun || runDurations[lastRun] != duration
+            || getStartTime(lastRun, endSegment) != startTime) {
+          if (endRun == runStartTimes.length) {
+            detach();
+          }
+          runStartTimes[endRun] = startTime;
+          runDurations[endRun] = duration;
+          runStartIndices[endRun] = endSegment;
+          endRun++;
+        }
+        endSegment += count;
+        runs.runCount = endRun;
+        runs.segmentCount = endSegment;
+      }
+    }
+
+    /**
+     * Copies the runs of the timeline being built into new arrays, with space for further runs, and
+     * stops matching segments against the base timeline.
+     */
+    private void detach() {
+      int runCount = endRun - firstRun;
+      int capacity = Math.max(INITIAL_RUN_CAPACITY, runCount * 2);
+      long[] newRunStartTimes = new long[capacity];
+      long[] newRunDurations = new long[capacity];
+      int[] newRunStartIndices = new int[capacity];
+      for (int i = 0; i < runCount; i++) {
+        int run = firstRun + i;
+        newRunStartTimes[i] = i == 0 ? getStartTime(run, firstSegment) : runStartTimes[run];
+        newRunDurations[i] = runDurations[run];
+        newRunStartIndices[i] = i == 0 ? 0 : runStartIndices[run] - firstSegment;
+      }
+      Runs newRuns = new Runs();
+      newRuns.runCount = runCount;
+      newRuns.segmentCount = endSegment - firstSegment;
+      setRuns(newRuns, newRunStartTimes, newRunDurations, newRunStartIndices);
+      base = null;
+      firstRun = 0;
+      endRun = runCount;
+      firstSegment = 0;
+      endSegment = newRuns.segmentCount;
+    }
+
+    private void setRuns(Runs runs, long[] runStartTimes, long[] runDurations,
+        int[] runStartIndices) {
+      this.runs = runs;
+      this.runStartTimes = runStartTimes;
+      this.runDurations = runDurations;
+      this.runStartIndices = runStartIndices;
+    }
+
+    private int getRunEndSegment(int run, int endRun, int endSegment) {
+      return run + 1 < endRun ? runStartIndices[run + 1] : endSegment;
+    }
+
+    private long getStartTime(int run, int segment) {
+      return runStartTimes[run] + (segment - runStartIndices[run]) * runDurations[run];
+    }
+
+  }
+
+  /**
+   * Tracks how much of a set of run arrays is in use. Timelines never modify the runs they include,
+   * so a builder may only append runs to the arrays if the timeline it's building ends where the
+   * used part of the arrays does.
+   */
+  private static final class Runs {
+
+    public int runCount;
+    public int segmentCount;
+
+  }
+
+  private final Runs runs;
+  private final long[] runStartTimes;
+  private final long[] runDurations;
+  private final int[] runStartIndices;
+  private final int firstRun;
+  private final int endRun;
+  private final int firstSegment;
+  private final int endSegment;
+
+  private SegmentTimeline(Runs runs, long[] runStartTimes, long[] runDurations,
+      int[] runStartIndices, int firstRun, int endRun, int firstSegment, int endSegment) {
+    this.runs = runs;
+    this.runStartTimes = runStartTimes;
+    this.runDurations = runDurations;
+    this.runStartIndices = runStartIndices;
+    this.firstRun = firstRun;
+    this.endRun = endRun;
+    this.firstSegment = firstSegment;
+    this.endSegment = endSegment;
+  }
+
+  /**
+   * Returns a {@link SegmentTimeline} containing the specified elements, or the list itself if it's
+   * already a {@link SegmentTimeline}.
+   *
+   * @param elements The elements of the timeline.
+   * @return The corresponding {@link SegmentTimeline}.
+   */
+  public static SegmentTimeline copyOf(List<SegmentTimelineElement> elements) {
+    if (elements instanceof SegmentTimeline) {
+      return (SegmentTimeline) elements;
+    }
+    Builder builder = new Builder();
+    for (int i = 0; i < elements.size(); i++) {
+      SegmentTimelineElement element = elements.get(i);
+      builder.add(element.startTime, element.duration, 1);
+    }
+    return builder.build();
+  }
+
+  /** Returns the number of runs of consecutive segments of equal duration in the timeline. */
+  public int getRunCount() {
+    return endRun - firstRun;
+  }
+
+  /**
+   * Returns the start time of a segment.
+   *
+   * @param index The index of the segment.
+   * @return The start time of the segment, in the units of the enclosing element's timescale.
+   */
+  public long getStartTime(int index) {
+    int run = getRunIndex(index);
+    return runStartTimes[run] + (firstSegment + index - runStartIndices[run]) * runDurations[run];
+  }
+
+  /**
+   * Returns the duration of a segment.
+   *
+   * @param index The index of the segment.
+   * @return The duration of the segment, in the units of the enclosing element's timescale.
+   */
+  public long getDuration(int index) {
+    return runDurations[getRunIndex(index)];
+  }
+
+  /**
+   * Returns the index of the last segment that starts at or before the specified time, or -1 if
+   * the first segment starts after it.
+   *
+   * @param time The time, in the units of the enclosing element's timescale.
+   * @return The index of the segment, or -1.
+   */
+  public int getIndexOfSegmentStartingAtOrBefore(long time) {
+    if (endSegment == firstSegment || time < getStartTime(0)) {
+      return -1;
+    }
+    // The first run starts at or before the first segment, so it starts at or before the time.
+    int run = binarySearchFloor(runStartTimes, firstRun, endRun, time);
+    int runEndSegment = run + 1 < endRun ? runStartIndices[run + 1] : endSegment;
+    long duration = runDurations[run];
+    long offset = duration > 0 ? (time - runStartTimes[run]) / duration : 0;
+    long segment = Math.min(runStartIndices[run] + offset, runEndSegment - 1);
+    return (int) Math.max(segment, firstSegment) - firstSegment;
+  }
+
+  @Override
+  public SegmentTimelineElement get(int index) {
+    return new SegmentTimelineElement(getStartTime(index), getDuration(index));
+  }
+
+  @Override
+  public int size() {
+    return endSegment - firstSegment;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof SegmentTimeline)) {
+      return super.equals(obj);
+    }
+    SegmentTimeline other = (SegmentTimeline) obj;
+    int size = size();
+    if (size != other.size()) {
+      return false;
+    }
+    // Compare the segments without instantiating their elements. Runs aren't compared, since
+    // equal segments may be split into runs differently.
+    for (int i = 0; i < size; i++) {
+      if (getStartTime(i) != other.getStartTime(i) || getDuration(i) != other.getDuration(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    // The same as List.hashCode, but without instantiating the elements.
+    int result = 1;
+    for (int run = firstRun; run < endRun; run++) {
+      int runEndSegment = run + 1 < endRun ? runStartIndices[run + 1] : endSegment;
+      long duration = runDurations[run];
+      for (int segment = Math.max(runStartIndices[run], firstSegment); segment < runEndSegment;
+          segment++) {
+        long startTime = runStartTimes[run] + (segment - runStartIndices[run]) * duration;
+        result = 31 * result + SegmentTimelineElement.computeHashCode(startTime, duration);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns whether this timeline shares the arrays that store its runs with another timeline.
+   */
+  /* package */ boolean sharesRunsWith(SegmentTimeline other) {
+    return runStartTimes == other.runStartTimes;
+  }
+
+  private int getRunIndex(int index) {
+    Assertions.checkIndex(index, 0, size());
+    return binarySearchFloor(runStartIndices, firstRun, endRun, firstSegment + index);
+  }
+
+  /**
+   * Returns the index of the first of the largest elements in a range of an array that are less
+   * than or equal to a value. The first element of the range must be less than or equal to it.
+   */
+  private static int binarySearchFloor(long[] array, int fromIndex, int toIndex, long value) {
+    int index = Arrays.binarySearch(array, fromIndex, toIndex, value);
+    if (index < 0) {
+      return -(index + 2);
+    }
+    while (index > fromIndex && array[index - 1] == value) {
+      index--;
+    }
+    return index;
+  }
+
+  /**
+   * Returns the index of the largest element in a range of an array that's less than or equal to a
+   * value. The elements of the array must be distinct, and the first element of the range must be
+   * less than or equal to the value.
+   */
+  private static int binarySearchFloor(int[] array, int fromIndex, int toIndex, int value) {
+    int index = Arrays.binarySearch(array, fromIndex, toIndex, value);
+    return index < 0 ? -(index + 2) : index;
+  }
+
+}
@@ -21,9 +21,16 @@ import android.net.Uri;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.metadata.emsg.EventMessage;
+import com.google.android.exoplayer2.source.dash.DashSegmentIndex;
+import com.google.android.exoplayer2.source.dash.manifest.SegmentBase.SegmentTemplate;
+import com.google.android.exoplayer2.source.dash.manifest.SegmentBase.SegmentTimelineElement;
 import com.google.android.exoplayer2.testutil.TestUtil;
+import com.google.android.exoplayer2.util.Util;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import org.junit.Test;
@@ -151,6 +158,99 @@ public class DashManifestParserTest {
                 1000000000));
   }
 
+  @Test
+  public void testParseSegmentTimelineSharesEqualTimelines() throws IOException {
+    TimelineCapturingDashManifestParser parser = new TimelineCapturingDashManifestParser(false);
+    DashManifest manifest =
+        parser.parse(Uri.parse("https://example.com/test.mpd"), buildLiveManifest(0, 100));
+
+    SegmentTimeline videoTimeline = parser.segmentTimelines.get(0);
+    // The repeated S element is stored as a single run.
+    assertThat(videoTimeline.getRunCount()).isEqualTo(1);
+    assertThat(videoTimeline).hasSize(100);
+    assertThat(parser.segmentTimelines.get(1)).isSameAs(videoTimeline);
+    assertLiveManifestSegments(manifest, 0, 100);
+  }
+
+  @Test
+  public void testIncrementalParseReusesUnchangedSegmentTimelines() throws IOException {
+    TimelineCapturingDashManifestParser parser = new TimelineCapturingDashManifestParser(true);
+    parser.parse(Uri.parse("https://example.com/test.mpd"), buildLiveManifest(0, 100));
+    DashManifest manifest2 =
+        parser.parse(Uri.parse("https://example.com/test.mpd"), buildLiveManifest(0, 100));
+
+    assertThat(parser.segmentTimelines.get(2)).isSameAs(parser.segmentTimelines.get(0));
+    assertLiveManifestSegments(manifest2, 0, 100);
+  }
+
+  @Test
+  public void testIncrementalParseOfSlidingWindowSharesOverlappingSegments() throws IOException {
+    TimelineCapturingDashManifestParser parser = new TimelineCapturingDashManifestParser(true);
+    DashManifest manifest1 =
+        parser.parse(Uri.parse("https://example.com/test.mpd"), buildLiveManifest(0, 100));
+    DashManifest manifest2 =
+        parser.parse(Uri.parse("https://example.com/test.mpd"), buildLiveManifest(10, 95));
+    DashManifest manifest3 =
+        parser.parse(Uri.parse("https://example.com/test.mpd"), buildLiveManifest(20, 90));
+
+    SegmentTimeline videoTimeline1 = parser.segmentTimelines.get(0);
+    SegmentTimeline videoTimeline2 = parser.segmentTimelines.get(2);
+    SegmentTimeline videoTimeline3 = parser.segmentTimelines.get(4);
+    assertThat(videoTimeline2).isNotSameAs(videoTimeline1);
+    assertThat(videoTimeline2.sharesRunsWith(videoTimeline1)).isTrue();
+    assertThat(videoTimeline3.sharesRunsWith(videoTimeline1)).isTrue();
+    assertThat(videoTimeline3.getRunCount()).isEqualTo(1);
+    // The audio timelines are the same as the video timelines.
+    assertThat(parser.segmentTimelines.get(3)).isSameAs(videoTimeline2);
+    assertThat(parser.segmentTimelines.get(5)).isSameAs(videoTimeline3);
+    // Earlier manifests are unaffected by the segments that are appended for later ones.
+    assertLiveManifestSegments(manifest1, 0, 100);
+    assertLiveManifestSegments(manifest2, 10, 95);
+    assertLiveManifestSegments(manifest3, 20, 90);
+  }
+
+  @Test
+  public void testIncrementalParseWithChangedSegmentTimelines() throws IOException {
+    TimelineCapturingDashManifestParser parser = new TimelineCapturingDashManifestParser(true);
+    parser.parse(Uri.parse("https://example.com/test.mpd"), buildLiveManifest(0, 100));
+    // The segments have been renumbered, so the timelines have no segments in common.
+    DashManifest manifest2 =
+        parser.parse(Uri.parse("https://example.com/test.mpd"), buildLiveManifest(200, 10));
+
+    assertThat(parser.segmentTimelines.get(2).sharesRunsWith(parser.segmentTimelines.get(0)))
+        .isFalse();
+    assertLiveManifestSegments(manifest2, 200, 10);
+  }
+
+  @Test
+  public void testIncrementalParseReusesUnchangedRepresentations() throws IOException {
+    DashManifestParser parser = new DashManifestParser(null, true);
+    DashManifest manifest1 =
+        parser.parse(Uri.parse("https://example.com/test.mpd"), buildLiveManifest(0, 100));
+    DashManifest manifest2 =
+        parser.parse(Uri.parse("https://example.com/test.mpd"), buildLiveManifest(0, 100));
+    DashManifest manifest3 =
+        parser.parse(Uri.parse("https://example.com/test.mpd"), buildLiveManifest(10, 95));
+
+    for (int i = 0; i < 2; i++) {
+      Representation representation1 = getRepresentation(manifest1, i);
+      assertThat(getRepresentation(manifest2, i)).isSameAs(representation1);
+      // The segment template of a representation changes with its segment timeline.
+      assertThat(getRepresentation(manifest3, i)).isNotSameAs(representation1);
+      assertThat(getRepresentation(manifest3, i).format).isEqualTo(representation1.format);
+    }
+    assertLiveManifestSegments(manifest3, 10, 95);
+  }
+
+  @Test
+  public void testNonIncrementalParseDoesNotReuseSegmentTimelines() throws IOException {
+    TimelineCapturingDashManifestParser parser = new TimelineCapturingDashManifestParser(false);
+    parser.parse(Uri.parse("https://example.com/test.mpd"), buildLiveManifest(0, 100));
+    parser.parse(Uri.parse("https://example.com/test.mpd"), buildLiveManifest(0, 100));
+
+    assertThat(parser.segmentTimelines.get(2)).isNotSameAs(parser.segmentTimelines.get(0));
+  }
+
   @Test
   public void testParseCea608AccessibilityChannel() {
     assertThat(
@@ -237,6 +337,48 @@ public class DashManifestParserTest {
         .isEqualTo(Format.NO_VALUE);
   }
 
+  /**
+   * Builds a live manifest with a video and an audio adaptation set, whose segment timelines
+   * contain {@code segmentCount} segments of one second starting from {@code firstSegmentIndex}.
+   */
+  private static InputStream buildLiveManifest(int firstSegmentIndex, int segmentCount) {
+    String segmentTimeline = "<SegmentTimeline><S t=\"" + firstSegmentIndex * 1000L
+        + "\" d=\"1000\" r=\"" + (segmentCount - 1) + "\"/></SegmentTimeline>";
+    String manifest = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+        + "<MPD type=\"dynamic\" availabilityStartTime=\"2018-01-01T00:00:00Z\""
+        + " timeShiftBufferDepth=\"PT6H\" minimumUpdatePeriod=\"PT2S\">"
+        + "<Period id=\"1\" start=\"PT0S\">"
+        + "<AdaptationSet mimeType=\"video/mp4\">"
+        + "<SegmentTemplate timescale=\"1000\" media=\"video-$Time$.mp4\">"
+        + segmentTimeline + "</SegmentTemplate>"
+        + "<Representation id=\"video\" bandwidth=\"1000000\" codecs=\"avc1.4d401f\"/>"
+        + "</AdaptationSet>"
+        + "<AdaptationSet mimeType=\"audio/mp4\">"
+        + "<SegmentTemplate timescale=\"1000\" media=\"audio-$Time$.mp4\">"
+        + segmentTimeline + "</SegmentTemplate>"
+        + "<Representation id=\"audio\" bandwidth=\"128000\" codecs=\"mp4a.40.2\"/>"
+        + "</AdaptationSet>"
+        + "</Period></MPD>";
+    return new ByteArrayInputStream(Util.getUtf8Bytes(manifest));
+  }
+
+  private static void assertLiveManifestSegments(DashManifest manifest, int firstSegmentIndex,
+      int segmentCount) {
+    for (AdaptationSet adaptationSet : manifest.getPeriod(0).adaptationSets) {
+      DashSegmentIndex index = adaptationSet.representations.get(0).getIndex();
+      long firstSegmentNum = index.getFirstSegmentNum();
+      assertThat(index.getSegmentCount(C.TIME_UNSET)).isEqualTo(segmentCount);
+      for (int i = 0; i < segmentCount; i++) {
+        assertThat(index.getTimeUs(firstSegmentNum + i))
+            .isEqualTo((firstSegmentIndex + i) * C.MICROS_PER_SECOND);
+      }
+    }
+  }
+
+  private static Representation getRepresentation(DashManifest manifest, int adaptationSetIndex) {
+    return manifest.getPeriod(0).adaptationSets.get(adaptationSetIndex).representations.get(0);
+  }
+
   private static List<Descriptor> buildCea608AccessibilityDescriptors(String value) {
     return Collections.singletonList(new Descriptor("urn:scte:dash:cc:cea-608:2015", value, null));
   }
@@ -244,4 +386,30 @@ public class DashManifestParserTest {
   private static List<Descriptor> buildCea708AccessibilityDescriptors(String value) {
     return Collections.singletonList(new Descriptor("urn:scte:dash:cc:cea-708:2015", value, null));
   }
+
+  /**
+   * A {@link DashManifestParser} that records the segment timelines of the segment templates it
+   * builds.
+   */
+  private static final class TimelineCapturingDashManifestParser extends DashManifestParser {
+
+    public final List<SegmentTimeline> segmentTimelines;
+
+    public TimelineCapturingDashManifestParser(boolean incremental) {
+      super(null, incremental);
+      segmentTimelines = new ArrayList<>();
+    }
+
+    @Override
+    protected SegmentTemplate buildSegmentTemplate(RangedUri initialization, long timescale,
+        long presentationTimeOffset, long startNumber, long duration,
+        List<SegmentTimelineElement> timeline, UrlTemplate initializationTemplate,
+        UrlTemplate mediaTemplate) {
+      segmentTimelines.add((SegmentTimeline) timeline);
+      return super.buildSegmentTemplate(initialization, timescale, presentationTimeOffset,
+          startNumber, duration, timeline, initializationTemplate, mediaTemplate);
+    }
+
+  }
+
 }
@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.dash.manifest;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.source.dash.manifest.SegmentBase.SegmentTemplate;
+import com.google.android.exoplayer2.source.dash.manifest.SegmentBase.SegmentTimelineElement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/** Unit test for {@link SegmentTimeline}. */
+@RunWith(RobolectricTestRunner.class)
+public final class SegmentTimelineTest {
+
+  @Test
+  public void testContiguousSegmentsOfEqualDurationAreMerged() {
+    SegmentTimeline timeline = new SegmentTimeline.Builder()
+        .add(0, 10, 3)
+        .add(30, 10, 2)
+        .add(50, 20, 1)
+        .build();
+
+    assertThat(timeline.getRunCount()).isEqualTo(2);
+    assertThat(timeline).hasSize(6);
+    assertThat(timeline.getStartTime(4)).isEqualTo(40);
+    assertThat(timeline.getDuration(4)).isEqualTo(10);
+    assertThat(timeline.getStartTime(5)).isEqualTo(50);
+    assertThat(timeline.getDuration(5)).isEqualTo(20);
+  }
+
+  @Test
+  public void testDiscontiguousSegmentsAreNotMerged() {
+    SegmentTimeline timeline = new SegmentTimeline.Builder()
+        .add(0, 10, 2)
+        .add(100, 10, 2)
+        .add(120, 10, 0)
+        .build();
+
+    assertThat(timeline.getRunCount()).isEqualTo(2);
+    assertThat(timeline).hasSize(4);
+    assertThat(timeline.getStartTime(1)).isEqualTo(10);
+    assertThat(timeline.getStartTime(2)).isEqualTo(100);
+  }
+
+  @Test
+  public void testGetIndexOfSegmentStartingAtOrBefore() {
+    SegmentTimeline timeline = new SegmentTimeline.Builder()
+        .add(10, 10, 3)
+        .add(100, 5, 2)
+        .build();
+
+    assertThat(timeline.getIndexOfSegmentStartingAtOrBefore(0)).isEqualTo(-1);
+    assertThat(timeline.getIndexOfSegmentStartingAtOrBefore(10)).isEqualTo(0);
+    assertThat(timeline.getIndexOfSegmentStartingAtOrBefore(29)).isEqualTo(1);
+    // Times in a gap belong to the last segment before it.
+    assertThat(timeline.getIndexOfSegmentStartingAtOrBefore(99)).isEqualTo(2);
+    assertThat(timeline.getIndexOfSegmentStartingAtOrBefore(105)).isEqualTo(4);
+    assertThat(timeline.getIndexOfSegmentStartingAtOrBefore(1000)).isEqualTo(4);
+  }
+
+  @Test
+  public void testCopyOf() {
+    SegmentTimeline timeline = SegmentTimeline.copyOf(Arrays.asList(
+        new SegmentTimelineElement(0, 10),
+        new SegmentTimelineElement(10, 10),
+        new SegmentTimelineElement(20, 15)));
+
+    assertThat(timeline.getRunCount()).isEqualTo(2);
+    assertThat(timeline.get(2).startTime).isEqualTo(20);
+    assertThat(timeline.get(2).duration).isEqualTo(15);
+    assertThat(SegmentTimeline.copyOf(timeline)).isSameAs(timeline);
+    assertThat(timeline).isEqualTo(new SegmentTimeline.Builder().add(0, 10, 2).add(20, 15, 1)
+        .build());
+  }
+
+  @Test
+  public void testEqualsAndHashCodeFollowListContract() {
+    SegmentTimeline timeline = new SegmentTimeline.Builder().add(0, 10, 2).add(20, 15, 1).build();
+    List<SegmentTimelineElement> elements = new ArrayList<>(Arrays.asList(
+        new SegmentTimelineElement(0, 10),
+        new SegmentTimelineElement(10, 10),
+        new SegmentTimelineElement(20, 15)));
+
+    assertThat(timeline).isEqualTo(elements);
+    assertThat(elements).isEqualTo(timeline);
+    assertThat(timeline.hashCode()).isEqualTo(elements.hashCode());
+
+    // A timeline that starts part way through the runs of its base equals one built from scratch.
+    SegmentTimeline base = new SegmentTimeline.Builder().add(0, 10, 3).add(30, 15, 1).build();
+    SegmentTimeline window =
+        new SegmentTimeline.Builder(base).add(10, 10, 2).add(30, 15, 1).build();
+    SegmentTimeline expected = new SegmentTimeline.Builder().add(10, 10, 2).add(30, 15, 1).build();
+    assertThat(window.sharesRunsWith(base)).isTrue();
+    assertThat(window).isEqualTo(expected);
+    assertThat(window.hashCode()).isEqualTo(expected.hashCode());
+    assertThat(window.hashCode()).isEqualTo(new ArrayList<>(expected).hashCode());
+  }
+
+  @Test
+  public void testBuilderWithBaseSharesRunsOfOverlappingSegments() {
+    SegmentTimeline base = new SegmentTimeline.Builder()
+        .add(0, 10, 5)
+        .add(50, 20, 3)
+        .add(110, 10, 2)
+        .build();
+    SegmentTimeline timeline = new SegmentTimeline.Builder(base)
+        .add(20, 10, 3)
+        .add(50, 20, 3)
+        .add(110, 10, 4)
+        .add(150, 5, 1)
+        .build();
+
+    assertThat(timeline.sharesRunsWith(base)).isTrue();
+    assertThat(timeline.getRunCount()).isEqualTo(4);
+    assertThat(timeline).isEqualTo(new SegmentTimeline.Builder()
+        .add(20, 10, 3).add(50, 20, 3).add(110, 10, 4).add(150, 5, 1).build());
+    assertThat(timeline.getStartTime(0)).isEqualTo(20);
+    assertThat(timeline.getStartTime(9)).isEqualTo(140);
+    assertThat(timeline.getDuration(10)).isEqualTo(5);
+    assertThat(timeline.getIndexOfSegmentStartingAtOrBefore(19)).isEqualTo(-1);
+    assertThat(timeline.getIndexOfSegmentStartingAtOrBefore(25)).isEqualTo(0);
+    assertThat(timeline.getIndexOfSegmentStartingAtOrBefore(152)).isEqualTo(10);
+    // The base timeline is unchanged.
+    assertThat(base.getRunCount()).isEqualTo(3);
+    assertThat(base).hasSize(10);
+    assertThat(base.getIndexOfSegmentStartingAtOrBefore(1000)).isEqualTo(9);
+  }
+
+  @Test
+  public void testBuilderWithUnchangedBaseReturnsBase() {
+    SegmentTimeline base = new SegmentTimeline.Builder().add(0, 10, 5).add(50, 20, 3).build();
+
+    assertThat(new SegmentTimeline.Builder(base).add(0, 10, 5).add(50, 20, 3).build())
+        .isSameAs(base);
+    assertThat(new SegmentTimeline.Builder(base).add(0, 10, 2).add(20, 10, 3).add(50, 20, 3)
+        .build()).isSameAs(base);
+  }
+
+  @Test
+  public void testBuilderWithBaseCopiesRunsIfSegmentsDiverge() {
+    SegmentTimeline base = new SegmentTimeline.Builder().add(0, 10, 5).add(50, 20, 3).build();
+    SegmentTimeline timeline = new SegmentTimeline.Builder(base)
+        .add(30, 10, 2)
+        .add(50, 30, 2)
+        .build();
+
+    assertThat(timeline.sharesRunsWith(base)).isFalse();
+    assertThat(timeline).isEqualTo(new SegmentTimeline.Builder().add(30, 10, 2).add(50, 30, 2)
+        .build());
+    assertThat(base).isEqualTo(new SegmentTimeline.Builder().add(0, 10, 5).add(50, 20, 3)
+        .build());
+  }
+
+  @Test
+  public void testBuildersWithSameBaseDoNotOverwriteEachOthersRuns() {
+    SegmentTimeline base = new SegmentTimeline.Builder().add(0, 10, 5).build();
+    SegmentTimeline.Builder builder1 = new SegmentTimeline.Builder(base).add(10, 10, 4);
+    SegmentTimeline.Builder builder2 = new SegmentTimeline.Builder(base).add(10, 10, 4);
+    SegmentTimeline timeline1 = builder1.add(50, 20, 1).build();
+    SegmentTimeline timeline2 = builder2.add(50, 30, 1).build();
+
+    assertThat(timeline1.sharesRunsWith(base)).isTrue();
+    assertThat(timeline2.sharesRunsWith(base)).isFalse();
+    assertThat(timeline1.getDuration(4)).isEqualTo(20);
+    assertThat(timeline2.getDuration(4)).isEqualTo(30);
+    assertThat(base).hasSize(5);
+  }
+
+  @Test
+  public void testSlidingWindowDoesNotRetainRemovedRuns() {
+    // Segments alternate between two durations, so each segment is a run.
+    SegmentTimeline firstTimeline = buildAlternatingTimeline(0, 20);
+    SegmentTimeline timeline = firstTimeline;
+    for (int i = 1; i <= 1000; i++) {
+      // Each refresh removes the first segment and appends a new one.
+      SegmentTimeline.Builder builder = new SegmentTimeline.Builder(timeline);
+      for (int j = 1; j < timeline.size(); j++) {
+        builder.add(timeline.getStartTime(j), timeline.getDuration(j), 1);
+      }
+      int last = timeline.size() - 1;
+      builder.add(timeline.getStartTime(last) + timeline.getDuration(last), 10 + (i + 19) % 2, 1);
+      SegmentTimeline nextTimeline = builder.build();
+      assertThat(nextTimeline).isEqualTo(buildAlternatingTimeline(i, 20));
+      timeline = nextTimeline;
+    }
+
+    // The arrays have been replaced by ones that don't include the removed runs.
+    assertThat(timeline.sharesRunsWith(firstTimeline)).isFalse();
+    assertThat(timeline.getRunCount()).isEqualTo(20);
+  }
+
+  @Test
+  public void testSegmentTemplateWithLargeTimeline() {
+    int segmentCount = 50000;
+    SegmentTimeline timeline = new SegmentTimeline.Builder()
+        .add(0, 2000, segmentCount - 1)
+        .add((segmentCount - 1) * 2000L, 1000, 1)
+        .build();
+    SegmentTemplate segmentTemplate =
+        new SegmentTemplate(null, 1000, 0, 1, C.TIME_UNSET, timeline, null, null);
+
+    assertThat(segmentTemplate.getSegmentCount(C.TIME_UNSET)).isEqualTo(segmentCount);
+    assertThat(segmentTemplate.getSegmentNum(0, C.TIME_UNSET)).isEqualTo(1);
+    assertThat(segmentTemplate.getSegmentNum(3999999, C.TIME_UNSET)).isEqualTo(2);
+    assertThat(segmentTemplate.getSegmentNum(4000000, C.TIME_UNSET)).isEqualTo(3);
+    assertThat(segmentTemplate.getSegmentNum(Long.MAX_VALUE / 2000, C.TIME_UNSET))
+        .isEqualTo(segmentCount);
+    assertThat(segmentTemplate.getSegmentTimeUs(segmentCount))
+        .isEqualTo((segmentCount - 1) * 2 * C.MICROS_PER_SECOND);
+    assertThat(segmentTemplate.getSegmentDurationUs(segmentCount, C.TIME_UNSET))
+        .isEqualTo(C.MICROS_PER_SECOND);
+  }
+
+  /**
+   * Returns a timeline of {@code count} segments whose durations alternate between 10 and 11,
+   * starting from the segment with index {@code firstIndex} in the alternating sequence.
+   */
+  private static SegmentTimeline buildAlternatingTimeline(int firstIndex, int count) {
+    SegmentTimeline.Builder builder = new SegmentTimeline.Builder();
+    // Every pair of segments has a total duration of 21.
+    long startTime = (firstIndex / 2) * 21L + (firstIndex % 2) * 10;
+    for (int i = firstIndex; i < firstIndex + count; i++) {
+      long duration = 10 + i % 2;
+      builder.add(startTime, duration, 1);
+      startTime += duration;
+    }
+    return builder.build();
+  }
+
+}
@@ -60,6 +60,16 @@ public class UrlTemplateTest {
     assertThat(url).isEqualTo("$650000$_a$_abc1_b_5000_c_10$");
   }
 
+  @Test
+  public void testEquals() {
+    String template = "$RepresentationID$/$Number%05d$.m4s";
+    assertThat(UrlTemplate.compile(template)).isEqualTo(UrlTemplate.compile(template));
+    assertThat(UrlTemplate.compile(template))
+        .isNotEqualTo(UrlTemplate.compile("$RepresentationID$/$Number%04d$.m4s"));
+    assertThat(UrlTemplate.compile(template))
+        .isNotEqualTo(UrlTemplate.compile("$RepresentationID$/$Time$.m4s"));
+  }
+
   @Test
   public void testInvalidSubstitution() {
     String template = "$IllegalId$";
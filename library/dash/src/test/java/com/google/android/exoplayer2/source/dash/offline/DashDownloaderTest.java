@@ -43,6 +43,8 @@ import com.google.android.exoplayer2.util.Util;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -363,6 +365,90 @@ public class DashDownloaderTest {
     inOrder.verifyNoMoreInteractions();
   }
 
+  @Test
+  public void testParallelDownload() throws Exception {
+    // Each segment blocks until all of them are being downloaded at the same time.
+    final CountDownLatch allSegmentsStarted = new CountDownLatch(4);
+    Runnable awaitAllSegmentsStarted =
+        new Runnable() {
+          @Override
+          public void run() {
+            allSegmentsStarted.countDown();
+            try {
+              if (!allSegmentsStarted.await(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Segments not downloaded in parallel");
+              }
+            } catch (InterruptedException e) {
+              throw new IllegalStateException(e);
+            }
+          }
+        };
+    FakeDataSet fakeDataSet =
+        new FakeDataSet()
+            .setData(TEST_MPD_URI, TEST_MPD)
+            .newData("audio_init_data")
+            .appendReadAction(awaitAllSegmentsStarted)
+            .appendReadData(TestUtil.buildTestData(10))
+            .endData()
+            .newData("audio_segment_1")
+            .appendReadAction(awaitAllSegmentsStarted)
+            .appendReadData(TestUtil.buildTestData(4))
+            .endData()
+            .newData("audio_segment_2")
+            .appendReadAction(awaitAllSegmentsStarted)
+            .appendReadData(TestUtil.buildTestData(5))
+            .endData()
+            .newData("audio_segment_3")
+            .appendReadAction(awaitAllSegmentsStarted)
+            .appendReadData(TestUtil.buildTestData(6))
+            .endData();
+    DashDownloader dashDownloader = getDashDownloader(fakeDataSet);
+    dashDownloader.setMaxParallelDownloads(4);
+
+    dashDownloader.selectRepresentations(new RepresentationKey[] {new RepresentationKey(0, 0, 0)});
+    ProgressListener mockListener = Mockito.mock(ProgressListener.class);
+    dashDownloader.download(mockListener);
+
+    assertCachedData(cache, fakeDataSet);
+    assertCounters(dashDownloader, 4, 4, 10 + 4 + 5 + 6);
+    // The listener is notified in segment order.
+    InOrder inOrder = Mockito.inOrder(mockListener);
+    inOrder.verify(mockListener).onDownloadProgress(dashDownloader, 0.0f, 0);
+    inOrder.verify(mockListener).onDownloadProgress(dashDownloader, 25.0f, 10);
+    inOrder.verify(mockListener).onDownloadProgress(dashDownloader, 50.0f, 14);
+    inOrder.verify(mockListener).onDownloadProgress(dashDownloader, 75.0f, 19);
+    inOrder.verify(mockListener).onDownloadProgress(dashDownloader, 100.0f, 25);
+    inOrder.verifyNoMoreInteractions();
+  }
+
+  @Test
+  public void testParallelDownloadFailure() throws Exception {
+    FakeDataSet fakeDataSet =
+        new FakeDataSet()
+            .setData(TEST_MPD_URI, TEST_MPD)
+            .setRandomData("audio_init_data", 10)
+            .setRandomData("audio_segment_1", 4)
+            .newData("audio_segment_2")
+            .appendReadData(TestUtil.buildTestData(2))
+            .appendReadError(new IOException())
+            .appendReadData(TestUtil.buildTestData(3))
+            .endData()
+            .setRandomData("audio_segment_3", 6);
+    DashDownloader dashDownloader = getDashDownloader(fakeDataSet);
+    dashDownloader.setMaxParallelDownloads(2);
+
+    dashDownloader.selectRepresentations(new RepresentationKey[] {new RepresentationKey(0, 0, 0)});
+    try {
+      dashDownloader.download(null);
+      fail();
+    } catch (IOException e) {
+      // ignore
+    }
+    dashDownloader.download(null);
+
+    assertCachedData(cache, fakeDataSet);
+  }
+
   @Test
   public void testRemoveAll() throws Exception {
     FakeDataSet fakeDataSet =
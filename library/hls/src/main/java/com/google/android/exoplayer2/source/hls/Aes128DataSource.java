@@ -18,17 +18,16 @@ package com.google.android.exoplayer2.source.hls;
 import android.net.Uri;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.upstream.DataSource;
-import com.google.android.exoplayer2.upstream.DataSourceInputStream;
 import com.google.android.exoplayer2.upstream.DataSpec;
 import com.google.android.exoplayer2.util.Assertions;
+import java.io.EOFException;
 import java.io.IOException;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
-import java.security.Key;
 import java.security.NoSuchAlgorithmException;
-import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayDeque;
 import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
@@ -37,17 +36,81 @@ import javax.crypto.spec.SecretKeySpec;
  * A {@link DataSource} that decrypts data read from an upstream source, encrypted with AES-128 with
  * a 128-bit key and PKCS7 padding.
  * <p>
- * Note that this {@link DataSource} does not support being opened from arbitrary offsets. It is
- * designed specifically for reading whole files as defined in an HLS media playlist. For this
- * reason the implementation is private to the HLS package.
+ * Data is read from upstream and decrypted in large blocks. The {@link Cipher} and the buffers used
+ * with it are obtained from a {@link CipherPool} when the source is opened and returned to it when
+ * the source is closed, so that sources reading the segments of the same stream can share them.
+ * Decrypted data is written directly into the caller's buffer when it has enough space, and is
+ * otherwise held until it's read.
+ * <p>
+ * Note that this {@link DataSource} is designed specifically for reading files as defined in an
+ * HLS media playlist, whose encryption starts at the start of the file. {@link #open(DataSpec,
+ * long)} allows reading from an offset into such a file. For this reason the implementation is
+ * private to the HLS package.
  */
 /* package */ final class Aes128DataSource implements DataSource {
 
+  private static final int BLOCK_SIZE = 16;
+  private static final int ENCRYPTED_BUFFER_SIZE = 32 * 1024;
+
+  /**
+   * A pool of {@link Cipher}s and the buffers used with them.
+   */
+  public static final class CipherPool {
+
+    private static final int MAX_POOLED_DECRYPTERS = 2;
+
+    private final ArrayDeque<Decrypter> decrypters;
+
+    public CipherPool() {
+      decrypters = new ArrayDeque<>(MAX_POOLED_DECRYPTERS);
+    }
+
+    private synchronized Decrypter acquire() {
+      Decrypter decrypter = decrypters.pollFirst();
+      return decrypter != null ? decrypter : new Decrypter();
+    }
+
+    private synchronized void release(Decrypter decrypter) {
+      if (decrypters.size() < MAX_POOLED_DECRYPTERS) {
+        decrypters.addFirst(decrypter);
+      }
+    }
+
+  }
+
+  private static final class Decrypter {
+
+    public final Cipher cipher;
+    public final byte[] encryptedBuffer;
+    public final byte[] decryptedBuffer;
+
+    public Decrypter() {
+      try {
+        cipher = Cipher.getInstance("AES/CBC/PKCS7Padding");
+      } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+        throw new RuntimeException(e);
+      }
+      encryptedBuffer = new byte[ENCRYPTED_BUFFER_SIZE];
+      decryptedBuffer = new byte[ENCRYPTED_BUFFER_SIZE + BLOCK_SIZE];
+    }
+
+  }
+
   private final DataSource upstream;
-  private final byte[] encryptionKey;
+  private final CipherPool cipherPool;
+  private final SecretKeySpec encryptionKey;
   private final byte[] encryptionIv;
 
-  private CipherInputStream cipherInputStream;
+  private Decrypter decrypter;
+  private Cipher cipher;
+  private byte[] encryptedBuffer;
+  private byte[] decryptedBuffer;
+  private int decryptedPosition;
+  private int decryptedLimit;
+  private int bytesToSkip;
+  private boolean opened;
+  private boolean upstreamEnded;
+  private boolean finished;
 
   /**
    * @param upstream The upstream {@link DataSource}.
@@ -55,48 +118,112 @@ import javax.crypto.spec.SecretKeySpec;
    * @param encryptionIv The encryption initialization vector.
    */
   public Aes128DataSource(DataSource upstream, byte[] encryptionKey, byte[] encryptionIv) {
+    this(upstream, new CipherPool(), encryptionKey, encryptionIv);
+  }
+
+  /**
+   * @param upstream The upstream {@link DataSource}.
+   * @param cipherPool The {@link CipherPool} from which to obtain the {@link Cipher}.
+   * @param encryptionKey The encryption key.
+   * @param encryptionIv The encryption initialization vector.
+   */
+  public Aes128DataSource(DataSource upstream, CipherPool cipherPool, byte[] encryptionKey,
+      byte[] encryptionIv) {
     this.upstream = upstream;
-    this.encryptionKey = encryptionKey;
+    this.cipherPool = cipherPool;
+    this.encryptionKey = new SecretKeySpec(encryptionKey, "AES");
     this.encryptionIv = encryptionIv;
   }
 
   @Override
   public long open(DataSpec dataSpec) throws IOException {
-    Cipher cipher;
-    try {
-      cipher = Cipher.getInstance("AES/CBC/PKCS7Padding");
-    } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
-      throw new RuntimeException(e);
-    }
-
-    Key cipherKey = new SecretKeySpec(encryptionKey, "AES");
-    AlgorithmParameterSpec cipherIV = new IvParameterSpec(encryptionIv);
+    return open(dataSpec, 0);
+  }
 
+  /**
+   * Opens the source to read an encrypted file from an offset. Since the file is encrypted in
+   * cipher-block chaining mode, the initialization vector for the block that contains the offset
+   * is the preceding block of ciphertext, which is read from upstream.
+   *
+   * @param dataSpec Defines the whole encrypted file.
+   * @param offset The offset in the decrypted data from which to read.
+   * @return {@link C#LENGTH_UNSET}, since the length of the decrypted data isn't known until the
+   *     padding at its end has been read.
+   * @throws IOException If an error occurs opening the source.
+   */
+  public long open(DataSpec dataSpec, long offset) throws IOException {
+    if (decrypter == null) {
+      decrypter = cipherPool.acquire();
+      cipher = decrypter.cipher;
+      encryptedBuffer = decrypter.encryptedBuffer;
+      decryptedBuffer = decrypter.decryptedBuffer;
+    }
+    long blockIndex = offset / BLOCK_SIZE;
+    byte[] iv = encryptionIv;
+    if (blockIndex == 0) {
+      upstream.open(dataSpec);
+    } else {
+      upstream.open(dataSpec.subrange((blockIndex - 1) * BLOCK_SIZE));
+      iv = new byte[BLOCK_SIZE];
+      readFullyFromUpstream(iv);
+    }
     try {
-      cipher.init(Cipher.DECRYPT_MODE, cipherKey, cipherIV);
+      cipher.init(Cipher.DECRYPT_MODE, encryptionKey, new IvParameterSpec(iv));
     } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
       throw new RuntimeException(e);
     }
-
-    cipherInputStream = new CipherInputStream(
-        new DataSourceInputStream(upstream, dataSpec), cipher);
-
+    bytesToSkip = (int) (offset % BLOCK_SIZE);
+    decryptedPosition = 0;
+    decryptedLimit = 0;
+    upstreamEnded = false;
+    finished = false;
+    opened = true;
     return C.LENGTH_UNSET;
   }
 
   @Override
   public void close() throws IOException {
-    cipherInputStream = null;
+    opened = false;
+    if (decrypter != null) {
+      cipherPool.release(decrypter);
+      decrypter = null;
+      cipher = null;
+      encryptedBuffer = null;
+      decryptedBuffer = null;
+    }
     upstream.close();
   }
 
   @Override
   public int read(byte[] buffer, int offset, int readLength) throws IOException {
-    Assertions.checkState(cipherInputStream != null);
-    int bytesRead = cipherInputStream.read(buffer, offset, readLength);
-    if (bytesRead < 0) {
-      return C.RESULT_END_OF_INPUT;
+    Assertions.checkState(opened);
+    if (readLength == 0) {
+      return 0;
+    }
+    while (true) {
+      if (decryptedPosition < decryptedLimit) {
+        if (bytesToSkip == 0) {
+          break;
+        }
+        int bytesSkipped = Math.min(bytesToSkip, decryptedLimit - decryptedPosition);
+        decryptedPosition += bytesSkipped;
+        bytesToSkip -= bytesSkipped;
+      } else if (finished) {
+        return C.RESULT_END_OF_INPUT;
+      } else if (bytesToSkip == 0 && readLength >= ENCRYPTED_BUFFER_SIZE + BLOCK_SIZE) {
+        // Decrypt directly into the caller's buffer.
+        int bytesDecrypted = decryptNextBlock(buffer, offset);
+        if (bytesDecrypted > 0) {
+          return bytesDecrypted;
+        }
+      } else {
+        decryptedPosition = 0;
+        decryptedLimit = decryptNextBlock(decryptedBuffer, 0);
+      }
     }
+    int bytesRead = Math.min(readLength, decryptedLimit - decryptedPosition);
+    System.arraycopy(decryptedBuffer, decryptedPosition, buffer, offset, bytesRead);
+    decryptedPosition += bytesRead;
     return bytesRead;
   }
 
@@ -105,4 +232,39 @@ import javax.crypto.spec.SecretKeySpec;
     return upstream.getUri();
   }
 
+  /**
+   * Reads the next block of data from upstream and decrypts it into {@code output}, which must
+   * have space for {@link #ENCRYPTED_BUFFER_SIZE} + {@link #BLOCK_SIZE} bytes.
+   *
+   * @return The number of decrypted bytes, which may be zero if the cipher is holding back data
+   *     until it knows whether it's padding.
+   */
+  private int decryptNextBlock(byte[] output, int outputOffset) throws IOException {
+    try {
+      if (upstreamEnded) {
+        finished = true;
+        return cipher.doFinal(output, outputOffset);
+      }
+      int bytesRead = upstream.read(encryptedBuffer, 0, ENCRYPTED_BUFFER_SIZE);
+      if (bytesRead == C.RESULT_END_OF_INPUT) {
+        upstreamEnded = true;
+        return 0;
+      }
+      return cipher.update(encryptedBuffer, 0, bytesRead, output, outputOffset);
+    } catch (GeneralSecurityException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private void readFullyFromUpstream(byte[] target) throws IOException {
+    int position = 0;
+    while (position < target.length) {
+      int bytesRead = upstream.read(target, position, target.length - position);
+      if (bytesRead == C.RESULT_END_OF_INPUT) {
+        throw new EOFException();
+      }
+      position += bytesRead;
+    }
+  }
+
 }
@@ -17,13 +17,18 @@ package com.google.android.exoplayer2.source.hls;
 
 import android.net.Uri;
 import android.os.SystemClock;
+import android.support.annotation.Nullable;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.source.BehindLiveWindowException;
 import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.source.chunk.BaseMediaChunkIterator;
 import com.google.android.exoplayer2.source.chunk.Chunk;
+import com.google.android.exoplayer2.source.chunk.ChunkPrefetcher;
 import com.google.android.exoplayer2.source.chunk.ChunkedTrackBlacklistUtil;
 import com.google.android.exoplayer2.source.chunk.DataChunk;
+import com.google.android.exoplayer2.source.chunk.LazyMediaChunkIterator;
+import com.google.android.exoplayer2.source.chunk.MediaChunkIterator;
 import com.google.android.exoplayer2.source.hls.playlist.HlsMasterPlaylist.HlsUrl;
 import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist;
 import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist.Segment;
@@ -83,11 +88,14 @@ import java.util.List;
   private final HlsExtractorFactory extractorFactory;
   private final DataSource mediaDataSource;
   private final DataSource encryptionDataSource;
+  private final @Nullable ChunkPrefetcher mediaPrefetcher;
+  private final @Nullable ChunkPrefetcher encryptionKeyPrefetcher;
   private final TimestampAdjusterProvider timestampAdjusterProvider;
   private final HlsUrl[] variants;
   private final HlsPlaylistTracker playlistTracker;
   private final TrackGroup trackGroup;
   private final List<Format> muxedCaptionFormats;
+  private final Aes128DataSource.CipherPool cipherPool;
 
   private boolean isTimestampMaster;
   private byte[] scratchSpace;
@@ -122,11 +130,37 @@ import java.util.List;
   public HlsChunkSource(HlsExtractorFactory extractorFactory, HlsPlaylistTracker playlistTracker,
       HlsUrl[] variants, HlsDataSourceFactory dataSourceFactory,
       TimestampAdjusterProvider timestampAdjusterProvider, List<Format> muxedCaptionFormats) {
+    this(extractorFactory, playlistTracker, variants, dataSourceFactory,
+        timestampAdjusterProvider, muxedCaptionFormats, 1);
+  }
+
+  /**
+   * @param extractorFactory An {@link HlsExtractorFactory} from which to obtain the extractors for
+   *     media chunks.
+   * @param playlistTracker The {@link HlsPlaylistTracker} from which to obtain media playlists.
+   * @param variants The available variants.
+   * @param dataSourceFactory An {@link HlsDataSourceFactory} to create {@link DataSource}s for the
+   *     chunks.
+   * @param timestampAdjusterProvider A provider of {@link TimestampAdjuster} instances. If
+   *     multiple {@link HlsChunkSource}s are used for a single playback, they should all share the
+   *     same provider.
+   * @param muxedCaptionFormats List of muxed caption {@link Format}s. Null if no closed caption
+   *     information is available in the master playlist.
+   * @param maxParallelSegmentLoads The maximum number of media segment requests that are in flight
+   *     at the same time. If greater than one, the data of the segments following the one that's
+   *     being loaded, and the keys they're encrypted with, are prefetched using {@link
+   *     ChunkPrefetcher}s.
+   */
+  public HlsChunkSource(HlsExtractorFactory extractorFactory, HlsPlaylistTracker playlistTracker,
+      HlsUrl[] variants, final HlsDataSourceFactory dataSourceFactory,
+      TimestampAdjusterProvider timestampAdjusterProvider, List<Format> muxedCaptionFormats,
+      int maxParallelSegmentLoads) {
     this.extractorFactory = extractorFactory;
     this.playlistTracker = playlistTracker;
     this.variants = variants;
     this.timestampAdjusterProvider = timestampAdjusterProvider;
     this.muxedCaptionFormats = muxedCaptionFormats;
+    cipherPool = new Aes128DataSource.CipherPool();
     liveEdgeTimeUs = C.TIME_UNSET;
     Format[] variantFormats = new Format[variants.length];
     int[] initialTrackSelection = new int[variants.length];
@@ -134,8 +168,29 @@ import java.util.List;
       variantFormats[i] = variants[i].format;
       initialTrackSelection[i] = i;
     }
-    mediaDataSource = dataSourceFactory.createDataSource(C.DATA_TYPE_MEDIA);
-    encryptionDataSource = dataSourceFactory.createDataSource(C.DATA_TYPE_DRM);
+    if (maxParallelSegmentLoads > 1) {
+      mediaPrefetcher = new ChunkPrefetcher(new DataSource.Factory() {
+        @Override
+        public DataSource createDataSource() {
+          return dataSourceFactory.createDataSource(C.DATA_TYPE_MEDIA);
+        }
+      }, maxParallelSegmentLoads - 1);
+      encryptionKeyPrefetcher = new ChunkPrefetcher(new DataSource.Factory() {
+        @Override
+        public DataSource createDataSource() {
+          return dataSourceFactory.createDataSource(C.DATA_TYPE_DRM);
+        }
+      }, 1);
+      mediaDataSource = mediaPrefetcher.createDataSource(
+          dataSourceFactory.createDataSource(C.DATA_TYPE_MEDIA));
+      encryptionDataSource = encryptionKeyPrefetcher.createDataSource(
+          dataSourceFactory.createDataSource(C.DATA_TYPE_DRM));
+    } else {
+      mediaPrefetcher = null;
+      encryptionKeyPrefetcher = null;
+      mediaDataSource = dataSourceFactory.createDataSource(C.DATA_TYPE_MEDIA);
+      encryptionDataSource = dataSourceFactory.createDataSource(C.DATA_TYPE_DRM);
+    }
     trackGroup = new TrackGroup(variantFormats);
     trackSelection = new InitializationTrackSelection(trackGroup, initialTrackSelection);
   }
@@ -183,6 +238,27 @@ import java.util.List;
    */
   public void reset() {
     fatalError = null;
+    discardPrefetches();
+  }
+
+  /**
+   * Discards any prefetched segments and keys that haven't been read, for example because the
+   * position from which segments are loaded has changed.
+   */
+  public void discardPrefetches() {
+    if (mediaPrefetcher != null) {
+      mediaPrefetcher.clear();
+    }
+    if (encryptionKeyPrefetcher != null) {
+      encryptionKeyPrefetcher.clear();
+    }
+  }
+
+  /**
+   * Releases the source, discarding any prefetched data that hasn't been read.
+   */
+  public void release() {
+    reset();
   }
 
   /**
@@ -236,7 +312,9 @@ import java.util.List;
     }
 
     // Select the variant.
-    trackSelection.updateSelectedTrack(playbackPositionUs, bufferedDurationUs, timeToLiveEdgeUs);
+    MediaChunkIterator[] mediaChunkIterators = createMediaChunkIterators(previous, loadPositionUs);
+    trackSelection.updateSelectedTrack(
+        playbackPositionUs, bufferedDurationUs, timeToLiveEdgeUs, mediaChunkIterators);
     int selectedVariantIndex = trackSelection.getSelectedIndexInTrackGroup();
 
     boolean switchingVariant = oldVariantIndex != selectedVariantIndex;
@@ -253,31 +331,14 @@ import java.util.List;
     updateLiveEdgeTimeUs(mediaPlaylist);
 
     // Select the chunk.
-    long chunkMediaSequence;
-    if (previous == null || switchingVariant) {
-      long targetPositionUs = (previous == null || independentSegments) ? loadPositionUs
-          : previous.startTimeUs;
-      if (!mediaPlaylist.hasEndTag && targetPositionUs >= mediaPlaylist.getEndTimeUs()) {
-        // If the playlist is too old to contain the chunk, we need to refresh it.
-        chunkMediaSequence = mediaPlaylist.mediaSequence + mediaPlaylist.segments.size();
-      } else {
-        chunkMediaSequence =
-            Util.binarySearchFloor(
-                    mediaPlaylist.segments,
-                    targetPositionUs,
-                    /* inclusive= */ true,
-                    /* stayInBounds= */ !playlistTracker.isLive() || previous == null)
-                + mediaPlaylist.mediaSequence;
-        if (chunkMediaSequence < mediaPlaylist.mediaSequence && previous != null) {
-          // We try getting the next chunk without adapting in case that's the reason for falling
-          // behind the live window.
-          selectedVariantIndex = oldVariantIndex;
-          selectedUrl = variants[selectedVariantIndex];
-          mediaPlaylist = playlistTracker.getPlaylistSnapshot(selectedUrl);
-          chunkMediaSequence = previous.getNextChunkIndex();
-        }
-      }
-    } else {
+    long chunkMediaSequence =
+        getChunkMediaSequence(previous, switchingVariant, mediaPlaylist, loadPositionUs);
+    if (chunkMediaSequence < mediaPlaylist.mediaSequence && previous != null && switchingVariant) {
+      // We try getting the next chunk without adapting in case that's the reason for falling
+      // behind the live window.
+      selectedVariantIndex = oldVariantIndex;
+      selectedUrl = variants[selectedVariantIndex];
+      mediaPlaylist = playlistTracker.getPlaylistSnapshot(selectedUrl);
       chunkMediaSequence = previous.getNextChunkIndex();
     }
     if (chunkMediaSequence < mediaPlaylist.mediaSequence) {
@@ -356,7 +417,11 @@ import java.util.List;
             previous,
             mediaPlaylist.drmInitData,
             encryptionKey,
-            encryptionIv);
+            encryptionIv,
+            cipherPool);
+    if (mediaPrefetcher != null) {
+      prefetchFollowingSegments(mediaPlaylist, chunkIndex);
+    }
   }
 
   /**
@@ -415,9 +480,117 @@ import java.util.List;
     liveEdgeTimeUs = mediaPlaylist.hasEndTag ? C.TIME_UNSET : mediaPlaylist.getEndTimeUs();
   }
 
+  /**
+   * Returns the media sequence number of the segment to load next in {@code mediaPlaylist}.
+   *
+   * @param previous The last (at least partially) loaded segment, or null if no segment has been
+   *     loaded yet.
+   * @param switchingVariant Whether {@code mediaPlaylist} belongs to a different variant than
+   *     {@code previous}.
+   * @param mediaPlaylist The media playlist from which to load the next segment.
+   * @param loadPositionUs The position from which the next segment should be loaded, if {@code
+   *     previous} is null.
+   * @return The media sequence number of the next segment. May be smaller than the media sequence
+   *     number of the first segment in the playlist if it has already been removed from it, or
+   *     greater than that of the last segment if the playlist needs to be refreshed.
+   */
+  private long getChunkMediaSequence(
+      HlsMediaChunk previous,
+      boolean switchingVariant,
+      HlsMediaPlaylist mediaPlaylist,
+      long loadPositionUs) {
+    if (previous != null && !switchingVariant) {
+      return previous.getNextChunkIndex();
+    }
+    long targetPositionUs =
+        (previous == null || independentSegments) ? loadPositionUs : previous.startTimeUs;
+    if (!mediaPlaylist.hasEndTag && targetPositionUs >= mediaPlaylist.getEndTimeUs()) {
+      // If the playlist is too old to contain the chunk, we need to refresh it.
+      return mediaPlaylist.mediaSequence + mediaPlaylist.segments.size();
+    }
+    return Util.binarySearchFloor(
+            mediaPlaylist.segments,
+            targetPositionUs,
+            /* inclusive= */ true,
+            /* stayInBounds= */ !playlistTracker.isLive() || previous == null)
+        + mediaPlaylist.mediaSequence;
+  }
+
+  /**
+   * Returns a {@link MediaChunkIterator} for each track in the selection, starting at the segment
+   * that would be loaded next if that track were selected. Since most track selections don't look
+   * ahead at chunks, the segments are only looked up if an iterator is used.
+   */
+  private MediaChunkIterator[] createMediaChunkIterators(
+      final HlsMediaChunk previous, final long loadPositionUs) {
+    int oldVariantIndex =
+        previous == null ? C.INDEX_UNSET : trackGroup.indexOf(previous.trackFormat);
+    MediaChunkIterator[] chunkIterators = new MediaChunkIterator[trackSelection.length()];
+    for (int i = 0; i < chunkIterators.length; i++) {
+      int variantIndex = trackSelection.getIndexInTrackGroup(i);
+      final HlsUrl variantUrl = variants[variantIndex];
+      if (!playlistTracker.isSnapshotValid(variantUrl)) {
+        chunkIterators[i] = MediaChunkIterator.EMPTY;
+        continue;
+      }
+      final boolean switchingVariant = variantIndex != oldVariantIndex;
+      chunkIterators[i] = new LazyMediaChunkIterator() {
+        @Override
+        protected MediaChunkIterator createIterator() {
+          return newMediaChunkIterator(variantUrl, previous, switchingVariant, loadPositionUs);
+        }
+      };
+    }
+    return chunkIterators;
+  }
+
+  private MediaChunkIterator newMediaChunkIterator(HlsUrl variantUrl, HlsMediaChunk previous,
+      boolean switchingVariant, long loadPositionUs) {
+    HlsMediaPlaylist playlist =
+        playlistTracker.getPlaylistSnapshot(variantUrl, /* isForPlayback= */ false);
+    long startOfPlaylistInPeriodUs =
+        playlist.startTimeUs - playlistTracker.getInitialStartTimeUs();
+    long chunkMediaSequence =
+        getChunkMediaSequence(previous, switchingVariant, playlist, loadPositionUs);
+    if (chunkMediaSequence < playlist.mediaSequence) {
+      return MediaChunkIterator.EMPTY;
+    }
+    int chunkIndex = (int) (chunkMediaSequence - playlist.mediaSequence);
+    return new HlsMediaPlaylistSegmentIterator(playlist, startOfPlaylistInPeriodUs, chunkIndex);
+  }
+
+  /**
+   * Prefetches the segments that follow a segment in a media playlist, and the first key they're
+   * encrypted with that differs from the current key.
+   */
+  private void prefetchFollowingSegments(HlsMediaPlaylist mediaPlaylist, int chunkIndex) {
+    int lastPrefetchIndex = Math.min(chunkIndex + mediaPrefetcher.getMaxPrefetchCount(),
+        mediaPlaylist.segments.size() - 1);
+    boolean prefetchedKey = false;
+    for (int i = chunkIndex + 1; i <= lastPrefetchIndex; i++) {
+      Segment segment = mediaPlaylist.segments.get(i);
+      if (!prefetchedKey && segment.fullSegmentEncryptionKeyUri != null) {
+        Uri keyUri =
+            UriUtil.resolveToUri(mediaPlaylist.baseUri, segment.fullSegmentEncryptionKeyUri);
+        if (!keyUri.equals(encryptionKeyUri)) {
+          // The key is loaded just before the segment, as an EncryptionKeyChunk.
+          encryptionKeyPrefetcher.prefetch(newEncryptionKeyDataSpec(keyUri));
+          prefetchedKey = true;
+        }
+      }
+      Uri segmentUri = UriUtil.resolveToUri(mediaPlaylist.baseUri, segment.url);
+      mediaPrefetcher.prefetch(new DataSpec(segmentUri, segment.byterangeOffset,
+          segment.byterangeLength, null));
+    }
+  }
+
+  private static DataSpec newEncryptionKeyDataSpec(Uri keyUri) {
+    return new DataSpec(keyUri, 0, C.LENGTH_UNSET, null, DataSpec.FLAG_ALLOW_GZIP);
+  }
+
   private EncryptionKeyChunk newEncryptionKeyChunk(Uri keyUri, String iv, int variantIndex,
       int trackSelectionReason, Object trackSelectionData) {
-    DataSpec dataSpec = new DataSpec(keyUri, 0, C.LENGTH_UNSET, null, DataSpec.FLAG_ALLOW_GZIP);
+    DataSpec dataSpec = newEncryptionKeyDataSpec(keyUri);
     return new EncryptionKeyChunk(encryptionDataSource, dataSpec, variants[variantIndex].format,
         trackSelectionReason, trackSelectionData, scratchSpace, iv);
   }
@@ -522,4 +695,47 @@ import java.util.List;
 
   }
 
+  /** {@link MediaChunkIterator} wrapping a {@link HlsMediaPlaylist}. */
+  private static final class HlsMediaPlaylistSegmentIterator extends BaseMediaChunkIterator {
+
+    private final HlsMediaPlaylist playlist;
+    private final long startOfPlaylistInPeriodUs;
+
+    /**
+     * @param playlist The {@link HlsMediaPlaylist} to wrap.
+     * @param startOfPlaylistInPeriodUs The start time of the playlist in the period, in
+     *     microseconds.
+     * @param chunkIndex The index of the first segment in the playlist to iterate over.
+     */
+    public HlsMediaPlaylistSegmentIterator(
+        HlsMediaPlaylist playlist, long startOfPlaylistInPeriodUs, int chunkIndex) {
+      super(/* fromIndex= */ chunkIndex, /* toIndex= */ playlist.segments.size() - 1);
+      this.playlist = playlist;
+      this.startOfPlaylistInPeriodUs = startOfPlaylistInPeriodUs;
+    }
+
+    @Override
+    public DataSpec getDataSpec() {
+      checkInBounds();
+      Segment segment = playlist.segments.get((int) getCurrentIndex());
+      Uri chunkUri = UriUtil.resolveToUri(playlist.baseUri, segment.url);
+      return new DataSpec(chunkUri, segment.byterangeOffset, segment.byterangeLength, null);
+    }
+
+    @Override
+    public long getChunkStartTimeUs() {
+      checkInBounds();
+      Segment segment = playlist.segments.get((int) getCurrentIndex());
+      return startOfPlaylistInPeriodUs + segment.relativeStartTimeUs;
+    }
+
+    @Override
+    public long getChunkEndTimeUs() {
+      checkInBounds();
+      Segment segment = playlist.segments.get((int) getCurrentIndex());
+      return startOfPlaylistInPeriodUs + segment.relativeStartTimeUs + segment.durationUs;
+    }
+
+  }
+
 }
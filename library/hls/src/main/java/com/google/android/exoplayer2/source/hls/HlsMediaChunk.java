@@ -107,6 +107,8 @@ import java.util.concurrent.atomic.AtomicInteger;
    *     not fully encrypted.
    * @param encryptionIv The AES initialization vector, or null if the segment is not fully
    *     encrypted.
+   * @param cipherPool The {@link Aes128DataSource.CipherPool} from which to obtain the cipher used
+   *     to decrypt the segment, if it's fully encrypted.
    */
   public HlsMediaChunk(
       HlsExtractorFactory extractorFactory,
@@ -127,9 +129,10 @@ import java.util.concurrent.atomic.AtomicInteger;
       HlsMediaChunk previousChunk,
       DrmInitData drmInitData,
       byte[] fullSegmentEncryptionKey,
-      byte[] encryptionIv) {
+      byte[] encryptionIv,
+      Aes128DataSource.CipherPool cipherPool) {
     super(
-        buildDataSource(dataSource, fullSegmentEncryptionKey, encryptionIv),
+        buildDataSource(dataSource, fullSegmentEncryptionKey, encryptionIv, cipherPool),
         dataSpec,
         hlsUrl.format,
         trackSelectionReason,
@@ -249,18 +252,9 @@ import java.util.concurrent.atomic.AtomicInteger;
 
   private void loadMedia() throws IOException, InterruptedException {
     // If we previously fed part of this chunk to the extractor, we need to skip it this time. For
-    // encrypted content we need to skip the data by reading it through the source, so as to ensure
-    // correct decryption of the remainder of the chunk. For clear content, we can request the
-    // remainder of the chunk directly.
-    DataSpec loadDataSpec;
-    boolean skipLoadedBytes;
-    if (isEncrypted) {
-      loadDataSpec = dataSpec;
-      skipLoadedBytes = bytesLoaded != 0;
-    } else {
-      loadDataSpec = dataSpec.subrange(bytesLoaded);
-      skipLoadedBytes = false;
-    }
+    // clear content we can request the remainder of the chunk directly. For encrypted content the
+    // source opens the whole chunk and resumes decryption from the block that contains the offset.
+    DataSpec loadDataSpec = dataSpec.subrange(bytesLoaded);
     if (!isMasterTimestampSource) {
       timestampAdjuster.waitUntilInitialized();
     } else if (timestampAdjuster.getFirstSampleTimestampUs() == TimestampAdjuster.DO_NOT_OFFSET) {
@@ -268,17 +262,16 @@ import java.util.concurrent.atomic.AtomicInteger;
       timestampAdjuster.setFirstSampleTimestampUs(startTimeUs);
     }
     try {
+      long length = isEncrypted ? ((Aes128DataSource) dataSource).open(dataSpec, bytesLoaded)
+          : dataSource.open(loadDataSpec);
       ExtractorInput input = new DefaultExtractorInput(dataSource,
-          loadDataSpec.absoluteStreamPosition, dataSource.open(loadDataSpec));
+          loadDataSpec.absoluteStreamPosition, length);
       if (isPackedAudioExtractor && !id3TimestampPeeked) {
         long id3Timestamp = peekId3PrivTimestamp(input);
         id3TimestampPeeked = true;
         output.setSampleOffsetUs(id3Timestamp != C.TIME_UNSET
             ? timestampAdjuster.adjustTsTimestamp(id3Timestamp) : startTimeUs);
       }
-      if (skipLoadedBytes) {
-        input.skipFully(bytesLoaded);
-      }
       try {
         int result = Extractor.RESULT_CONTINUE;
         while (result == Extractor.RESULT_CONTINUE && !loadCanceled) {
@@ -351,9 +344,9 @@ import java.util.concurrent.atomic.AtomicInteger;
    * in order to decrypt the loaded data. Else returns the original.
    */
   private static DataSource buildDataSource(DataSource dataSource, byte[] fullSegmentEncryptionKey,
-      byte[] encryptionIv) {
+      byte[] encryptionIv, Aes128DataSource.CipherPool cipherPool) {
     if (fullSegmentEncryptionKey != null) {
-      return new Aes128DataSource(dataSource, fullSegmentEncryptionKey, encryptionIv);
+      return new Aes128DataSource(dataSource, cipherPool, fullSegmentEncryptionKey, encryptionIv);
     }
     return dataSource;
   }
@@ -41,6 +41,7 @@ import com.google.android.exoplayer2.upstream.ParsingLoadable;
 import com.google.android.exoplayer2.util.Assertions;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 /**
  * An HLS {@link MediaSource}.
@@ -62,6 +63,9 @@ public final class HlsMediaSource implements MediaSource,
     private CompositeSequenceableLoaderFactory compositeSequenceableLoaderFactory;
     private int minLoadableRetryCount;
     private boolean allowChunklessPreparation;
+    private @Nullable ExecutorService playlistLoadingExecutorService;
+    private boolean prefetchNeighbouringVariantPlaylists;
+    private int maxParallelSegmentLoads;
     private boolean isCreateCalled;
 
     /**
@@ -85,6 +89,7 @@ public final class HlsMediaSource implements MediaSource,
       this.hlsDataSourceFactory = Assertions.checkNotNull(hlsDataSourceFactory);
       extractorFactory = HlsExtractorFactory.DEFAULT;
       minLoadableRetryCount = DEFAULT_MIN_LOADABLE_RETRY_COUNT;
+      maxParallelSegmentLoads = 1;
       compositeSequenceableLoaderFactory = new DefaultCompositeSequenceableLoaderFactory();
     }
 
@@ -164,6 +169,56 @@ public final class HlsMediaSource implements MediaSource,
       return this;
     }
 
+    /**
+     * Sets an executor on which playlists are loaded. The executor may be shared between media
+     * sources, and is not shut down when they are released. If not set, a thread is created for
+     * the master playlist and for each media playlist.
+     *
+     * @param playlistLoadingExecutorService The executor on which playlists are loaded.
+     * @return This factory, for convenience.
+     * @throws IllegalStateException If one of the {@code create} methods has already been called.
+     */
+    public Factory setPlaylistLoadingExecutorService(
+        ExecutorService playlistLoadingExecutorService) {
+      Assertions.checkState(!isCreateCalled);
+      this.playlistLoadingExecutorService =
+          Assertions.checkNotNull(playlistLoadingExecutorService);
+      return this;
+    }
+
+    /**
+     * Sets whether the media playlists of the variants whose bitrates are next to that of the
+     * primary variant are loaded in advance, so that switching to them doesn't wait for their
+     * playlists to load. The default value is {@code false}.
+     *
+     * @param prefetchNeighbouringVariantPlaylists Whether to load the playlists of neighbouring
+     *     variants in advance.
+     * @return This factory, for convenience.
+     * @throws IllegalStateException If one of the {@code create} methods has already been called.
+     */
+    public Factory setPrefetchNeighbouringVariantPlaylists(
+        boolean prefetchNeighbouringVariantPlaylists) {
+      Assertions.checkState(!isCreateCalled);
+      this.prefetchNeighbouringVariantPlaylists = prefetchNeighbouringVariantPlaylists;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of media segment requests of each track that are in flight at the
+     * same time. If greater than one, the segments following the one that's being loaded, and the
+     * keys they're encrypted with, are prefetched into memory. The default value is 1.
+     *
+     * @param maxParallelSegmentLoads The maximum number of segment requests in flight per track.
+     * @return This factory, for convenience.
+     * @throws IllegalStateException If one of the {@code create} methods has already been called.
+     */
+    public Factory setMaxParallelSegmentLoads(int maxParallelSegmentLoads) {
+      Assertions.checkState(!isCreateCalled);
+      Assertions.checkArgument(maxParallelSegmentLoads > 0);
+      this.maxParallelSegmentLoads = maxParallelSegmentLoads;
+      return this;
+    }
+
     /**
      * Returns a new {@link HlsMediaSource} using the current parameters. Media source events will
      * not be delivered.
@@ -200,7 +255,10 @@ public final class HlsMediaSource implements MediaSource,
           eventHandler,
           eventListener,
           playlistParser,
-          allowChunklessPreparation);
+          allowChunklessPreparation,
+          playlistLoadingExecutorService,
+          prefetchNeighbouringVariantPlaylists,
+          maxParallelSegmentLoads);
     }
 
     @Override
@@ -222,6 +280,9 @@ public final class HlsMediaSource implements MediaSource,
   private final EventDispatcher eventDispatcher;
   private final ParsingLoadable.Parser<HlsPlaylist> playlistParser;
   private final boolean allowChunklessPreparation;
+  private final @Nullable ExecutorService playlistLoadingExecutorService;
+  private final boolean prefetchNeighbouringVariantPlaylists;
+  private final int maxParallelSegmentLoads;
 
   private HlsPlaylistTracker playlistTracker;
   private Listener sourceListener;
@@ -299,7 +360,10 @@ public final class HlsMediaSource implements MediaSource,
         eventHandler,
         eventListener,
         playlistParser,
-        false);
+        false,
+        null,
+        false,
+        1);
   }
 
   private HlsMediaSource(
@@ -311,7 +375,10 @@ public final class HlsMediaSource implements MediaSource,
       Handler eventHandler,
       MediaSourceEventListener eventListener,
       ParsingLoadable.Parser<HlsPlaylist> playlistParser,
-      boolean allowChunklessPreparation) {
+      boolean allowChunklessPreparation,
+      @Nullable ExecutorService playlistLoadingExecutorService,
+      boolean prefetchNeighbouringVariantPlaylists,
+      int maxParallelSegmentLoads) {
     this.manifestUri = manifestUri;
     this.dataSourceFactory = dataSourceFactory;
     this.extractorFactory = extractorFactory;
@@ -319,6 +386,9 @@ public final class HlsMediaSource implements MediaSource,
     this.minLoadableRetryCount = minLoadableRetryCount;
     this.playlistParser = playlistParser;
     this.allowChunklessPreparation = allowChunklessPreparation;
+    this.playlistLoadingExecutorService = playlistLoadingExecutorService;
+    this.prefetchNeighbouringVariantPlaylists = prefetchNeighbouringVariantPlaylists;
+    this.maxParallelSegmentLoads = maxParallelSegmentLoads;
     eventDispatcher = new EventDispatcher(eventHandler, eventListener);
   }
 
@@ -326,7 +396,8 @@ public final class HlsMediaSource implements MediaSource,
   public void prepareSource(ExoPlayer player, boolean isTopLevelSource, Listener listener) {
     sourceListener = listener;
     playlistTracker = new HlsPlaylistTracker(manifestUri, dataSourceFactory, eventDispatcher,
-        minLoadableRetryCount, this, playlistParser);
+        minLoadableRetryCount, this, playlistParser, playlistLoadingExecutorService,
+        prefetchNeighbouringVariantPlaylists);
     playlistTracker.start();
   }
 
@@ -346,7 +417,8 @@ public final class HlsMediaSource implements MediaSource,
         eventDispatcher,
         allocator,
         compositeSequenceableLoaderFactory,
-        allowChunklessPreparation);
+        allowChunklessPreparation,
+        maxParallelSegmentLoads);
   }
 
   @Override
@@ -377,6 +377,7 @@ import java.util.Arrays;
     pendingResetPositionUs = positionUs;
     loadingFinished = false;
     mediaChunks.clear();
+    chunkSource.discardPrefetches();
     if (loader.isLoading()) {
       loader.cancelLoading();
     } else {
@@ -401,6 +402,7 @@ import java.util.Arrays;
   @Override
   public void onLoaderReleased() {
     resetSampleQueues();
+    chunkSource.release();
   }
 
   public void setIsTimestampMaster(boolean isTimestampMaster) {
@@ -16,6 +16,7 @@
 package com.google.android.exoplayer2.source.hls.playlist;
 
 import android.net.Uri;
+import android.support.annotation.Nullable;
 import android.util.Base64;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.Format;
@@ -27,13 +28,13 @@ import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist.Segmen
 import com.google.android.exoplayer2.upstream.ParsingLoadable;
 import com.google.android.exoplayer2.util.MimeTypes;
 import com.google.android.exoplayer2.util.Util;
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -44,11 +45,27 @@ import java.util.regex.Pattern;
 
 /**
  * HLS playlists parsing logic.
+ *
+ * <p>Playlists are read a line at a time directly from their bytes. The tags that occur once per
+ * segment in media playlists ({@code #EXTINF}, {@code #EXT-X-BYTERANGE} and {@code #EXT-X-KEY})
+ * are parsed by hand rather than by regular expressions, since they dominate the cost of parsing
+ * large playlists.
+ *
+ * <p>A parser can be created with a previous snapshot of the media playlist it's going to parse.
+ * Since the segment with a given media sequence number can't change between refreshes, the tags of
+ * the segments that are still in the playlist aren't parsed again, and their values are taken from
+ * the snapshot. This also applies to sliding windows. The URL of each known segment is compared
+ * with the bytes of its line, and the snapshot's string is used rather than decoding it again. The
+ * {@link Segment} instances themselves are only reused if the start of the playlist hasn't moved,
+ * since {@link Segment#relativeStartTimeUs} is relative to it. This is the case for playlists that
+ * only grow, but not for sliding windows.
  */
 public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlaylist> {
 
   private static final String PLAYLIST_HEADER = "#EXTM3U";
 
+  private static final Charset UTF_8 = Charset.forName(C.UTF8_NAME);
+
   private static final String TAG_PREFIX = "#EXT";
 
   private static final String TAG_VERSION = "#EXT-X-VERSION";
@@ -89,6 +106,10 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
   private static final String BOOLEAN_FALSE = "NO";
 
   private static final String ATTR_CLOSED_CAPTIONS_NONE = "CLOSED-CAPTIONS=NONE";
+  private static final String ATTR_METHOD = "METHOD";
+  private static final String ATTR_KEYFORMAT = "KEYFORMAT";
+  private static final String ATTR_URI = "URI";
+  private static final String ATTR_IV = "IV";
 
   private static final Pattern REGEX_AVERAGE_BANDWIDTH =
       Pattern.compile("AVERAGE-BANDWIDTH=(\\d+)\\b");
@@ -104,29 +125,10 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
       + ":(.+)\\b");
   private static final Pattern REGEX_MEDIA_SEQUENCE = Pattern.compile(TAG_MEDIA_SEQUENCE
       + ":(\\d+)\\b");
-  private static final Pattern REGEX_MEDIA_DURATION = Pattern.compile(TAG_MEDIA_DURATION
-      + ":([\\d\\.]+)\\b");
   private static final Pattern REGEX_TIME_OFFSET = Pattern.compile("TIME-OFFSET=(-?[\\d\\.]+)\\b");
-  private static final Pattern REGEX_BYTERANGE = Pattern.compile(TAG_BYTERANGE
-      + ":(\\d+(?:@\\d+)?)\\b");
   private static final Pattern REGEX_ATTR_BYTERANGE =
       Pattern.compile("BYTERANGE=\"(\\d+(?:@\\d+)?)\\b\"");
-  private static final Pattern REGEX_METHOD =
-      Pattern.compile(
-          "METHOD=("
-              + METHOD_NONE
-              + "|"
-              + METHOD_AES_128
-              + "|"
-              + METHOD_SAMPLE_AES
-              + "|"
-              + METHOD_SAMPLE_AES_CENC
-              + "|"
-              + METHOD_SAMPLE_AES_CTR
-              + ")");
-  private static final Pattern REGEX_KEYFORMAT = Pattern.compile("KEYFORMAT=\"(.+?)\"");
   private static final Pattern REGEX_URI = Pattern.compile("URI=\"(.+?)\"");
-  private static final Pattern REGEX_IV = Pattern.compile("IV=([^,.*]+)");
   private static final Pattern REGEX_TYPE = Pattern.compile("TYPE=(" + TYPE_AUDIO + "|" + TYPE_VIDEO
       + "|" + TYPE_SUBTITLES + "|" + TYPE_CLOSED_CAPTIONS + ")");
   private static final Pattern REGEX_LANGUAGE = Pattern.compile("LANGUAGE=\"(.+?)\"");
@@ -138,9 +140,23 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
   private static final Pattern REGEX_DEFAULT = compileBooleanAttrPattern("DEFAULT");
   private static final Pattern REGEX_FORCED = compileBooleanAttrPattern("FORCED");
 
+  private final HlsMediaPlaylist previousMediaPlaylist;
+
+  public HlsPlaylistParser() {
+    this(null);
+  }
+
+  /**
+   * @param previousMediaPlaylist A previous snapshot of the media playlist to be parsed, whose
+   *     segment values are reused where the playlists overlap, or null.
+   */
+  public HlsPlaylistParser(HlsMediaPlaylist previousMediaPlaylist) {
+    this.previousMediaPlaylist = previousMediaPlaylist;
+  }
+
   @Override
   public HlsPlaylist parse(Uri uri, InputStream inputStream) throws IOException {
-    BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+    LineReader reader = new LineReader(inputStream);
     Queue<String> extraLines = new ArrayDeque<>();
     String line;
     try {
@@ -149,10 +165,7 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
             uri);
       }
       while ((line = reader.readLine()) != null) {
-        line = line.trim();
-        if (line.isEmpty()) {
-          // Do nothing.
-        } else if (line.startsWith(TAG_STREAM_INF)) {
+        if (line.startsWith(TAG_STREAM_INF)) {
           extraLines.add(line);
           return parseMasterPlaylist(new LineIterator(extraLines, reader), uri.toString());
         } else if (line.startsWith(TAG_TARGET_DURATION)
@@ -164,18 +177,19 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
             || line.equals(TAG_DISCONTINUITY_SEQUENCE)
             || line.equals(TAG_ENDLIST)) {
           extraLines.add(line);
-          return parseMediaPlaylist(new LineIterator(extraLines, reader), uri.toString());
+          return parseMediaPlaylist(new LineIterator(extraLines, reader), uri.toString(),
+              previousMediaPlaylist);
         } else {
           extraLines.add(line);
         }
       }
     } finally {
-      Util.closeQuietly(reader);
+      Util.closeQuietly(inputStream);
     }
     throw new ParserException("Failed to parse the playlist, could not identify any tags.");
   }
 
-  private static boolean checkPlaylistHeader(BufferedReader reader) throws IOException {
+  private static boolean checkPlaylistHeader(LineReader reader) throws IOException {
     int last = reader.read();
     if (last == 0xEF) {
       if (reader.read() != 0xBB || reader.read() != 0xBF) {
@@ -196,7 +210,7 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
     return Util.isLinebreak(last);
   }
 
-  private static int skipIgnorableWhitespace(BufferedReader reader, boolean skipLinebreaks, int c)
+  private static int skipIgnorableWhitespace(LineReader reader, boolean skipLinebreaks, int c)
       throws IOException {
     while (c != -1 && Character.isWhitespace(c) && (skipLinebreaks || !Util.isLinebreak(c))) {
       c = reader.read();
@@ -336,8 +350,8 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
         | (parseBooleanAttribute(line, REGEX_AUTOSELECT, false) ? C.SELECTION_FLAG_AUTOSELECT : 0);
   }
 
-  private static HlsMediaPlaylist parseMediaPlaylist(LineIterator iterator, String baseUri)
-      throws IOException {
+  private static HlsMediaPlaylist parseMediaPlaylist(LineIterator iterator, String baseUri,
+      HlsMediaPlaylist previousMediaPlaylist) throws IOException {
     @HlsMediaPlaylist.PlaylistType int playlistType = HlsMediaPlaylist.PLAYLIST_TYPE_UNKNOWN;
     long startOffsetUs = C.TIME_UNSET;
     long mediaSequence = 0;
@@ -363,8 +377,14 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
     String encryptionKeyUri = null;
     String encryptionIV = null;
     DrmInitData drmInitData = null;
+    long[] parsedByteRange = new long[2];
+    // The #EXTINF and #EXT-X-BYTERANGE tags of the next segment, if their parsing has been deferred
+    // because the segment may be reused from the previous playlist.
+    String deferredMediaDurationLine = null;
+    String deferredByteRangeLine = null;
 
     String line;
+    iterator.setExpectedLine(getSegmentUrl(previousMediaPlaylist, segmentMediaSequence));
     while (iterator.hasNext()) {
       line = iterator.next();
 
@@ -373,49 +393,117 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
         tags.add(line);
       }
 
-      if (line.startsWith(TAG_PLAYLIST_TYPE)) {
-        String playlistTypeString = parseStringAttr(line, REGEX_PLAYLIST_TYPE);
-        if ("VOD".equals(playlistTypeString)) {
-          playlistType = HlsMediaPlaylist.PLAYLIST_TYPE_VOD;
-        } else if ("EVENT".equals(playlistTypeString)) {
-          playlistType = HlsMediaPlaylist.PLAYLIST_TYPE_EVENT;
+      // Check for the tags that occur once per segment first.
+      if (line.charAt(0) != '#') {
+        Segment previousSegment = getSegment(previousMediaPlaylist, segmentMediaSequence);
+        if (previousSegment != null && !previousSegment.url.equals(line)) {
+          // The server has changed the segment, so it can't be reused.
+          previousSegment = null;
         }
-      } else if (line.startsWith(TAG_START)) {
-        startOffsetUs = (long) (parseDoubleAttr(line, REGEX_TIME_OFFSET) * C.MICROS_PER_SECOND);
-      } else if (line.startsWith(TAG_INIT_SEGMENT)) {
-        String uri = parseStringAttr(line, REGEX_URI);
-        String byteRange = parseOptionalStringAttr(line, REGEX_ATTR_BYTERANGE);
-        if (byteRange != null) {
-          String[] splitByteRange = byteRange.split("@");
-          segmentByteRangeLength = Long.parseLong(splitByteRange[0]);
-          if (splitByteRange.length > 1) {
-            segmentByteRangeOffset = Long.parseLong(splitByteRange[1]);
+        if (previousSegment != null) {
+          segmentDurationUs = previousSegment.durationUs;
+          if (deferredByteRangeLine != null) {
+            segmentByteRangeLength = previousSegment.byterangeLength;
+            segmentByteRangeOffset = previousSegment.byterangeOffset;
+          }
+        } else {
+          if (deferredMediaDurationLine != null) {
+            segmentDurationUs =
+                (long) (parseMediaDuration(deferredMediaDurationLine) * C.MICROS_PER_SECOND);
+          }
+          if (deferredByteRangeLine != null) {
+            parseByteRange(deferredByteRangeLine, TAG_BYTERANGE.length() + 1, parsedByteRange);
+            segmentByteRangeLength = parsedByteRange[0];
+            if (parsedByteRange[1] != C.POSITION_UNSET) {
+              segmentByteRangeOffset = parsedByteRange[1];
+            }
           }
         }
-        initializationSegment = new Segment(uri, segmentByteRangeOffset, segmentByteRangeLength);
-        segmentByteRangeOffset = 0;
+        deferredMediaDurationLine = null;
+        deferredByteRangeLine = null;
+        String segmentEncryptionIV;
+        if (encryptionKeyUri == null) {
+          segmentEncryptionIV = null;
+        } else if (encryptionIV != null) {
+          segmentEncryptionIV = encryptionIV;
+        } else if (previousSegment != null
+            && encryptionKeyUri.equals(previousSegment.fullSegmentEncryptionKeyUri)
+            && isHexString(previousSegment.encryptionIV, segmentMediaSequence)) {
+          // The IV of the previous segment was also derived from the media sequence number.
+          segmentEncryptionIV = previousSegment.encryptionIV;
+        } else {
+          segmentEncryptionIV = Long.toHexString(segmentMediaSequence);
+        }
+        segmentMediaSequence++;
+        iterator.setExpectedLine(getSegmentUrl(previousMediaPlaylist, segmentMediaSequence));
+        if (segmentByteRangeLength == C.LENGTH_UNSET) {
+          segmentByteRangeOffset = 0;
+        }
+        if (previousSegment != null
+            && previousSegment.relativeDiscontinuitySequence == relativeDiscontinuitySequence
+            && previousSegment.relativeStartTimeUs == segmentStartTimeUs
+            && previousSegment.byterangeOffset == segmentByteRangeOffset
+            && previousSegment.byterangeLength == segmentByteRangeLength
+            && previousSegment.hasGapTag == hasGapTag
+            && Util.areEqual(previousSegment.fullSegmentEncryptionKeyUri, encryptionKeyUri)
+            && Util.areEqual(previousSegment.encryptionIV, segmentEncryptionIV)) {
+          segments.add(previousSegment);
+        } else {
+          segments.add(
+              new Segment(
+                  line,
+                  segmentDurationUs,
+                  relativeDiscontinuitySequence,
+                  segmentStartTimeUs,
+                  encryptionKeyUri,
+                  segmentEncryptionIV,
+                  segmentByteRangeOffset,
+                  segmentByteRangeLength,
+                  hasGapTag));
+        }
+        segmentStartTimeUs += segmentDurationUs;
+        segmentDurationUs = 0;
+        if (segmentByteRangeLength != C.LENGTH_UNSET) {
+          segmentByteRangeOffset += segmentByteRangeLength;
+        }
         segmentByteRangeLength = C.LENGTH_UNSET;
-      } else if (line.startsWith(TAG_TARGET_DURATION)) {
-        targetDurationUs = parseIntAttr(line, REGEX_TARGET_DURATION) * C.MICROS_PER_SECOND;
-      } else if (line.startsWith(TAG_MEDIA_SEQUENCE)) {
-        mediaSequence = parseLongAttr(line, REGEX_MEDIA_SEQUENCE);
-        segmentMediaSequence = mediaSequence;
-      } else if (line.startsWith(TAG_VERSION)) {
-        version = parseIntAttr(line, REGEX_VERSION);
+        hasGapTag = false;
       } else if (line.startsWith(TAG_MEDIA_DURATION)) {
-        segmentDurationUs =
-            (long) (parseDoubleAttr(line, REGEX_MEDIA_DURATION) * C.MICROS_PER_SECOND);
+        if (getSegment(previousMediaPlaylist, segmentMediaSequence) != null) {
+          deferredMediaDurationLine = line;
+        } else {
+          segmentDurationUs = (long) (parseMediaDuration(line) * C.MICROS_PER_SECOND);
+        }
+      } else if (line.startsWith(TAG_BYTERANGE)) {
+        if (getSegment(previousMediaPlaylist, segmentMediaSequence) != null) {
+          deferredByteRangeLine = line;
+        } else {
+          parseByteRange(line, TAG_BYTERANGE.length() + 1, parsedByteRange);
+          segmentByteRangeLength = parsedByteRange[0];
+          if (parsedByteRange[1] != C.POSITION_UNSET) {
+            segmentByteRangeOffset = parsedByteRange[1];
+          }
+        }
       } else if (line.startsWith(TAG_KEY)) {
-        String method = parseOptionalStringAttr(line, REGEX_METHOD);
-        String keyFormat = parseOptionalStringAttr(line, REGEX_KEYFORMAT);
+        String method = parseOptionalAttr(line, ATTR_METHOD);
+        if (method != null && !METHOD_NONE.equals(method) && !METHOD_AES_128.equals(method)
+            && !METHOD_SAMPLE_AES.equals(method) && !METHOD_SAMPLE_AES_CENC.equals(method)
+            && !METHOD_SAMPLE_AES_CTR.equals(method)) {
+          // Ignore unsupported methods.
+          method = null;
+        }
+        String keyFormat = parseOptionalAttr(line, ATTR_KEYFORMAT);
         encryptionKeyUri = null;
         encryptionIV = null;
         if (!METHOD_NONE.equals(method)) {
-          encryptionIV = parseOptionalStringAttr(line, REGEX_IV);
+          encryptionIV = parseOptionalAttr(line, ATTR_IV);
           if (KEYFORMAT_IDENTITY.equals(keyFormat) || keyFormat == null) {
             if (METHOD_AES_128.equals(method)) {
               // The segment is fully encrypted using an identity key.
-              encryptionKeyUri = parseStringAttr(line, REGEX_URI);
+              encryptionKeyUri = parseOptionalAttr(line, ATTR_URI);
+              if (encryptionKeyUri == null) {
+                throw new ParserException("Couldn't find URI in " + line);
+              }
             } else {
               // Do nothing. Samples are encrypted using an identity key, but this is not supported.
               // Hopefully, a traditional DRM alternative is also provided.
@@ -433,13 +521,36 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
             }
           }
         }
-      } else if (line.startsWith(TAG_BYTERANGE)) {
-        String byteRange = parseStringAttr(line, REGEX_BYTERANGE);
-        String[] splitByteRange = byteRange.split("@");
-        segmentByteRangeLength = Long.parseLong(splitByteRange[0]);
-        if (splitByteRange.length > 1) {
-          segmentByteRangeOffset = Long.parseLong(splitByteRange[1]);
+      } else if (line.startsWith(TAG_PLAYLIST_TYPE)) {
+        String playlistTypeString = parseStringAttr(line, REGEX_PLAYLIST_TYPE);
+        if ("VOD".equals(playlistTypeString)) {
+          playlistType = HlsMediaPlaylist.PLAYLIST_TYPE_VOD;
+        } else if ("EVENT".equals(playlistTypeString)) {
+          playlistType = HlsMediaPlaylist.PLAYLIST_TYPE_EVENT;
         }
+      } else if (line.startsWith(TAG_START)) {
+        startOffsetUs = (long) (parseDoubleAttr(line, REGEX_TIME_OFFSET) * C.MICROS_PER_SECOND);
+      } else if (line.startsWith(TAG_INIT_SEGMENT)) {
+        String uri = parseStringAttr(line, REGEX_URI);
+        String byteRange = parseOptionalStringAttr(line, REGEX_ATTR_BYTERANGE);
+        if (byteRange != null) {
+          String[] splitByteRange = byteRange.split("@");
+          segmentByteRangeLength = Long.parseLong(splitByteRange[0]);
+          if (splitByteRange.length > 1) {
+            segmentByteRangeOffset = Long.parseLong(splitByteRange[1]);
+          }
+        }
+        initializationSegment = new Segment(uri, segmentByteRangeOffset, segmentByteRangeLength);
+        segmentByteRangeOffset = 0;
+        segmentByteRangeLength = C.LENGTH_UNSET;
+      } else if (line.startsWith(TAG_TARGET_DURATION)) {
+        targetDurationUs = parseIntAttr(line, REGEX_TARGET_DURATION) * C.MICROS_PER_SECOND;
+      } else if (line.startsWith(TAG_MEDIA_SEQUENCE)) {
+        mediaSequence = parseLongAttr(line, REGEX_MEDIA_SEQUENCE);
+        segmentMediaSequence = mediaSequence;
+        iterator.setExpectedLine(getSegmentUrl(previousMediaPlaylist, segmentMediaSequence));
+      } else if (line.startsWith(TAG_VERSION)) {
+        version = parseIntAttr(line, REGEX_VERSION);
       } else if (line.startsWith(TAG_DISCONTINUITY_SEQUENCE)) {
         hasDiscontinuitySequence = true;
         playlistDiscontinuitySequence = Integer.parseInt(line.substring(line.indexOf(':') + 1));
@@ -457,37 +568,6 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
         hasIndependentSegmentsTag = true;
       } else if (line.equals(TAG_ENDLIST)) {
         hasEndTag = true;
-      } else if (!line.startsWith("#")) {
-        String segmentEncryptionIV;
-        if (encryptionKeyUri == null) {
-          segmentEncryptionIV = null;
-        } else if (encryptionIV != null) {
-          segmentEncryptionIV = encryptionIV;
-        } else {
-          segmentEncryptionIV = Long.toHexString(segmentMediaSequence);
-        }
-        segmentMediaSequence++;
-        if (segmentByteRangeLength == C.LENGTH_UNSET) {
-          segmentByteRangeOffset = 0;
-        }
-        segments.add(
-            new Segment(
-                line,
-                segmentDurationUs,
-                relativeDiscontinuitySequence,
-                segmentStartTimeUs,
-                encryptionKeyUri,
-                segmentEncryptionIV,
-                segmentByteRangeOffset,
-                segmentByteRangeLength,
-                hasGapTag));
-        segmentStartTimeUs += segmentDurationUs;
-        segmentDurationUs = 0;
-        if (segmentByteRangeLength != C.LENGTH_UNSET) {
-          segmentByteRangeOffset += segmentByteRangeLength;
-        }
-        segmentByteRangeLength = C.LENGTH_UNSET;
-        hasGapTag = false;
       }
     }
     return new HlsMediaPlaylist(playlistType, baseUri, tags, startOffsetUs, playlistStartTimeUs,
@@ -496,6 +576,42 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
         drmInitData, initializationSegment, segments);
   }
 
+  /**
+   * Returns the segment of a playlist with the specified media sequence number, or null if the
+   * playlist is null or doesn't contain it.
+   */
+  private static Segment getSegment(HlsMediaPlaylist playlist, long mediaSequence) {
+    if (playlist == null) {
+      return null;
+    }
+    long index = mediaSequence - playlist.mediaSequence;
+    return index >= 0 && index < playlist.segments.size()
+        ? playlist.segments.get((int) index) : null;
+  }
+
+  private static @Nullable String getSegmentUrl(HlsMediaPlaylist playlist, long mediaSequence) {
+    Segment segment = getSegment(playlist, mediaSequence);
+    return segment != null ? segment.url : null;
+  }
+
+  /**
+   * Returns whether {@code string} is equal to {@code Long.toHexString(value)}, without creating the
+   * hex string.
+   */
+  private static boolean isHexString(@Nullable String string, long value) {
+    if (string == null) {
+      return false;
+    }
+    int index = string.length();
+    do {
+      if (index == 0 || string.charAt(--index) != Character.forDigit((int) (value & 0xF), 16)) {
+        return false;
+      }
+      value >>>= 4;
+    } while (value != 0);
+    return index == 0;
+  }
+
   private static SchemeData parseWidevineSchemeData(String line, String keyFormat)
       throws ParserException {
     if (KEYFORMAT_WIDEVINE_PSSH_BINARY.equals(keyFormat)) {
@@ -513,6 +629,109 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
     return null;
   }
 
+  /** Parses the duration of an {@code #EXTINF} tag, in seconds. */
+  private static double parseMediaDuration(String line) throws ParserException {
+    int start = TAG_MEDIA_DURATION.length() + 1;
+    int end = start;
+    if (start <= line.length() && line.charAt(start - 1) == ':') {
+      while (end < line.length() && (isDigit(line.charAt(end)) || line.charAt(end) == '.')) {
+        end++;
+      }
+    }
+    if (end == start) {
+      throw new ParserException("Couldn't parse duration in " + line);
+    }
+    try {
+      return Double.parseDouble(line.substring(start, end));
+    } catch (NumberFormatException e) {
+      throw new ParserException(e);
+    }
+  }
+
+  /**
+   * Parses a byte range of the form {@code <length>[@<offset>]}.
+   *
+   * @param line The line containing the byte range.
+   * @param position The position in {@code line} at which the byte range starts.
+   * @param byteRange An array into which the length and offset of the byte range are written. The
+   *     offset is set to {@link C#POSITION_UNSET} if it's not specified.
+   * @throws ParserException If the line doesn't contain a byte range at {@code position}.
+   */
+  private static void parseByteRange(String line, int position, long[] byteRange)
+      throws ParserException {
+    int lengthEnd = skipDigits(line, position);
+    if (lengthEnd == position || line.charAt(position - 1) != ':') {
+      throw new ParserException("Couldn't parse byte range in " + line);
+    }
+    byteRange[0] = parseDigits(line, position, lengthEnd);
+    byteRange[1] = C.POSITION_UNSET;
+    if (lengthEnd < line.length() && line.charAt(lengthEnd) == '@') {
+      int offsetEnd = skipDigits(line, lengthEnd + 1);
+      if (offsetEnd > lengthEnd + 1) {
+        byteRange[1] = parseDigits(line, lengthEnd + 1, offsetEnd);
+      }
+    }
+  }
+
+  /**
+   * Returns the value of an attribute in the attribute list of a tag, without any enclosing quotes,
+   * or null if the attribute isn't present or its value is empty.
+   */
+  private static String parseOptionalAttr(String line, String name) {
+    int length = line.length();
+    int position = line.indexOf(':') + 1;
+    while (position > 0 && position < length) {
+      int equalsIndex = line.indexOf('=', position);
+      if (equalsIndex == -1) {
+        return null;
+      }
+      boolean isNameMatch = equalsIndex - position == name.length()
+          && line.regionMatches(position, name, 0, name.length());
+      int valueStart = equalsIndex + 1;
+      int valueEnd;
+      if (valueStart < length && line.charAt(valueStart) == '"') {
+        valueStart++;
+        valueEnd = line.indexOf('"', valueStart);
+        if (valueEnd == -1) {
+          return null;
+        }
+      } else {
+        valueEnd = line.indexOf(',', valueStart);
+        if (valueEnd == -1) {
+          valueEnd = length;
+        }
+      }
+      if (isNameMatch) {
+        return valueEnd > valueStart ? line.substring(valueStart, valueEnd) : null;
+      }
+      position = line.indexOf(',', valueEnd) + 1;
+    }
+    return null;
+  }
+
+  private static int skipDigits(String line, int position) {
+    while (position < line.length() && isDigit(line.charAt(position))) {
+      position++;
+    }
+    return position;
+  }
+
+  private static long parseDigits(String line, int start, int end) {
+    if (end - start > 18) {
+      // The value may overflow a long.
+      return Long.parseLong(line.substring(start, end));
+    }
+    long value = 0;
+    for (int i = start; i < end; i++) {
+      value = value * 10 + (line.charAt(i) - '0');
+    }
+    return value;
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
   private static int parseIntAttr(String line, Pattern pattern) throws ParserException {
     return Integer.parseInt(parseStringAttr(line, pattern));
   }
@@ -552,12 +771,12 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
 
   private static class LineIterator {
 
-    private final BufferedReader reader;
+    private final LineReader reader;
     private final Queue<String> extraLines;
 
     private String next;
 
-    public LineIterator(Queue<String> extraLines, BufferedReader reader) {
+    public LineIterator(Queue<String> extraLines, LineReader reader) {
       this.extraLines = extraLines;
       this.reader = reader;
     }
@@ -570,13 +789,13 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
         next = extraLines.poll();
         return true;
       }
-      while ((next = reader.readLine()) != null) {
-        next = next.trim();
-        if (!next.isEmpty()) {
-          return true;
-        }
-      }
-      return false;
+      next = reader.readLine();
+      return next != null;
+    }
+
+    /** See {@link LineReader#setExpectedLine(String)}. */
+    public void setExpectedLine(@Nullable String expectedLine) {
+      reader.setExpectedLine(expectedLine);
     }
 
     public String next() throws IOException {
@@ -590,4 +809,119 @@ public final class HlsPlaylistParser implements ParsingLoadable.Parser<HlsPlayli
 
   }
 
+  /**
+   * Reads the lines of a playlist directly from its bytes. Whitespace is trimmed from each line,
+   * and empty lines are skipped.
+   */
+  private static final class LineReader {
+
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+    private final InputStream inputStream;
+
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private boolean endOfInput;
+    private @Nullable String expectedLine;
+
+    public LineReader(InputStream inputStream) {
+      this.inputStream = inputStream;
+      buffer = new byte[INITIAL_BUFFER_SIZE];
+    }
+
+    /**
+     * Sets a line that's returned instead of a new string if the next line read is equal to it, or
+     * null.
+     */
+    public void setExpectedLine(@Nullable String expectedLine) {
+      this.expectedLine = expectedLine;
+    }
+
+    /** Reads a single byte, or returns -1 if the end of the input has been reached. */
+    public int read() throws IOException {
+      if (position == limit) {
+        position = 0;
+        limit = 0;
+        while (limit == 0 && !endOfInput) {
+          readMoreData();
+        }
+        if (limit == 0) {
+          return -1;
+        }
+      }
+      return buffer[position++] & 0xFF;
+    }
+
+    /**
+     * Reads the next non-empty line, with leading and trailing whitespace removed, or returns null
+     * if the end of the input has been reached.
+     */
+    public String readLine() throws IOException {
+      while (true) {
+        int lineStart = position;
+        int lineEnd = position;
+        while (true) {
+          while (lineEnd < limit && buffer[lineEnd] != '\n' && buffer[lineEnd] != '\r') {
+            lineEnd++;
+          }
+          if (lineEnd < limit || endOfInput) {
+            break;
+          }
+          // The line continues beyond the buffered data. Move it to the start of the buffer,
+          // growing the buffer if it's already full, and read more data.
+          if (lineStart > 0) {
+            System.arraycopy(buffer, lineStart, buffer, 0, limit - lineStart);
+            limit -= lineStart;
+            lineEnd -= lineStart;
+            lineStart = 0;
+          }
+          if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+          }
+          readMoreData();
+        }
+        if (lineStart == limit) {
+          position = limit;
+          return null;
+        }
+        // Skip the line break, if there is one.
+        position = lineEnd < limit ? lineEnd + 1 : lineEnd;
+        while (lineStart < lineEnd && (buffer[lineStart] & 0xFF) <= ' ') {
+          lineStart++;
+        }
+        while (lineEnd > lineStart && (buffer[lineEnd - 1] & 0xFF) <= ' ') {
+          lineEnd--;
+        }
+        if (lineStart < lineEnd) {
+          return expectedLine != null && isEqual(expectedLine, buffer, lineStart, lineEnd)
+              ? expectedLine : new String(buffer, lineStart, lineEnd - lineStart, UTF_8);
+        }
+      }
+    }
+
+    private static boolean isEqual(String line, byte[] bytes, int start, int end) {
+      if (line.length() != end - start) {
+        return false;
+      }
+      for (int i = start; i < end; i++) {
+        // Non-ASCII bytes are negative, so they never match.
+        if (line.charAt(i - start) != bytes[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void readMoreData() throws IOException {
+      int bytesRead = inputStream.read(buffer, limit, buffer.length - limit);
+      if (bytesRead == C.RESULT_END_OF_INPUT) {
+        endOfInput = true;
+      } else {
+        limit += bytesRead;
+      }
+    }
+
+  }
+
 }
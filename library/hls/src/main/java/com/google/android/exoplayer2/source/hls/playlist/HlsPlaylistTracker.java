@@ -18,6 +18,7 @@ package com.google.android.exoplayer2.source.hls.playlist;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.SystemClock;
+import android.support.annotation.Nullable;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.ParserException;
 import com.google.android.exoplayer2.source.MediaSourceEventListener.EventDispatcher;
@@ -33,6 +34,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Tracks playlists linked to a provided playlist url. The provided url might reference an HLS
@@ -122,6 +124,8 @@ public final class HlsPlaylistTracker implements Loader.Callback<ParsingLoadable
   private final List<PlaylistEventListener> listeners;
   private final Loader initialPlaylistLoader;
   private final EventDispatcher eventDispatcher;
+  private final @Nullable ExecutorService loadingExecutorService;
+  private final boolean prefetchNeighbouringVariants;
 
   private HlsMasterPlaylist masterPlaylist;
   private HlsUrl primaryHlsUrl;
@@ -138,19 +142,46 @@ public final class HlsPlaylistTracker implements Loader.Callback<ParsingLoadable
    *     {@link #maybeThrowPlaylistRefreshError(HlsUrl)} and
    *     {@link #maybeThrowPrimaryPlaylistRefreshError()} propagate any loading errors.
    * @param primaryPlaylistListener A callback for the primary playlist change events.
+   * @param playlistParser A {@link ParsingLoadable.Parser} for HLS playlists.
    */
   public HlsPlaylistTracker(Uri initialPlaylistUri, HlsDataSourceFactory dataSourceFactory,
       EventDispatcher eventDispatcher, int minRetryCount,
       PrimaryPlaylistListener primaryPlaylistListener,
       ParsingLoadable.Parser<HlsPlaylist> playlistParser) {
+    this(initialPlaylistUri, dataSourceFactory, eventDispatcher, minRetryCount,
+        primaryPlaylistListener, playlistParser, null, false);
+  }
+
+  /**
+   * @param initialPlaylistUri Uri for the initial playlist of the stream. Can refer a media
+   *     playlist or a master playlist.
+   * @param dataSourceFactory A factory for {@link DataSource} instances.
+   * @param eventDispatcher A dispatcher to notify of events.
+   * @param minRetryCount The minimum number of times loads must be retried before
+   *     {@link #maybeThrowPlaylistRefreshError(HlsUrl)} and
+   *     {@link #maybeThrowPrimaryPlaylistRefreshError()} propagate any loading errors.
+   * @param primaryPlaylistListener A callback for the primary playlist change events.
+   * @param playlistParser A {@link ParsingLoadable.Parser} for HLS playlists.
+   * @param loadingExecutorService An executor on which all playlists are loaded, or null to load
+   *     each playlist on a thread of its own.
+   * @param prefetchNeighbouringVariants Whether to load the playlists of the variants whose
+   *     bitrates are next to that of the primary variant whenever the primary playlist is loaded.
+   */
+  public HlsPlaylistTracker(Uri initialPlaylistUri, HlsDataSourceFactory dataSourceFactory,
+      EventDispatcher eventDispatcher, int minRetryCount,
+      PrimaryPlaylistListener primaryPlaylistListener,
+      ParsingLoadable.Parser<HlsPlaylist> playlistParser,
+      @Nullable ExecutorService loadingExecutorService, boolean prefetchNeighbouringVariants) {
     this.initialPlaylistUri = initialPlaylistUri;
     this.dataSourceFactory = dataSourceFactory;
     this.eventDispatcher = eventDispatcher;
     this.minRetryCount = minRetryCount;
     this.primaryPlaylistListener = primaryPlaylistListener;
     this.playlistParser = playlistParser;
+    this.loadingExecutorService = loadingExecutorService;
+    this.prefetchNeighbouringVariants = prefetchNeighbouringVariants;
     listeners = new ArrayList<>();
-    initialPlaylistLoader = new Loader("HlsPlaylistTracker:MasterPlaylist");
+    initialPlaylistLoader = createLoader("HlsPlaylistTracker:MasterPlaylist");
     playlistBundles = new IdentityHashMap<>();
     playlistRefreshHandler = new Handler();
     initialStartTimeUs = C.TIME_UNSET;
@@ -202,8 +233,22 @@ public final class HlsPlaylistTracker implements Loader.Callback<ParsingLoadable
    *     be null if no snapshot has been loaded yet.
    */
   public HlsMediaPlaylist getPlaylistSnapshot(HlsUrl url) {
+    return getPlaylistSnapshot(url, /* isForPlayback= */ true);
+  }
+
+  /**
+   * Returns the most recent snapshot available of the playlist referenced by the provided
+   * {@link HlsUrl}.
+   *
+   * @param url The {@link HlsUrl} corresponding to the requested media playlist.
+   * @param isForPlayback Whether the caller might use the snapshot to request media segments for
+   *     playback. If true, the primary playlist may be updated to the one requested.
+   * @return The most recent snapshot of the playlist referenced by the provided {@link HlsUrl}. May
+   *     be null if no snapshot has been loaded yet.
+   */
+  public HlsMediaPlaylist getPlaylistSnapshot(HlsUrl url, boolean isForPlayback) {
     HlsMediaPlaylist snapshot = playlistBundles.get(url).getPlaylistSnapshot();
-    if (snapshot != null) {
+    if (snapshot != null && isForPlayback) {
       maybeSetPrimaryUrl(url);
     }
     return snapshot;
@@ -357,6 +402,42 @@ public final class HlsPlaylistTracker implements Loader.Callback<ParsingLoadable
     playlistBundles.get(primaryHlsUrl).loadPlaylist();
   }
 
+  private Loader createLoader(String threadName) {
+    return loadingExecutorService != null ? new Loader(loadingExecutorService)
+        : new Loader(threadName);
+  }
+
+  /**
+   * Loads the playlists of the variants with the next lower and the next higher bitrates than the
+   * primary variant, if they don't have a valid snapshot.
+   */
+  private void prefetchNeighbouringVariantPlaylists() {
+    List<HlsUrl> variants = masterPlaylist.variants;
+    int primaryBitrate = primaryHlsUrl.format.bitrate;
+    HlsUrl lowerVariant = null;
+    HlsUrl higherVariant = null;
+    for (int i = 0; i < variants.size(); i++) {
+      HlsUrl variant = variants.get(i);
+      int bitrate = variant.format.bitrate;
+      if (variant == primaryHlsUrl) {
+        continue;
+      }
+      if (bitrate <= primaryBitrate
+          && (lowerVariant == null || bitrate > lowerVariant.format.bitrate)) {
+        lowerVariant = variant;
+      } else if (bitrate > primaryBitrate
+          && (higherVariant == null || bitrate < higherVariant.format.bitrate)) {
+        higherVariant = variant;
+      }
+    }
+    if (lowerVariant != null) {
+      playlistBundles.get(lowerVariant).prefetchPlaylist();
+    }
+    if (higherVariant != null) {
+      playlistBundles.get(higherVariant).prefetchPlaylist();
+    }
+  }
+
   private void createBundles(List<HlsUrl> urls) {
     int listSize = urls.size();
     for (int i = 0; i < listSize; i++) {
@@ -470,7 +551,7 @@ public final class HlsPlaylistTracker implements Loader.Callback<ParsingLoadable
 
     private final HlsUrl playlistUrl;
     private final Loader mediaPlaylistLoader;
-    private final ParsingLoadable<HlsPlaylist> mediaPlaylistLoadable;
+    private final Uri mediaPlaylistUri;
 
     private HlsMediaPlaylist playlistSnapshot;
     private long lastSnapshotLoadMs;
@@ -482,11 +563,8 @@ public final class HlsPlaylistTracker implements Loader.Callback<ParsingLoadable
 
     public MediaPlaylistBundle(HlsUrl playlistUrl) {
       this.playlistUrl = playlistUrl;
-      mediaPlaylistLoader = new Loader("HlsPlaylistTracker:MediaPlaylist");
-      mediaPlaylistLoadable = new ParsingLoadable<>(
-          dataSourceFactory.createDataSource(C.DATA_TYPE_MANIFEST),
-          UriUtil.resolveToUri(masterPlaylist.baseUri, playlistUrl.url), C.DATA_TYPE_MANIFEST,
-          playlistParser);
+      mediaPlaylistLoader = createLoader("HlsPlaylistTracker:MediaPlaylist");
+      mediaPlaylistUri = UriUtil.resolveToUri(masterPlaylist.baseUri, playlistUrl.url);
     }
 
     public HlsMediaPlaylist getPlaylistSnapshot() {
@@ -524,6 +602,18 @@ public final class HlsPlaylistTracker implements Loader.Callback<ParsingLoadable
       }
     }
 
+    /**
+     * Loads the playlist if it doesn't have a valid snapshot, unless it's blacklisted or a load is
+     * already pending or in progress.
+     */
+    public void prefetchPlaylist() {
+      if (loadPending || mediaPlaylistLoader.isLoading() || isSnapshotValid()
+          || SystemClock.elapsedRealtime() < blacklistUntilMs) {
+        return;
+      }
+      loadPlaylist();
+    }
+
     public void maybeThrowPlaylistRefreshError() throws IOException {
       mediaPlaylistLoader.maybeThrowError();
       if (playlistError != null) {
@@ -580,6 +670,16 @@ public final class HlsPlaylistTracker implements Loader.Callback<ParsingLoadable
     // Internal methods.
 
     private void loadPlaylistImmediately() {
+      ParsingLoadable.Parser<HlsPlaylist> parser = playlistParser;
+      if (playlistSnapshot != null && !playlistSnapshot.hasEndTag
+          && playlistParser instanceof HlsPlaylistParser) {
+        // Take the values of known segments from the current snapshot when parsing the refreshed
+        // playlist. Custom parsers are used as they are.
+        parser = new HlsPlaylistParser(playlistSnapshot);
+      }
+      ParsingLoadable<HlsPlaylist> mediaPlaylistLoadable = new ParsingLoadable<>(
+          dataSourceFactory.createDataSource(C.DATA_TYPE_MANIFEST), mediaPlaylistUri,
+          C.DATA_TYPE_MANIFEST, parser);
       mediaPlaylistLoader.startLoading(mediaPlaylistLoadable, this, minRetryCount);
     }
 
@@ -615,6 +715,9 @@ public final class HlsPlaylistTracker implements Loader.Callback<ParsingLoadable
       if (playlistUrl == primaryHlsUrl && !playlistSnapshot.hasEndTag) {
         loadPlaylist();
       }
+      if (playlistUrl == primaryHlsUrl && prefetchNeighbouringVariants) {
+        prefetchNeighbouringVariantPlaylists();
+      }
     }
 
     /**
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.source.hls;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.Uri;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.testutil.TestUtil;
+import com.google.android.exoplayer2.upstream.ByteArrayDataSource;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Unit tests for {@link Aes128DataSource}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public final class Aes128DataSourceTest {
+
+  private static final int DATA_LENGTH = 100003;
+  private static final DataSpec DATA_SPEC = new DataSpec(Uri.parse("https://test/segment"));
+
+  private byte[] key;
+  private byte[] iv;
+  private byte[] data;
+  private byte[] encryptedData;
+  private Aes128DataSource dataSource;
+
+  @Before
+  public void setUp() throws Exception {
+    key = TestUtil.buildTestData(16, 1);
+    iv = TestUtil.buildTestData(16, 2);
+    data = TestUtil.buildTestData(DATA_LENGTH, 3);
+    // PKCS5 padding is the same as PKCS7 padding for 16 byte blocks.
+    Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+    encryptedData = cipher.doFinal(data);
+    dataSource = new Aes128DataSource(new ByteArrayDataSource(encryptedData), key, iv);
+  }
+
+  @Test
+  public void testReadWithSmallReadLength() throws IOException {
+    assertThat(dataSource.open(DATA_SPEC)).isEqualTo(C.LENGTH_UNSET);
+    assertThat(readToEnd(100)).isEqualTo(data);
+    dataSource.close();
+  }
+
+  @Test
+  public void testReadWithLargeReadLength() throws IOException {
+    dataSource.open(DATA_SPEC);
+    assertThat(readToEnd(64 * 1024)).isEqualTo(data);
+    dataSource.close();
+  }
+
+  @Test
+  public void testReopen() throws IOException {
+    dataSource.open(DATA_SPEC);
+    readToEnd(1000);
+    dataSource.close();
+
+    dataSource.open(DATA_SPEC);
+    assertThat(readToEnd(4096)).isEqualTo(data);
+    dataSource.close();
+  }
+
+  @Test
+  public void testOpenAtOffset() throws IOException {
+    int[] offsets = new int[] {1, 15, 16, 17, 32 * 1024 + 5, DATA_LENGTH - 1, DATA_LENGTH};
+    for (int offset : offsets) {
+      dataSource.open(DATA_SPEC, offset);
+      assertThat(readToEnd(777)).isEqualTo(Arrays.copyOfRange(data, offset, DATA_LENGTH));
+      dataSource.close();
+    }
+  }
+
+  @Test
+  public void testSourcesSharingCipherPool() throws IOException {
+    Aes128DataSource.CipherPool cipherPool = new Aes128DataSource.CipherPool();
+    Aes128DataSource dataSource1 =
+        new Aes128DataSource(new ByteArrayDataSource(encryptedData), cipherPool, key, iv);
+    Aes128DataSource dataSource2 =
+        new Aes128DataSource(new ByteArrayDataSource(encryptedData), cipherPool, key, iv);
+
+    // Sources that are open at the same time must not share a cipher.
+    dataSource1.open(DATA_SPEC);
+    dataSource2.open(DATA_SPEC, 17);
+    byte[] buffer = new byte[1000];
+    assertThat(dataSource1.read(buffer, 0, 1000)).isEqualTo(1000);
+    assertThat(readToEnd(dataSource2, 333)).isEqualTo(Arrays.copyOfRange(data, 17, DATA_LENGTH));
+    dataSource2.close();
+    assertThat(readToEnd(dataSource1, 2048))
+        .isEqualTo(Arrays.copyOfRange(data, 1000, DATA_LENGTH));
+    dataSource1.close();
+
+    // Sources opened one after another reuse the cipher released by the previous one.
+    for (int i = 0; i < 3; i++) {
+      Aes128DataSource source = i % 2 == 0 ? dataSource1 : dataSource2;
+      source.open(DATA_SPEC);
+      assertThat(readToEnd(source, 4096)).isEqualTo(data);
+      source.close();
+    }
+  }
+
+  private byte[] readToEnd(int readLength) throws IOException {
+    return readToEnd(dataSource, readLength);
+  }
+
+  private static byte[] readToEnd(Aes128DataSource dataSource, int readLength)
+      throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    byte[] buffer = new byte[readLength];
+    int bytesRead;
+    while ((bytesRead = dataSource.read(buffer, 0, readLength)) != C.RESULT_END_OF_INPUT) {
+      outputStream.write(buffer, 0, bytesRead);
+    }
+    return outputStream.toByteArray();
+  }
+
+}
@@ -16,15 +16,18 @@
 package com.google.android.exoplayer2.source.hls.playlist;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
 
 import android.net.Uri;
 import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ParserException;
 import com.google.android.exoplayer2.source.hls.playlist.HlsMediaPlaylist.Segment;
 import com.google.android.exoplayer2.util.Util;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.List;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -175,4 +178,219 @@ public class HlsMediaPlaylistParserTest {
     assertThat(playlist.segments.get(2).hasGapTag).isTrue();
     assertThat(playlist.segments.get(3).hasGapTag).isFalse();
   }
+
+  @Test
+  public void testParseLargePlaylist() throws IOException {
+    int segmentCount = 5000;
+    StringBuilder playlistBuilder = new StringBuilder("#EXTM3U\r\n")
+        .append("#EXT-X-VERSION:4\r\n")
+        .append("#EXT-X-TARGETDURATION:3\r\n")
+        .append("#EXT-X-MEDIA-SEQUENCE:100\r\n");
+    for (int i = 0; i < segmentCount; i++) {
+      playlistBuilder.append("#EXTINF:2.5,title\r\n");
+      if (i % 2 == 0) {
+        playlistBuilder.append("#EXT-X-BYTERANGE:1000@").append(i * 1000L).append("\r\n");
+      } else {
+        playlistBuilder.append("#EXT-X-BYTERANGE:1000\r\n");
+      }
+      playlistBuilder.append("segment.ts\r\n");
+    }
+    // A segment whose URI is longer than the parser's initial buffer.
+    char[] longPath = new char[20000];
+    Arrays.fill(longPath, 'a');
+    String longUri = "https://example.com/" + new String(longPath) + ".ts";
+    playlistBuilder.append("#EXTINF:1.5,\r\n").append(longUri).append("\r\n")
+        .append("#EXT-X-ENDLIST\r\n");
+
+    HlsMediaPlaylist playlist = parseMediaPlaylist(playlistBuilder.toString());
+
+    assertThat(playlist.mediaSequence).isEqualTo(100);
+    assertThat(playlist.targetDurationUs).isEqualTo(3000000);
+    assertThat(playlist.hasEndTag).isTrue();
+    assertThat(playlist.segments).hasSize(segmentCount + 1);
+    for (int i = 0; i < segmentCount; i++) {
+      Segment segment = playlist.segments.get(i);
+      assertThat(segment.url).isEqualTo("segment.ts");
+      assertThat(segment.durationUs).isEqualTo(2500000);
+      assertThat(segment.relativeStartTimeUs).isEqualTo(i * 2500000L);
+      assertThat(segment.byterangeOffset).isEqualTo(i * 1000L);
+      assertThat(segment.byterangeLength).isEqualTo(1000);
+    }
+    Segment lastSegment = playlist.segments.get(segmentCount);
+    assertThat(lastSegment.url).isEqualTo(longUri);
+    assertThat(lastSegment.durationUs).isEqualTo(1500000);
+    assertThat(playlist.durationUs).isEqualTo(segmentCount * 2500000L + 1500000);
+  }
+
+  @Test
+  public void testParseKeyAttributes() throws IOException {
+    String playlistString =
+        "#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:5\n"
+            + "#EXT-X-KEY:IV=0x1A2B,KEYFORMATVERSIONS=\"1\","
+            + "URI=\"https://example.com/key?a=1,b=2\",METHOD=AES-128\n"
+            + "#EXTINF:5.005,\n"
+            + "1.ts\n"
+            + "#EXT-X-KEY:METHOD=UNKNOWN,URI=\"https://example.com/key\"\n"
+            + "#EXTINF:5.005,\n"
+            + "2.ts\n";
+
+    HlsMediaPlaylist playlist = parseMediaPlaylist(playlistString);
+
+    Segment segment = playlist.segments.get(0);
+    assertThat(segment.fullSegmentEncryptionKeyUri).isEqualTo("https://example.com/key?a=1,b=2");
+    assertThat(segment.encryptionIV).isEqualTo("0x1A2B");
+    assertThat(playlist.segments.get(1).fullSegmentEncryptionKeyUri).isNull();
+  }
+
+  @Test
+  public void testParsePlaylistWithByteOrderMark() throws IOException {
+    String playlistString =
+        "\uFEFF#EXTM3U\n"
+            + "#EXT-X-TARGETDURATION:5\n"
+            + "#EXTINF:5.005,\n"
+            + "1.ts\n";
+
+    HlsMediaPlaylist playlist = parseMediaPlaylist(playlistString);
+
+    assertThat(playlist.segments).hasSize(1);
+    assertThat(playlist.segments.get(0).url).isEqualTo("1.ts");
+  }
+
+  @Test
+  public void testParseMalformedTagsThrows() throws IOException {
+    String[] malformedTags = new String[] {
+        "#EXTINF:,", "#EXTINF", "#EXT-X-BYTERANGE:@100", "#EXT-X-KEY:METHOD=AES-128"};
+    for (String malformedTag : malformedTags) {
+      String playlistString =
+          "#EXTM3U\n"
+              + "#EXT-X-TARGETDURATION:5\n"
+              + malformedTag + "\n"
+              + "#EXTINF:5.005,\n"
+              + "1.ts\n";
+      try {
+        parseMediaPlaylist(playlistString);
+        fail("Expected exception not thrown for " + malformedTag);
+      } catch (ParserException e) {
+        // Expected.
+      }
+    }
+  }
+
+  @Test
+  public void testParseWithPreviousPlaylistReusesUnchangedSegments() throws IOException {
+    HlsMediaPlaylist previousPlaylist = parseMediaPlaylist(buildLivePlaylist(10, 4));
+
+    HlsMediaPlaylist playlist = parseMediaPlaylist(buildLivePlaylist(10, 5), previousPlaylist);
+
+    assertThat(playlist.segments).hasSize(5);
+    for (int i = 0; i < 4; i++) {
+      assertThat(playlist.segments.get(i)).isSameAs(previousPlaylist.segments.get(i));
+    }
+    assertSegmentsEqual(playlist, parseMediaPlaylist(buildLivePlaylist(10, 5)));
+  }
+
+  @Test
+  public void testParseWithPreviousPlaylistAfterSlidingWindow() throws IOException {
+    HlsMediaPlaylist previousPlaylist = parseMediaPlaylist(buildLivePlaylist(10, 4));
+
+    HlsMediaPlaylist playlist = parseMediaPlaylist(buildLivePlaylist(12, 4), previousPlaylist);
+
+    // The overlapping segments start at different times relative to the start of the playlist, so
+    // new instances are created, but their values are taken from the previous playlist.
+    assertThat(playlist.segments.get(0).url).isSameAs(previousPlaylist.segments.get(2).url);
+    assertThat(playlist.segments.get(0).encryptionIV)
+        .isSameAs(previousPlaylist.segments.get(2).encryptionIV);
+    assertSegmentsEqual(playlist, parseMediaPlaylist(buildLivePlaylist(12, 4)));
+  }
+
+  @Test
+  public void testParseWithPreviousPlaylistAfterSlidingWindowReusesUrls() throws IOException {
+    HlsMediaPlaylist previousPlaylist = parseMediaPlaylist(buildLivePlaylist(10, 4));
+
+    HlsMediaPlaylist playlist = parseMediaPlaylist(buildLivePlaylist(12, 4), previousPlaylist);
+
+    // The URLs of the overlapping segments are the strings of the previous playlist.
+    assertThat(playlist.segments.get(0).url).isSameAs(previousPlaylist.segments.get(2).url);
+    assertThat(playlist.segments.get(1).url).isSameAs(previousPlaylist.segments.get(3).url);
+    assertSegmentsEqual(playlist, parseMediaPlaylist(buildLivePlaylist(12, 4)));
+  }
+
+  @Test
+  public void testParseWithPreviousPlaylistDoesNotReuseExplicitIv() throws IOException {
+    String key = "#EXT-X-KEY:METHOD=AES-128,URI=\"https://example.com/key\"";
+    HlsMediaPlaylist previousPlaylist =
+        parseMediaPlaylist(
+            "#EXTM3U\n#EXT-X-TARGETDURATION:4\n#EXT-X-MEDIA-SEQUENCE:10\n"
+                + key + ",IV=0x1234\n#EXTINF:4.0,\nsegment10.ts\n");
+    String playlistString =
+        "#EXTM3U\n#EXT-X-TARGETDURATION:4\n#EXT-X-MEDIA-SEQUENCE:10\n"
+            + key + "\n#EXTINF:4.0,\nsegment10.ts\n";
+
+    HlsMediaPlaylist playlist = parseMediaPlaylist(playlistString, previousPlaylist);
+
+    // The segment has no IV attribute, so its IV is derived from its media sequence number.
+    assertThat(playlist.segments.get(0).encryptionIV).isEqualTo("a");
+    assertSegmentsEqual(playlist, parseMediaPlaylist(playlistString));
+  }
+
+  @Test
+  public void testParseWithPreviousPlaylistWithChangedSegment() throws IOException {
+    HlsMediaPlaylist previousPlaylist = parseMediaPlaylist(buildLivePlaylist(10, 4));
+    String playlistString = buildLivePlaylist(10, 4).replace("segment11.ts", "replaced11.ts");
+
+    HlsMediaPlaylist playlist = parseMediaPlaylist(playlistString, previousPlaylist);
+
+    assertThat(playlist.segments.get(0)).isSameAs(previousPlaylist.segments.get(0));
+    assertThat(playlist.segments.get(1)).isNotSameAs(previousPlaylist.segments.get(1));
+    assertSegmentsEqual(playlist, parseMediaPlaylist(playlistString));
+  }
+
+  /**
+   * Builds a live playlist with byte ranges and an encryption key that uses IVs derived from the
+   * media sequence numbers of the segments.
+   */
+  private static String buildLivePlaylist(int mediaSequence, int segmentCount) {
+    StringBuilder playlistBuilder = new StringBuilder("#EXTM3U\n")
+        .append("#EXT-X-TARGETDURATION:4\n")
+        .append("#EXT-X-MEDIA-SEQUENCE:").append(mediaSequence).append("\n")
+        .append("#EXT-X-KEY:METHOD=AES-128,URI=\"https://example.com/key\"\n");
+    for (int i = mediaSequence; i < mediaSequence + segmentCount; i++) {
+      playlistBuilder.append("#EXTINF:").append(i % 2 == 0 ? "4.0" : "3.5").append(",\n")
+          .append("#EXT-X-BYTERANGE:").append(100 + i).append("\n")
+          .append("segment").append(i).append(".ts\n");
+    }
+    return playlistBuilder.toString();
+  }
+
+  private static void assertSegmentsEqual(HlsMediaPlaylist actual, HlsMediaPlaylist expected) {
+    assertThat(actual.segments).hasSize(expected.segments.size());
+    for (int i = 0; i < expected.segments.size(); i++) {
+      Segment actualSegment = actual.segments.get(i);
+      Segment expectedSegment = expected.segments.get(i);
+      assertThat(actualSegment.url).isEqualTo(expectedSegment.url);
+      assertThat(actualSegment.durationUs).isEqualTo(expectedSegment.durationUs);
+      assertThat(actualSegment.relativeStartTimeUs).isEqualTo(expectedSegment.relativeStartTimeUs);
+      assertThat(actualSegment.relativeDiscontinuitySequence)
+          .isEqualTo(expectedSegment.relativeDiscontinuitySequence);
+      assertThat(actualSegment.fullSegmentEncryptionKeyUri)
+          .isEqualTo(expectedSegment.fullSegmentEncryptionKeyUri);
+      assertThat(actualSegment.encryptionIV).isEqualTo(expectedSegment.encryptionIV);
+      assertThat(actualSegment.byterangeLength).isEqualTo(expectedSegment.byterangeLength);
+    }
+  }
+
+  private static HlsMediaPlaylist parseMediaPlaylist(String playlistString) throws IOException {
+    return parseMediaPlaylist(playlistString, null);
+  }
+
+  private static HlsMediaPlaylist parseMediaPlaylist(String playlistString,
+      HlsMediaPlaylist previousPlaylist) throws IOException {
+    Uri playlistUri = Uri.parse("https://example.com/test.m3u8");
+    InputStream inputStream =
+        new ByteArrayInputStream(playlistString.getBytes(Charset.forName(C.UTF8_NAME)));
+    return (HlsMediaPlaylist)
+        new HlsPlaylistParser(previousPlaylist).parse(playlistUri, inputStream);
+  }
+
 }
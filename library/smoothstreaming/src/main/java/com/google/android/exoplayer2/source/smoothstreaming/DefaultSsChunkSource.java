@@ -16,6 +16,7 @@
 package com.google.android.exoplayer2.source.smoothstreaming;
 
 import android.net.Uri;
+import android.support.annotation.Nullable;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.SeekParameters;
@@ -26,6 +27,7 @@ import com.google.android.exoplayer2.source.BehindLiveWindowException;
 import com.google.android.exoplayer2.source.chunk.Chunk;
 import com.google.android.exoplayer2.source.chunk.ChunkExtractorWrapper;
 import com.google.android.exoplayer2.source.chunk.ChunkHolder;
+import com.google.android.exoplayer2.source.chunk.ChunkPrefetcher;
 import com.google.android.exoplayer2.source.chunk.ChunkedTrackBlacklistUtil;
 import com.google.android.exoplayer2.source.chunk.ContainerMediaChunk;
 import com.google.android.exoplayer2.source.chunk.MediaChunk;
@@ -47,9 +49,22 @@ public class DefaultSsChunkSource implements SsChunkSource {
   public static final class Factory implements SsChunkSource.Factory {
 
     private final DataSource.Factory dataSourceFactory;
+    private final int maxParallelChunkLoads;
 
     public Factory(DataSource.Factory dataSourceFactory) {
+      this(dataSourceFactory, 1);
+    }
+
+    /**
+     * @param dataSourceFactory A factory for {@link DataSource}s suitable for loading the media
+     *     data.
+     * @param maxParallelChunkLoads The maximum number of chunk requests of each chunk source that
+     *     are in flight at the same time. If greater than one, the data of the chunks following
+     *     the one that's being loaded is prefetched using a {@link ChunkPrefetcher}.
+     */
+    public Factory(DataSource.Factory dataSourceFactory, int maxParallelChunkLoads) {
       this.dataSourceFactory = dataSourceFactory;
+      this.maxParallelChunkLoads = maxParallelChunkLoads;
     }
 
     @Override
@@ -57,8 +72,10 @@ public class DefaultSsChunkSource implements SsChunkSource {
         SsManifest manifest, int elementIndex, TrackSelection trackSelection,
         TrackEncryptionBox[] trackEncryptionBoxes) {
       DataSource dataSource = dataSourceFactory.createDataSource();
+      ChunkPrefetcher chunkPrefetcher = maxParallelChunkLoads > 1
+          ? new ChunkPrefetcher(dataSourceFactory, maxParallelChunkLoads - 1) : null;
       return new DefaultSsChunkSource(manifestLoaderErrorThrower, manifest, elementIndex,
-          trackSelection, dataSource, trackEncryptionBoxes);
+          trackSelection, dataSource, trackEncryptionBoxes, chunkPrefetcher);
     }
 
   }
@@ -68,6 +85,7 @@ public class DefaultSsChunkSource implements SsChunkSource {
   private final TrackSelection trackSelection;
   private final ChunkExtractorWrapper[] extractorWrappers;
   private final DataSource dataSource;
+  @Nullable private final ChunkPrefetcher chunkPrefetcher;
 
   private SsManifest manifest;
   private int currentManifestChunkOffset;
@@ -89,11 +107,35 @@ public class DefaultSsChunkSource implements SsChunkSource {
       TrackSelection trackSelection,
       DataSource dataSource,
       TrackEncryptionBox[] trackEncryptionBoxes) {
+    this(manifestLoaderErrorThrower, manifest, streamElementIndex, trackSelection, dataSource,
+        trackEncryptionBoxes, null);
+  }
+
+  /**
+   * @param manifestLoaderErrorThrower Throws errors affecting loading of manifests.
+   * @param manifest The initial manifest.
+   * @param streamElementIndex The index of the stream element in the manifest.
+   * @param trackSelection The track selection.
+   * @param dataSource A {@link DataSource} suitable for loading the media data.
+   * @param trackEncryptionBoxes Track encryption boxes for the stream.
+   * @param chunkPrefetcher A {@link ChunkPrefetcher} for the data of the chunks that follow the
+   *     one being loaded. May be null if chunks should be loaded one at a time.
+   */
+  public DefaultSsChunkSource(
+      LoaderErrorThrower manifestLoaderErrorThrower,
+      SsManifest manifest,
+      int streamElementIndex,
+      TrackSelection trackSelection,
+      DataSource dataSource,
+      TrackEncryptionBox[] trackEncryptionBoxes,
+      @Nullable ChunkPrefetcher chunkPrefetcher) {
     this.manifestLoaderErrorThrower = manifestLoaderErrorThrower;
     this.manifest = manifest;
     this.streamElementIndex = streamElementIndex;
     this.trackSelection = trackSelection;
-    this.dataSource = dataSource;
+    this.dataSource =
+        chunkPrefetcher != null ? chunkPrefetcher.createDataSource(dataSource) : dataSource;
+    this.chunkPrefetcher = chunkPrefetcher;
 
     StreamElement streamElement = manifest.streamElements[streamElementIndex];
     extractorWrappers = new ChunkExtractorWrapper[trackSelection.length()];
@@ -172,6 +214,12 @@ public class DefaultSsChunkSource implements SsChunkSource {
       return;
     }
 
+    if (previous == null && chunkPrefetcher != null) {
+      // Loading starts from a new position, for example after a seek, so the prefetched chunks
+      // won't be read.
+      chunkPrefetcher.clear();
+    }
+
     StreamElement streamElement = manifest.streamElements[streamElementIndex];
     if (streamElement.chunkCount == 0) {
       // There aren't any chunks for us to load.
@@ -214,6 +262,15 @@ public class DefaultSsChunkSource implements SsChunkSource {
     out.chunk = newMediaChunk(trackSelection.getSelectedFormat(), dataSource, uri, null,
         currentAbsoluteChunkIndex, chunkStartTimeUs, chunkEndTimeUs,
         trackSelection.getSelectionReason(), trackSelection.getSelectionData(), extractorWrapper);
+    if (chunkPrefetcher != null) {
+      // Prefetch the chunks that will follow if the selected track doesn't change.
+      int lastPrefetchChunkIndex = Math.min(chunkIndex + chunkPrefetcher.getMaxPrefetchCount(),
+          streamElement.chunkCount - 1);
+      for (int i = chunkIndex + 1; i <= lastPrefetchChunkIndex; i++) {
+        chunkPrefetcher.prefetch(newDataSpec(streamElement.buildRequestUri(manifestTrackIndex, i),
+            null));
+      }
+    }
   }
 
   @Override
@@ -227,12 +284,19 @@ public class DefaultSsChunkSource implements SsChunkSource {
         trackSelection.indexOf(chunk.trackFormat), e);
   }
 
+  @Override
+  public void release() {
+    if (chunkPrefetcher != null) {
+      chunkPrefetcher.clear();
+    }
+  }
+
   // Private methods.
 
   private static MediaChunk newMediaChunk(Format format, DataSource dataSource, Uri uri,
       String cacheKey, int chunkIndex, long chunkStartTimeUs, long chunkEndTimeUs,
       int trackSelectionReason, Object trackSelectionData, ChunkExtractorWrapper extractorWrapper) {
-    DataSpec dataSpec = new DataSpec(uri, 0, C.LENGTH_UNSET, cacheKey);
+    DataSpec dataSpec = newDataSpec(uri, cacheKey);
     // In SmoothStreaming each chunk contains sample timestamps relative to the start of the chunk.
     // To convert them the absolute timestamps, we need to set sampleOffsetUs to chunkStartTimeUs.
     long sampleOffsetUs = chunkStartTimeUs;
@@ -241,6 +305,10 @@ public class DefaultSsChunkSource implements SsChunkSource {
         extractorWrapper);
   }
 
+  private static DataSpec newDataSpec(Uri uri, String cacheKey) {
+    return new DataSpec(uri, 0, C.LENGTH_UNSET, cacheKey);
+  }
+
   private long resolveTimeToLiveEdgeUs(long playbackPositionUs) {
     if (!manifest.isLive) {
       return C.TIME_UNSET;
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2018 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.exoplayer2.testutil;
+
+import android.net.Uri;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.source.chunk.MediaChunkIterator;
+import com.google.android.exoplayer2.trackselection.TrackSelection;
+import com.google.android.exoplayer2.upstream.DataSpec;
+import com.google.android.exoplayer2.upstream.TransferListener;
+import com.google.android.exoplayer2.util.Assertions;
+
+/**
+ * Simulates the playback of an adaptive stream over a network whose throughput follows a recorded
+ * trace, so that the outcomes of bandwidth estimators and track selections can be compared.
+ * <p>
+ * The chunks of a {@link FakeAdaptiveDataSet} are loaded one at a time. Before each chunk is loaded
+ * the {@link TrackSelection} selects the track, given a {@link FakeAdaptiveDataSet.Iterator} over
+ * the upcoming chunks of each track, and the chunk of the selected track is transferred
+ * at the throughput of the trace, so chunks of variable size are simulated faithfully. The transfer
+ * is reported to a {@link TransferListener} (typically a bandwidth meter) in small steps, while
+ * the simulator's {@link FakeClock} advances and the buffer drains. Loading pauses while the
+ * buffer is full. Simulated time is measured by the clock returned by {@link #getClock()}, which
+ * should be used by the bandwidth meter and track selection under test.
+ */
+public final class BandwidthTraceSimulator {
+
+  /**
+   * The outcome of a simulation.
+   */
+  public static final class Result {
+
+    /**
+     * The average bitrate of the loaded chunks, in bits per second.
+     */
+    public final long averageBitrate;
+    /**
+     * The number of times the selected bitrate changed between consecutive chunks.
+     */
+    public final int switchCount;
+    /**
+     * The number of times playback stalled after it started.
+     */
+    public final int rebufferCount;
+    /**
+     * The time spent rebuffering after playback started, in milliseconds.
+     */
+    public final long rebufferTimeMs;
+
+    private Result(long averageBitrate, int switchCount, int rebufferCount, long rebufferTimeMs) {
+      this.averageBitrate = averageBitrate;
+      this.switchCount = switchCount;
+      this.rebufferCount = rebufferCount;
+      this.rebufferTimeMs = rebufferTimeMs;
+    }
+
+    @Override
+    public String toString() {
+      return "averageBitrate=" + averageBitrate + ", switchCount=" + switchCount
+          + ", rebufferCount=" + rebufferCount + ", rebufferTimeMs=" + rebufferTimeMs;
+    }
+
+  }
+
+  private static final int STEP_MS = 50;
+  private static final DataSpec DATA_SPEC = new DataSpec(Uri.parse("https://test/chunk"));
+
+  private final long[] traceBitrates;
+  private final int traceIntervalMs;
+  private final long maxBufferDurationMs;
+  private final FakeClock clock;
+
+  private boolean playing;
+  private long playbackPositionMs;
+  private long bufferedDurationMs;
+  private boolean rebuffering;
+  private int rebufferCount;
+  private long rebufferTimeMs;
+
+  /**
+   * @param traceBitrates The throughput of the network in each interval of the trace, in bits per
+   *     second. The trace is repeated if the simulation outlasts it.
+   * @param traceIntervalMs The duration of each interval of the trace, in milliseconds.
+   * @param maxBufferDurationMs The duration of media after which loading pauses, in milliseconds.
+   */
+  public BandwidthTraceSimulator(long[] traceBitrates, int traceIntervalMs,
+      long maxBufferDurationMs) {
+    Assertions.checkArgument(traceBitrates.length > 0);
+    this.traceBitrates = traceBitrates;
+    this.traceIntervalMs = traceIntervalMs;
+    this.maxBufferDurationMs = maxBufferDurationMs;
+    clock = new FakeClock(0);
+  }
+
+  /**
+   * Returns the clock that measures simulated time.
+   */
+  public FakeClock getClock() {
+    return clock;
+  }
+
+  /**
+   * Runs the simulation. May only be called once.
+   *
+   * @param trackSelection The {@link TrackSelection} that selects the track of each chunk.
+   * @param transferListener The listener to which the chunk transfers are reported.
+   * @param dataSet The {@link FakeAdaptiveDataSet} whose chunks are loaded. Must have been created
+   *     for the track group of {@code trackSelection}.
+   * @return The {@link Result} of the simulation.
+   */
+  public Result simulate(TrackSelection trackSelection, TransferListener<Object> transferListener,
+      FakeAdaptiveDataSet dataSet) {
+    Assertions.checkState(!playing);
+    long totalBitrate = 0;
+    int switchCount = 0;
+    int previousBitrate = 0;
+    int chunkCount = dataSet.getChunkCount();
+    for (int i = 0; i < chunkCount; i++) {
+      MediaChunkIterator[] chunkIterators = new MediaChunkIterator[trackSelection.length()];
+      for (int j = 0; j < chunkIterators.length; j++) {
+        chunkIterators[j] =
+            new FakeAdaptiveDataSet.Iterator(dataSet, trackSelection.getIndexInTrackGroup(j), i);
+      }
+      trackSelection.updateSelectedTrack(playbackPositionMs * 1000, bufferedDurationMs * 1000,
+          C.TIME_UNSET, chunkIterators);
+      int bitrate = trackSelection.getSelectedFormat().bitrate;
+      if (i > 0 && bitrate != previousBitrate) {
+        switchCount++;
+      }
+      previousBitrate = bitrate;
+      totalBitrate += bitrate;
+      String uri = dataSet.getUri(trackSelection.getSelectedIndexInTrackGroup());
+      loadChunk(transferListener, dataSet.getData(uri).getSegments().get(i).length);
+      bufferedDurationMs += dataSet.getChunkDuration(i) / 1000;
+      rebuffering = false;
+      playing = true;
+      if (bufferedDurationMs > maxBufferDurationMs) {
+        advanceTime(bufferedDurationMs - maxBufferDurationMs);
+      }
+    }
+    return new Result(chunkCount > 0 ? totalBitrate / chunkCount : 0, switchCount, rebufferCount,
+        rebufferTimeMs);
+  }
+
+  private void loadChunk(TransferListener<Object> transferListener, long chunkBytes) {
+    transferListener.onTransferStart(null, DATA_SPEC);
+    long bytesRemaining = chunkBytes;
+    while (bytesRemaining > 0) {
+      long throughput = traceBitrates[(int) ((clock.elapsedRealtime() / traceIntervalMs)
+          % traceBitrates.length)];
+      long stepBytes = (throughput * STEP_MS) / 8000;
+      if (stepBytes == 0) {
+        // The network is down.
+        advanceTime(STEP_MS);
+        continue;
+      }
+      long stepMs = STEP_MS;
+      if (stepBytes > bytesRemaining) {
+        stepBytes = bytesRemaining;
+        stepMs = Math.max(1, (bytesRemaining * 8000 + throughput - 1) / throughput);
+      }
+      advanceTime(stepMs);
+      transferListener.onBytesTransferred(null, (int) stepBytes);
+      bytesRemaining -= stepBytes;
+    }
+    transferListener.onTransferEnd(null);
+  }
+
+  private void advanceTime(long timeMs) {
+    clock.advanceTime(timeMs);
+    if (playing) {
+      long playedTimeMs = Math.min(timeMs, bufferedDurationMs);
+      playbackPositionMs += playedTimeMs;
+      bufferedDurationMs -= playedTimeMs;
+      if (playedTimeMs < timeMs) {
+        rebufferTimeMs += timeMs - playedTimeMs;
+        if (!rebuffering) {
+          rebuffering = true;
+          rebufferCount++;
+        }
+      }
+    }
+  }
+
+}
@@ -15,9 +15,13 @@
  */
 package com.google.android.exoplayer2.testutil;
 
+import android.net.Uri;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.source.TrackGroup;
+import com.google.android.exoplayer2.source.chunk.BaseMediaChunkIterator;
+import com.google.android.exoplayer2.source.chunk.MediaChunkIterator;
+import com.google.android.exoplayer2.upstream.DataSpec;
 import java.util.Random;
 
 /**
@@ -31,10 +35,11 @@ public final class FakeAdaptiveDataSet extends FakeDataSet {
    */
   public static final class Factory {
 
-    private static final Random random = new Random();
+    private static final Random sharedRandom = new Random();
 
     private final long chunkDurationUs;
     private final double bitratePercentStdDev;
+    private final Random random;
 
     /**
      * Set up factory for {@link FakeAdaptiveDataSet}s with a chunk duration and the standard
@@ -46,8 +51,24 @@ public final class FakeAdaptiveDataSet extends FakeDataSet {
      *     percent (of the average size).
      */
     public Factory(long chunkDurationUs, double bitratePercentStdDev) {
+      this(chunkDurationUs, bitratePercentStdDev, sharedRandom);
+    }
+
+    /**
+     * Set up factory for {@link FakeAdaptiveDataSet}s with a chunk duration, the standard deviation
+     * of the chunk size and the {@link Random} instance used to generate the chunk sizes.
+     *
+     * @param chunkDurationUs The chunk duration to use in microseconds.
+     * @param bitratePercentStdDev The standard deviation used to generate the chunk sizes centered
+     *     around the average bitrate of the {@link Format}s. The standard deviation is given in
+     *     percent (of the average size).
+     * @param random A {@link Random} instance used to generate random chunk sizes. Pass an instance
+     *     with a fixed seed to create reproducible data sets.
+     */
+    public Factory(long chunkDurationUs, double bitratePercentStdDev, Random random) {
       this.chunkDurationUs = chunkDurationUs;
       this.bitratePercentStdDev = bitratePercentStdDev;
+      this.random = random;
     }
 
     /**
@@ -63,6 +84,52 @@ public final class FakeAdaptiveDataSet extends FakeDataSet {
 
   }
 
+  /**
+   * {@link MediaChunkIterator} for the chunks defined by a fake adaptive data set.
+   */
+  public static final class Iterator extends BaseMediaChunkIterator {
+
+    private final FakeAdaptiveDataSet dataSet;
+    private final int trackGroupIndex;
+
+    /**
+     * Create iterator.
+     *
+     * @param dataSet The data set to iterate over.
+     * @param trackGroupIndex The index of the track group to iterate over.
+     * @param chunkIndex The chunk index to which the iterator points initially.
+     */
+    public Iterator(FakeAdaptiveDataSet dataSet, int trackGroupIndex, int chunkIndex) {
+      super(/* fromIndex= */ chunkIndex, /* toIndex= */ dataSet.getChunkCount() - 1);
+      this.dataSet = dataSet;
+      this.trackGroupIndex = trackGroupIndex;
+    }
+
+    @Override
+    public DataSpec getDataSpec() {
+      checkInBounds();
+      String uri = dataSet.getUri(trackGroupIndex);
+      int chunkIndex = (int) getCurrentIndex();
+      FakeData.Segment fakeDataChunk = dataSet.getData(uri).getSegments().get(chunkIndex);
+      return new DataSpec(
+          Uri.parse(uri), fakeDataChunk.byteOffset, fakeDataChunk.length, /* key= */ null);
+    }
+
+    @Override
+    public long getChunkStartTimeUs() {
+      checkInBounds();
+      return dataSet.getStartTime((int) getCurrentIndex());
+    }
+
+    @Override
+    public long getChunkEndTimeUs() {
+      checkInBounds();
+      int chunkIndex = (int) getCurrentIndex();
+      return dataSet.getStartTime(chunkIndex) + dataSet.getChunkDuration(chunkIndex);
+    }
+
+  }
+
   private final int chunkCount;
   private final long chunkDurationUs;
   private final long lastChunkDurationUs;
@@ -131,4 +131,9 @@ public final class FakeChunkSource implements ChunkSource {
     return false;
   }
 
+  @Override
+  public void release() {
+    // Do nothing.
+  }
+
 }
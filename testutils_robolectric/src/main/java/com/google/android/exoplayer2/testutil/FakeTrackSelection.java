@@ -21,6 +21,7 @@ import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.Format;
 import com.google.android.exoplayer2.source.TrackGroup;
 import com.google.android.exoplayer2.source.chunk.MediaChunk;
+import com.google.android.exoplayer2.source.chunk.MediaChunkIterator;
 import com.google.android.exoplayer2.trackselection.TrackSelection;
 import java.util.List;
 
@@ -123,6 +124,12 @@ public final class FakeTrackSelection implements TrackSelection {
     assertThat(isEnabled).isTrue();
   }
 
+  @Override
+  public void updateSelectedTrack(long playbackPositionUs, long bufferedDurationUs,
+      long availableDurationUs, MediaChunkIterator[] mediaChunkIterators) {
+    assertThat(isEnabled).isTrue();
+  }
+
   @Override
   public int evaluateQueueSize(long playbackPositionUs, List<? extends MediaChunk> queue) {
     assertThat(isEnabled).isTrue();